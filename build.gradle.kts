@@ -17,6 +17,7 @@ val website = "https://github.com/norswap/${project.name}"
 val vcs = "https://github.com/norswap/${project.name}.git"
 
 sourceSets.main.get().java.srcDir("src")
+sourceSets.main.get().resources.srcDir("resources")
 sourceSets.test.get().java.srcDir("test")
 
 java {
@@ -0,0 +1,193 @@
+package norswap.sigh;
+
+/**
+ * Limits the number of steps a Sigh program can take and the memory it can allocate, and allows
+ * cancelling it from another thread. Both the {@link norswap.sigh.interpreter.Interpreter} and the
+ * code generated by the {@link norswap.sigh.bytecode.BytecodeCompiler} call {@link #tick} at every
+ * loop iteration and function entry, so that a program that runs forever eventually throws a
+ * {@link BudgetException}. They also call {@link #allocate} before allocating arrays, sets,
+ * structures and concatenated strings.
+ *
+ * <p>Fuel is handed out in slices of {@link #SLICE} steps, so that {@link #tick} is usually a
+ * single decrement and test of a plain field. The cancellation flag and the remaining fuel are
+ * only looked at when a slice runs out: a cancelled program stops within {@link #SLICE} steps.
+ *
+ * <p>Allocated memory is an approximation (see the size estimates below) of the cumulated size of
+ * the values allocated by the program, regardless of whether they are still reachable.
+ *
+ * <p>A budget must only be used by one thread at a time, but can be cancelled from any thread.
+ * Each concurrently running program should have its own budget.
+ */
+public final class Budget
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum number of steps taken between two checks of the cancellation flag. */
+    public static final int SLICE = 1024;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Total number of steps allowed. */
+    public final long fuel;
+
+    /** Number of bytes that may be allocated. */
+    public final long memory;
+
+    /** Number of bytes allocated so far. */
+    private long allocated;
+
+    /** Steps not yet handed out to {@link #slice}. */
+    private long remaining;
+
+    /** Steps left in the current slice. */
+    private int slice;
+
+    private volatile boolean cancelled;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a budget allowing {@code fuel} steps, and the allocation of {@code memory} bytes.
+     */
+    public Budget (long fuel, long memory) {
+        if (fuel < 0) throw new IllegalArgumentException("negative fuel: " + fuel);
+        if (memory < 0) throw new IllegalArgumentException("negative memory: " + memory);
+        this.fuel = fuel;
+        this.memory = memory;
+        this.remaining = fuel;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a budget allowing {@code fuel} steps, and unlimited allocations.
+     */
+    public Budget (long fuel) {
+        this(fuel, Long.MAX_VALUE);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a budget with (practically) unlimited steps and allocations, which can still be
+     * cancelled.
+     */
+    public static Budget unlimited() {
+        return new Budget(Long.MAX_VALUE);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Consumes one step, throwing a {@link BudgetException} if the budget is exhausted or was
+     * cancelled.
+     */
+    public void tick() {
+        if (--slice < 0)
+            refill();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void refill() {
+        slice = 0;
+        if (cancelled)
+            throw new BudgetException(this, BudgetException.Reason.CANCELLED);
+        if (remaining == 0)
+            throw new BudgetException(this, BudgetException.Reason.FUEL);
+        int steps = (int) Math.min(remaining, SLICE);
+        remaining -= steps;
+        slice = steps - 1; // the current step
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Accounts for the allocation of {@code bytes} bytes, throwing a {@link BudgetException} if
+     * that exceeds the memory budget. Called before the allocation takes place.
+     */
+    public void allocate (long bytes) {
+        allocated += bytes;
+        if (allocated > memory || allocated < 0) // overflow
+            throw new BudgetException(this, BudgetException.Reason.MEMORY);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of bytes allocated so far (including the allocation that exceeded the
+     * budget, if any).
+     */
+    public long allocated() {
+        return allocated;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Requests the program using this budget to stop. Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@link #cancel} was called.
+     */
+    public boolean cancelled() {
+        return cancelled;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of steps taken so far. Must be called from the thread that ticks the
+     * budget, or after the program stopped.
+     */
+    public long used() {
+        return fuel - remaining - slice;
+    }
+
+    // =============================================================================================
+    // region [Size Estimates]
+    // =============================================================================================
+
+    /** Approximate size of an object header, in bytes. */
+    private static final int HEADER = 16;
+
+    /** Approximate size of an array element or object field, in bytes. */
+    private static final int SLOT = 8;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Approximate size of an array of the given length, in bytes. */
+    public static long arrayBytes (long length) {
+        return HEADER + SLOT * length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Approximate size of an object with the given number of fields, in bytes. */
+    public static long objectBytes (int fields) {
+        return HEADER + (long) SLOT * fields;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Approximate size of a string of the given length and its array of chars, in bytes. */
+    public static long stringBytes (long length) {
+        return objectBytes(2) + HEADER + 2 * length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Approximate size of a hash map with the given number of entries, in bytes. */
+    public static long mapBytes (int entries) {
+        return objectBytes(6) + arrayBytes(Math.max(16, 2 * entries)) + entries * objectBytes(4);
+    }
+
+    // endregion
+    // ---------------------------------------------------------------------------------------------
+}
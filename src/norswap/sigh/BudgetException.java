@@ -0,0 +1,38 @@
+package norswap.sigh;
+
+/**
+ * Thrown (to the user of the interpreter or of the compiled code) when a Sigh program exhausts
+ * its {@link Budget} or when the budget is cancelled.
+ */
+public final class BudgetException extends RuntimeException {
+
+    /** Why the program was stopped. */
+    public enum Reason {
+        /** The program took more steps than allowed by {@link Budget#fuel}. */
+        FUEL,
+        /** The program allocated more memory than allowed by {@link Budget#memory}. */
+        MEMORY,
+        /** {@link Budget#cancel} was called. */
+        CANCELLED
+    }
+
+    public final Budget budget;
+    public final Reason reason;
+
+    public BudgetException (Budget budget, Reason reason) {
+        super(message(budget, reason));
+        this.budget = budget;
+        this.reason = reason;
+    }
+
+    private static String message (Budget budget, Reason reason) {
+        switch (reason) {
+            case FUEL:
+                return "execution exceeded its budget of " + budget.fuel + " steps";
+            case MEMORY:
+                return "execution exceeded its memory budget of " + budget.memory + " bytes";
+            default:
+                return "execution cancelled";
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package norswap.sigh;
+
+import norswap.sigh.ast.AssignmentNode;
+import norswap.sigh.ast.BinaryExpressionNode;
+import norswap.sigh.ast.BinaryOperator;
+import norswap.sigh.ast.ExpressionNode;
+import norswap.sigh.ast.ParenthesizedNode;
+import norswap.sigh.ast.ReferenceNode;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.ast.VarDeclarationNode;
+import norswap.sigh.types.StringType;
+import norswap.uranium.Reactor;
+import norswap.utils.visitors.ReflectiveFieldWalker;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
+
+/**
+ * Recognizes string concatenation chains such as {@code a + ", " + b + "!"}, which the backends
+ * evaluate in a single pass over their operands, appending them to a single pre-sized builder
+ * instead of creating an intermediate string for every {@code +}.
+ *
+ * <p>A concatenation is an addition where at least one side is a string. Since concatenation is
+ * associative, and converting an operand to a string has no side effects, the chain can be
+ * flattened through nested concatenations and parentheses, as long as the operands are evaluated
+ * in source order.
+ */
+public final class Concatenation
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private Concatenation () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the node is a string concatenation.
+     */
+    public static boolean isConcatenation (Reactor reactor, ExpressionNode node)
+    {
+        if (!(node instanceof BinaryExpressionNode))
+            return false;
+        BinaryExpressionNode binary = (BinaryExpressionNode) node;
+        return binary.operator == BinaryOperator.ADD
+            && (reactor.get(binary.left, "type") instanceof StringType
+                || reactor.get(binary.right, "type") instanceof StringType);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the operands of the concatenation chain rooted at the node, in evaluation order. If
+     * the node is not a concatenation, returns a list containing only the node itself (stripped
+     * of its parentheses).
+     */
+    public static List<ExpressionNode> operands (Reactor reactor, ExpressionNode node) {
+        ArrayList<ExpressionNode> operands = new ArrayList<>();
+        collect(reactor, node, operands);
+        return operands;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If the assignment appends to a string variable ({@code s = s + a + b}, where the chain
+     * starts with the variable being assigned), returns the appended operands ({@code a} and
+     * {@code b}). Returns null otherwise.
+     *
+     * <p>The backends store the value of such variables as a {@link Rope}.
+     */
+    public static List<ExpressionNode> appendedOperands (Reactor reactor, AssignmentNode node)
+    {
+        if (!(node.left instanceof ReferenceNode) || !isConcatenation(reactor, node.right))
+            return null;
+        Object decl = reactor.get(node.left, "decl");
+        if (!(decl instanceof VarDeclarationNode)
+                || !(reactor.get(node.left, "type") instanceof StringType))
+            return null;
+        List<ExpressionNode> operands = operands(reactor, node.right);
+        ExpressionNode first = operands.get(0);
+        if (!(first instanceof ReferenceNode) || reactor.get(first, "decl") != decl)
+            return null;
+        return operands.subList(1, operands.size());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the declarations of the variables that are appended to (see {@link
+     * #appendedOperands}) in the given tree.
+     */
+    public static Set<VarDeclarationNode> appendTargets (Reactor reactor, SighNode root)
+    {
+        HashSet<VarDeclarationNode> targets = new HashSet<>();
+        ReflectiveFieldWalker<SighNode> walker = new ReflectiveFieldWalker<>(SighNode.class,
+            PRE_VISIT);
+        walker.register(AssignmentNode.class, PRE_VISIT, node -> {
+            if (appendedOperands(reactor, node) != null)
+                targets.add(reactor.get(node.left, "decl"));
+        });
+        walker.walk(root);
+        return targets;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void collect (Reactor reactor, ExpressionNode node, List<ExpressionNode> out)
+    {
+        if (node instanceof ParenthesizedNode) {
+            collect(reactor, ((ParenthesizedNode) node).expression, out);
+        } else if (isConcatenation(reactor, node)) {
+            collect(reactor, ((BinaryExpressionNode) node).left, out);
+            collect(reactor, ((BinaryExpressionNode) node).right, out);
+        } else {
+            out.add(node);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
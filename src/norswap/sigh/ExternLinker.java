@@ -0,0 +1,166 @@
+package norswap.sigh;
+
+import norswap.sigh.ast.ExternFunDeclarationNode;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.BoolType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.FunType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.StringType;
+import norswap.sigh.types.Type;
+import norswap.sigh.types.VoidType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Links the functions declared with {@code extern} (see {@link ExternFunDeclarationNode}) to the
+ * Java static methods that implement them. This happens during semantic analysis, which stores
+ * the method in the {@code method} attribute of the declaration.
+ *
+ * <p>The signature of the method must match the type of the function, following the data
+ * representation of the compiled code: {@code Int}, {@code Float}, {@code Bool}, {@code String}
+ * and {@code Void} map to {@code long}, {@code double}, {@code boolean}, {@link String} and
+ * {@code void}, and arrays of those (except {@code Void}) map to Java arrays of the component
+ * type. The compiled code calls the method with {@code INVOKESTATIC} and passes arrays as is,
+ * without copying them.
+ *
+ * <p>Since the program chooses the methods it calls, a linker only binds the methods allowed by
+ * the host that runs the program (see {@link #ExternLinker(Collection)}). The default linker
+ * ({@link #NONE}) rejects every extern function.
+ */
+public final class ExternLinker
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A linker that doesn't allow any method, used by default by {@link SemanticAnalysis}.
+     */
+    public static final ExternLinker NONE = new ExternLinker(Collections.emptySet());
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The allowed classes and methods, see {@link #ExternLinker(Collection)}. */
+    private final Set<String> allowed;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a linker that binds extern functions to the methods allowed by the given entries,
+     * and rejects all other methods. Each entry is either the binary name of a class, which allows
+     * all its public static methods, or the binary name of a class followed by the name of a
+     * method, dot-separated, which allows all the overloads of that method (e.g. {@code
+     * "java.lang.Math"} or {@code "java.lang.Math.sqrt"}).
+     *
+     * <p>Only list methods that are safe to call from the programs (not {@code
+     * java.lang.System.exit}, for instance).
+     */
+    public ExternLinker (Collection<String> allowed) {
+        this.allowed = new HashSet<>(allowed);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the method with the given name in the class with the given binary name is allowed.
+     */
+    public boolean allows (String className, String methodName) {
+        return allowed.contains(className) || allowed.contains(className + "." + methodName);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lists the allowed classes and methods, in a stable order.
+     */
+    @Override public String toString () {
+        return new TreeSet<>(allowed).toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the Java type of the values of the given Sigh type in the signature of a method
+     * implementing an extern function, or null if the type cannot be used in such signatures.
+     */
+    public static Class<?> javaType (Type type)
+    {
+        if (type instanceof IntType)    return long.class;
+        if (type instanceof FloatType)  return double.class;
+        if (type instanceof BoolType)   return boolean.class;
+        if (type instanceof StringType) return String.class;
+        if (type instanceof VoidType)   return void.class;
+        if (type instanceof ArrayType) {
+            Type component = ((ArrayType) type).componentType;
+            if (component instanceof IntType)    return long[].class;
+            if (component instanceof FloatType)  return double[].class;
+            if (component instanceof BoolType)   return boolean[].class;
+            if (component instanceof StringType) return String[].class;
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the public static method of a public class designated by {@code target} (the binary
+     * name of the class followed by the name of the method, dot-separated), whose signature
+     * matches the function type.
+     *
+     * @throws IllegalArgumentException if there is no such method, or if it isn't allowed (see
+     * {@link #allows}), with a message describing why.
+     */
+    public Method resolve (String target, FunType type)
+    {
+        int dot = target.lastIndexOf('.');
+        if (dot <= 0 || dot == target.length() - 1)
+            throw new IllegalArgumentException(
+                "extern target must be of the form package.Class.method: " + target);
+        String className = target.substring(0, dot);
+        String methodName = target.substring(dot + 1);
+        if (!allows(className, methodName))
+            throw new IllegalArgumentException("extern target not allowed: " + target);
+
+        Class<?>[] params = new Class<?>[type.paramTypes.length];
+        for (int i = 0; i < params.length; ++i) {
+            params[i] = javaType(type.paramTypes[i]);
+            if (params[i] == null || params[i] == void.class)
+                throw new IllegalArgumentException(
+                    "unsupported parameter type for extern function: " + type.paramTypes[i]);
+        }
+        Class<?> result = javaType(type.returnType);
+        if (result == null)
+            throw new IllegalArgumentException(
+                "unsupported return type for extern function: " + type.returnType);
+
+        Method method;
+        try {
+            method = Class.forName(className, false, ExternLinker.class.getClassLoader())
+                .getMethod(methodName, params);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("extern class not found: " + className);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("no public method matching " + type + " in "
+                + target);
+        }
+
+        // a static method inherited from a superclass must be allowed in its own right
+        if (!allows(method.getDeclaringClass().getName(), methodName))
+            throw new IllegalArgumentException("extern target not allowed: " + target);
+        if (!Modifier.isStatic(method.getModifiers()))
+            throw new IllegalArgumentException("extern method is not static: " + target);
+        if (!Modifier.isPublic(method.getDeclaringClass().getModifiers()))
+            throw new IllegalArgumentException("extern class is not public: " + className);
+        if (method.getReturnType() != result)
+            throw new IllegalArgumentException(String.format(
+                "extern method %s returns %s, expected %s", target,
+                method.getReturnType().getName(), result.getName()));
+        return method;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
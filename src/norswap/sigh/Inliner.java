@@ -0,0 +1,436 @@
+package norswap.sigh;
+
+import norswap.sigh.ast.*;
+import norswap.sigh.scopes.OverloadIndex;
+import norswap.sigh.scopes.RootScope;
+import norswap.sigh.scopes.Scope;
+import norswap.sigh.types.Type;
+import norswap.uranium.Reactor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An AST-level pass that replaces calls to small, non-recursive functions by their bodies.
+ *
+ * <p>Must be run on a tree that went through {@link SemanticAnalysis} without errors, before
+ * handing the tree to the interpreter or to the bytecode compiler. The pass rewrites the tree in
+ * place (see {@link SighNode#replaceChild}), replacing each eligible {@link FunCallNode} with an
+ * {@link InlinedCallNode}, and sets the attributes of the nodes it creates in the reactor, so that
+ * both backends can run the result as though it had been analyzed.
+ *
+ * <p>A function is eligible for inlining if:
+ * <ul>
+ * <li>It is a {@link FunDeclarationNode} called directly by name (class methods, templates and
+ * overloaded functions are left alone).</li>
+ * <li>Its body consists of a single {@code return} statement whose expression is made of at most
+ * {@link #budget} nodes.</li>
+ * <li>That expression does not refer to the function itself, and only refers to the function's
+ * parameters and to declarations of the root scope.</li>
+ * </ul>
+ *
+ * <p>Inlining is hygienic: the references in the inlined body keep the declaration they were
+ * resolved to by semantic analysis, and parameters are bound under fresh names containing a
+ * {@code $}, which cannot appear in a Sigh identifier. Literal arguments are substituted directly,
+ * and so are references when neither the body nor the arguments that follow them have side
+ * effects (otherwise the variable could be read after being modified). Other arguments are bound
+ * once, in order.
+ *
+ * <p>Inlining is a single level deep: calls inside an inlined body are not themselves inlined.
+ */
+public final class Inliner
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Default maximum number of nodes in the expression of an inlined function.
+     */
+    public static final int DEFAULT_BUDGET = 16;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Reactor reactor;
+
+    /**
+     * Maximum number of nodes in the expression of an inlined function. A budget of 0 disables
+     * inlining.
+     */
+    public final int budget;
+
+    /** Maps eligible functions to the expression they return, or to null if not eligible. */
+    private final HashMap<FunDeclarationNode, ExpressionNode> candidates = new HashMap<>();
+
+    /** The functions of the program being rewritten, used to exclude overloaded functions. */
+    private OverloadIndex overloads = new OverloadIndex();
+
+    /** Counter used to generate fresh names. */
+    private int freshCounter = 0;
+
+    /** Number of calls inlined so far. */
+    private int inlined = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Inliner (Reactor reactor) {
+        this(reactor, DEFAULT_BUDGET);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Inliner (Reactor reactor, int budget) {
+        this.reactor = reactor;
+        this.budget = budget;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Inlines eligible calls in the tree rooted at {@code root}, and returns the number of call
+     * sites that were inlined.
+     */
+    public int inline (SighNode root) {
+        if (root instanceof RootNode)
+            overloads = reactor.get(root, "overloads");
+        if (budget > 0)
+            rewrite(root);
+        return inlined;
+    }
+
+    // =============================================================================================
+    // region [Tree Rewriting]
+    // =============================================================================================
+
+    /**
+     * Rewrites all children of the node (reflectively, like {@link SighNode#equals}), then
+     * returns either the node itself or the node that replaces it.
+     */
+    private SighNode rewrite (SighNode node)
+    {
+        for (Field field: node.getClass().getFields()) {
+            if (Modifier.isStatic(field.getModifiers()))
+                continue;
+
+            Object value = read(field, node);
+
+            if (value instanceof SighNode)
+                rewriteChild(node, (SighNode) value);
+            else if (value instanceof List)
+                // copy: the children are replaced in the list
+                for (Object item: new ArrayList<>((List<?>) value))
+                    if (item instanceof SighNode)
+                        rewriteChild(node, (SighNode) item);
+        }
+
+        return node instanceof FunCallNode
+            ? inlineCall((FunCallNode) node)
+            : node;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void rewriteChild (SighNode parent, SighNode child) {
+        SighNode replacement = rewrite(child);
+        if (replacement != child)
+            parent.replaceChild(child, replacement);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object read (Field field, SighNode node) {
+        try {
+            return field.get(node);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Candidates]
+    // =============================================================================================
+
+    /**
+     * Returns the expression returned by the function, if it is eligible for inlining, or null.
+     */
+    private ExpressionNode candidate (FunDeclarationNode decl)
+    {
+        if (candidates.containsKey(decl))
+            return candidates.get(decl);
+
+        ExpressionNode result = null;
+        List<StatementNode> statements = decl.block.statements;
+
+        if (statements.size() == 1
+                && statements.get(0) instanceof ReturnNode
+                && ((ReturnNode) statements.get(0)).expression != null
+                && !overloads.isOverloaded(decl)) {
+            ExpressionNode expression = ((ReturnNode) statements.get(0)).expression;
+            int size = size(decl, expression);
+            if (size >= 0 && size <= budget)
+                result = expression;
+        }
+
+        candidates.put(decl, result);
+        return result;
+    }
+
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of nodes in the expression returned by {@code decl}, or -1 if the
+     * expression contains a node that precludes inlining.
+     */
+    private int size (FunDeclarationNode decl, ExpressionNode node)
+    {
+        if (node instanceof IntLiteralNode
+                || node instanceof FloatLiteralNode
+                || node instanceof StringLiteralNode)
+            return 1;
+
+        if (node instanceof ReferenceNode) {
+            DeclarationNode target = reactor.get(node, "decl");
+            Scope scope = reactor.get(node, "scope");
+            return target != decl && (scope instanceof RootScope || scope.node == decl) ? 1 : -1;
+        }
+
+        if (node instanceof ParenthesizedNode)
+            return plus(1, size(decl, ((ParenthesizedNode) node).expression));
+
+        if (node instanceof UnaryExpressionNode)
+            return plus(1, size(decl, ((UnaryExpressionNode) node).operand));
+
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            return plus(1, plus(size(decl, binary.left), size(decl, binary.right)));
+        }
+
+        if (node instanceof FieldAccessNode)
+            return plus(1, size(decl, ((FieldAccessNode) node).stem));
+
+        if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            return plus(1, plus(size(decl, access.array), size(decl, access.index)));
+        }
+
+        if (node instanceof ArrayLiteralNode) {
+            List<ExpressionNode> components = ((ArrayLiteralNode) node).components;
+            if (components.isEmpty()) return -1; // typed from its context
+            int size = 1;
+            for (ExpressionNode component: components)
+                size = plus(size, size(decl, component));
+            return size;
+        }
+
+        if (node instanceof ConstructorNode)
+            return size(decl, ((ConstructorNode) node).ref);
+
+        if (node instanceof FunCallNode) {
+            FunCallNode call = (FunCallNode) node;
+            if (!(call.function instanceof ReferenceNode || call.function instanceof ConstructorNode))
+                return -1;
+            int size = plus(1, size(decl, call.function));
+            for (ExpressionNode argument: call.arguments)
+                size = plus(size, size(decl, argument));
+            return size;
+        }
+
+        return -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int plus (int a, int b) {
+        return a < 0 || b < 0 ? -1 : a + b;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether evaluating the expression may have side effects (function calls, and any node not
+     * listed here, are assumed to).
+     */
+    private static boolean hasSideEffects (ExpressionNode node)
+    {
+        if (isLiteral(node) || node instanceof ReferenceNode)
+            return false;
+        if (node instanceof ParenthesizedNode)
+            return hasSideEffects(((ParenthesizedNode) node).expression);
+        if (node instanceof UnaryExpressionNode)
+            return hasSideEffects(((UnaryExpressionNode) node).operand);
+        if (node instanceof BinaryExpressionNode)
+            return hasSideEffects(((BinaryExpressionNode) node).left)
+                || hasSideEffects(((BinaryExpressionNode) node).right);
+        if (node instanceof FieldAccessNode)
+            return hasSideEffects(((FieldAccessNode) node).stem);
+        if (node instanceof ArrayAccessNode)
+            return hasSideEffects(((ArrayAccessNode) node).array)
+                || hasSideEffects(((ArrayAccessNode) node).index);
+        if (node instanceof ArrayLiteralNode)
+            return ((ArrayLiteralNode) node).components.stream().anyMatch(Inliner::hasSideEffects);
+        if (node instanceof InlinedCallNode) {
+            InlinedCallNode call = (InlinedCallNode) node;
+            return hasSideEffects(call.body)
+                || call.bindings.stream().anyMatch(it -> hasSideEffects(it.initializer));
+        }
+        return true;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Inlining]
+    // =============================================================================================
+
+    private SighNode inlineCall (FunCallNode call)
+    {
+        if (!(call.function instanceof ReferenceNode))
+            return call;
+
+        DeclarationNode target = reactor.get(call.function, "decl");
+        if (!(target instanceof FunDeclarationNode))
+            return call;
+
+        FunDeclarationNode decl = (FunDeclarationNode) target;
+        ExpressionNode expression = candidate(decl);
+        if (expression == null || decl.parameters.size() != call.arguments.size())
+            return call;
+
+        Scope scope = new Scope(call, reactor.get(decl, "scope"));
+        List<VarDeclarationNode> bindings = new ArrayList<>();
+        HashMap<ParameterNode, ExpressionNode> substitutions = new HashMap<>();
+
+        // pure[i]: whether the body and the arguments after the i-th have no side effects, so
+        // that a variable passed as i-th argument has the same value when the body reads it
+        boolean[] pure = new boolean[call.arguments.size()];
+        boolean pureAfter = !hasSideEffects(expression);
+        for (int i = pure.length - 1; i >= 0; --i) {
+            pure[i] = pureAfter;
+            pureAfter = pureAfter && !hasSideEffects(call.arguments.get(i));
+        }
+
+        for (int i = 0; i < decl.parameters.size(); ++i) {
+            ParameterNode param = decl.parameters.get(i);
+            ExpressionNode arg = call.arguments.get(i);
+            Type paramType = reactor.get(param, "type");
+            Type argType = reactor.get(arg, "type");
+
+            boolean direct = paramType.equals(argType)
+                && (isLiteral(arg) || pure[i] && isVariableReference(arg));
+
+            if (direct) {
+                substitutions.put(param, arg);
+                continue;
+            }
+
+            String name = param.name + "$" + freshCounter++;
+            VarDeclarationNode binding = new VarDeclarationNode(param.span, name, param.type, arg);
+            reactor.set(binding, "type", paramType);
+            reactor.set(binding, "scope", scope);
+            scope.declare(name, binding);
+            bindings.add(binding);
+
+            ReferenceNode ref = new ReferenceNode(param.span, name);
+            reactor.set(ref, "type", paramType);
+            reactor.set(ref, "decl", binding);
+            reactor.set(ref, "scope", scope);
+            substitutions.put(param, ref);
+        }
+
+        ExpressionNode body = copy(expression, substitutions);
+        InlinedCallNode inlinedCall = new InlinedCallNode(call.span, decl.name, bindings, body);
+        reactor.set(inlinedCall, "type", reactor.get(call, "type"));
+        reactor.set(inlinedCall, "scope", scope);
+        ++inlined;
+        return inlinedCall;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isLiteral (ExpressionNode node) {
+        return node instanceof IntLiteralNode
+            || node instanceof FloatLiteralNode
+            || node instanceof StringLiteralNode;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean isVariableReference (ExpressionNode node) {
+        if (!(node instanceof ReferenceNode)) return false;
+        DeclarationNode decl = reactor.get(node, "decl");
+        return decl instanceof VarDeclarationNode || decl instanceof ParameterNode;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of the (candidate) expression, where references to parameters are replaced
+     * according to {@code substitutions}. The copied nodes receive the attributes of the
+     * original nodes.
+     */
+    private ExpressionNode copy (ExpressionNode node, HashMap<ParameterNode, ExpressionNode> substitutions)
+    {
+        ExpressionNode copy;
+
+        if (node instanceof ReferenceNode) {
+            DeclarationNode decl = reactor.get(node, "decl");
+            if (decl instanceof ParameterNode)
+                return substitutions.get(decl);
+            copy = new ReferenceNode(node.span, ((ReferenceNode) node).name);
+            reactor.set(copy, "decl", decl);
+            reactor.set(copy, "scope", reactor.get(node, "scope"));
+        }
+        else if (node instanceof IntLiteralNode)
+            copy = new IntLiteralNode(node.span, ((IntLiteralNode) node).value);
+        else if (node instanceof FloatLiteralNode)
+            copy = new FloatLiteralNode(node.span, ((FloatLiteralNode) node).value);
+        else if (node instanceof StringLiteralNode)
+            copy = new StringLiteralNode(node.span, ((StringLiteralNode) node).value);
+        else if (node instanceof ParenthesizedNode)
+            copy = new ParenthesizedNode(node.span,
+                copy(((ParenthesizedNode) node).expression, substitutions));
+        else if (node instanceof UnaryExpressionNode) {
+            UnaryExpressionNode unary = (UnaryExpressionNode) node;
+            copy = new UnaryExpressionNode(node.span, unary.operator,
+                copy(unary.operand, substitutions));
+        }
+        else if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            copy = new BinaryExpressionNode(node.span,
+                copy(binary.left, substitutions), binary.operator, copy(binary.right, substitutions));
+        }
+        else if (node instanceof FieldAccessNode) {
+            FieldAccessNode access = (FieldAccessNode) node;
+            copy = new FieldAccessNode(node.span, copy(access.stem, substitutions), access.fieldName);
+        }
+        else if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            copy = new ArrayAccessNode(node.span,
+                copy(access.array, substitutions), copy(access.index, substitutions));
+        }
+        else if (node instanceof ArrayLiteralNode) {
+            List<ExpressionNode> components = new ArrayList<>();
+            for (ExpressionNode component: ((ArrayLiteralNode) node).components)
+                components.add(copy(component, substitutions));
+            copy = new ArrayLiteralNode(node.span, components);
+        }
+        else if (node instanceof ConstructorNode)
+            copy = new ConstructorNode(node.span, copy(((ConstructorNode) node).ref, substitutions));
+        else if (node instanceof FunCallNode) {
+            FunCallNode call = (FunCallNode) node;
+            List<ExpressionNode> arguments = new ArrayList<>();
+            for (ExpressionNode argument: call.arguments)
+                arguments.add(copy(argument, substitutions));
+            copy = new FunCallNode(node.span, copy(call.function, substitutions), arguments);
+        }
+        else
+            throw new Error("unexpected node in inlined function: " + node);
+
+        reactor.set(copy, "type", reactor.get(node, "type"));
+        return copy;
+    }
+
+    // endregion
+    // =============================================================================================
+}
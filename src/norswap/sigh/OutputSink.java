@@ -0,0 +1,196 @@
+package norswap.sigh;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Receives the output of the {@code print} builtin for one execution of a Sigh program, in the
+ * {@link norswap.sigh.interpreter.Interpreter} (see {@link
+ * norswap.sigh.interpreter.Interpreter#output}) and in compiled code (see {@link
+ * norswap.sigh.bytecode.CompilationResult#callRun(Class, Budget, OutputSink)}).
+ *
+ * <p>Strings are encoded to UTF-8 directly into a byte buffer, which is only written to the
+ * underlying stream when it is full and when the execution ends. This avoids the locking and
+ * the per-line flushing of {@link System#out}.
+ *
+ * <p>Values other than strings can be streamed to a sink with {@link ValueFormatter}.
+ *
+ * <p>Not thread-safe: a sink must only be used by one execution at a time.
+ */
+public final class OutputSink implements Appendable, Flushable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Default size of the buffer, in bytes. */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The underlying stream, or null for {@link System#out}. */
+    private final OutputStream out;
+
+    private final byte[] buffer;
+    private int size;
+
+    /** Whether {@link #println()} flushes the sink, see {@link #console}. */
+    private boolean flushLines;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a sink writing to {@code out}, with a buffer of {@code capacity} bytes (at least 4).
+     */
+    public OutputSink (OutputStream out, int capacity) {
+        if (capacity < 4) throw new IllegalArgumentException("capacity too small: " + capacity);
+        this.out = out;
+        this.buffer = new byte[capacity];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a sink writing to {@code out}, with a buffer of {@link #DEFAULT_CAPACITY} bytes.
+     */
+    public OutputSink (OutputStream out) {
+        this(out, DEFAULT_CAPACITY);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new sink that writes to the standard output, as designated by {@link System#out}
+     * at the time the sink is flushed.
+     */
+    public static OutputSink stdout() {
+        return new OutputSink(null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new sink that writes to the standard output and is flushed after every line, like
+     * {@link System#out}. Used by compiled code running outside of an execution (see {@link
+     * norswap.sigh.bytecode.Execution}), where no one else would flush the sink.
+     */
+    public static OutputSink console() {
+        OutputSink sink = new OutputSink(null, 1024);
+        sink.flushLines = true;
+        return sink;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends the string, followed by a line separator.
+     */
+    public void println (String string) {
+        print(string);
+        println();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends a line separator.
+     */
+    public void println () {
+        if (size + LINE_SEPARATOR.length > buffer.length)
+            drain();
+        for (byte b: LINE_SEPARATOR)
+            buffer[size++] = b;
+        if (flushLines)
+            flush();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends the string, encoded to UTF-8. Unpaired surrogates are encoded as {@code '?'}, like
+     * {@link String#getBytes}.
+     */
+    public void print (String string)
+    {
+        byte[] buffer = this.buffer;
+        int length = string.length();
+        for (int i = 0; i < length; ++i) {
+            if (size + 4 > buffer.length)
+                drain();
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | c >> 6);
+                buffer[size++] = (byte) (0x80 | c & 0x3F);
+            } else if (!Character.isSurrogate(c)) {
+                buffer[size++] = (byte) (0xE0 | c >> 12);
+                buffer[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[size++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, string.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | code >> 18);
+                buffer[size++] = (byte) (0x80 | code >> 12 & 0x3F);
+                buffer[size++] = (byte) (0x80 | code >> 6 & 0x3F);
+                buffer[size++] = (byte) (0x80 | code & 0x3F);
+            } else {
+                buffer[size++] = '?';
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public OutputSink append (CharSequence chars) {
+        print(String.valueOf(chars));
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public OutputSink append (CharSequence chars, int start, int end) {
+        print(String.valueOf(chars).substring(start, end));
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public OutputSink append (char c) {
+        print(String.valueOf(c));
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the buffered bytes to the underlying stream, without flushing it.
+     */
+    private void drain () {
+        try {
+            (out != null ? out : System.out).write(buffer, 0, size);
+            size = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the buffered bytes to the underlying stream and flushes it. Called when an execution
+     * ends.
+     */
+    @Override public void flush () {
+        drain();
+        try {
+            (out != null ? out : System.out).flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
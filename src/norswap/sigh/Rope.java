@@ -0,0 +1,109 @@
+package norswap.sigh;
+
+/**
+ * The value of a string variable that is built by repeated appends ({@code s = s + piece}, see
+ * {@link Concatenation#appendedOperands}), which would otherwise copy the whole accumulated
+ * string at every append, making loops that build a string quadratic.
+ *
+ * <p>A rope is an immutable view of a prefix of a {@link StringBuilder}, which may be shared by
+ * other ropes. Appending to the rope that spans the whole builder appends to the builder in
+ * place, in amortized constant time, and returns a rope over the new prefix. Appending to any
+ * other rope (if the old value of the variable was appended to twice) copies its prefix to a new
+ * builder first.
+ *
+ * <p>Ropes are only ever stored in the storage of such variables: reading the variable flattens
+ * the rope to a {@link String} with {@link #toString} (which is cached), so that printing,
+ * comparing or hashing the value always happens on a plain string. The engines are
+ * single-threaded, and so are ropes.
+ */
+public final class Rope implements CharSequence
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final StringBuilder builder;
+    private final int length;
+    private String string;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Rope (StringBuilder builder, int length, String string) {
+        this.builder = builder;
+        this.length = length;
+        this.string = string;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a rope containing the string, or null if the string is null.
+     */
+    public static Rope of (String string) {
+        return string == null ? null : new Rope(new StringBuilder(string), string.length(), string);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a rope containing this rope followed by {@code piece}.
+     */
+    public Rope append (String piece)
+    {
+        StringBuilder b = builder;
+        if (b.length() != length) {
+            b = new StringBuilder(Math.max(16, 2 * (length + piece.length())));
+            b.append(builder, 0, length);
+        }
+        b.append(piece);
+        return new Rope(b, b.length(), null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the string contained by the rope, or null if the rope is null.
+     */
+    public static String flatten (Rope rope) {
+        return rope == null ? null : rope.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public int length () {
+        return length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public char charAt (int index) {
+        if (index >= length) throw new StringIndexOutOfBoundsException(index);
+        return builder.charAt(index);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public CharSequence subSequence (int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        if (string == null)
+            string = builder.substring(0, length);
+        return string;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public boolean equals (Object other) {
+        return other instanceof Rope && toString().equals(other.toString());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public int hashCode () {
+        return toString().hashCode();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
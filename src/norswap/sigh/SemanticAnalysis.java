@@ -3,6 +3,7 @@ package norswap.sigh;
 import norswap.sigh.ast.*;
 import norswap.sigh.scopes.DeclarationContext;
 import norswap.sigh.scopes.DeclarationKind;
+import norswap.sigh.scopes.OverloadIndex;
 import norswap.sigh.scopes.RootScope;
 import norswap.sigh.scopes.Scope;
 import norswap.sigh.scopes.SyntheticDeclarationNode;
@@ -74,10 +75,18 @@ import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
  * // {@link GenericFunDeclarationNode} will do it as well (for parameters),
  * maybe the template declaration will do it too, but we'll see.
  *
+ * <li>The {@link RootNode} must have its {@code overloads} attribute set to the
+ * {@link OverloadIndex} of the functions of the program, which the backends
+ * use to select overloads.</li>
+ *
  * <li>Every {@link TypeNode} instance must have its {@code value} set to the
  * {@link Type} it
  * denotes.</li>
  *
+ * <li>Every {@link ReturnNode} must have its {@code tailCall} attribute set to a
+ * boolean indicating whether it returns the result of a call of the surrounding
+ * function to itself (a self tail call, which the backends turn into a loop).</li>
+ *
  * <li>Every {@link ReturnNode}, {@link BlockNode} and {@link IfNode} must have
  * its {@code
  *     returns} attribute set to a boolean to indicate whether its execution
@@ -113,12 +122,17 @@ public final class SemanticAnalysis {
 
     /** Index of the current function argument. */
     private int argumentIndex;
-    public static HashMap<String,FunDeclarationNode> functionsDecl;
+
+    /** The functions of the program, used to select overloads. */
+    private final OverloadIndex overloads = new OverloadIndex();
+
+    /** Links the extern functions of the program to the methods that implement them. */
+    private final ExternLinker externs;
     // ---------------------------------------------------------------------------------------------
 
-    private SemanticAnalysis(Reactor reactor) {
+    private SemanticAnalysis(Reactor reactor, ExternLinker externs) {
         this.R = reactor;
-        functionsDecl=new HashMap<>();
+        this.externs = externs;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -127,12 +141,24 @@ public final class SemanticAnalysis {
      * Call this method to create a tree walker that will instantiate the typing
      * rules defined
      * in this class when used on an AST, using the given {@code reactor}.
+     *
+     * <p>Extern functions are rejected, see {@link #createWalker(Reactor, ExternLinker)}.
      */
     public static Walker<SighNode> createWalker(Reactor reactor) {
+        return createWalker(reactor, ExternLinker.NONE);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #createWalker(Reactor)}, but extern functions are linked with {@code externs},
+     * which determines the Java methods that the program may call.
+     */
+    public static Walker<SighNode> createWalker(Reactor reactor, ExternLinker externs) {
         ReflectiveFieldWalker<SighNode> walker = new ReflectiveFieldWalker<>(
                 SighNode.class, PRE_VISIT, POST_VISIT);
 
-        SemanticAnalysis analysis = new SemanticAnalysis(reactor);
+        SemanticAnalysis analysis = new SemanticAnalysis(reactor, externs);
 
         // expressions
         walker.register(IntLiteralNode.class, PRE_VISIT, analysis::intLiteral);
@@ -165,6 +191,7 @@ public final class SemanticAnalysis {
         walker.register(FieldDeclarationNode.class, PRE_VISIT, analysis::fieldDecl);
         walker.register(ParameterNode.class, PRE_VISIT, analysis::parameter);
         walker.register(FunDeclarationNode.class, PRE_VISIT, analysis::funDecl);
+        walker.register(ExternFunDeclarationNode.class, PRE_VISIT, analysis::externFunDecl);
         walker.register(StructDeclarationNode.class, PRE_VISIT, analysis::structDecl);
         walker.register(TempDeclarationNode.class, PRE_VISIT, analysis::templateDecl);
         walker.register(ModifierNode.class, PRE_VISIT, analysis::modifierType);
@@ -175,6 +202,7 @@ public final class SemanticAnalysis {
         walker.register(RootNode.class, POST_VISIT, analysis::popScope);
         walker.register(BlockNode.class, POST_VISIT, analysis::popScope);
         walker.register(FunDeclarationNode.class, POST_VISIT, analysis::popScope);
+        walker.register(ExternFunDeclarationNode.class, POST_VISIT, analysis::popScope);
         walker.register(GenericFunDeclarationNode.class, POST_VISIT, analysis::popScope);
         walker.register(ClassNode.class, POST_VISIT, analysis::popScope);
 
@@ -703,7 +731,7 @@ public final class SemanticAnalysis {
     /*
     This method validates important aspects when calling a function such as: types of arguments, compatibility, number of args, etc.
     The case of Polymorphism (a function with same name, but with more/less arguments) is validated here, for instance,
-    when number of arguments don't match, it consults that function in a dictionary (functionsDecl) and get the node if it exists.
+    when number of arguments don't match, it consults that function in a dictionary (overloads) and get the node if it exists.
     As said before, in that dictionary, the keys are made this way: functionName [Int, Int, Int] and the value is a FunDeclarationNode.
     Then, when the correct functionDeclNode is gotten, the validations are applied on this one.
     Finally, it was also added a 2nd case of Polymorphism when having same name function, but each one with diff types for ex:
@@ -750,8 +778,8 @@ public final class SemanticAnalysis {
 
 
                     //If params size is not equals to args size, it will check the case of Polymorphism (more or less args), or the 2nd case of Polymorp (diff args type including same size for both nodes)
-                    if ((params.length != args.size()) || SemanticAnalysis.functionsDecl.containsKey(concatParams)) {
-                        fc = SemanticAnalysis.functionsDecl.get(concatParams);
+                    if ((params.length != args.size()) || overloads.contains(concatParams)) {
+                        fc = overloads.get(concatParams);
 
                         if(fc!=null) { //If a funcionDeclNode exists with these parameters/args, it will check that this funDeclnode and FunCallnode match in #args and check their types; otherwise it will throw the respective error.
                             if (fc.parameters.size() != node.arguments.size())
@@ -1106,6 +1134,7 @@ public final class SemanticAnalysis {
         assert scope == null;
         scope = new RootScope(node, R);
         R.set(node, "scope", scope);
+        R.set(node, "overloads", overloads);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -1148,15 +1177,11 @@ public final class SemanticAnalysis {
                         if(nameFun.contains("("))
                             nameFun = nameFun.split("\\(")[0];
 
-                        for(String item: functionsDecl.keySet()){
-                            if(item.contains(nameFun)) {
-                                FunDeclarationNode tmp = functionsDecl.get(item);
-                                if (tmp.returnType.contents().equals(expected.toString())) {
-                                    error_assign = false;
-                                    break;
-                                }
+                        for (FunDeclarationNode overload: overloads.overloads(nameFun)) {
+                            if (overload.returnType.contents().equals(expected.toString())) {
+                                error_assign = false;
+                                break;
                             }
-
                         }
 
                         if(error_assign)
@@ -1198,22 +1223,13 @@ public final class SemanticAnalysis {
         scope = new Scope(node, scope);
         R.set(node, "scope", scope); // declare a scope for parameters
 
-        String concatFunctionParam = node.name + " ";
 
         Attribute[] dependencies = new Attribute[node.parameters.size() + 1];
         dependencies[0] = node.returnType.attr("value");
         forEachIndexed(node.parameters, (i, param) ->
             dependencies[i + 1] = param.attr("type"));
 
-        String tipos = "[";
-        for(ParameterNode param: node.parameters){
-            tipos=tipos+param.type.contents()+", ";
-        }
-        tipos=tipos+"]";
-        tipos=tipos.replace(", ]","]");
-        concatFunctionParam=concatFunctionParam+tipos;
-        //System.out.println("concatFunctionParam: "+concatFunctionParam);
-        functionsDecl.put(concatFunctionParam, node);
+        overloads.add(node);
 
         R.rule(node, "type")
                 .using(dependencies)
@@ -1238,6 +1254,43 @@ public final class SemanticAnalysis {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Types the function like {@link #funDecl}, then links it to the Java method that implements
+     * it (see {@link ExternLinker}), which is stored in its {@code method} attribute.
+     */
+    private void externFunDecl(ExternFunDeclarationNode node) {
+        scope.declare(node.name, node);
+        scope = new Scope(node, scope);
+        R.set(node, "scope", scope); // declare a scope for parameters
+
+        Attribute[] dependencies = new Attribute[node.parameters.size() + 1];
+        dependencies[0] = node.returnType.attr("value");
+        forEachIndexed(node.parameters, (i, param) ->
+            dependencies[i + 1] = param.attr("type"));
+
+        R.rule(node, "type")
+                .using(dependencies)
+                .by(r -> {
+                    Type[] paramTypes = new Type[node.parameters.size()];
+                    for (int i = 0; i < paramTypes.length; ++i)
+                        paramTypes[i] = r.get(i + 1);
+
+                    r.set(0, new FunType(r.get(0), paramTypes));
+                });
+
+        R.rule(node, "method")
+                .using(node, "type")
+                .by(r -> {
+                    try {
+                        r.set(0, externs.resolve(node.target, r.get(0)));
+                    } catch (IllegalArgumentException e) {
+                        r.error(e.getMessage(), node);
+                    }
+                });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private void structDecl(StructDeclarationNode node) {
         scope.declare(node.name, node);
         R.set(node, "type", TypeType.INSTANCE);
@@ -1497,6 +1550,7 @@ public final class SemanticAnalysis {
         R.set(node, "returns", true);
 
         FunDeclarationNode function = currentFunction();
+        tailCall(node, function);
         if (function == null) // top-level return
             return;
 
@@ -1526,6 +1580,30 @@ public final class SemanticAnalysis {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Sets the {@code tailCall} attribute of the return statement, which is true if it returns
+     * the result of calling {@code function} (the surrounding function) with the same number of
+     * arguments as it has parameters. Overloaded functions are excluded, as the overload selected
+     * at runtime may not be {@code function}.
+     */
+    private void tailCall(ReturnNode node, FunDeclarationNode function) {
+        if (function == null
+                || !(node.expression instanceof FunCallNode)
+                || !(((FunCallNode) node.expression).function instanceof ReferenceNode)) {
+            R.set(node, "tailCall", false);
+            return;
+        }
+
+        FunCallNode call = (FunCallNode) node.expression;
+        R.rule(node, "tailCall")
+                .using(call.function, "decl")
+                .by(r -> r.set(0, r.get(0) == function
+                        && call.arguments.size() == function.parameters.size()
+                        && !overloads.isOverloaded(function)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private FunDeclarationNode currentFunction() {
         Scope scope = this.scope;
         while (scope != null) {
@@ -55,6 +55,7 @@ public class SighGrammar extends Grammar {
 
         public rule _var = reserved("var");
         public rule _fun = reserved("fun");
+        public rule _extern = reserved("extern");
         public rule _temp = reserved("template");
         public rule _struct = reserved("struct");
         public rule _if = reserved("if");
@@ -247,6 +248,7 @@ public class SighGrammar extends Grammar {
                         this.var_decl,
                         this.field_decl,
                         this.fun_decl,
+                        this.extern_decl,
                         this.struct_decl,
                         this.temp_decl,
                         this.gen_class_decl,
@@ -283,6 +285,10 @@ public class SighGrammar extends Grammar {
         public rule fun_decl = seq(_fun, identifier, LPAREN, parameters, RPAREN, maybe_return_type, block)
                         .push($ -> new FunDeclarationNode($.span(), $.$[0], $.$[1], $.$[2], $.$[3]));
 
+        public rule extern_decl = seq(_extern, _fun, identifier, LPAREN, parameters, RPAREN,
+                        maybe_return_type, EQUALS, string)
+                        .push($ -> new ExternFunDeclarationNode($.span(), $.$[0], $.$[1], $.$[2], $.$[3]));
+
 
         public rule temp_decl = seq(_temp, LANGLE, temp_types, RANGLE, _fun, identifier, LPAREN,
                         parameters, RPAREN, maybe_return_type, block)
@@ -5,12 +5,27 @@ import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseResult;
 import norswap.sigh.ast.SighNode;
 import norswap.sigh.ast.RootNode;
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.bytecode.CompiledClassCache;
 import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.IrImage;
+import norswap.sigh.interpreter.IrInterpreter;
+import norswap.sigh.interpreter.Profiler;
+import norswap.sigh.metrics.Metrics;
+import norswap.sigh.metrics.Metrics.Stage;
 import norswap.uranium.AttributeTreeFormatter;
 import norswap.uranium.Reactor;
 import norswap.uranium.SemanticError;
+import norswap.utils.IO;
 import norswap.utils.visitors.ReflectiveFieldWalker;
 import norswap.utils.visitors.Walker;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.util.Set;
 
@@ -27,14 +42,294 @@ public final class SighRunner
             .wellFormednessCheck(false)
             .get();
 
+    /**
+     * Maximum size of the functions inlined by the {@link Inliner} (0 disables inlining).
+     */
+    private final int inlineBudget;
+
+    /** Binary name of the main class of programs compiled by {@link #runCompiled}. */
+    private static final String MAIN_CLASS = "SighMain";
+
+    /** Receives the duration of every stage and the interpreter counts, or null. */
+    private Metrics metrics;
+
+    /** Receives the output of the programs, or null for the standard output. */
+    private OutputSink output;
+
+    /** Links the extern functions of the programs, see {@link #externs}. */
+    private ExternLinker externs = ExternLinker.NONE;
+
+    /** Whether compiled programs check their budget, see {@link #budgetChecks}. */
+    private boolean budgetChecks = true;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public SighRunner() {
+        this(Inliner.DEFAULT_BUDGET);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public SighRunner(int inlineBudget) {
+        this.inlineBudget = inlineBudget;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the metrics that receive the duration of every stage of the pipeline, as well as the
+     * execution counts of the interpreter, and returns this runner.
+     */
+    public SighRunner metrics(Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the sink that receives the output of the programs run with the interpreter or compiled
+     * to bytecode, and returns this runner. By default, the output is buffered and written to the
+     * standard output at the end of each run.
+     */
+    public SighRunner output(OutputSink output) {
+        this.output = output;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the linker that determines the Java methods that the extern functions of the programs
+     * may call, and returns this runner. By default, extern functions are rejected.
+     */
+    public SighRunner externs(ExternLinker externs) {
+        this.externs = externs;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets whether the programs compiled to bytecode tick and charge their budget (see {@link
+     * BytecodeCompiler#budgetChecks}), and returns this runner. True by default.
+     */
+    public SighRunner budgetChecks(boolean budgetChecks) {
+        this.budgetChecks = budgetChecks;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object stageStart(Stage stage) {
+        return metrics == null ? null : metrics.stageStart(stage);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void stageEnd(Stage stage, Object token) {
+        if (metrics != null)
+            metrics.stageEnd(stage, token);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object interpret(Interpreter interpreter, RootNode root) {
+        Object token = stageStart(Stage.INTERPRETATION);
+        try {
+            return interpreter.metrics(metrics).output(output).interpret(root);
+        } finally {
+            stageEnd(Stage.INTERPRETATION, token);
+        }
+    }
+
     // ---------------------------------------------------------------------------------------------
 
     public Object run(String input) {
         Reactor reactor = new Reactor();
-        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
-        Interpreter interpreter = new Interpreter(reactor);
+        RootNode root = analyze(input, reactor);
+        new Inliner(reactor, inlineBudget).inline(root);
+        return interpret(new Interpreter(reactor), root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program with the interpreter, within the given budget. Throws a {@link
+     * BudgetException} if the budget is exhausted or cancelled.
+     */
+    public Object run(String input, Budget budget) {
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(input, reactor);
+        new Inliner(reactor, inlineBudget).inline(root);
+        return interpret(new Interpreter(reactor).budget(budget), root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program with the interpreter, sampling its call stack with the profiler while it
+     * runs.
+     */
+    public Object run(String input, Profiler profiler) {
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(input, reactor);
+        new Inliner(reactor, inlineBudget).inline(root);
+        Interpreter interpreter = new Interpreter(reactor).profiler(profiler);
+        profiler.start();
+        try {
+            return interpret(interpreter, root);
+        } finally {
+            profiler.stop();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program with the {@link IrInterpreter}, loading it from the image at {@code
+     * imagePath} if that image was compiled from {@code input}. Otherwise, the program is parsed
+     * and analyzed, and its image is saved to {@code imagePath} for the next run.
+     *
+     * <p>The program runs without a budget, see {@link #run(String, Path, Budget)}. Programs
+     * declaring extern functions are rejected with an {@link UnsupportedOperationException}
+     * before running, as they cannot be saved to an image.
+     */
+    public Object run(String input, Path imagePath) throws IOException {
+        return run(input, imagePath, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #run(String, Path)}, but within the given budget (none if null). Throws a {@link
+     * BudgetException} if the budget is exhausted or cancelled.
+     */
+    public Object run(String input, Path imagePath, Budget budget) throws IOException {
+        long checksum = IrImage.checksum(input);
+        if (Files.exists(imagePath)) {
+            try {
+                IrImage image = IrImage.read(imagePath);
+                if (image.sourceChecksum == checksum)
+                    return runImage(image, budget);
+            } catch (IOException e) {
+                // invalid or outdated image: recompile
+            }
+        }
+
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(input, reactor);
+        new Inliner(reactor, inlineBudget).inline(root);
+        IrImage image = IrImage.compile(reactor, root, input);
+        image.write(imagePath);
+        return runImage(image, budget);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object runImage(IrImage image, Budget budget) {
+        Object token = stageStart(Stage.INTERPRETATION);
+        try {
+            return new IrInterpreter(null).budget(budget).output(output).run(image);
+        } finally {
+            stageEnd(Stage.INTERPRETATION, token);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the program to JVM bytecode, with a main class of the given (dot-separated) binary
+     * name. The source file is assumed to be named after the class.
+     */
+    public CompilationResult compile(String input, String binaryName) {
+        String simpleName = binaryName.substring(binaryName.lastIndexOf('.') + 1);
+        return compile(input, binaryName, simpleName + ".si");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the program read from {@code sourceFile} to JVM bytecode, with a main class of the
+     * given (dot-separated) binary name.
+     */
+    public CompilationResult compile(String input, String binaryName, String sourceFile) {
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(input, reactor);
+        new Inliner(reactor, inlineBudget).inline(root);
+        Object token = stageStart(Stage.COMPILATION);
+        try {
+            return new BytecodeCompiler(reactor)
+                .budgetChecks(budgetChecks)
+                .source(sourceFile, input)
+                .compile(binaryName, root);
+        } finally {
+            stageEnd(Stage.COMPILATION, token);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Describes the settings of this runner that affect the code generated by {@link #compile}:
+     * inlining budget, budget checks and allowed extern functions. Used to key the entries of
+     * {@link CompiledClassCache}.
+     */
+    public String compilationSettings() {
+        return String.format("inlineBudget=%d budgetChecks=%b externs=%s",
+            inlineBudget, budgetChecks, externs);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program compiled to JVM bytecode, reusing the compiled classes from {@code cache}
+     * if present. Otherwise, the program is compiled and the result is added to the cache.
+     *
+     * <p>Entries are only reused by runners with the same {@link #compilationSettings settings}.
+     */
+    public Object runCompiled(String input, CompiledClassCache cache) throws IOException {
+        return runCompiled(input, cache, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #runCompiled(String, CompiledClassCache)}, but runs the compiled program within
+     * the given budget (unlimited if null). Throws a {@link BudgetException} if the budget is
+     * exhausted or cancelled.
+     */
+    public Object runCompiled(String input, CompiledClassCache cache, Budget budget)
+            throws IOException {
+        String settings = compilationSettings();
+        CompilationResult result = cache.get(input, MAIN_CLASS, settings);
+        if (result == null) {
+            result = compile(input, MAIN_CLASS);
+            cache.put(input, settings, result);
+        }
+        Object token = stageStart(Stage.CLASS_LOADING);
+        Class<?> main;
+        try {
+            main = result.load(new ByteArrayClassLoader());
+        } finally {
+            stageEnd(Stage.CLASS_LOADING, token);
+        }
+        return CompilationResult.callRun(main, budget, output);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private RootNode analyze(String input, Reactor reactor) {
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor, externs);
+
+        Object token = stageStart(Stage.PARSE);
+        ParseResult result;
+        try {
+            result = Autumn.parse(grammar.root, input, parseOptions);
+        } finally {
+            stageEnd(Stage.PARSE, token);
+        }
 
-        ParseResult result = Autumn.parse(grammar.root, input, parseOptions);
         if (!result.fullMatch) {
             // TODO improve
             throw new RuntimeException(new ParseException(result.toString(), result.errorOffset));
@@ -46,8 +341,13 @@ public final class SighRunner
         }
 
         RootNode root = result.topValue();
-        walker.walk(root);
-        reactor.run();
+        token = stageStart(Stage.ANALYSIS);
+        try {
+            walker.walk(root);
+            reactor.run();
+        } finally {
+            stageEnd(Stage.ANALYSIS, token);
+        }
         Set<SemanticError> errors = reactor.errors();
 
         if (!errors.isEmpty()) {
@@ -61,7 +361,44 @@ public final class SighRunner
             throw new AssertionError("semantic errors");
         }
 
-        return interpreter.interpret(root);
+        return root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Usage: {@code SighRunner <source>} runs the program with the interpreter, while {@code
+     * SighRunner --aot <source> <output.jar> [main class]} compiles it ahead of time to a runnable
+     * JAR (the main class defaults to {@code SighMain}).
+     *
+     * <p>{@code SighRunner --profile <source> [output]} runs the program with the interpreter
+     * under the {@link Profiler}, prints the time spent in each function to the standard error,
+     * and writes collapsed stacks (for flame graphs) to {@code output} if specified.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1) {
+            new SighRunner().run(IO.slurp(args[0]));
+        } else if (args.length >= 3 && args.length <= 4 && args[0].equals("--aot")) {
+            String binaryName = args.length == 4 ? args[3] : MAIN_CLASS;
+            Path source = Paths.get(args[1]);
+            new SighRunner()
+                .compile(IO.slurp(args[1]), binaryName, source.getFileName().toString())
+                .writeJar(Paths.get(args[2]));
+        } else if (args.length >= 2 && args.length <= 3 && args[0].equals("--profile")) {
+            String source = IO.slurp(args[1]);
+            Profiler profiler = new Profiler(source);
+            new SighRunner().run(source, profiler);
+            System.err.print(profiler.functionTable());
+            if (args.length == 3)
+                try (Writer out = Files.newBufferedWriter(Paths.get(args[2]))) {
+                    profiler.writeCollapsed(out);
+                }
+        } else {
+            System.err.println("usage: SighRunner <source>");
+            System.err.println("       SighRunner --aot <source> <output.jar> [main class]");
+            System.err.println("       SighRunner --profile <source> [output]");
+            System.exit(1);
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,80 @@
+package norswap.sigh;
+
+import norswap.sigh.ast.*;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.sigh.types.FunType;
+import norswap.uranium.Reactor;
+import java.util.List;
+
+/**
+ * Recognizes the {@code print} calls whose argument can be streamed to the output: instead of
+ * building the concatenated string, the backends evaluate the operands of the concatenation
+ * (see {@link Concatenation}), then write each of them to the {@link OutputSink} with {@link
+ * ValueFormatter#println}.
+ *
+ * <p>Only calls whose result is discarded (expression statements) can be streamed, and only if
+ * evaluating the operands cannot have side effects (no calls or assignments), so that the output
+ * and the printed values are the same as when building the string.
+ */
+public final class StreamedPrint
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private StreamedPrint () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If the expression (whose value is discarded) is a {@code print} call that can be streamed,
+     * returns the operands of the concatenation it prints (a single operand if its argument is
+     * not a concatenation), in evaluation order. Returns null otherwise.
+     */
+    public static List<ExpressionNode> operands (Reactor reactor, ExpressionNode expression)
+    {
+        if (!(expression instanceof FunCallNode))
+            return null;
+        FunCallNode call = (FunCallNode) expression;
+        if (!(call.function instanceof ReferenceNode) || call.arguments.size() != 1)
+            return null;
+        Object decl = reactor.get(call.function, "decl");
+        if (!(decl instanceof SyntheticDeclarationNode)
+                || !((SyntheticDeclarationNode) decl).name().equals("print"))
+            return null;
+
+        List<ExpressionNode> operands = Concatenation.operands(reactor, call.arguments.get(0));
+        for (ExpressionNode operand: operands)
+            if (!pure(operand) || reactor.get(operand, "type") instanceof FunType)
+                return null;
+        return operands;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the expression is made only of literals, references, field and array accesses, and
+     * operators.
+     */
+    private static boolean pure (ExpressionNode node)
+    {
+        if (node instanceof IntLiteralNode
+                || node instanceof FloatLiteralNode
+                || node instanceof StringLiteralNode
+                || node instanceof ReferenceNode)
+            return true;
+        if (node instanceof ParenthesizedNode)
+            return pure(((ParenthesizedNode) node).expression);
+        if (node instanceof UnaryExpressionNode)
+            return pure(((UnaryExpressionNode) node).operand);
+        if (node instanceof BinaryExpressionNode)
+            return pure(((BinaryExpressionNode) node).left)
+                && pure(((BinaryExpressionNode) node).right);
+        if (node instanceof FieldAccessNode)
+            return pure(((FieldAccessNode) node).stem);
+        if (node instanceof ArrayAccessNode)
+            return pure(((ArrayAccessNode) node).array)
+                && pure(((ArrayAccessNode) node).index);
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
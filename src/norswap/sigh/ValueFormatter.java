@@ -0,0 +1,155 @@
+package norswap.sigh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Converts Sigh values to text, identically for the {@link norswap.sigh.interpreter.Interpreter}
+ * and for compiled code, by writing them piece by piece to an {@link Appendable}. When that
+ * appendable is an {@link OutputSink}, values are streamed to the output buffer without ever
+ * building their full text in memory, so that printing a huge array takes constant memory.
+ *
+ * <p>Arrays and sets are formatted as {@code [a, b, c]}, and structures (maps in the interpreter,
+ * instances of the classes generated for structures in compiled code) as {@code {x=1, y=2}}, with
+ * fields sorted by name. Other values are formatted with {@link Object#toString}.
+ */
+public final class ValueFormatter
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Marker interface implemented by the classes that the bytecode compiler generates for
+     * structures, whose public fields are formatted.
+     */
+    public interface Struct {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Public fields of structure classes, sorted by name. */
+    private static final class Fields extends ClassValue<Field[]> {
+        @Override protected Field[] computeValue (Class<?> type) {
+            Field[] fields = type.getFields();
+            Arrays.sort(fields, Comparator.comparing(Field::getName));
+            return fields;
+        }
+    }
+
+    private static final Fields FIELDS = new Fields();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ValueFormatter () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the text of the value.
+     */
+    public static String toString (Object value) {
+        if (value instanceof String)
+            return (String) value;
+        StringBuilder b = new StringBuilder();
+        format(b, value);
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the text of the value to {@code out}.
+     */
+    public static void format (Appendable out, Object value) {
+        try {
+            write(out, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the concatenation of the texts of the operands to {@code out}, followed by a line
+     * separator. This is what {@code print(a + b + ...)} prints.
+     */
+    public static void println (OutputSink out, Object[] operands) {
+        for (Object operand: operands)
+            format(out, operand);
+        out.println();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void write (Appendable out, Object value) throws IOException
+    {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String) {
+            out.append((String) value);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.append("[");
+            for (int i = 0; i < array.length; ++i) {
+                if (i > 0) out.append(", ");
+                write(out, array[i]);
+            }
+            out.append("]");
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            out.append("[");
+            for (int i = 0; i < array.length; ++i) {
+                if (i > 0) out.append(", ");
+                out.append(Long.toString(array[i]));
+            }
+            out.append("]");
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            out.append("[");
+            for (int i = 0; i < array.length; ++i) {
+                if (i > 0) out.append(", ");
+                out.append(Double.toString(array[i]));
+            }
+            out.append("]");
+        } else if (value instanceof boolean[]) {
+            boolean[] array = (boolean[]) value;
+            out.append("[");
+            for (int i = 0; i < array.length; ++i) {
+                if (i > 0) out.append(", ");
+                out.append(array[i] ? "true" : "false");
+            }
+            out.append("]");
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            Object[] keys = map.keySet().toArray();
+            Arrays.sort(keys);
+            out.append("{");
+            for (int i = 0; i < keys.length; ++i) {
+                if (i > 0) out.append(", ");
+                out.append(keys[i].toString()).append("=");
+                write(out, map.get(keys[i]));
+            }
+            out.append("}");
+        } else if (value instanceof Struct) {
+            Field[] fields = FIELDS.get(value.getClass());
+            out.append("{");
+            for (int i = 0; i < fields.length; ++i) {
+                if (i > 0) out.append(", ");
+                out.append(fields[i].getName()).append("=");
+                try {
+                    write(out, fields[i].get(value));
+                } catch (IllegalAccessException e) {
+                    throw new Error(e); // public fields
+                }
+            }
+            out.append("}");
+        } else {
+            out.append(value.toString());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
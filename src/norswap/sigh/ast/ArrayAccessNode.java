@@ -5,8 +5,8 @@ import norswap.utils.Util;
 
 public final class ArrayAccessNode extends ExpressionNode
 {
-    public final ExpressionNode array;
-    public final ExpressionNode index;
+    public ExpressionNode array;
+    public ExpressionNode index;
 
     public ArrayAccessNode (Span span, Object array, Object index) {
         super(span);
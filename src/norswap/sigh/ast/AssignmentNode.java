@@ -5,8 +5,8 @@ import norswap.utils.Util;
 
 public class AssignmentNode extends ExpressionNode
 {
-    public final ExpressionNode left;
-    public final ExpressionNode right;
+    public ExpressionNode left;
+    public ExpressionNode right;
 
     public AssignmentNode (Span span, Object left, Object right) {
         super(span);
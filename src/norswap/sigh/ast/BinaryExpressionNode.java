@@ -5,7 +5,7 @@ import norswap.utils.Util;
 
 public final class BinaryExpressionNode extends ExpressionNode
 {
-    public final ExpressionNode left, right;
+    public ExpressionNode left, right;
     public final BinaryOperator operator;
 
     public BinaryExpressionNode (Span span, Object left, Object operator, Object right) {
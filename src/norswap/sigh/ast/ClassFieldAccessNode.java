@@ -4,7 +4,7 @@ import norswap.autumn.positions.Span;
 
 public class ClassFieldAccessNode extends ExpressionNode
 {
-    public final ExpressionNode stem;
+    public ExpressionNode stem;
     public final String field;
 
 
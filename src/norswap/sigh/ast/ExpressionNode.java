@@ -2,6 +2,10 @@ package norswap.sigh.ast;
 
 import norswap.autumn.positions.Span;
 
+/**
+ * The fields of the nodes holding an expression are not final, so that passes that rewrite the
+ * tree in place can replace the expression (see {@link SighNode#replaceChild}).
+ */
 public abstract class ExpressionNode extends SighNode
 {
     public ExpressionNode (Span span) {
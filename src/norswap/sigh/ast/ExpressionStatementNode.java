@@ -5,7 +5,7 @@ import norswap.utils.Util;
 
 public class ExpressionStatementNode extends StatementNode
 {
-    public final ExpressionNode expression;
+    public ExpressionNode expression;
 
     public ExpressionStatementNode (Span span, Object expression) {
         super(span);
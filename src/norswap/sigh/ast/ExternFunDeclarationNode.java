@@ -0,0 +1,43 @@
+package norswap.sigh.ast;
+
+import norswap.autumn.positions.Span;
+import norswap.utils.Util;
+import java.util.List;
+
+/**
+ * A function implemented by a Java static method: {@code extern fun sqrt (x: Float): Float =
+ * "java.lang.Math.sqrt"}. See {@link norswap.sigh.ExternLinker}.
+ */
+public final class ExternFunDeclarationNode extends DeclarationNode
+{
+    public final String name;
+    public final List<ParameterNode> parameters;
+    public final TypeNode returnType;
+
+    /** The binary name of the class followed by the name of the method, dot-separated. */
+    public final String target;
+
+    @SuppressWarnings("unchecked")
+    public ExternFunDeclarationNode
+            (Span span, Object name, Object parameters, Object returnType, Object target) {
+        super(span);
+        this.name = Util.cast(name, String.class);
+        this.parameters = Util.cast(parameters, List.class);
+        this.returnType = returnType == null
+            ? new SimpleTypeNode(new Span(span.start, span.start), "Void")
+            : Util.cast(returnType, TypeNode.class);
+        this.target = ((StringLiteralNode) target).value;
+    }
+
+    @Override public String name () {
+        return name;
+    }
+
+    @Override public String contents () {
+        return "extern fun " + name;
+    }
+
+    @Override public String declaredThing () {
+        return "function";
+    }
+}
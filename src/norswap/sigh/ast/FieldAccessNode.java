@@ -5,7 +5,7 @@ import norswap.utils.Util;
 
 public final class FieldAccessNode extends ExpressionNode
 {
-    public final ExpressionNode stem;
+    public ExpressionNode stem;
     public final String fieldName;
 
     public FieldAccessNode (Span span, Object stem, Object fieldName) {
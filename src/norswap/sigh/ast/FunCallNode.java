@@ -6,7 +6,7 @@ import java.util.List;
 
 public final class FunCallNode extends ExpressionNode
 {
-    public final ExpressionNode function;
+    public ExpressionNode function;
     public final List<ExpressionNode> arguments;
 
     @SuppressWarnings("unchecked")
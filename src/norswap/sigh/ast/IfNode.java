@@ -5,7 +5,7 @@ import norswap.utils.Util;
 
 public final class IfNode extends StatementNode
 {
-    public final ExpressionNode condition;
+    public ExpressionNode condition;
     public final StatementNode trueStatement;
     public final StatementNode falseStatement;
 
@@ -0,0 +1,31 @@
+package norswap.sigh.ast;
+
+import norswap.autumn.positions.Span;
+import norswap.utils.Util;
+import java.util.List;
+
+/**
+ * Replaces a {@link FunCallNode} whose callee was inlined by {@link norswap.sigh.Inliner}.
+ *
+ * <p>The {@code bindings} hold the arguments that could not be substituted directly in the body
+ * (under fresh names that cannot clash with user identifiers) and are evaluated first, in order.
+ * The value of the node is the value of {@code body}.
+ */
+public final class InlinedCallNode extends ExpressionNode
+{
+    public final String function;
+    public final List<VarDeclarationNode> bindings;
+    public ExpressionNode body;
+
+    @SuppressWarnings("unchecked")
+    public InlinedCallNode (Span span, Object function, Object bindings, Object body) {
+        super(span);
+        this.function = Util.cast(function, String.class);
+        this.bindings = Util.cast(bindings, List.class);
+        this.body = Util.cast(body, ExpressionNode.class);
+    }
+
+    @Override public String contents () {
+        return "inlined " + function + "(...)";
+    }
+}
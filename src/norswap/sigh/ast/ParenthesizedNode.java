@@ -5,7 +5,7 @@ import norswap.utils.Util;
 
 public final class ParenthesizedNode extends ExpressionNode
 {
-    public final ExpressionNode expression;
+    public ExpressionNode expression;
 
     public ParenthesizedNode (Span span, Object expression) {
         super(span);
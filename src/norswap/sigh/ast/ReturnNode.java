@@ -5,7 +5,7 @@ import norswap.utils.Util;
 
 public class ReturnNode extends StatementNode
 {
-    public final ExpressionNode expression;
+    public ExpressionNode expression;
 
     public ReturnNode (Span span, Object expression) {
         super(span);
@@ -5,8 +5,11 @@ import norswap.uranium.Attribute;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
+import static norswap.utils.Util.cast;
+
 public abstract class SighNode
 {
     // ---------------------------------------------------------------------------------------------
@@ -73,6 +76,40 @@ public abstract class SighNode
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Replaces {@code child}, held in a public field of this node or in a list held by such a
+     * field, by {@code replacement}. Used by passes that rewrite the tree in place, which cannot
+     * rebuild the parent without losing its attributes (see {@link norswap.sigh.Inliner}).
+     *
+     * <p>Only expressions can be replaced, see {@link ExpressionNode}.
+     *
+     * @throws IllegalArgumentException if {@code child} is not a replaceable child of this node.
+     */
+    public void replaceChild (SighNode child, SighNode replacement) {
+        try {
+            for (Field field: getFields()) {
+                Object value = field.get(this);
+                if (value == child && !Modifier.isFinal(field.getModifiers())) {
+                    field.set(this, replacement);
+                    return;
+                }
+                if (value instanceof List) {
+                    List<Object> list = cast(value);
+                    for (int i = 0; i < list.size(); ++i)
+                        if (list.get(i) == child) {
+                            list.set(i, replacement);
+                            return;
+                        }
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        throw new IllegalArgumentException(child + " is not a replaceable child of " + this);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     // NOTE: hashCode and equals are implemented reflectively
     //    This is not ideal for performance, but these methods are currently only used in tests.
     //    Ideally we would replace all the AST classes by a small framework that generates code
@@ -6,7 +6,7 @@ import java.util.List;
 
 public class TempCallNode extends ExpressionNode {
 
-    public final ExpressionNode template;
+    public ExpressionNode template;
     public final List<ExpressionNode> arguments;
     public final List<TypeNode> types;
 
@@ -5,7 +5,7 @@ import norswap.utils.Util;
 
 public final class UnaryExpressionNode extends ExpressionNode
 {
-    public final ExpressionNode operand;
+    public ExpressionNode operand;
     public final UnaryOperator operator;
 
     public UnaryExpressionNode (Span span, Object operator, Object operand) {
@@ -7,7 +7,7 @@ public final class VarDeclarationNode extends DeclarationNode
 {
     public final String name;
     public final TypeNode type;
-    public final ExpressionNode initializer;
+    public ExpressionNode initializer;
 
     public VarDeclarationNode (Span span, Object name, Object type, Object initializer) {
         super(span);
@@ -5,7 +5,7 @@ import norswap.utils.Util;
 
 public final class WhileNode extends StatementNode
 {
-    public final ExpressionNode condition;
+    public ExpressionNode condition;
     public final StatementNode body;
 
     public WhileNode (Span span, Object condition, Object body) {
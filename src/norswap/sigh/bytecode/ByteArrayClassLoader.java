@@ -2,6 +2,10 @@ package norswap.sigh.bytecode;
 
 /**
  * A class loader with the ability to load class from bytecode arrays.
+ *
+ * <p>Classes can only be unloaded together with their loader, so long-lived processes should use
+ * one loader per compiled program (as {@link CompilationResult#load()} does) rather than {@link
+ * #INSTANCE}.
  */
 public final class ByteArrayClassLoader extends ClassLoader
 {
@@ -14,7 +18,7 @@ public final class ByteArrayClassLoader extends ClassLoader
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Default reusable instance of the class loader.
+     * Default reusable instance of the class loader. Classes loaded with it are never unloaded.
      */
     public static final ByteArrayClassLoader INSTANCE = new ByteArrayClassLoader();
 
@@ -1,7 +1,16 @@
 package norswap.sigh.bytecode;
 
+import norswap.autumn.positions.LineMap;
+import norswap.autumn.positions.LineMapString;
+import norswap.sigh.Budget;
+import norswap.sigh.Concatenation;
+import norswap.sigh.OutputSink;
+import norswap.sigh.Rope;
+import norswap.sigh.StreamedPrint;
+import norswap.sigh.ValueFormatter;
 import norswap.sigh.ast.*;
 import norswap.sigh.interpreter.Constructor;
+import norswap.sigh.scopes.RootScope;
 import norswap.sigh.scopes.Scope;
 import norswap.sigh.scopes.SyntheticDeclarationNode;
 import norswap.sigh.types.*;
@@ -13,11 +22,15 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.AnalyzerAdapter;
 import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static norswap.sigh.ast.BinaryOperator.*;
@@ -32,7 +45,8 @@ import static org.objectweb.asm.Opcodes.*;
  * <ul>
  * <li>The compiled code currently doesn't support closures (using variables in
  * functions that
- * are declared in some surroudning scopes outside the function).</li>
+ * are declared in some surroudning scopes outside the function), except for top-level
+ * variables, which are compiled to static fields of the main class.</li>
  * </ul>
  *
  * <h2>Data Representation</h2>
@@ -47,12 +61,14 @@ import static org.objectweb.asm.Opcodes.*;
  * <li>Arrays: proper array type for the representation of the component. For
  * multi-dimension
  * arrays, object arrays (e.g. {@code Object[][]}).</li>
- * <li>Structs: A Java class encoding the structure, in the default package and
- * using the
- * structure's name.</li>
+ * <li>Structs: A Java class encoding the structure, in the package of the main
+ * class and using the structure's name.</li>
  * <li>TODO: Functions: a {@link MethodHandle} to the method that implements the
  * function in
  * bytecode.</li>
+ * <li>Extern functions: called with {@code INVOKESTATIC} on the Java method they are linked
+ * to (see {@link norswap.sigh.ExternLinker}), whose signature uses the representations
+ * above, so that arrays are passed without copying.</li>
  * <li>Types: the {@link Class} object for the type representation. {@code Type}
  * itself (the
  * type of types) is represented by {@code Class.class}.</li>
@@ -84,13 +100,75 @@ public class BytecodeCompiler {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Version of the generated code, to be incremented whenever the compiler emits different
+     * bytecode for the same source. Used to invalidate {@link CompiledClassCache} entries.
+     */
+    public static final int VERSION = 15;
+
+    private static final String BUDGET = Budget.class.getName().replace('.', '/');
+    private static final String BUDGET_DESCRIPTOR = "L" + BUDGET + ";";
+
+    private static final String OUTPUT = OutputSink.class.getName().replace('.', '/');
+    private static final String OUTPUT_DESCRIPTOR = "L" + OUTPUT + ";";
+
+    /**
+     * The budget and output sink of the program are those of the current {@link Execution}, which
+     * is per thread, so that concurrent runs of the same class are independent.
+     */
+    private static final String EXECUTION = Execution.class.getName().replace('.', '/');
+    private static final String EXECUTION_DESCRIPTOR = "L" + EXECUTION + ";";
+
+    /** Type of the locals of {@link #ropeVariables}. */
+    private static final org.objectweb.asm.Type ROPE_TYPE =
+        org.objectweb.asm.Type.getType(Rope.class);
+
+    /** Capacity reserved for a concatenated value whose length is not known statically. */
+    private static final int ESTIMATED_LENGTH = 16;
+
+    /** Marker interface implemented by struct classes, so that they can be formatted. */
+    private static final String STRUCT_INTERFACE =
+        ValueFormatter.Struct.class.getName().replace('.', '/');
+
+    /** Counter used to generate unique package names in {@link #compile(SighNode)}. */
+    private static final AtomicLong programCounter = new AtomicLong();
+
+    // ---------------------------------------------------------------------------------------------
+
     private final ValuedVisitor<SighNode, Object> visitor = new ValuedVisitor<>();
     private final Reactor reactor;
 
+    /**
+     * If true, stack map frames are computed by ASM ({@link ClassWriter#COMPUTE_FRAMES}) instead
+     * of being emitted by the compiler. Only useful for comparison purposes.
+     */
+    private final boolean computeFrames;
+
+    /** Name of the compiled source file, for the {@code SourceFile} attribute (or null). */
+    private String sourceFile;
+
+    /** Maps source offsets to lines, for {@code LineNumberTable} attributes (or null). */
+    private LineMap lineMap;
+
+    /** Whether to emit budget ticks and allocation charges, see {@link #budgetChecks}. */
+    private boolean budgetChecks = true;
+
     // ---------------------------------------------------------------------------------------------
 
     public BytecodeCompiler(Reactor reactor) {
+        this(reactor, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a compiler that lets ASM compute stack map frames if {@code computeFrames} is true,
+     * which requires a data-flow analysis of every method, and may load classes through
+     * reflection. Otherwise, the compiler emits frames at branch targets itself.
+     */
+    public BytecodeCompiler(Reactor reactor, boolean computeFrames) {
         this.reactor = reactor;
+        this.computeFrames = computeFrames;
 
         // expressions
         visitor.register(IntLiteralNode.class, this::intLiteral);
@@ -103,6 +181,7 @@ public class BytecodeCompiler {
         visitor.register(FieldAccessNode.class, this::fieldAccess);
         visitor.register(ArrayAccessNode.class, this::arrayAccess);
         visitor.register(FunCallNode.class, this::funCall);
+        visitor.register(InlinedCallNode.class, this::inlinedCall);
         visitor.register(UnaryExpressionNode.class, this::unaryExpression);
         visitor.register(BinaryExpressionNode.class, this::binaryExpression);
         visitor.register(AssignmentNode.class, this::assignment);
@@ -114,6 +193,7 @@ public class BytecodeCompiler {
         visitor.register(FieldDeclarationNode.class, this::fieldDecl);
         visitor.register(ParameterNode.class, this::parameter);
         visitor.register(FunDeclarationNode.class, this::funDecl);
+        visitor.register(ExternFunDeclarationNode.class, node -> null);
         visitor.register(StructDeclarationNode.class, this::structDecl);
 
         // statements
@@ -125,6 +205,35 @@ public class BytecodeCompiler {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Registers the name and contents of the source file to be compiled, so that the generated
+     * classes carry {@code SourceFile} and {@code LineNumberTable} attributes. Stack traces,
+     * debuggers and profilers then point at lines of the Sigh source.
+     */
+    public BytecodeCompiler source(String sourceFile, String source) {
+        this.sourceFile = sourceFile;
+        this.lineMap = new LineMapString(sourceFile, source);
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets whether the generated code ticks a {@link Budget} at every loop iteration and function
+     * entry, and charges it for the allocation of arrays, structures and concatenated strings
+     * (true by default), and returns this compiler.
+     *
+     * <p>The budget is that of the current {@link Execution} (see {@link
+     * CompilationResult#callRun(Class, Budget)}), which every method loads into a local on entry.
+     * A tick is a local load and a call that the JIT inlines down to a decrement and a test.
+     */
+    public BytecodeCompiler budgetChecks(boolean budgetChecks) {
+        this.budgetChecks = budgetChecks;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /*
      * Slash-separated binary class name for the class containing the emitted
      * bytecode for the source
@@ -132,6 +241,12 @@ public class BytecodeCompiler {
      */
     private String containerName;
 
+    /*
+     * Slash-separated package of {@link #containerName}, in which struct classes are emitted
+     * ({@code ""} for the default package).
+     */
+    private String structPackage;
+
     /*
      * Class visitor for the class containing the emitted bytecode for the source
      * unit.
@@ -159,9 +274,43 @@ public class BytecodeCompiler {
     /** Counter used to number variables in {@link #variables}. */
     private int variableCounter = 0;
 
+    /**
+     * String variables that are appended to (see {@link Concatenation#appendedOperands}), whose
+     * locals hold a {@link Rope} instead of a string.
+     */
+    private Set<VarDeclarationNode> ropeVariables = Collections.emptySet();
+
     /** Whether we are in top-level code. */
     private boolean topLevel;
 
+    /** The function whose code is being generated, or null in top-level code. */
+    private FunDeclarationNode function;
+
+    /** Label at the start of {@link #function}'s code, the target of self tail calls. */
+    private Label functionStart;
+
+    /** Last source line registered in the line number table of {@link #method}. */
+    private int currentLine;
+
+    /**
+     * Tracks the types of locals and stack values in {@link #method}, which is its output. The
+     * locals and stack are null when the current instruction is unreachable.
+     */
+    private AnalyzerAdapter frames;
+
+    /**
+     * Frame types (see {@link MethodVisitor#visitFrame}) of the variables declared in {@link
+     * #method}, indexed by local variable index (null for the second slot of {@code long} and
+     * {@code double} variables).
+     */
+    private ArrayList<Object> localTypes;
+
+    /** Index of the local that holds the budget in {@link #method}, see {@link #loadBudget}. */
+    private int budgetIndex;
+
+    /** Frames (locals then stack) expected at the targets of forward jumps. */
+    private final HashMap<Label, Object[][]> jumpFrames = new HashMap<>();
+
     // ---------------------------------------------------------------------------------------------
 
     /**
@@ -171,6 +320,9 @@ public class BytecodeCompiler {
      */
     public CompilationResult compile(String binaryName, SighNode root) {
         this.containerName = binaryName.replace('.', '/');
+        int lastSlash = containerName.lastIndexOf('/');
+        this.structPackage = lastSlash < 0 ? "" : containerName.substring(0, lastSlash);
+        this.ropeVariables = Concatenation.appendTargets(reactor, root);
         run(root);
         GeneratedClass mainClass = new GeneratedClass(containerName, container.toByteArray());
         List<GeneratedClass> structClasses = structs.stream()
@@ -182,39 +334,101 @@ public class BytecodeCompiler {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compile the given source unit (given as its root AST node) into a class named {@code Main}
+     * in a package that is unique to this compilation, such that its classes (including structs)
+     * never clash with those of other programs.
+     */
+    public CompilationResult compile(SighNode root) {
+        return compile("sigh.program" + programCounter.incrementAndGet() + ".Main", root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object run(SighNode node) {
+        if (lineMap != null && emitsCode(node))
+            lineNumber(node);
         return visitor.apply(node);
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Whether the node is a statement or an expression that emits code in {@link #method}.
+     */
+    private static boolean emitsCode(SighNode node) {
+        return node instanceof ExpressionNode
+            || node instanceof VarDeclarationNode
+            || node instanceof StatementNode && !(node instanceof DeclarationNode);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maps the code emitted from this point to the line on which the node starts, unless the
+     * code emitted so far is already mapped to that line.
+     */
+    private void lineNumber(SighNode node) {
+        int line = lineMap.lineFromOffset(node.span.start);
+        if (line == currentLine) return;
+        Label label = new Label();
+        method.visitLabel(label);
+        method.visitLineNumber(line, label);
+        currentLine = line;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object root(RootNode node) {
-        container = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        container = new ClassWriter(computeFrames ? ClassWriter.COMPUTE_FRAMES : 0);
         container.visit(V1_8, ACC_PUBLIC, containerName, null, "java/lang/Object", null);
+        if (sourceFile != null)
+            container.visitSource(sourceFile, null);
 
         // Top-level code belongs in the run method.
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, "run",
-                "([Ljava/lang/String;)Ljava/lang/Object;", null, null);
+        // local 0 holds the arguments
+        variableCounter = 1;
+        localTypes = new ArrayList<>();
+        method = frames = visitMethod(container, containerName, ACC_PUBLIC | ACC_STATIC, "run",
+                "([Ljava/lang/String;)Ljava/lang/Object;");
         method.visitCode();
+        currentLine = -1;
         topLevel = true;
-        node.statements.forEach(this::run);
+        loadBudget();
+        statements(node.statements);
         // append "return null;" since we do not know if top-level code always returns
-        loadConstant(method, null);
-        method.visitInsn(ARETURN);
+        if (reachable()) {
+            loadConstant(method, null);
+            method.visitInsn(ARETURN);
+        }
         method.visitEnd();
         method.visitMaxs(-1, -1);
         container.visitEnd();
 
         // Traditional java main method to run standalone.
-        // This just calls run, ignoring its return value.
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, "main",
-                "([Ljava/lang/String;)V", null, null);
+        // This just calls run in a new execution, ignoring its return value, then exits the
+        // execution, flushing its output (even if run throws).
+        method = frames = visitMethod(container, containerName, ACC_PUBLIC | ACC_STATIC, "main",
+                "([Ljava/lang/String;)V");
         method.visitCode();
+        method.visitMethodInsn(INVOKESTATIC, EXECUTION, "enterDefault",
+                "()" + EXECUTION_DESCRIPTOR, false);
+        method.visitVarInsn(ASTORE, 1); // previous execution
+        Label tryStart = new Label(), tryEnd = new Label(), handler = new Label();
+        method.visitTryCatchBlock(tryStart, tryEnd, handler, null);
+        method.visitLabel(tryStart);
         method.visitVarInsn(ALOAD, 0);
         method.visitMethodInsn(INVOKESTATIC, containerName,
                 "run", "([Ljava/lang/String;)Ljava/lang/Object;", false);
         method.visitInsn(POP);
+        method.visitLabel(tryEnd);
+        exitExecution();
         method.visitInsn(RETURN); // explicitly necessary
+        method.visitLabel(handler);
+        method.visitFrame(F_NEW, 2, new Object[] { "[Ljava/lang/String;", EXECUTION },
+                1, new Object[] { "java/lang/Throwable" });
+        exitExecution();
+        method.visitInsn(ATHROW);
         method.visitEnd();
         method.visitMaxs(-1, -1);
         container.visitEnd();
@@ -223,18 +437,63 @@ public class BytecodeCompiler {
 
     // ---------------------------------------------------------------------------------------------
 
+    private void exitExecution() {
+        method.visitVarInsn(ALOAD, 1);
+        method.visitMethodInsn(INVOKESTATIC, EXECUTION, "exit", "(" + EXECUTION_DESCRIPTOR + ")V",
+                false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the load of the budget of the current {@link Execution} into a new local (see {@link
+     * #budgetIndex}), if {@link #budgetChecks}. Must be called at the start of every method whose
+     * code may tick or charge the budget.
+     */
+    private void loadBudget() {
+        if (!budgetChecks) return;
+        budgetIndex = newLocal(org.objectweb.asm.Type.getType(Budget.class));
+        method.visitMethodInsn(INVOKESTATIC, EXECUTION, "budget", "()" + BUDGET_DESCRIPTOR, false);
+        method.visitVarInsn(ASTORE, budgetIndex);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the load of the output sink of the current {@link Execution}.
+     */
+    private void loadOutput() {
+        method.visitMethodInsn(INVOKESTATIC, EXECUTION, "output", "()" + OUTPUT_DESCRIPTOR, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object funDecl(FunDeclarationNode node) {
         int surroundingVariableCounter = variableCounter;
         MethodVisitor surroundingMethod = method;
         boolean surroundingIsTopLevel = topLevel;
+        FunDeclarationNode surroundingFunction = function;
+        Label surroundingFunctionStart = functionStart;
+        int surroundingLine = currentLine;
+        AnalyzerAdapter surroundingFrames = frames;
+        ArrayList<Object> surroundingLocalTypes = localTypes;
+        int surroundingBudgetIndex = budgetIndex;
 
         variableCounter = 0;
         topLevel = false;
+        function = node;
+        functionStart = new Label();
+        localTypes = new ArrayList<>();
         node.parameters.forEach(this::run);
 
-        String descriptor = methodDescriptor(reactor.get(node, "type"));
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, node.name, descriptor, null, null);
+        String descriptor = methodDescriptor(structPackage, reactor.get(node, "type"));
+        method = frames = visitMethod(container, containerName, ACC_PUBLIC | ACC_STATIC,
+                node.name, descriptor);
         method.visitCode();
+        currentLine = -1;
+        loadBudget();
+        backwardTarget(functionStart);
+        tick();
         run(node.block);
 
         // NOTE: The current semantic analysis check guarantee that there is we
@@ -246,7 +505,7 @@ public class BytecodeCompiler {
         // case. In the future, it might be good to check that nothing follows a return
         // in semantic
         // analysis.
-        if (descriptor.endsWith("V"))
+        if (descriptor.endsWith("V") && reachable())
             method.visitInsn(RETURN);
 
         method.visitEnd();
@@ -255,6 +514,12 @@ public class BytecodeCompiler {
         method = surroundingMethod;
         variableCounter = surroundingVariableCounter;
         topLevel = surroundingIsTopLevel;
+        function = surroundingFunction;
+        functionStart = surroundingFunctionStart;
+        currentLine = surroundingLine;
+        frames = surroundingFrames;
+        localTypes = surroundingLocalTypes;
+        budgetIndex = surroundingBudgetIndex;
         return null;
     }
 
@@ -287,6 +552,7 @@ public class BytecodeCompiler {
         ArrayType type = reactor.get(node, "type");
         Type compType = type.componentType;
 
+        allocate(Budget.arrayBytes(node.components.size()));
         method.visitLdcInsn(node.components.size());
         int storeOpcode = AASTORE;
 
@@ -312,7 +578,7 @@ public class BytecodeCompiler {
             // Object that we'll be able to cast to array themselves.
             method.visitTypeInsn(ANEWARRAY, "java/lang/Object");
         } else if (compType instanceof StructType) {
-            method.visitTypeInsn(ANEWARRAY, structBinaryName((StructType) compType));
+            method.visitTypeInsn(ANEWARRAY, structBinaryName(structPackage, (StructType) compType));
         }
 
         int i = 0;
@@ -331,6 +597,8 @@ public class BytecodeCompiler {
     private Object binaryExpression(BinaryExpressionNode node) {
         if (isShortCircuit(node.operator))
             return shortCircuit(node);
+        if (Concatenation.isConcatenation(reactor, node))
+            return concatenation(node);
 
         run(node.left);
 
@@ -341,23 +609,11 @@ public class BytecodeCompiler {
         if (enablesPromotion(node.operator) && left instanceof IntType && right instanceof FloatType)
             method.visitInsn(L2D);
 
-        // string concatenation: convert value to string
-        if (node.operator == ADD && right instanceof StringType)
-            convertToString(left);
-
         run(node.right);
 
         switch (node.operator) {
             case ADD:
-                if (left instanceof StringType) {
-                    convertToString(right);
-                    invokeStatic(method, SighRuntime.class, "concat", String.class, String.class);
-                } else if (right instanceof StringType) {
-                    // left already converted to string in this case
-                    invokeStatic(method, SighRuntime.class, "concat", String.class, String.class);
-                } else {
-                    numOperation(LADD, DADD, left, right);
-                }
+                numOperation(LADD, DADD, left, right);
                 break;
 
             case MULTIPLY:
@@ -427,10 +683,10 @@ public class BytecodeCompiler {
         Label endLabel = new Label();
         run(node.left);
         method.visitInsn(DUP);
-        method.visitJumpInsn(opcode, endLabel);
+        jump(opcode, endLabel);
         method.visitInsn(POP);
         run(node.right);
-        method.visitLabel(endLabel);
+        target(endLabel);
         return null;
     }
 
@@ -450,19 +706,15 @@ public class BytecodeCompiler {
             method.visitInsn(POP);
             method.visitLdcInsn("null");
         } else if (type instanceof ArrayType) {
-            Type component = ((ArrayType) type).componentType;
-            if (component.isPrimitive())
-                invokeStatic(method, Arrays.class, "toString", javaArrayClass(component));
-            else
-                invokeStatic(method, Arrays.class, "deepToString", Object[].class);
+            invokeStatic(method, ValueFormatter.class, "toString", Object.class);
         } else if (type instanceof TypeType) {
             // String.valueOf -> Type#toString -> Type#name
             invokeStatic(method, String.class, "valueOf", Object.class);
         } else if (type instanceof FunType) {
             throw new UnsupportedOperationException("TODO"); // TODO
         } else if (type instanceof StructType) {
-            // String.valueOf -> Object#toString (or override)
-            invokeStatic(method, String.class, "valueOf", Object.class);
+            // struct classes implement ValueFormatter.Struct
+            invokeStatic(method, ValueFormatter.class, "toString", Object.class);
         } else {
             throw new Error("unexpected type: " + type);
         }
@@ -499,31 +751,31 @@ public class BytecodeCompiler {
 
         if (left instanceof IntType && right instanceof IntType) {
             method.visitInsn(LCMP);
-            method.visitJumpInsn(doubleWidthOpcode, trueLabel);
+            jump(doubleWidthOpcode, trueLabel);
         } else if ((left instanceof FloatType || left instanceof IntType) && right instanceof FloatType) {
             // If left is an Int, we've added a L2D instruction before the long operand
             // beforehand
             // Proper NaN handling: if NaN is involved, has to be false for all operations.
             int opcode = op == LOWER || op == LOWER_EQUAL ? DCMPG : DCMPL;
             method.visitInsn(opcode);
-            method.visitJumpInsn(doubleWidthOpcode, trueLabel);
+            jump(doubleWidthOpcode, trueLabel);
         } else if (left instanceof FloatType && right instanceof IntType) {
             method.visitInsn(L2D);
             // Proper NaN handling: if NaN is involved, has to be false for all operations.
             int opcode = op == LOWER || op == LOWER_EQUAL ? DCMPG : DCMPL;
             method.visitInsn(opcode);
-            method.visitJumpInsn(doubleWidthOpcode, trueLabel);
+            jump(doubleWidthOpcode, trueLabel);
         } else if (left instanceof BoolType && right instanceof BoolType) {
-            method.visitJumpInsn(boolOpcode, trueLabel);
+            jump(boolOpcode, trueLabel);
         } else {
-            method.visitJumpInsn(objOpcode, trueLabel);
+            jump(objOpcode, trueLabel);
         }
 
         method.visitInsn(ICONST_0);
-        method.visitJumpInsn(GOTO, endLabel);
-        method.visitLabel(trueLabel);
+        jump(GOTO, endLabel);
+        target(trueLabel);
         method.visitInsn(ICONST_1);
-        method.visitLabel(endLabel);
+        target(endLabel);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -535,12 +787,12 @@ public class BytecodeCompiler {
         run(node.operand);
         Label falseLabel = new Label();
         Label endLabel = new Label();
-        method.visitJumpInsn(IF_ZERO, falseLabel);
+        jump(IF_ZERO, falseLabel);
         method.visitInsn(ICONST_0);
-        method.visitJumpInsn(GOTO, endLabel);
-        method.visitLabel(falseLabel);
+        jump(GOTO, endLabel);
+        target(falseLabel);
         method.visitInsn(ICONST_1);
-        method.visitLabel(endLabel);
+        target(endLabel);
         return null;
     }
 
@@ -569,17 +821,25 @@ public class BytecodeCompiler {
             } else if (decl instanceof FunDeclarationNode) {
                 runArguments(funType, node.arguments);
                 method.visitMethodInsn(INVOKESTATIC, containerName,
-                        decl.name(), methodDescriptor(funType), false);
+                        decl.name(), methodDescriptor(structPackage, funType), false);
+            } else if (decl instanceof ExternFunDeclarationNode) {
+                Method target = reactor.get(decl, "method");
+                runArguments(funType, node.arguments);
+                method.visitMethodInsn(INVOKESTATIC,
+                        org.objectweb.asm.Type.getInternalName(target.getDeclaringClass()),
+                        target.getName(), org.objectweb.asm.Type.getMethodDescriptor(target),
+                        target.getDeclaringClass().isInterface());
             } else { // TODO
                 throw new UnsupportedOperationException("variables or parameters containing a function value");
             }
         } else if (node.function instanceof ConstructorNode) {
             StructDeclarationNode decl = reactor.get(((ConstructorNode) node.function).ref, "decl");
-            String binaryName = structBinaryName(reactor.get(decl, "declared"));
+            String binaryName = structBinaryName(structPackage, reactor.get(decl, "declared"));
+            allocate(Budget.objectBytes(decl.fields.size()));
             method.visitTypeInsn(NEW, binaryName);
             method.visitInsn(DUP);
             runArguments(funType, node.arguments);
-            String descriptor = methodDescriptor(VoidType.INSTANCE, funType.paramTypes);
+            String descriptor = methodDescriptor(structPackage, VoidType.INSTANCE, funType.paramTypes);
             method.visitMethodInsn(INVOKESPECIAL, binaryName, "<init>", descriptor, false);
         } else
             throw new UnsupportedOperationException("complex expression evaluating to a function value");
@@ -589,13 +849,22 @@ public class BytecodeCompiler {
 
     // ---------------------------------------------------------------------------------------------
 
+    private Object inlinedCall(InlinedCallNode node) {
+        // bindings become locals of the current method
+        node.bindings.forEach(this::run);
+        run(node.body);
+        implicitConversion(node, node.body);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object builtin(FunType funType, String name, List<ExpressionNode> arguments) {
         if (name.equals("print")) { // only one at the moment
-            method.visitFieldInsn(GETSTATIC, "java/lang/System", "out",
-                    "Ljava/io/PrintStream;");
+            loadOutput();
             runArguments(funType, arguments);
             method.visitInsn(DUP_X1); // we return the printed string!
-            method.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println",
+            method.visitMethodInsn(INVOKEVIRTUAL, OUTPUT, "println",
                     "(Ljava/lang/String;)V", false);
         }
         return null;
@@ -618,10 +887,24 @@ public class BytecodeCompiler {
     // ---------------------------------------------------------------------------------------------
 
     private Object expressionStmt(ExpressionStatementNode node) {
+        List<ExpressionNode> operands = StreamedPrint.operands(reactor, node.expression);
+        if (operands != null) {
+            streamedPrint(operands);
+            return null;
+        }
+        if (node.expression instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node.expression;
+            List<ExpressionNode> appended = Concatenation.appendedOperands(reactor, assignment);
+            if (appended != null) {
+                append(assignment, appended, false);
+                return null;
+            }
+        }
         run(node.expression);
         if (node.expression instanceof AssignmentNode)
             pop(reactor.get(node.expression, "type"));
-        else if (node.expression instanceof FunCallNode) {
+        else if (node.expression instanceof FunCallNode
+                || node.expression instanceof InlinedCallNode) {
             Type type = reactor.get(node.expression, "type");
             if (!(type instanceof VoidType))
                 pop(type);
@@ -631,6 +914,41 @@ public class BytecodeCompiler {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Prints the concatenation of the operands without building it, see {@link StreamedPrint}:
+     * the boxed operands are collected in an array passed to {@link ValueFormatter#println}.
+     */
+    private void streamedPrint(List<ExpressionNode> operands) {
+        loadConstant(method, operands.size());
+        method.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        Vanilla.forEachIndexed(operands, (i, operand) -> {
+            method.visitInsn(DUP);
+            loadConstant(method, i);
+            run(operand);
+            box(reactor.get(operand, "type"));
+            method.visitInsn(AASTORE);
+        });
+        loadOutput();
+        method.visitInsn(SWAP);
+        invokeStatic(method, ValueFormatter.class, "println", OutputSink.class, Object[].class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Boxes the value of the given type on top of the stack, if it is primitive.
+     */
+    private void box(Type type) {
+        if (type instanceof IntType)
+            invokeStatic(method, Long.class, "valueOf", long.class);
+        else if (type instanceof FloatType)
+            invokeStatic(method, Double.class, "valueOf", double.class);
+        else if (type instanceof BoolType)
+            invokeStatic(method, Boolean.class, "valueOf", boolean.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object returnStmt(ReturnNode node) {
         if (node.expression == null) {
             if (topLevel) {
@@ -642,16 +960,15 @@ public class BytecodeCompiler {
             return null;
         }
 
+        if (reactor.get(node, "tailCall")) {
+            tailCall((FunCallNode) node.expression);
+            return null;
+        }
+
         run(node.expression);
 
         if (topLevel) {
-            Type type = reactor.get(node.expression, "type");
-            if (type instanceof IntType)
-                invokeStatic(method, Long.class, "valueOf", long.class);
-            else if (type instanceof FloatType)
-                invokeStatic(method, Double.class, "valueOf", double.class);
-            else if (type instanceof BoolType)
-                invokeStatic(method, Boolean.class, "valueOf", boolean.class);
+            box(reactor.get(node.expression, "type"));
             method.visitInsn(ARETURN);
         } else {
             method.visitInsn(nodeAsmType(node.expression).getOpcode(IRETURN));
@@ -662,26 +979,60 @@ public class BytecodeCompiler {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiles a self tail call (see {@link norswap.sigh.SemanticAnalysis}) as a jump to the start
+     * of the method, after storing the arguments in the parameters' local variables. All
+     * arguments are evaluated before any parameter is overwritten.
+     */
+    private void tailCall(FunCallNode call) {
+        runArguments(reactor.get(call.function, "type"), call.arguments);
+        List<ParameterNode> parameters = function.parameters;
+        for (int i = parameters.size() - 1; i >= 0; --i) {
+            ParameterNode param = parameters.get(i);
+            int index = variables.get(new Pair<>(reactor.get(param, "scope"), param.name));
+            method.visitVarInsn(nodeAsmType(param).getOpcode(ISTORE), index);
+        }
+        jump(GOTO, functionStart);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object block(BlockNode node) {
-        node.statements.forEach(this::run);
+        statements(node.statements);
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiles the statements, skipping those that follow an unconditional return (but not
+     * declarations, which do not emit code in the current method). Unreachable code would
+     * otherwise require stack map frames of its own.
+     */
+    private void statements(List<? extends StatementNode> statements) {
+        for (StatementNode statement: statements)
+            if (reachable()
+                    || statement instanceof FunDeclarationNode
+                    || statement instanceof StructDeclarationNode)
+                run(statement);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object ifStmt(IfNode node) {
         Label elseLabel = new Label();
         Label endLabel = new Label();
         boolean hasElse = node.falseStatement != null;
         run(node.condition);
-        method.visitJumpInsn(IFEQ, hasElse ? elseLabel : endLabel);
+        jump(IFEQ, hasElse ? elseLabel : endLabel);
         run(node.trueStatement);
         if (hasElse) {
-            method.visitJumpInsn(GOTO, endLabel);
-            method.visitLabel(elseLabel);
+            if (reachable())
+                jump(GOTO, endLabel);
+            target(elseLabel);
             run(node.falseStatement);
         }
-        method.visitLabel(endLabel);
+        target(endLabel);
         return null;
     }
 
@@ -690,27 +1041,116 @@ public class BytecodeCompiler {
     private Object whileStmt(WhileNode node) {
         Label startLabel = new Label();
         Label endLabel = new Label();
-        method.visitLabel(startLabel);
+        backwardTarget(startLabel);
         run(node.condition);
-        method.visitJumpInsn(IFEQ, endLabel);
+        jump(IFEQ, endLabel);
+        tick();
         run(node.body);
-        method.visitJumpInsn(GOTO, startLabel);
-        method.visitLabel(endLabel);
+        if (reachable())
+            jump(GOTO, startLabel);
+        target(endLabel);
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits a call to {@link Budget#tick} on the budget of the program, if {@link #budgetChecks}.
+     */
+    private void tick() {
+        if (!budgetChecks) return;
+        method.visitVarInsn(ALOAD, budgetIndex);
+        method.visitMethodInsn(INVOKEVIRTUAL, BUDGET, "tick", "()V", false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a call to {@link Budget#allocate} on the budget of the program, if {@link
+     * #budgetChecks}.
+     */
+    private void allocate(long bytes) {
+        if (!budgetChecks) return;
+        method.visitVarInsn(ALOAD, budgetIndex);
+        method.visitLdcInsn(bytes);
+        method.visitMethodInsn(INVOKEVIRTUAL, BUDGET, "allocate", "(J)V", false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles a whole concatenation chain (see {@link Concatenation}) as appends to a single
+     * {@link StringBuilder}, sized after the operands whose length is known at compile time.
+     * Numbers and booleans are appended without being converted to strings first.
+     */
+    private Object concatenation(BinaryExpressionNode node) {
+        concatenation(Concatenation.operands(reactor, node));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the concatenation of the operands, see {@link #concatenation(BinaryExpressionNode)}.
+     */
+    private void concatenation(List<ExpressionNode> operands)
+    {
+        int capacity = 0;
+        for (ExpressionNode operand: operands)
+            capacity += operand instanceof StringLiteralNode
+                ? ((StringLiteralNode) operand).value.length()
+                : ESTIMATED_LENGTH;
+
+        method.visitTypeInsn(NEW, "java/lang/StringBuilder");
+        method.visitInsn(DUP);
+        loadConstant(method, capacity);
+        method.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(I)V", false);
+
+        for (ExpressionNode operand: operands) {
+            run(operand);
+            Type type = reactor.get(operand, "type");
+            String descriptor;
+            if (type instanceof IntType)
+                descriptor = "J";
+            else if (type instanceof FloatType)
+                descriptor = "D";
+            else if (type instanceof BoolType)
+                descriptor = "Z";
+            else {
+                convertToString(type);
+                descriptor = "Ljava/lang/String;";
+            }
+            method.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                "(" + descriptor + ")Ljava/lang/StringBuilder;", false);
+        }
+
+        if (budgetChecks) {
+            method.visitVarInsn(ALOAD, budgetIndex);
+            invokeStatic(method, SighRuntime.class, "concat", StringBuilder.class, Budget.class);
+        } else {
+            method.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString",
+                "()Ljava/lang/String;", false);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object reference(ReferenceNode node) {
         DeclarationNode decl = reactor.get(node, "decl");
 
-        // TODO distinguish local variables from closures
-        if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode) {
+        // TODO closures over the locals of enclosing functions
+        if (isGlobal(decl)) {
+            method.visitFieldInsn(GETSTATIC, containerName, decl.name(), globalDescriptor(decl));
+            if (ropeVariables.contains(decl))
+                invokeStatic(method, Rope.class, "flatten", Rope.class);
+        } else if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode) {
             method.visitVarInsn(nodeAsmType(node).getOpcode(ILOAD), varIndex(node));
+            if (ropeVariables.contains(decl))
+                invokeStatic(method, Rope.class, "flatten", Rope.class);
         } else if (decl instanceof StructDeclarationNode) {
             // NOTE: This is not used when the reference is part of a constructor call, the
             // resolution is handled in #funCall.
-            org.objectweb.asm.Type asmType = asmType(reactor.get(decl, "declared"));
+            org.objectweb.asm.Type asmType = asmType(structPackage, reactor.get(decl, "declared"));
             method.visitLdcInsn(asmType); // class constant for emitted type
         } else if (decl instanceof FunDeclarationNode) {
             // NOTE: This is not used when the reference is part of a function call, the
@@ -722,7 +1162,15 @@ public class BytecodeCompiler {
             // however.
             method.visitLdcInsn(new Handle(
                     H_INVOKESTATIC, containerName, decl.name(),
-                    methodDescriptor(reactor.get(decl, "type")), false));
+                    methodDescriptor(structPackage, reactor.get(decl, "type")), false));
+        } else if (decl instanceof ExternFunDeclarationNode) {
+            // Like Sigh functions: a handle to the static method that implements the function,
+            // whose type follows the data representation (see ExternLinker).
+            Method target = reactor.get(decl, "method");
+            method.visitLdcInsn(new Handle(
+                    H_INVOKESTATIC, org.objectweb.asm.Type.getInternalName(target.getDeclaringClass()),
+                    target.getName(), org.objectweb.asm.Type.getMethodDescriptor(target),
+                    target.getDeclaringClass().isInterface()));
         } else if (decl instanceof SyntheticDeclarationNode) {
             switch (decl.name()) {
                 case "Bool":
@@ -767,10 +1215,24 @@ public class BytecodeCompiler {
     // ---------------------------------------------------------------------------------------------
 
     private Object varDecl(VarDeclarationNode node) {
-        org.objectweb.asm.Type type = nodeAsmType(node);
+        boolean rope = ropeVariables.contains(node);
+        if (isGlobal(node)) {
+            String descriptor = globalDescriptor(node);
+            container.visitField(ACC_PUBLIC | ACC_STATIC, node.name, descriptor, null, null)
+                .visitEnd();
+            run(node.initializer);
+            implicitConversion(node, node.initializer);
+            if (rope)
+                invokeStatic(method, Rope.class, "of", String.class);
+            method.visitFieldInsn(PUTSTATIC, containerName, node.name, descriptor);
+            return null;
+        }
+        org.objectweb.asm.Type type = rope ? ROPE_TYPE : nodeAsmType(node);
         int index = registerVariable(node, type);
         run(node.initializer);
         implicitConversion(node, node.initializer);
+        if (rope)
+            invokeStatic(method, Rope.class, "of", String.class);
         method.visitVarInsn(type.getOpcode(ISTORE), index);
         // LATER: method.visitLocalVariable for debug information
         // https://stackoverflow.com/questions/28633731
@@ -789,10 +1251,21 @@ public class BytecodeCompiler {
     public Object assignment(AssignmentNode node) {
         if (node.left instanceof ReferenceNode) {
             ReferenceNode left = (ReferenceNode) node.left;
+            List<ExpressionNode> appended = Concatenation.appendedOperands(reactor, node);
+            if (appended != null) {
+                append(node, appended, true);
+                return null;
+            }
+            DeclarationNode decl = reactor.get(left, "decl");
             run(node.right);
             Type type = implicitConversion(node, node.right);
             dup(type);
-            method.visitVarInsn(nodeAsmType(node).getOpcode(ISTORE), varIndex(left));
+            if (ropeVariables.contains(decl))
+                invokeStatic(method, Rope.class, "of", String.class);
+            if (isGlobal(decl))
+                method.visitFieldInsn(PUTSTATIC, containerName, left.name, globalDescriptor(decl));
+            else
+                method.visitVarInsn(nodeAsmType(node).getOpcode(ISTORE), varIndex(left));
         } else if (node.left instanceof ArrayAccessNode) {
             ArrayAccessNode left = (ArrayAccessNode) node.left;
             run(left.array);
@@ -810,25 +1283,63 @@ public class BytecodeCompiler {
             dup_x1(type);
             StructType structType = reactor.get(left.stem, "type");
             Type fieldType = reactor.get(node, "type");
-            method.visitFieldInsn(PUTFIELD, structBinaryName(structType), left.fieldName,
-                    fieldDescriptor(fieldType));
+            method.visitFieldInsn(PUTFIELD, structBinaryName(structPackage, structType), left.fieldName,
+                    fieldDescriptor(structPackage, fieldType));
         }
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiles an assignment that appends to a string variable (see {@link
+     * Concatenation#appendedOperands}), by appending the concatenation of the operands to the
+     * {@link Rope} held by the variable. If {@code used}, leaves the new value of the variable
+     * on the stack, which flattens the rope.
+     */
+    private void append(AssignmentNode node, List<ExpressionNode> operands, boolean used)
+    {
+        ReferenceNode left = (ReferenceNode) node.left;
+        DeclarationNode decl = reactor.get(left, "decl");
+        boolean global = isGlobal(decl);
+        int index = global ? -1 : varIndex(left);
+        if (global)
+            method.visitFieldInsn(GETSTATIC, containerName, left.name, ROPE_TYPE.getDescriptor());
+        else
+            method.visitVarInsn(ALOAD, index);
+        concatenation(operands); // charges the budget for the piece
+        invokeStatic(method, SighRuntime.class, "append", Rope.class, String.class);
+        if (used)
+            method.visitInsn(DUP);
+        if (global)
+            method.visitFieldInsn(PUTSTATIC, containerName, left.name, ROPE_TYPE.getDescriptor());
+        else
+            method.visitVarInsn(ASTORE, index);
+        if (used)
+            invokeStatic(method, Rope.class, "flatten", Rope.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object structDecl(StructDeclarationNode node) {
-        String binaryName = node.name;
-        struct = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-        struct.visit(V1_8, ACC_PUBLIC, binaryName, null, "java/lang/Object", null);
+        String binaryName = structBinaryName(structPackage, reactor.get(node, "declared"));
+        struct = new ClassWriter(computeFrames ? ClassWriter.COMPUTE_FRAMES : 0);
+        struct.visit(V1_8, ACC_PUBLIC, binaryName, null, "java/lang/Object",
+            new String[] { STRUCT_INTERFACE });
+        if (sourceFile != null)
+            struct.visitSource(sourceFile, null);
         node.fields.forEach(this::run);
 
         // generate constructor
         Type[] paramTypes = node.fields.stream().map(f -> (Type) reactor.get(f, "type")).toArray(Type[]::new);
-        String descriptor = methodDescriptor(VoidType.INSTANCE, paramTypes);
-        MethodVisitor init = struct.visitMethod(ACC_PUBLIC, "<init>", descriptor, null, null);
+        String descriptor = methodDescriptor(structPackage, VoidType.INSTANCE, paramTypes);
+        MethodVisitor init = visitMethod(struct, binaryName, ACC_PUBLIC, "<init>", descriptor);
         init.visitCode();
+        if (lineMap != null) {
+            Label start = new Label();
+            init.visitLabel(start);
+            init.visitLineNumber(lineMap.lineFromOffset(node.span.start), start);
+        }
         init.visitVarInsn(ALOAD, 0); // this
         init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
         int i = 1;
@@ -860,7 +1371,7 @@ public class BytecodeCompiler {
 
     private Object fieldAccess(FieldAccessNode node) {
         run(node.stem);
-        String binaryName = asmType(reactor.get(node.stem, "type")).getClassName();
+        String binaryName = asmType(structPackage, reactor.get(node.stem, "type")).getInternalName();
         method.visitFieldInsn(GETFIELD, binaryName, node.fieldName, nodeFieldDescriptor(node));
         return null;
     }
@@ -882,7 +1393,7 @@ public class BytecodeCompiler {
      * given node.
      */
     private org.objectweb.asm.Type nodeAsmType(SighNode node) {
-        return asmType(reactor.get(node, "type"));
+        return asmType(structPackage, reactor.get(node, "type"));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -892,7 +1403,7 @@ public class BytecodeCompiler {
      * {@code type} attribute.
      */
     private String nodeFieldDescriptor(SighNode node) {
-        return fieldDescriptor(reactor.get(node, "type"));
+        return fieldDescriptor(structPackage, reactor.get(node, "type"));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -916,14 +1427,50 @@ public class BytecodeCompiler {
      * to compute faster in case it is already available.
      */
     private int registerVariable(DeclarationNode node, org.objectweb.asm.Type type) {
+        int index = newLocal(type);
+        variables.put(new Pair<>(reactor.get(node, "scope"), node.name()), index);
+        return index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Allocates a local of the given type in the current method, and returns its index.
+     */
+    private int newLocal(org.objectweb.asm.Type type) {
         int index = variableCounter;
         variableCounter += type.getSize();
-        variables.put(new Pair<>(reactor.get(node, "scope"), node.name()), index);
+        while (localTypes.size() < variableCounter)
+            localTypes.add(null);
+        localTypes.set(index, frameType(type));
         return index;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Whether the declaration is a top-level variable. Those are compiled to public static fields
+     * of the container class (named after the variable), so that functions (compiled to separate
+     * static methods) can access them.
+     */
+    private boolean isGlobal(DeclarationNode decl) {
+        return decl instanceof VarDeclarationNode && reactor.get(decl, "scope") instanceof RootScope;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the descriptor of the static field of the given top-level variable (see {@link
+     * #isGlobal}).
+     */
+    private String globalDescriptor(DeclarationNode decl) {
+        return ropeVariables.contains(decl)
+            ? ROPE_TYPE.getDescriptor()
+            : nodeAsmType(decl).getDescriptor();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns the variable index for the given reference, which must be a reference
      * to a variable.
@@ -1015,6 +1562,180 @@ public class BytecodeCompiler {
             method.visitInsn(POP);
     }
 
+    // endregion
+    // =============================================================================================
+    // region [Stack Map Frames]
+    // =============================================================================================
+
+    /*
+     * Since Java 7, the JVM requires a stack map frame (the types of the local variables and of the
+     * stack values) at the start of every basic block that is the target of a jump. Asking ASM to
+     * compute them (COMPUTE_FRAMES) requires a fixpoint data-flow analysis of each method, which may
+     * load classes in order to find common superclasses.
+     *
+     * Instead, an AnalyzerAdapter tracks the type of stack values linearly as the code is emitted,
+     * and the types of locals are the declared types of the variables. Every variable has its own
+     * index in a method, but a forward target can be reached from paths that initialized different
+     * variables (e.g. the end of an if whose branches declare different locals). The frame of such
+     * a target is the join of the frames of all the paths that reach it (see #joinFrames): only the
+     * locals initialized with the same type on every path are kept. Backward targets (loop starts,
+     * the start of functions for tail calls) get the frame at the point where they are placed,
+     * before any variable declared in the loop or function body.
+     */
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Starts a new method in the class being written by {@code writer}, and returns a visitor for
+     * it that tracks the types of locals and stack values.
+     */
+    private AnalyzerAdapter visitMethod(
+            ClassWriter writer, String owner, int access, String name, String descriptor) {
+        MethodVisitor visitor = writer.visitMethod(access, name, descriptor, null, null);
+        return new AnalyzerAdapter(owner, access, name, descriptor, visitor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the instruction about to be emitted is reachable.
+     */
+    private boolean reachable() {
+        return frames.locals != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a jump instruction, joining the frame at the jump source into the frame of the target
+     * if it is a forward jump.
+     */
+    private void jump(int opcode, Label target) {
+        if (opcode == GOTO)
+            jumpFrames.merge(target, currentFrame(), BytecodeCompiler::joinFrames);
+        method.visitJumpInsn(opcode, target);
+        if (opcode != GOTO) // frame after popping the operands
+            jumpFrames.merge(target, currentFrame(), BytecodeCompiler::joinFrames);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Places the label of a forward jump target. If there were jumps to it, the frame is the join
+     * of their frames, and of the current frame if the label is also reached by falling through.
+     */
+    private void target(Label label) {
+        Object[][] frame = jumpFrames.remove(label);
+        if (frame != null && reachable())
+            frame = joinFrames(frame, currentFrame());
+        method.visitLabel(label);
+        if (frame != null)
+            method.visitFrame(F_NEW, frame[0].length, frame[0], frame[1].length, frame[1]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Places the label of a backward jump target, with the current frame.
+     */
+    private void backwardTarget(Label label) {
+        Object[][] frame = currentFrame();
+        method.visitLabel(label);
+        method.visitFrame(F_NEW, frame[0].length, frame[0], frame[1].length, frame[1]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the current frame, as a pair of arrays of frame types (locals, then stack), in the
+     * format expected by {@link MethodVisitor#visitFrame}. Initialized locals are given their
+     * declared type.
+     */
+    private Object[][] currentFrame()
+    {
+        ArrayList<Object> locals = new ArrayList<>();
+        int lastInitialized = 0;
+        for (int i = 0; i < frames.locals.size(); ++i) {
+            Object type = frames.locals.get(i);
+            if (type != TOP && i < localTypes.size() && localTypes.get(i) != null)
+                type = localTypes.get(i);
+            locals.add(type);
+            if (type != TOP) lastInitialized = locals.size();
+            if (type == LONG || type == DOUBLE) ++i; // skip second slot
+        }
+
+        ArrayList<Object> stack = new ArrayList<>();
+        for (int i = 0; i < frames.stack.size(); ++i) {
+            Object type = frames.stack.get(i);
+            stack.add(type);
+            if (type == LONG || type == DOUBLE) ++i; // skip second slot
+        }
+
+        return new Object[][] {
+            locals.subList(0, lastInitialized).toArray(), stack.toArray() };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the frame at a point reached from the two given frames (see {@link #currentFrame}),
+     * in which the locals that are not initialized with the same type in both frames are
+     * unusable. The stacks of both frames must be the same.
+     */
+    private static Object[][] joinFrames(Object[][] frame1, Object[][] frame2)
+    {
+        // one entry per slot, long and double values taking two slots (the second one is TOP)
+        List<Object> slots1 = frameSlots(frame1[0]);
+        List<Object> slots2 = frameSlots(frame2[0]);
+
+        ArrayList<Object> locals = new ArrayList<>();
+        int lastInitialized = 0;
+        for (int i = 0; i < Math.min(slots1.size(), slots2.size()); ++i) {
+            Object type = slots1.get(i).equals(slots2.get(i)) ? slots1.get(i) : TOP;
+            locals.add(type);
+            if (type != TOP) lastInitialized = locals.size();
+            if (type == LONG || type == DOUBLE) ++i; // skip second slot
+        }
+
+        return new Object[][] { locals.subList(0, lastInitialized).toArray(), frame1[1] };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<Object> frameSlots(Object[] locals) {
+        ArrayList<Object> slots = new ArrayList<>();
+        for (Object type: locals) {
+            slots.add(type);
+            if (type == LONG || type == DOUBLE) slots.add(TOP);
+        }
+        return slots;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the frame type (see {@link MethodVisitor#visitFrame}) corresponding to the given
+     * ASM type.
+     */
+    private static Object frameType(org.objectweb.asm.Type type) {
+        switch (type.getSort()) {
+            case org.objectweb.asm.Type.BOOLEAN:
+            case org.objectweb.asm.Type.CHAR:
+            case org.objectweb.asm.Type.BYTE:
+            case org.objectweb.asm.Type.SHORT:
+            case org.objectweb.asm.Type.INT:
+                return INTEGER;
+            case org.objectweb.asm.Type.FLOAT:
+                return FLOAT;
+            case org.objectweb.asm.Type.LONG:
+                return LONG;
+            case org.objectweb.asm.Type.DOUBLE:
+                return DOUBLE;
+            default:
+                return type.getInternalName();
+        }
+    }
+
     // endregion
     // ---------------------------------------------------------------------------------------------
 }
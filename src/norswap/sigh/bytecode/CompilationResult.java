@@ -1,8 +1,30 @@
 package norswap.sigh.bytecode;
 
+import norswap.sigh.Budget;
+import norswap.sigh.BudgetException;
+import norswap.sigh.OutputSink;
+import norswap.sigh.Rope;
+import norswap.sigh.ValueFormatter;
 import norswap.utils.exceptions.NoStackException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 /**
  * Represents the result of compiling a single source unit (~ a source file, but it could
@@ -47,11 +69,126 @@ public final class CompilationResult
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Load the generated class in the current JVM (using {@link ByteArrayClassLoader#INSTANCE} and
-     * return the {@link Class} object for {@link #mainClass}.
+     * Load the generated class in the current JVM using a new {@link ByteArrayClassLoader}
+     * dedicated to this program, and return the {@link Class} object for {@link #mainClass}.
+     *
+     * <p>The classes can be unloaded (and their metaspace reclaimed) as soon as the returned class,
+     * its instances and the instances of the struct classes become unreachable.
      */
     public Class<?> load() {
-        return load(ByteArrayClassLoader.INSTANCE);
+        return load(new ByteArrayClassLoader());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runtime support classes referenced by the generated code, along with their nested classes,
+     * which are bundled with the generated classes by {@link #writeJar}.
+     */
+    private static final List<Class<?>> RUNTIME_CLASSES = withNested(
+        SighRuntime.class, Null.class, Budget.class, BudgetException.class, OutputSink.class,
+        ValueFormatter.class, Rope.class, Execution.class);
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<Class<?>> withNested (Class<?>... classes) {
+        List<Class<?>> result = new ArrayList<>();
+        for (Class<?> klass: classes) {
+            result.add(klass);
+            result.addAll(withNested(klass.getDeclaredClasses()));
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the generated classes to a runnable JAR file at the given path, whose manifest
+     * designates {@link #mainClass} as the main class.
+     *
+     * <p>The runtime support classes ({@link SighRuntime}, {@link Null}, {@link Budget}, {@link
+     * OutputSink}, {@link ValueFormatter} and {@link Rope}) are copied into the JAR, so that
+     * programs that do not manipulate types can be run with {@code java -jar}.
+     */
+    public void writeJar (Path path) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.put(Attributes.Name.MAIN_CLASS, mainClass.binaryName());
+
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(path), manifest)) {
+            writeEntry(jar, mainClass.slashBinaryName(), mainClass.bytes());
+            for (GeneratedClass struct: structures)
+                writeEntry(jar, struct.slashBinaryName(), struct.bytes());
+            for (Class<?> klass: RUNTIME_CLASSES) {
+                String slashBinaryName = klass.getName().replace('.', '/');
+                try (InputStream in = klass.getResourceAsStream("/" + slashBinaryName + ".class")) {
+                    if (in == null)
+                        throw new IOException("cannot locate bytecode for " + klass.getName());
+                    writeEntry(jar, slashBinaryName, readAll(in));
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void writeEntry (JarOutputStream jar, String slashBinaryName, byte[] bytes)
+            throws IOException {
+        jar.putNextEntry(new JarEntry(slashBinaryName + ".class"));
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static byte[] readAll (InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; )
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reads back the generated classes from a JAR written by {@link #writeJar}. Runtime support
+     * classes are skipped, as they are already available in the current JVM.
+     *
+     * @throws IOException if the file cannot be read or isn't such a JAR.
+     */
+    public static CompilationResult readJar (Path path) throws IOException
+    {
+        try (JarInputStream jar = new JarInputStream(Files.newInputStream(path))) {
+            Manifest manifest = jar.getManifest();
+            String mainName = manifest == null ? null
+                : manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+            if (mainName == null)
+                throw new IOException("not a compiled Sigh JAR: " + path);
+            String mainSlashName = mainName.replace('.', '/');
+
+            GeneratedClass main = null;
+            List<GeneratedClass> structures = new ArrayList<>();
+            outer: for (JarEntry entry; (entry = jar.getNextJarEntry()) != null; ) {
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.endsWith(".class")) continue;
+                String slashBinaryName = name.substring(0, name.length() - ".class".length());
+                for (Class<?> klass: RUNTIME_CLASSES)
+                    if (klass.getName().replace('.', '/').equals(slashBinaryName))
+                        continue outer;
+                GeneratedClass generated = new GeneratedClass(slashBinaryName, readAll(jar));
+                if (slashBinaryName.equals(mainSlashName))
+                    main = generated;
+                else
+                    structures.add(generated);
+            }
+
+            if (main == null)
+                throw new IOException("missing main class " + mainName + " in " + path);
+            return new CompilationResult(main, structures);
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -61,13 +198,25 @@ public final class CompilationResult
      *
      * <p>Unlike the {@code main} method, the {@code run} method is able to return a value!
      * The {@code main} method just calls the {@code run} method and ignores its return value.
+     *
+     * <p>The program runs in a new {@link Execution}, with an unlimited budget, printing to the
+     * standard output, which is flushed once {@code run} returns or throws.
      */
     public static Object callRun (Class<?> mainClass, String... args) {
+        return callRun(mainClass, new Execution(Budget.unlimited(), OutputSink.stdout()), args);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object callRun (Class<?> mainClass, Execution execution, String[] args) {
+        Execution previous = Execution.enter(execution);
         try {
             // Object cast: the string array is one argument in the vararg!
             return mainClass.getMethod("run", String[].class).invoke(null, (Object) args);
         } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
             throw new NoStackException(e);
+        } finally {
+            Execution.exit(previous);
         }
     }
 
@@ -76,8 +225,117 @@ public final class CompilationResult
     /**
      * Call the {@code run} method of the given class, see {@link #callRun}.
      */
-    public static void callRun (Class<?> mainClass) {
-        callMain(mainClass, new String[0]);
+    public static Object callRun (Class<?> mainClass) {
+        return callRun(mainClass, new String[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Call the {@code run} method of the given class, after making the generated code tick the
+     * given budget (see {@link BytecodeCompiler#budgetChecks}). A {@link BudgetException} thrown
+     * by the program is rethrown as is.
+     */
+    public static Object callRun (Class<?> mainClass, Budget budget) {
+        return callRun(mainClass, budget, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Call the {@code run} method of the given class, in a new {@link Execution} whose budget is
+     * ticked by the generated code (see {@link BytecodeCompiler#budgetChecks}) and to whose sink
+     * the program prints. A null budget is unlimited, and a null sink is the standard output. A
+     * {@link BudgetException} thrown by the program is rethrown as is.
+     *
+     * <p>The execution is per call and per thread: concurrent calls don't share their budget or
+     * sink.
+     */
+    public static Object callRun (Class<?> mainClass, Budget budget, OutputSink output) {
+        Execution execution = new Execution(
+            budget != null ? budget : Budget.unlimited(),
+            output != null ? output : OutputSink.stdout());
+        try {
+            return callRun(mainClass, execution, new String[0]);
+        } catch (NoStackException e) {
+            if (e.getCause() instanceof InvocationTargetException
+                    && e.getCause().getCause() instanceof BudgetException)
+                throw (BudgetException) e.getCause().getCause();
+            throw e;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Caches the handles returned by {@link #function(Class, String)}, per main class. The cache
+     * doesn't prevent the classes from being unloaded.
+     */
+    private static final ClassValue<ConcurrentHashMap<String, MethodHandle>> FUNCTIONS =
+        new ClassValue<ConcurrentHashMap<String, MethodHandle>>() {
+            @Override protected ConcurrentHashMap<String, MethodHandle> computeValue (Class<?> k) {
+                return new ConcurrentHashMap<>();
+            }
+        };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a handle to the static method that implements the function with the given name in
+     * the given main class. Its type follows the data representation of the compiled code (e.g.
+     * {@code (JD)J} for {@code fun f (x: Int, y: Float): Int}, see {@link BytecodeCompiler}), so
+     * that it can be invoked with {@link MethodHandle#invokeExact}, at the cost of a direct call.
+     *
+     * <p>The method is looked up by reflection on the first request only, then cached. Calling it
+     * doesn't run the top-level code: the function sees the top-level variables (compiled to
+     * static fields) as left by the last call to {@link #callRun} or by previous calls. It ticks
+     * the budget and prints to the sink of the current {@link Execution} of the calling thread,
+     * or runs unmetered and prints to the console if there is none.
+     *
+     * @throws IllegalArgumentException if the class has no such function, or if the function is
+     * overloaded (use {@link #function(Class, String, MethodType)} instead).
+     */
+    public static MethodHandle function (Class<?> mainClass, String name) {
+        return FUNCTIONS.get(mainClass).computeIfAbsent(name, it -> resolve(mainClass, it));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a handle to the static method with the given type that implements the function with
+     * the given name in the given main class, see {@link #function(Class, String)}. Unlike the
+     * latter, the handle is not cached.
+     *
+     * @throws IllegalArgumentException if the class has no such function.
+     */
+    public static MethodHandle function (Class<?> mainClass, String name, MethodType type) {
+        try {
+            return MethodHandles.publicLookup().findStatic(mainClass, name, type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("no function " + name + type, e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static MethodHandle resolve (Class<?> mainClass, String name)
+    {
+        Method found = null;
+        for (Method method: mainClass.getDeclaredMethods()) {
+            if (!method.getName().equals(name) || !Modifier.isStatic(method.getModifiers())
+                    || !Modifier.isPublic(method.getModifiers()))
+                continue;
+            if (found != null)
+                throw new IllegalArgumentException("overloaded function " + name);
+            found = method;
+        }
+        if (found == null)
+            throw new IllegalArgumentException("no function " + name);
+        try {
+            return MethodHandles.publicLookup().unreflect(found);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("cannot access function " + name, e);
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
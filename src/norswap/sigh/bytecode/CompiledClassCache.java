@@ -0,0 +1,115 @@
+package norswap.sigh.bytecode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A content-addressed on-disk cache of compiled programs, which enables warm starts to skip
+ * parsing, semantic analysis and code generation altogether.
+ *
+ * <p>Entries are JAR files (see {@link CompilationResult#writeJar}) stored in the cache
+ * directory, and named after the SHA-256 hash of the source, the name of the main class, the
+ * settings of the compilation and the compiler {@link BytecodeCompiler#VERSION version}. Entries
+ * produced with different settings or by a different compiler version are therefore never
+ * reused.
+ *
+ * <p>The settings are a description of every option that affects the generated code besides the
+ * source, such as the inlining budget or whether budget checks are emitted (see {@link
+ * norswap.sigh.SighRunner#compilationSettings}).
+ */
+public final class CompiledClassCache
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final Path directory;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a cache storing its entries in the given directory, which is created on the first
+     * {@link #put}.
+     */
+    public CompiledClassCache (Path directory) {
+        this.directory = directory;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the key under which the compilation of {@code source} into a class with the given
+     * (dot-separated) binary name, with the given settings, is stored.
+     */
+    public static String key (String source, String binaryName, String settings)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(("sigh-bytecode-" + BytecodeCompiler.VERSION + "\n" + binaryName + "\n"
+                + settings.length() + ":" + settings + "\n").getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b: hash)
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                   .append(Character.forDigit(b & 0xF, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error("SHA-256 is supported by every JVM", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the path of the entry for the given source, main class name and settings.
+     */
+    public Path path (String source, String binaryName, String settings) {
+        return directory.resolve(key(source, binaryName, settings) + ".jar");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the cached compilation of {@code source} into a class with the given (dot-separated)
+     * binary name, with the given settings, or null if there is no such entry or if it cannot be
+     * read.
+     */
+    public CompilationResult get (String source, String binaryName, String settings)
+    {
+        Path path = path(source, binaryName, settings);
+        if (!Files.exists(path)) return null;
+        try {
+            CompilationResult result = CompilationResult.readJar(path);
+            return result.mainClass.binaryName().equals(binaryName) ? result : null;
+        } catch (IOException e) {
+            return null; // corrupted entry: will be overwritten by the next put
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stores the compilation of {@code source} with the given settings into the cache.
+     *
+     * <p>The entry is written to a temporary file then moved in place, so that concurrent
+     * readers never observe a partially written entry.
+     */
+    public void put (String source, String settings, CompilationResult result) throws IOException
+    {
+        Files.createDirectories(directory);
+        Path path = path(source, result.mainClass.binaryName(), settings);
+        Path temp = Files.createTempFile(directory, "entry", ".tmp");
+        try {
+            result.writeJar(temp);
+            Files.move(temp, path,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
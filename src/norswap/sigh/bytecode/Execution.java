@@ -0,0 +1,109 @@
+package norswap.sigh.bytecode;
+
+import norswap.sigh.Budget;
+import norswap.sigh.OutputSink;
+
+/**
+ * The state of one execution of a compiled program: the {@link Budget} ticked by the generated
+ * code (see {@link BytecodeCompiler#budgetChecks}) and the {@link OutputSink} it prints to.
+ *
+ * <p>The current execution is per thread, so that concurrent runs of the same compiled class are
+ * metered and print separately. It is established by {@link CompilationResult#callRun} and by
+ * the {@code main} method of the compiled class, or by the host around calls to the functions of
+ * a compiled program (see {@link CompilationResult#function}), with {@link #enter} and {@link
+ * #exit}:
+ *
+ * <pre>{@code
+ * Execution previous = Execution.enter(new Execution(budget, output));
+ * try {
+ *     handle.invokeExact(...);
+ * } finally {
+ *     Execution.exit(previous);
+ * }
+ * }</pre>
+ *
+ * <p>Compiled methods that tick the budget look it up once on entry (see {@link #budget()}), not
+ * at every tick. Code running outside of any execution gets an unlimited budget and prints to a
+ * sink that is flushed after every line (see {@link OutputSink#console}).
+ */
+public final class Execution
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final ThreadLocal<Execution> CURRENT = new ThreadLocal<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    public final Budget budget;
+    public final OutputSink output;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Execution (Budget budget, OutputSink output) {
+        this.budget = budget;
+        this.output = output;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes {@code execution} the current execution of this thread, and returns the previous one
+     * (possibly null), to be passed to {@link #exit}.
+     */
+    public static Execution enter (Execution execution) {
+        Execution previous = CURRENT.get();
+        CURRENT.set(execution);
+        return previous;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Enters a new execution with an unlimited budget that prints to the standard output, see
+     * {@link #enter(Execution)}. Called by the {@code main} method of compiled classes.
+     */
+    public static Execution enterDefault () {
+        return enter(new Execution(Budget.unlimited(), OutputSink.stdout()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Flushes the output of the current execution of this thread, then restores the {@code
+     * previous} execution returned by {@link #enter}.
+     */
+    public static void exit (Execution previous) {
+        Execution current = CURRENT.get();
+        try {
+            if (current != null)
+                current.output.flush();
+        } finally {
+            if (previous == null)
+                CURRENT.remove();
+            else
+                CURRENT.set(previous);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the budget of the current execution of this thread.
+     */
+    public static Budget budget () {
+        Execution current = CURRENT.get();
+        return current != null ? current.budget : Budget.unlimited();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the output sink of the current execution of this thread.
+     */
+    public static OutputSink output () {
+        Execution current = CURRENT.get();
+        return current != null ? current.output : OutputSink.console();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
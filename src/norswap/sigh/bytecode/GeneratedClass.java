@@ -36,7 +36,7 @@ public final class GeneratedClass
      * {@link Class} object.
      */
     public Class<?> load (ByteArrayClassLoader loader) {
-        return loader.defineClass(slashBinaryName, bytes);
+        return loader.defineClass(binaryName(), bytes);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -63,10 +63,10 @@ public final class GeneratedClass
      * Returns the simple name (i.e. without the package part) of the class.
      */
     public String name() {
-        int lastDot = slashBinaryName.lastIndexOf('.');
-        return lastDot < 0
+        int lastSlash = slashBinaryName.lastIndexOf('/');
+        return lastSlash < 0
             ? slashBinaryName
-            : slashBinaryName.substring(lastDot + 1);
+            : slashBinaryName.substring(lastSlash + 1);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -1,25 +1,38 @@
 package norswap.sigh.bytecode;
 
+import norswap.sigh.Budget;
+import norswap.sigh.Rope;
+
 public final class SighRuntime
 {
     /**
-     * Concatenates two strings. Using this method in the generated bytecode is much simpler
-     * than emitting a whole slew of instructions as Java does (see
-     * https://www.guardsquare.com/en/blog/string-concatenation-java-9-untangling-invokedynamic).
+     * Returns the content of the builder of a concatenation chain (see {@link
+     * norswap.sigh.Concatenation}), after charging the budget of the program for the result (see
+     * {@link BytecodeCompiler#budgetChecks}).
+     */
+    public static String concat(StringBuilder builder, Budget budget) {
+        budget.allocate(Budget.stringBytes(builder.length()));
+        return builder.toString();
+    }
+
+    /**
+     * Appends the piece to the rope held by a string variable (see {@link
+     * norswap.sigh.Concatenation#appendedOperands}), which is null if the variable holds the null
+     * string.
      */
-    public static String concat(String left, String right) {
-        return left + right;
+    public static Rope append(Rope rope, String piece) {
+        return (rope == null ? Rope.of("null") : rope).append(piece);
     }
 
     /**
-     * Implementation of the Sigh {@code print} method, which prints the string to standard output
-     * then returns it.
+     * Implementation of the Sigh {@code print} method, which prints the string to the output sink
+     * of the current {@link Execution} then returns it.
      *
      * <p>For now, only used to get a method handle for when {@code print} is used as a value,
      * but not actually used in method calls. Might change that in the future?
      */
     public static String print(String string) {
-        System.out.println(string);
+        Execution.output().println(string);
         return string;
     }
 }
@@ -13,10 +13,20 @@ public final class TypeUtils {
 
     /**
      * Returns the slash-separated binary type name for the runtime representation of the given
-     * structure.
+     * structure, in the default package.
      */
     public static String structBinaryName (StructType type) {
-        return type.name();
+        return structBinaryName("", type);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the slash-separated binary type name for the runtime representation of the given
+     * structure, in the given slash-separated package ({@code ""} for the default package).
+     */
+    public static String structBinaryName (String structPackage, StructType type) {
+        return structPackage.isEmpty() ? type.name() : structPackage + "/" + type.name();
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -92,9 +102,20 @@ public final class TypeUtils {
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Returns the JVM field descriptor the runtime representation of the given Sigh {@link Type}.
+     * Returns the JVM field descriptor the runtime representation of the given Sigh {@link Type},
+     * assuming structures live in the default package.
      */
-    public static String fieldDescriptor (Type type)
+    public static String fieldDescriptor (Type type) {
+        return fieldDescriptor("", type);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the JVM field descriptor the runtime representation of the given Sigh {@link Type},
+     * with structures living in the given slash-separated package.
+     */
+    public static String fieldDescriptor (String structPackage, Type type)
     {
         if (type instanceof IntType)
             return "J"; // long
@@ -109,13 +130,13 @@ public final class TypeUtils {
         else if (type instanceof NullType)
             return "Lnorswap/sigh/bytecode/Null;";
         else if (type instanceof ArrayType)
-            return "[" + fieldDescriptor(((ArrayType) type).componentType);
+            return "[" + fieldDescriptor(structPackage, ((ArrayType) type).componentType);
         else if (type instanceof TypeType)
             return "Lnorswap/sigh/types/Type;";
         else if (type instanceof FunType)
             throw new UnsupportedOperationException(); // TODO
         else if (type instanceof StructType)
-            return "L" + structBinaryName((StructType) type) + ";";
+            return "L" + structBinaryName(structPackage, (StructType) type) + ";";
         else
             throw new Error("unreachable");
     }
@@ -127,7 +148,17 @@ public final class TypeUtils {
      * given Sigh {@link Type}.
      */
     public static org.objectweb.asm.Type asmType (Type type) {
-        return org.objectweb.asm.Type.getType(fieldDescriptor(type));
+        return asmType("", type);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the ASM {@link org.objectweb.asm.Type} object for the runtime representation of the
+     * given Sigh {@link Type}, with structures living in the given slash-separated package.
+     */
+    public static org.objectweb.asm.Type asmType (String structPackage, Type type) {
+        return org.objectweb.asm.Type.getType(fieldDescriptor(structPackage, type));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -136,13 +167,24 @@ public final class TypeUtils {
      * Returns the JVM method descriptor for the method signature corresponding to the given
      * Sigh return type and parameter type.
      */
-    public static String methodDescriptor (Type returnType, Type... paramTypes)
+    public static String methodDescriptor (Type returnType, Type... paramTypes) {
+        return methodDescriptor("", returnType, paramTypes);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the JVM method descriptor for the method signature corresponding to the given
+     * Sigh return type and parameter type, with structures living in the given slash-separated
+     * package.
+     */
+    public static String methodDescriptor (String structPackage, Type returnType, Type... paramTypes)
     {
         StringBuilder b = new StringBuilder("(");
         for (Type paramType: paramTypes)
-            b.append(fieldDescriptor(paramType));
+            b.append(fieldDescriptor(structPackage, paramType));
         b.append(")");
-        b.append(fieldDescriptor(returnType));
+        b.append(fieldDescriptor(structPackage, returnType));
         return b.toString();
     }
 
@@ -153,7 +195,18 @@ public final class TypeUtils {
      * Sigh {@link FunType function type}.
      */
     public static String methodDescriptor (FunType funType) {
-        return methodDescriptor(funType.returnType, funType.paramTypes);
+        return methodDescriptor("", funType);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the JVM method descriptor for the method signature corresponding to the given
+     * Sigh {@link FunType function type}, with structures living in the given slash-separated
+     * package.
+     */
+    public static String methodDescriptor (String structPackage, FunType funType) {
+        return methodDescriptor(structPackage, funType.returnType, funType.paramTypes);
     }
 
     // ---------------------------------------------------------------------------------------------
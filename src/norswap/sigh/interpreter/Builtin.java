@@ -0,0 +1,28 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.OutputSink;
+
+/**
+ * The implementation of a builtin function in the interpreters, operating on the interpreter's
+ * representation of values.
+ *
+ * <p>Each builtin function declared in the {@link norswap.sigh.scopes.RootScope} is bound to its
+ * implementation once, when its {@link norswap.sigh.scopes.SyntheticDeclarationNode} is created
+ * (see {@link Builtins}), so that calls do not need to look it up.
+ */
+@FunctionalInterface
+public interface Builtin
+{
+    /**
+     * Runs the function with the given arguments, printing to {@code out}.
+     */
+    Object call (Object[] args, OutputSink out);
+
+    /**
+     * Returns the number of bytes allocated by a call with the given arguments, to be charged to
+     * the {@link norswap.sigh.Budget} of the program.
+     */
+    default long bytes (Object[] args) {
+        return 0;
+    }
+}
@@ -0,0 +1,91 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.Budget;
+import norswap.sigh.OutputSink;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The registry of the {@link Builtin} implementations, by name of builtin function.
+ *
+ * <p>To add a builtin function, declare it in the {@link norswap.sigh.scopes.RootScope} and
+ * register its implementation here.
+ */
+public final class Builtins
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final HashMap<String, Builtin> REGISTRY = new HashMap<>();
+
+    static {
+        register("print", Builtins::print);
+        for (String type: new String[] { "Int", "Float", "String" }) {
+            register("addSet" + type, new AddSet());
+            register("containsSet" + type, Builtins::containsSet);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Builtins () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void register (String name, Builtin builtin) {
+        REGISTRY.put(name, builtin);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the implementation of the builtin function with the given name.
+     *
+     * @throws IllegalArgumentException if there is no such function.
+     */
+    public static Builtin get (String name)
+    {
+        Builtin builtin = REGISTRY.get(name);
+        if (builtin == null)
+            throw new IllegalArgumentException("no implementation for builtin function: " + name);
+        return builtin;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object print (Object[] args, OutputSink out)
+    {
+        String string = Interpreter.convertToString(args[0]);
+        out.println(string);
+        return string;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a sorted copy of the set with the value added, sets being sorted arrays. */
+    private static final class AddSet implements Builtin
+    {
+        @Override public Object call (Object[] args, OutputSink out) {
+            Object[] set = (Object[]) args[0];
+            Object[] result = Arrays.copyOf(set, set.length + 1);
+            result[set.length] = args[1];
+            Arrays.sort(result);
+            return Arrays.stream(result).distinct().toArray();
+        }
+
+        @Override public long bytes (Object[] args) {
+            return Budget.arrayBytes(((Object[]) args[0]).length + 1);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object containsSet (Object[] args, OutputSink out)
+    {
+        for (Object element: (Object[]) args[0])
+            if (element.equals(args[1]))
+                return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,60 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.scopes.Scope;
+
+/**
+ * A top-level function of a program run by an {@link Interpreter}, prepared to be called from
+ * Java (see {@link Interpreter#function}).
+ *
+ * <p>The function is resolved once, so that a call only binds the arguments and runs the body of
+ * the function, without running the top-level code of the program again. The function sees the
+ * top-level variables as left by the last run of the program (or by previous calls).
+ *
+ * <p>Arguments and return values use the runtime representation of the interpreter (e.g. {@link
+ * Long} for {@code Int}, see {@link Interpreter}). Like the interpreter, call targets must not be
+ * called concurrently.
+ */
+public final class CallTarget
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final Interpreter interpreter;
+    private final Scope scope;
+
+    /** The declaration of the called function. */
+    public final FunDeclarationNode function;
+
+    // ---------------------------------------------------------------------------------------------
+
+    CallTarget (Interpreter interpreter, FunDeclarationNode function, Scope scope) {
+        this.interpreter = interpreter;
+        this.function = function;
+        this.scope = scope;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the function with the given arguments and returns its result (null for functions
+     * that return {@code Void}).
+     *
+     * @throws IllegalArgumentException if the number of arguments does not match the number of
+     * parameters of the function.
+     */
+    public Object call (Object... args)
+    {
+        if (args.length != function.parameters.size())
+            throw new IllegalArgumentException(String.format("%s expects %d arguments, got %d",
+                function.name, function.parameters.size(), args.length));
+        return interpreter.call(function, scope, args);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        return "CallTarget(" + function.name + ")";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,8 +1,18 @@
 package norswap.sigh.interpreter;
 
-import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.Budget;
+import norswap.sigh.BudgetException;
+import norswap.sigh.Concatenation;
+import norswap.sigh.ExternLinker;
+import norswap.sigh.OutputSink;
+import norswap.sigh.Rope;
+import norswap.sigh.StreamedPrint;
+import norswap.sigh.ValueFormatter;
 import norswap.sigh.ast.*;
+import norswap.sigh.metrics.ExecutionCounts;
+import norswap.sigh.metrics.Metrics;
 import norswap.sigh.scopes.DeclarationKind;
+import norswap.sigh.scopes.OverloadIndex;
 import norswap.sigh.scopes.RootScope;
 import norswap.sigh.scopes.Scope;
 import norswap.sigh.scopes.SyntheticDeclarationNode;
@@ -16,13 +26,18 @@ import norswap.utils.Util;
 import norswap.utils.exceptions.Exceptions;
 import norswap.utils.exceptions.NoStackException;
 import norswap.utils.visitors.ValuedVisitor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 import static norswap.utils.Util.cast;
-import static norswap.utils.Vanilla.coIterate;
 import static norswap.utils.Vanilla.map;
 
 /**
@@ -62,6 +77,59 @@ public final class Interpreter {
     private RootScope rootScope;
     private ScopeStorage rootStorage;
 
+    /** The functions of the program being run, used to select overloads. */
+    private OverloadIndex overloads;
+
+    /** Profiler whose shadow call stack is maintained by the interpreter, or null. */
+    private Profiler profiler;
+
+    /** Receives the {@link #counts} at the end of every run, or null. */
+    private Metrics metrics;
+
+    /** Counts for the current run, null if {@link #metrics} is null. */
+    private ExecutionCounts counts;
+
+    /** Ticked at every loop iteration and function entry, and charged for allocations, or null. */
+    private Budget budget;
+
+    /** Receives the output of the program, or null to use a new {@link OutputSink#stdout}. */
+    private OutputSink output;
+
+    /** The sink used by the current run. */
+    private OutputSink out;
+
+    /** Whether the frames of function activations are reused, see {@link #framePooling}. */
+    private boolean framePooling = true;
+
+    /**
+     * Frames of function activations, indexed by call depth: {@code pool[0 .. pooled - 1]} are
+     * used by the active calls, and the rest are free for reuse.
+     */
+    private ScopeStorage[] pool = new ScopeStorage[16];
+
+    /** Number of frames of {@link #pool} in use. */
+    private int pooled;
+
+    /**
+     * Caches the result of {@link StreamedPrint#operands} for expression statements, with an empty
+     * list for statements that are not streamed prints.
+     */
+    private final HashMap<ExpressionStatementNode, List<ExpressionNode>> streamedPrints =
+        new HashMap<>();
+
+    /** Caches the operands of concatenation chains, see {@link Concatenation}. */
+    private final HashMap<BinaryExpressionNode, List<ExpressionNode>> concatenations =
+        new HashMap<>();
+
+    /**
+     * Caches the result of {@link Concatenation#appendedOperands} for assignments, with an empty
+     * list for assignments that do not append.
+     */
+    private final HashMap<AssignmentNode, List<ExpressionNode>> appends = new HashMap<>();
+
+    /** Caches the handles of the Java methods that implement extern functions. */
+    private final HashMap<ExternFunDeclarationNode, MethodHandle> externs = new HashMap<>();
+
     // ---------------------------------------------------------------------------------------------
 
     public Interpreter(Reactor reactor) {
@@ -81,6 +149,7 @@ public final class Interpreter {
         visitor.register(ClassFieldAccessNode.class, this::classElementAccess);
         visitor.register(ArrayAccessNode.class, this::arrayAccess);
         visitor.register(FunCallNode.class, this::funCall);
+        visitor.register(InlinedCallNode.class, this::inlinedCall);
         visitor.register(UnaryExpressionNode.class, this::unaryExpression);
         visitor.register(BinaryExpressionNode.class, this::binaryExpression);
         visitor.register(AssignmentNode.class, this::assignment);
@@ -102,20 +171,174 @@ public final class Interpreter {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Sets the profiler whose shadow call stack the interpreter maintains, and returns this
+     * interpreter. Sampling must be started and stopped separately (see {@link Profiler#start}).
+     */
+    public Interpreter profiler(Profiler profiler) {
+        this.profiler = profiler;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the metrics that receive the counts of the operations performed by each run (see
+     * {@link ExecutionCounts}), and returns this interpreter. No counting happens if not set.
+     */
+    public Interpreter metrics(Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the budget that limits the number of loop iterations and function calls of the
+     * interpreted programs as well as the memory they allocate, and through which they can be
+     * cancelled, then returns this interpreter. Exceeding the budget throws a {@link
+     * BudgetException}.
+     */
+    public Interpreter budget(Budget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the sink that receives the output of the interpreted programs, and returns this
+     * interpreter. The sink is flushed at the end of every run. If not set, every run buffers its
+     * output to the standard output in a new sink.
+     */
+    public Interpreter output(OutputSink output) {
+        this.output = output;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets whether the frames of function activations are reused by later calls (true by
+     * default), and returns this interpreter.
+     *
+     * <p>Frames never outlive the activation that uses them (there are no closures), and
+     * activations end in the reverse order they start in, so the frames form a stack that calls
+     * borrow from and give back to. Recursive programs then allocate a frame per level of
+     * recursion, instead of per call. Since an interpreter runs on a single thread, the pool is
+     * effectively per-thread.
+     */
+    public Interpreter framePooling(boolean framePooling) {
+        this.framePooling = framePooling;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     public Object interpret(SighNode root) {
+        if (profiler != null)
+            profiler.enter(Profiler.MAIN);
+        if (metrics != null)
+            counts = new ExecutionCounts();
+        out = output != null ? output : OutputSink.stdout();
+        pooled = 0;
         try {
             return run(root);
         } catch (PassthroughException e) {
             throw Exceptions.runtime(e.getCause());
+        } finally {
+            out.flush();
+            if (profiler != null)
+                profiler.exit();
+            if (metrics != null)
+                metrics.execution(counts);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a target to call the top-level function with the given name from Java, without
+     * running the top-level code again. Must be called after {@link #interpret} has run the
+     * program that declares the function, and is only valid until another program is run.
+     *
+     * @throws IllegalStateException if no program has been run yet.
+     * @throws IllegalArgumentException if the program has no top-level function with that name.
+     */
+    public CallTarget function(String name) {
+        if (rootScope == null)
+            throw new IllegalStateException("no program has been run");
+        DeclarationNode decl = rootScope.lookupLocal(name);
+        if (!(decl instanceof FunDeclarationNode))
+            throw new IllegalArgumentException("no top-level function named " + name);
+        return new CallTarget(this, (FunDeclarationNode) decl, reactor.get(decl, "scope"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements {@link CallTarget#call}: like {@link #interpret}, but only runs the function.
+     */
+    Object call(FunDeclarationNode function, Scope scope, Object[] args) {
+        try {
+            return invoke(function, scope, args);
+        } catch (PassthroughException e) {
+            throw Exceptions.runtime(e.getCause());
+        } finally {
+            out.flush();
         }
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the value of the top-level variable with the given name, as left by the last run of
+     * a program or by calls to its functions (see {@link #function}).
+     *
+     * @throws IllegalStateException if no program has been run yet.
+     * @throws IllegalArgumentException if the program has no top-level variable with that name.
+     */
+    public Object global(String name) {
+        checkGlobal(name);
+        Object value = rootStorage.get(rootScope, name);
+        return value instanceof Rope ? value.toString() : value; // see #append
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the value of the top-level variable with the given name, which is seen by subsequent
+     * calls to the functions of the program (see {@link #function}), but is overwritten by the
+     * declaration of the variable if the program is run again.
+     *
+     * @throws IllegalStateException if no program has been run yet.
+     * @throws IllegalArgumentException if the program has no top-level variable with that name.
+     */
+    public void global(String name, Object value) {
+        checkGlobal(name);
+        rootStorage.set(rootScope, name, value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void checkGlobal(String name) {
+        if (rootScope == null)
+            throw new IllegalStateException("no program has been run");
+        if (!(rootScope.lookupLocal(name) instanceof VarDeclarationNode))
+            throw new IllegalArgumentException("no top-level variable named " + name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object run(SighNode node) {
+        if (profiler != null && node instanceof StatementNode)
+            profiler.at(node);
+        if (counts != null)
+            ++counts.nodes;
         try {
             return visitor.apply(node);
-        } catch (InterpreterException | Return | PassthroughException e) {
+        } catch (InterpreterException | Return | TailCall | PassthroughException
+                | BudgetException e) {
             throw e;
         } catch (RuntimeException e) {
             throw new InterpreterException("exception while executing " + node, e);
@@ -137,12 +360,77 @@ public final class Interpreter {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Used to implement the control flow of self tail calls: thrown by the return statement with
+     * the evaluated arguments, and caught by the activation of the function (see {@link #invoke}),
+     * which rebinds its parameters and runs its body again.
+     *
+     * <p>A single instance is reused for all tail calls, as it is always caught by the innermost
+     * activation before any other tail call can happen.
+     */
+    private static final class TailCall extends NoStackException {
+        Object[] args;
+    }
+
+    private final TailCall tailCall = new TailCall();
+
+    // ---------------------------------------------------------------------------------------------
+
     private <T> T get(SighNode node) {
         return cast(run(node));
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Charges the budget, if any, for the allocation of {@code bytes} bytes.
+     */
+    private void allocate(long bytes) {
+        if (budget != null)
+            budget.allocate(bytes);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ScopeStorage newFrame(Scope scope, ScopeStorage parent) {
+        if (counts != null)
+            ++counts.frames;
+        return new ScopeStorage(scope, parent);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a frame for a function activation, which must be given back with {@link
+     * #releaseFrame} when the activation ends, see {@link #framePooling}.
+     */
+    private ScopeStorage borrowFrame(Scope scope, ScopeStorage parent)
+    {
+        if (!framePooling)
+            return newFrame(scope, parent);
+        if (pooled == pool.length)
+            pool = Arrays.copyOf(pool, pooled * 2);
+        ScopeStorage frame = pool[pooled];
+        if (frame == null)
+            frame = pool[pooled] = newFrame(scope, parent);
+        else
+            frame.reset(scope, parent);
+        ++pooled;
+        return frame;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Gives back the frame of the innermost function activation, see {@link #borrowFrame}.
+     */
+    private void releaseFrame() {
+        if (framePooling)
+            pool[--pooled].clear();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Long intLiteral(IntLiteralNode node) {
         return node.value;
     }
@@ -164,12 +452,18 @@ public final class Interpreter {
     // ---------------------------------------------------------------------------------------------
 
     private Object[] arrayLiteral(ArrayLiteralNode node) {
+        if (counts != null)
+            ++counts.arrays;
+        allocate(Budget.arrayBytes(node.components.size()));
         return map(node.components, new Object[0], visitor);
     }
 
     // ---------------------------------------------------------------------------------------------
 
     private Object[] setLiteral(SetLiteralNode node) {
+        if (counts != null)
+            ++counts.sets;
+        allocate(Budget.arrayBytes(node.components.size()));
         Object[] set = map(node.components, new Object[0], visitor);
         Arrays.sort(set);
         set = Arrays.stream(set).distinct().toArray();
@@ -190,12 +484,12 @@ public final class Interpreter {
                 return booleanOp(node, true);
         }
 
-        Object left = get(node.left);
-        Object right = get(node.right);
-
         if (node.operator == BinaryOperator.ADD
             && (leftType instanceof StringType || rightType instanceof StringType))
-            return convertToString(left) + convertToString(right);
+            return concatenation(node);
+
+        Object left = get(node.left);
+        Object right = get(node.right);
 
         boolean floating = leftType instanceof FloatType || rightType instanceof FloatType;
         boolean numeric = floating || leftType instanceof IntType;
@@ -204,50 +498,25 @@ public final class Interpreter {
         if (array && (node.operator == BinaryOperator.ADD || node.operator == BinaryOperator.SUBTRACT
             || node.operator == BinaryOperator.MULTIPLY || node.operator == BinaryOperator.DIVIDE)) {
             ArrayType convertedLeftType = cast(leftType);
-            // ArrayType convertedRightType = cast(rightType);
-            Object[] arrayLeft = get(node.left);
             boolean floatingArray = convertedLeftType.componentType instanceof FloatType;
             boolean numericArray = floatingArray || convertedLeftType.componentType instanceof IntType;
 
-            int sizeMax = arrayLeft.length;
             if (rightType instanceof ArrayType) {
                 ArrayType convertedRightType = cast(rightType);
                 floatingArray = floatingArray
                     || convertedRightType.componentType instanceof FloatType;
                 numericArray = floatingArray || numericArray;
-                Object[] arrayRight = get(node.right);
-                sizeMax = Math.max(arrayLeft.length, arrayRight.length);
             }
 
-            Number valueRight = 0;
-            if (rightType instanceof FloatType || rightType instanceof IntType) {
-                valueRight = get(node.right);
-            }
-
-            Object[] result = new Object[sizeMax];
             if (numericArray) {
-                try {
-                    if (rightType instanceof ArrayType) {
-                        Object[] arrayRight = get(node.right);
-                        for (int i = 0; i < sizeMax; ++i) {
-                            result[i] = numericOp(node, floatingArray, (Number) arrayLeft[i], (Number) arrayRight[i]);
-                        }
-                        return result;
-                    } else {
-                        for (int i = 0; i < sizeMax; ++i) {
-                            result[i] = numericOp(node, floatingArray, (Number) arrayLeft[i], valueRight);
-                        }
-                        return result;
-                    }
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    throw new PassthroughException(e);
-                }
+                Object[] arrayLeft = (Object[]) left;
+                allocate(Budget.arrayBytes(arrayOpLength(arrayLeft, right)));
+                return arrayOp(node.operator, floatingArray, arrayLeft, right);
             }
-
         }
 
         if (numeric)
-            return numericOp(node, floating, (Number) left, (Number) right);
+            return numericOp(node.operator, floating, (Number) left, (Number) right);
 
         switch (node.operator) {
             case EQUALITY:
@@ -270,7 +539,7 @@ public final class Interpreter {
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object numericOp(BinaryExpressionNode node, boolean floating, Number left, Number right) {
+    static Object numericOp(BinaryOperator operator, boolean floating, Number left, Number right) {
         long ileft, iright;
         double fleft, fright;
 
@@ -286,7 +555,7 @@ public final class Interpreter {
 
         Object result;
         if (floating)
-            switch (node.operator) {
+            switch (operator) {
                 case MULTIPLY:
                     return fleft * fright;
                 case DIVIDE:
@@ -313,7 +582,7 @@ public final class Interpreter {
                     throw new Error("should not reach here");
             }
         else
-            switch (node.operator) {
+            switch (operator) {
                 case MULTIPLY:
                     return ileft * iright;
                 case DIVIDE:
@@ -404,6 +673,54 @@ public final class Interpreter {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Same checks as {@link #getIndex}, for the other interpreter modes, which report the error
+     * to the user.
+     */
+    static void checkIndex(long index) {
+        if (index < 0)
+            throw new PassthroughException(
+                new ArrayIndexOutOfBoundsException("Negative index: " + index));
+        if (index >= Integer.MAX_VALUE - 1)
+            throw new PassthroughException(
+                new ArrayIndexOutOfBoundsException("Index exceeds max array index (2ˆ31 - 2): " + index));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Element-wise operation between an array and either an array or a number, with the same
+     * semantics as in {@link #binaryExpression}, for the other interpreter modes.
+     */
+    static Object[] arrayOp(BinaryOperator operator, boolean floating, Object[] left, Object right) {
+        Object[] arrayRight = right instanceof Object[] ? (Object[]) right : null;
+        Number valueRight = right instanceof Number ? (Number) right : 0;
+        int sizeMax = arrayOpLength(left, right);
+        Object[] result = new Object[sizeMax];
+
+        try {
+            for (int i = 0; i < sizeMax; ++i)
+                result[i] = numericOp(operator, floating, (Number) left[i],
+                    arrayRight == null ? valueRight : (Number) arrayRight[i]);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new PassthroughException(e);
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the length of the array returned by {@link #arrayOp} for these operands.
+     */
+    static int arrayOpLength(Object[] left, Object right) {
+        return right instanceof Object[]
+            ? Math.max(left.length, ((Object[]) right).length)
+            : left.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object[] getNonNullArray(ExpressionNode node) {
         Object object = get(node);
         if (object == Null.INSTANCE)
@@ -435,7 +752,8 @@ public final class Interpreter {
     private Object root(RootNode node) {
         assert storage == null;
         rootScope = reactor.get(node, "scope");
-        storage = rootStorage = new ScopeStorage(rootScope, null);
+        overloads = reactor.get(node, "overloads");
+        storage = rootStorage = newFrame(rootScope, null);
         storage.initRoot(rootScope);
 
         try {
@@ -451,11 +769,12 @@ public final class Interpreter {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Blocks have no frame of their own: their variables are stored in the frame of the enclosing
+     * function or file (see {@link Scope#frame}).
+     */
     private Void block(BlockNode node) {
-        Scope scope = reactor.get(node, "scope");
-        storage = new ScopeStorage(scope, storage);
         node.statements.forEach(this::run);
-        storage = storage.parent;
         return null;
     }
 
@@ -473,13 +792,132 @@ public final class Interpreter {
     }
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Evaluates a whole concatenation chain (see {@link Concatenation}): the operands are
+     * evaluated and converted, then appended to a builder sized for the result, so that no
+     * intermediate string is created.
+     */
+    private String concatenation(BinaryExpressionNode node) {
+        return concatenate(
+            concatenations.computeIfAbsent(node, it -> Concatenation.operands(reactor, it)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Evaluates the operands and returns the concatenation of their values, see {@link
+     * #concatenation}.
+     */
+    private String concatenate(List<ExpressionNode> operands)
+    {
+        Object[] values = new Object[operands.size()];
+        long length = 0;
+
+        for (int i = 0; i < values.length; ++i) {
+            Object value = get(operands.get(i));
+            if (value instanceof Long)
+                length += decimalLength((Long) value);
+            else if (value instanceof Boolean)
+                length += (Boolean) value ? 4 : 5;
+            else {
+                String string = convertToString(value);
+                length += string.length();
+                value = string;
+            }
+            values[i] = value;
+        }
+
+        allocate(Budget.stringBytes(length));
+        // beyond the maximum array size, appending fails with an OutOfMemoryError like in Java
+        StringBuilder b = new StringBuilder((int) Math.min(length, Integer.MAX_VALUE - 8));
+        for (Object value: values) {
+            if (value instanceof Long)
+                b.append((long) (Long) value);
+            else if (value instanceof Boolean)
+                b.append((boolean) (Boolean) value);
+            else
+                b.append((String) value);
+        }
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of characters of the decimal representation of the value.
+     */
+    private static int decimalLength(long value) {
+        if (value == Long.MIN_VALUE) return 20;
+        int length = value < 0 ? 2 : 1;
+        for (long x = Math.abs(value); x >= 10; x /= 10)
+            ++length;
+        return length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object expressionStmt(ExpressionStatementNode node) {
+        List<ExpressionNode> operands = streamedPrints.computeIfAbsent(node, it -> {
+            List<ExpressionNode> result = StreamedPrint.operands(reactor, it.expression);
+            return result != null ? result : Collections.emptyList();
+        });
+        if (!operands.isEmpty()) {
+            streamedPrint(operands);
+            return null;
+        }
+        if (node.expression instanceof AssignmentNode && append((AssignmentNode) node.expression))
+            return null;
         get(node.expression);
         return null; // discard value
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * If the assignment (whose value is discarded) appends to a string variable (see {@link
+     * Concatenation#appendedOperands}), performs it by appending to the {@link Rope} stored in
+     * the variable, and returns true. Returns false otherwise.
+     *
+     * <p>Reading the variable (see {@link #reference}) flattens the rope.
+     */
+    private boolean append(AssignmentNode node)
+    {
+        List<ExpressionNode> operands = appends.computeIfAbsent(node, it -> {
+            List<ExpressionNode> result = Concatenation.appendedOperands(reactor, it);
+            return result != null ? result : Collections.emptyList();
+        });
+        if (operands.isEmpty())
+            return false;
+
+        ReferenceNode target = (ReferenceNode) node.left;
+        Scope scope = reactor.get(target, "scope");
+        // read before evaluating the operands, which may assign the variable
+        Object value = (scope.frame == rootScope ? rootStorage : storage).get(scope, target.name);
+        String piece = concatenate(operands);
+        Rope rope = value instanceof Rope ? (Rope) value : Rope.of(convertToString(value));
+        assign(scope, target.name, rope.append(piece), StringType.INSTANCE);
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Prints the concatenation of the operands without building it, see {@link StreamedPrint}.
+     */
+    private void streamedPrint(List<ExpressionNode> operands) {
+        if (counts != null)
+            ++counts.calls;
+        Object[] values = new Object[operands.size()];
+        for (int i = 0; i < values.length; ++i) {
+            Object value = get(operands.get(i));
+            String name = declarationName(value);
+            values[i] = name != null ? name : value;
+        }
+        ValueFormatter.println(out, values);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object fieldAccess(FieldAccessNode node) {
         Object stem = get(node.stem);
         if (stem == Null.INSTANCE)
@@ -505,33 +943,167 @@ public final class Interpreter {
     // ---------------------------------------------------------------------------------------------
     /*
     In this method, it was added the case of Polymorphism, when funCallNode and funDeclNode arguments/params do not match,
-    it will get the function with the 'correct' parameters from the functionsDecl hashmap (if it exists).
+    it will get the function with the 'correct' parameters from the overloads index (if it exists).
     Keys have the form of: "multiplicar [Int, Int, Int]", and the value is a FunDeclarationNode type
     It also covers this case of Polymorphism: add [Int, Int], add[String, String], add[Float, Float]
     */
     private Object funCall(FunCallNode node) {
         Object decl = get(node.function);
-        node.arguments.forEach(this::run);
         Object[] args = map(node.arguments, new Object[0], visitor);
 
-        if (decl == Null.INSTANCE)
+        checkCallable(decl);
+
+        if (counts != null)
+            ++counts.calls;
+
+        if (decl instanceof SyntheticDeclarationNode) {
+            SyntheticDeclarationNode function = (SyntheticDeclarationNode) decl;
+            if (budget != null && function.builtin() != null)
+                allocate(function.builtin().bytes(args));
+        } else if (decl instanceof Constructor) {
+            if (counts != null)
+                ++counts.structs;
+            allocate(Budget.mapBytes(((Constructor) decl).declaration.fields.size()));
+        } else if (decl instanceof ClassConstructor) {
+            if (counts != null)
+                ++counts.classes;
+            allocate(Budget.mapBytes(((ClassConstructor) decl).declaration.block.statements.size()));
+        } else if (decl instanceof ExternFunDeclarationNode) {
+            return externCall((ExternFunDeclarationNode) decl, args);
+        } else {
+            FunDeclarationNode funDecl = selectOverload(overloads, node, (FunDeclarationNode) decl);
+            return invoke(funDecl, reactor.get(funDecl, "scope"), args);
+        }
+
+        return callNative(decl, args, out);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Throws the error reported to the user when calling a null function value. Shared by all
+     * interpreter modes.
+     */
+    static void checkCallable(Object function) {
+        if (function == Null.INSTANCE)
             throw new PassthroughException(new NullPointerException("calling a null function"));
+    }
 
-        if (decl instanceof SyntheticDeclarationNode)
-            return builtin(((SyntheticDeclarationNode) decl).name(), args);
+    // ---------------------------------------------------------------------------------------------
 
-        if (decl instanceof Constructor)
-            return buildStruct(((Constructor) decl).declaration, args);
+    /**
+     * Calls a function value that is not implemented by Sigh code: a builtin function, or a
+     * structure or class constructor. Shared by all interpreter modes, which handle calls to
+     * {@link FunDeclarationNode} with their own activation records.
+     */
+    static Object callNative(Object function, Object[] args, OutputSink out) {
+        if (function instanceof SyntheticDeclarationNode)
+            return builtin((SyntheticDeclarationNode) function, args, out);
+        if (function instanceof Constructor)
+            return buildStruct(((Constructor) function).declaration, args);
+        if (function instanceof ClassConstructor)
+            return buildClass(((ClassConstructor) function).declaration, args);
+        throw new UnsupportedOperationException("calling " + function);
+    }
 
-        if (decl instanceof ClassConstructor)
-            return buildClass(((ClassConstructor) decl).declaration, args);
+    // ---------------------------------------------------------------------------------------------
 
-        ScopeStorage oldStorage = storage;
-        Scope scope = reactor.get(decl, "scope");
-        storage = new ScopeStorage(scope, storage);
+    /**
+     * Calls the Java method that implements the extern function (see {@link ExternLinker})
+     * through a method handle, cached in {@link #externs}.
+     *
+     * <p>Unlike the compiled code, the interpreter represents arrays as {@code Object[]}: array
+     * arguments are copied to Java arrays for the call, then copied back, so that the changes
+     * made by the method are visible to the program.
+     */
+    private Object externCall(ExternFunDeclarationNode decl, Object[] args) {
+        MethodHandle handle = externs.computeIfAbsent(decl, it -> {
+            Method method = reactor.get(it, "method");
+            try {
+                MethodHandle direct = MethodHandles.publicLookup().unreflect(method);
+                return direct.asType(direct.type().generic())
+                    .asSpreader(Object[].class, args.length);
+            } catch (IllegalAccessException e) {
+                throw new PassthroughException(e);
+            }
+        });
+
+        Method method = reactor.get(decl, "method");
+        Class<?>[] types = method.getParameterTypes();
+        Object[] values = new Object[args.length];
+        for (int i = 0; i < args.length; ++i)
+            values[i] = toJava(args[i], types[i]);
+
+        Object result;
+        try {
+            result = (Object) handle.invokeExact(values);
+        } catch (Throwable t) {
+            throw new PassthroughException(t);
+        }
+
+        for (int i = 0; i < args.length; ++i)
+            if (args[i] instanceof Object[])
+                for (int j = 0; j < ((Object[]) args[i]).length; ++j)
+                    ((Object[]) args[i])[j] = fromJava(Array.get(values[i], j));
+
+        if (method.getReturnType() == void.class)
+            return null;
+        if (result != null && result.getClass().isArray()) {
+            Object[] array = new Object[Array.getLength(result)];
+            allocate(Budget.arrayBytes(array.length));
+            for (int j = 0; j < array.length; ++j)
+                array[j] = fromJava(Array.get(result, j));
+            return array;
+        }
+        return fromJava(result);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Converts a value of the interpreter to a value of the given Java type, see {@link
+     * #externCall}.
+     */
+    private static Object toJava(Object value, Class<?> type) {
+        if (value == Null.INSTANCE)
+            return null;
+        if (!(value instanceof Object[]))
+            return value;
+        Object[] array = (Object[]) value;
+        Object result = Array.newInstance(type.getComponentType(), array.length);
+        for (int i = 0; i < array.length; ++i)
+            Array.set(result, i, array[i] == Null.INSTANCE ? null : array[i]);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Converts a non-array value returned by a Java method to a value of the interpreter, see
+     * {@link #externCall}.
+     */
+    private static Object fromJava(Object value) {
+        return value == null ? Null.INSTANCE : value;
+    }
 
-        FunDeclarationNode funDecl = (FunDeclarationNode) decl;
+    // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the overload of {@code funDecl} (the declaration the function of the call resolves
+     * to) that is called by {@code node}, see {@link #funCall}.
+     */
+    static FunDeclarationNode selectOverload(
+            OverloadIndex overloads, FunCallNode node, FunDeclarationNode funDecl) {
+        return selectOverload(overloads, overloadKey(node), node.arguments.size(), funDecl);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the key of the {@link OverloadIndex} under which the overload called by
+     * {@code node} is registered (if the call is to an overloaded function at all).
+     */
+    static String overloadKey(FunCallNode node) {
         String nameFun=node.function.contents();
         nameFun = nameFun.substring(nameFun.indexOf("$") + 1);
         String concatParams=nameFun+" [";
@@ -542,73 +1114,132 @@ public final class Interpreter {
         concatParams=concatParams+"]";
         concatParams=concatParams.replace(", ]","]");
         //System.out.println("Interp concatParams: "+concatParams);
+        return concatParams;
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
-        if((funDecl.parameters.size()!=node.arguments.size()) ||//Case of Polymorphism (more or less arguments/params)
-            (SemanticAnalysis.functionsDecl.containsKey(concatParams))){//It also covers this Polymorphism case (different argument types and same params size in both nodes)
+    /**
+     * Returns the overload of {@code funDecl} called with {@code argc} arguments by a call whose
+     * {@link #overloadKey} is {@code concatParams}.
+     */
+    static FunDeclarationNode selectOverload(
+            OverloadIndex overloads, String concatParams, int argc, FunDeclarationNode funDecl) {
+        if((funDecl.parameters.size()!=argc) ||//Case of Polymorphism (more or less arguments/params)
+            (overloads.contains(concatParams))){//It also covers this Polymorphism case (different argument types and same params size in both nodes)
 
-            decl = SemanticAnalysis.functionsDecl.get(concatParams);
-            scope = reactor.get(decl, "scope");
-            storage = new ScopeStorage(scope, storage);
-            funDecl = (FunDeclarationNode) decl;
+            funDecl = overloads.get(concatParams);
         }
 
-        Scope finalScope = scope;
-        coIterate(args, funDecl.parameters,
-            (arg, param) -> storage.set(finalScope, param.name, arg));
+        return funDecl;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the body of the function with the given arguments.
+     *
+     * <p>The parameters and the variables of the function body share a single frame (see {@link
+     * Scope#frame}).
+     *
+     * <p>Self tail calls (see {@link #returnStmt}) run as a loop inside a single activation: the
+     * parameters are rebound in place, and the frame is reused, so that such calls consume neither
+     * Java stack nor new frames.
+     */
+    private Object invoke(FunDeclarationNode funDecl, Scope scope, Object[] args) {
+        ScopeStorage oldStorage = storage;
+        ScopeStorage frame = borrowFrame(scope, storage);
 
+        if (profiler != null)
+            profiler.enter(funDecl.name);
         try {
-            get(funDecl.block);
+            while (true) {
+                if (budget != null)
+                    budget.tick();
+                for (int i = 0; i < Math.min(args.length, funDecl.parameters.size()); ++i)
+                    frame.set(scope, funDecl.parameters.get(i).name, args[i]);
+                storage = frame;
+                try {
+                    funDecl.block.statements.forEach(this::run);
+                    return null;
+                } catch (TailCall t) {
+                    args = t.args;
+                }
+            }
         } catch (Return r) {
             return r.value;
         } finally {
             storage = oldStorage;
+            releaseFrame();
+            if (profiler != null)
+                profiler.exit();
         }
-        return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object builtin(String name, Object[] args) {
-        if (name.equals("print")) { // only one at the moment
-            String out = convertToString(args[0]);
-            System.out.println(out);
-            return out;
-        } else if (name.contains("addSet")) {
-            Object[] oldSet = (Object[]) (args[0]);
-            Object newValue = args[1];
-
-            oldSet = Arrays.copyOf(oldSet, oldSet.length + 1); // create new array from old array and allocate one more
-            // element
-            oldSet[oldSet.length - 1] = newValue;
+    /**
+     * A call inlined by {@link norswap.sigh.Inliner}: the arguments that could not be substituted
+     * are stored in a frame of their own, which is only allocated if there are any.
+     */
+    private Object inlinedCall(InlinedCallNode node) {
+        if (profiler != null)
+            profiler.enter(node.function);
+        try {
+            return inlinedBody(node);
+        } finally {
+            if (profiler != null)
+                profiler.exit();
+        }
+    }
 
-            Arrays.sort(oldSet);
-            oldSet = Arrays.stream(oldSet).distinct().toArray();
+    // ---------------------------------------------------------------------------------------------
 
-            return oldSet;
-        } else if (name.contains("containsSet")) {
-            Object[] set = (Object[]) (args[0]);
-            Object checkElem = args[1];
+    private Object inlinedBody(InlinedCallNode node) {
+        if (node.bindings.isEmpty())
+            return get(node.body);
 
-            for (Object element : set) {
-                if (element.equals(checkElem)) {
-                    return true;
-                }
-            }
-            return false;
+        Scope scope = reactor.get(node, "scope");
+        storage = newFrame(scope, storage);
+        try {
+            node.bindings.forEach(this::run);
+            return get(node.body);
+        } finally {
+            storage = storage.parent;
         }
+    }
 
-        return null;
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the builtin function declared by {@code decl}, printing to {@code out}.
+     */
+    static Object builtin(SyntheticDeclarationNode decl, Object[] args, OutputSink out) {
+        Builtin builtin = decl.builtin();
+        if (builtin == null)
+            throw new PassthroughException(new UnsupportedOperationException(
+                "calling " + decl.declaredThing() + " " + decl.name()));
+        return builtin.call(args, out);
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private String convertToString(Object arg) {
-        if (arg == Null.INSTANCE)
-            return "null";
-        else if (arg instanceof Object[])
-            return Arrays.deepToString((Object[]) arg);
-        else if (arg instanceof FunDeclarationNode)
+    static String convertToString(Object arg) {
+        String name = declarationName(arg);
+        return name != null ? name : ValueFormatter.toString(arg);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the text of values that are specific to the interpreter (functions, types and
+     * constructors), or null for other values, which are formatted by {@link ValueFormatter}.
+     */
+    private static String declarationName(Object arg) {
+        if (arg instanceof FunDeclarationNode)
             return ((FunDeclarationNode) arg).name;
+        else if (arg instanceof ExternFunDeclarationNode)
+            return ((ExternFunDeclarationNode) arg).name;
         else if (arg instanceof StructDeclarationNode)
             return ((StructDeclarationNode) arg).name;
         else if (arg instanceof ClassNode)
@@ -617,14 +1248,13 @@ public final class Interpreter {
             return "$" + ((Constructor) arg).declaration.name;
         else if (arg instanceof ClassConstructor)
             return "create " + ((ClassConstructor) arg).declaration.name;
-
         else
-            return arg.toString();
+            return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private HashMap<String, Object> buildStruct(StructDeclarationNode node, Object[] args) {
+    static HashMap<String, Object> buildStruct(StructDeclarationNode node, Object[] args) {
         HashMap<String, Object> struct = new HashMap<>();
         for (int i = 0; i < node.fields.size(); ++i)
             struct.put(node.fields.get(i).name, args[i]);
@@ -632,9 +1262,7 @@ public final class Interpreter {
     }
 
 
-    private HashMap<String, Object> buildClass(ClassNode node, Object[] args) {
-        Scope scope = reactor.get(node, "scope");
-        storage = new ScopeStorage(scope, storage);
+    static HashMap<String, Object> buildClass(ClassNode node, Object[] args) {
         HashMap<String, Object> classMap = new HashMap<>();
         //System.out.println("buildClass: "+node.block.statements);
 
@@ -655,7 +1283,6 @@ public final class Interpreter {
 
         }
 
-        storage = storage.parent;
         return classMap;
     }
     // ---------------------------------------------------------------------------------------------
@@ -671,8 +1298,11 @@ public final class Interpreter {
     // ---------------------------------------------------------------------------------------------
 
     private Void whileStmt(WhileNode node) {
-        while ((boolean) get(node.condition))
+        while ((boolean) get(node.condition)) {
+            if (budget != null)
+                budget.tick();
             get(node.body);
+        }
         return null;
     }
 
@@ -685,10 +1315,12 @@ public final class Interpreter {
         if (decl instanceof VarDeclarationNode
             || decl instanceof ParameterNode
             || decl instanceof SyntheticDeclarationNode
-            && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.VARIABLE)
-            return scope == rootScope
+            && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.VARIABLE) {
+            Object value = scope.frame == rootScope
                 ? rootStorage.get(scope, node.name)
                 : storage.get(scope, node.name);
+            return value instanceof Rope ? value.toString() : value; // see #append
+        }
 
         return decl; // structure or function
     }
@@ -696,6 +1328,11 @@ public final class Interpreter {
     // ---------------------------------------------------------------------------------------------
 
     private Void returnStmt(ReturnNode node) {
+        if (reactor.get(node, "tailCall")) {
+            FunCallNode call = (FunCallNode) node.expression;
+            tailCall.args = map(call.arguments, new Object[0], visitor);
+            throw tailCall;
+        }
         throw new Return(node.expression == null ? null : get(node.expression));
     }
 
@@ -727,32 +1364,12 @@ public final class Interpreter {
         Object[] args = map(node.arguments, new Object[0], visitor);
         Object[] types = map(node.types, new Object[0], visitor);
 
-        if (decl == Null.INSTANCE)
-            throw new PassthroughException(new NullPointerException("calling a null function"));
-
-        if (decl instanceof SyntheticDeclarationNode)
-            return builtin(((SyntheticDeclarationNode) decl).name(), args);
+        checkCallable(decl);
+        if (!(decl instanceof FunDeclarationNode))
+            return callNative(decl, args, out);
 
-        if (decl instanceof Constructor)
-            return buildStruct(((Constructor) decl).declaration, args);
-
-        ScopeStorage oldStorage = storage;
         Scope scope = reactor.get(decl, "scope");
-        storage = new ScopeStorage(scope, storage);
-
-        FunDeclarationNode funDecl = (FunDeclarationNode) decl;
-        coIterate(args, funDecl.parameters,
-            (arg, param) -> storage.set(scope, param.name, arg)); // se fizer isso com os tipos, jogando os valores,
-        // será que funciona??
-
-        try {
-            get(funDecl.block);
-        } catch (Return r) {
-            return r.value;
-        } finally {
-            storage = oldStorage;
-        }
-        return null;
+        return invoke((FunDeclarationNode) decl, scope, args);
     }
 
 }
@@ -0,0 +1,146 @@
+package norswap.sigh.interpreter;
+
+/**
+ * The register-based intermediate representation of a function (or of the top-level code of a
+ * program), as produced by {@link IrLowering} and run by {@link IrInterpreter}.
+ *
+ * <p>Each activation has {@link #registerCount} registers. Parameters occupy the first registers,
+ * followed by local variables and temporaries. Root-scope variables live in a separate array of
+ * globals.
+ *
+ * <p>Instructions are packed in {@link #code}: an opcode (one of the constants defined in this
+ * class) followed by its operands, whose number depends on the opcode and is given in the
+ * documentation of the opcode, where {@code d} is the destination register, {@code a}, {@code b}
+ * and {@code s} are source registers, {@code k} is an index in {@link #constants}, {@code t} is a
+ * jump target (an index in {@link #code}), and {@code first, n} designate the {@code n}
+ * consecutive registers starting at {@code first}.
+ */
+final class IrCode
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** {@code MOVE d s} */
+    static final int MOVE = 0;
+    /** {@code CONST d k} */
+    static final int CONST = 1;
+    /** {@code GLOAD d g}: load global {@code g}. */
+    static final int GLOAD = 2;
+    /** {@code GSTORE g s}: store into global {@code g}. */
+    static final int GSTORE = 3;
+    /** {@code TO_FLOAT d s}: converts a {@link Long} to a {@link Double}, copies anything else. */
+    static final int TO_FLOAT = 4;
+    /** {@code NOT d s} */
+    static final int NOT = 5;
+
+    /** {@code ADD_I d a b}, and likewise for the following integer operations. */
+    static final int ADD_I = 6;
+    static final int SUB_I = 7;
+    static final int MUL_I = 8;
+    static final int DIV_I = 9;
+    static final int REM_I = 10;
+    static final int LT_I = 11;
+    static final int LE_I = 12;
+    static final int GT_I = 13;
+    static final int GE_I = 14;
+    static final int EQ_I = 15;
+    static final int NE_I = 16;
+
+    /** {@code ADD_F d a b}, and likewise for the following floating-point operations. */
+    static final int ADD_F = 17;
+    static final int SUB_F = 18;
+    static final int MUL_F = 19;
+    static final int DIV_F = 20;
+    static final int REM_F = 21;
+    static final int LT_F = 22;
+    static final int LE_F = 23;
+    static final int GT_F = 24;
+    static final int GE_F = 25;
+    static final int EQ_F = 26;
+    static final int NE_F = 27;
+
+    /** {@code ARRAY_OP d a b op}: element-wise array operation, {@code op} is the ordinal of the
+     * operator shifted left by one, plus one if the operation is floating-point. */
+    static final int ARRAY_OP = 28;
+    /** {@code CONCAT d a b}: string concatenation. */
+    static final int CONCAT = 29;
+    /** {@code EQUALS d a b flags}: equality of non-numeric values, using {@code equals} if
+     * {@code flags & 1}, negated if {@code flags & 2}. */
+    static final int EQUALS = 30;
+
+    /** {@code JUMP t} */
+    static final int JUMP = 31;
+    /** {@code JUMP_IF_FALSE s t} */
+    static final int JUMP_IF_FALSE = 32;
+    /** {@code JUMP_IF_TRUE s t} */
+    static final int JUMP_IF_TRUE = 33;
+
+    /** {@code ARRAY d first n} */
+    static final int ARRAY = 34;
+    /** {@code SET d first n} */
+    static final int SET = 35;
+    /** {@code CHECK_NULL s k}: throws a null pointer exception with message {@code k}
+     * if {@code s} is null. */
+    static final int CHECK_NULL = 36;
+    /** {@code CHECK_INDEX s}: checks that {@code s} is a valid array index. */
+    static final int CHECK_INDEX = 37;
+    /** {@code INDEX d a s}: {@code d = a[s]} */
+    static final int INDEX = 38;
+    /** {@code INDEX_STORE a s b}: {@code a[s] = b} */
+    static final int INDEX_STORE = 39;
+    /** {@code FIELD d s k m}: reads field {@code k} of struct or class {@code s} (or the length
+     * of array {@code s}), throwing a null pointer exception with message {@code m} if {@code s}
+     * is null. */
+    static final int FIELD = 40;
+    /** {@code FIELD_STORE s k b}: sets field {@code k} of struct or class {@code s} to {@code b}. */
+    static final int FIELD_STORE = 41;
+
+    /** {@code CALL d k first n}: calls the function whose {@link IrCode} is {@code k}. */
+    static final int CALL = 42;
+    /** {@code CALL_DYNAMIC d s first n k}: calls the function value {@code s}, {@code k} is the
+     * overload key of the call (see {@link Interpreter#overloadKey}). */
+    static final int CALL_DYNAMIC = 43;
+    /** {@code BUILTIN d k first n}: calls the builtin function declared by {@code k}. */
+    static final int BUILTIN = 44;
+    /** {@code STRUCT d k first n}: builds a struct declared by {@code k}. */
+    static final int STRUCT = 45;
+    /** {@code RETURN s} */
+    static final int RETURN = 46;
+    /** {@code RETURN_VOID} */
+    static final int RETURN_VOID = 47;
+    /** {@code TAIL_CALL first n}: rebinds the parameters and restarts the current function. */
+    static final int TAIL_CALL = 48;
+    /** {@code FAIL k}: throws an exception with message {@code k}, for code that the
+     * {@link Interpreter} fails to run as well. */
+    static final int FAIL = 49;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Name of the function, used in error messages. */
+    final String name;
+
+    /** Packed instructions. */
+    int[] code;
+
+    /** Operands that are not integers. */
+    Object[] constants;
+
+    /** Number of parameters of the function. */
+    int parameterCount;
+
+    /** Number of registers in an activation of the function, including parameters. */
+    int registerCount;
+
+    // ---------------------------------------------------------------------------------------------
+
+    IrCode (String name) {
+        this.name = name;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        return "IrCode(" + name + ")";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,615 @@
+package norswap.sigh.interpreter;
+
+import norswap.autumn.positions.Span;
+import norswap.sigh.ast.*;
+import norswap.sigh.scopes.DeclarationKind;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.uranium.Reactor;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A fully analyzed and lowered program (see {@link IrLowering}), which can be saved to a
+ * compact binary image and loaded back, so that it can be run by the {@link IrInterpreter}
+ * without parsing and semantic analysis.
+ *
+ * <p>Names, types and overloads are already resolved in the IR, so the image only needs the
+ * IR itself, the overload table, and the declarations that are runtime values (functions,
+ * structs, classes, ...). These are saved without their bodies (initializers and function
+ * blocks), which the runtime does not need, and loaded back as stub declaration nodes.
+ *
+ * <p>The image starts with a header holding a magic number, the format version ({@link
+ * #VERSION}), a checksum of the source code the image was compiled from (see {@link
+ * #sourceChecksum}), and the size and CRC32 checksum of the payload. Images are read through a
+ * memory mapping of the file.
+ */
+public final class IrImage
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** "SIGH" */
+    public static final int MAGIC = 0x53494748;
+
+    /** Version of the image format, to be incremented whenever it (or the IR) changes. */
+    public static final int VERSION = 2;
+
+    /** magic, version, source checksum, payload size, payload checksum */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+
+    // Tags of runtime declarations.
+    private static final byte FUN = 0, GENERIC_FUN = 1, TEMPLATE = 2, STRUCT = 3, CLASS = 4,
+        FIELD = 5, VAR = 6, SYNTHETIC = 7;
+
+    // Tags of type nodes.
+    private static final byte NO_TYPE = 0, SIMPLE_TYPE = 1, ARRAY_TYPE = 2, SET_TYPE = 3,
+        DICT_TYPE = 4, MODIFIER = 5;
+
+    // Tags of constants.
+    private static final byte JAVA_NULL = 0, NULL = 1, FALSE = 2, TRUE = 3, LONG = 4, DOUBLE = 5,
+        STRING = 6, CODE = 7, NODE = 8, CONSTRUCTOR = 9, CLASS_CONSTRUCTOR = 10;
+
+    /** Span of the stub declarations. */
+    private static final Span NO_SPAN = new Span(0, 0);
+
+    // ---------------------------------------------------------------------------------------------
+
+    final IrProgram program;
+
+    /** Checksum of the source code the program was compiled from, see {@link #checksum}. */
+    public final long sourceChecksum;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private IrImage (IrProgram program, long sourceChecksum) {
+        this.program = program;
+        this.sourceChecksum = sourceChecksum;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lowers the program (which must have been successfully analyzed by {@code reactor}),
+     * compiled from {@code source}.
+     *
+     * @throws UnsupportedOperationException if the program declares extern functions.
+     */
+    public static IrImage compile (Reactor reactor, RootNode root, String source) {
+        return new IrImage(new IrLowering(reactor).lower(root), checksum(source));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a checksum of the source code, stored in images to detect stale images. */
+    public static long checksum (String source) {
+        CRC32 crc = new CRC32();
+        crc.update(source.getBytes(StandardCharsets.UTF_8));
+        return (long) source.length() << 32 | crc.getValue();
+    }
+
+    // =============================================================================================
+    // region [Writing]
+    // =============================================================================================
+
+    public void write (Path path) throws IOException {
+        Files.write(path, toBytes());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public byte[] toBytes ()
+    {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new Writer(new DataOutputStream(bytes)).program(program);
+            byte[] payload = bytes.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            ByteBuffer image = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+            image.putInt(MAGIC);
+            image.putInt(VERSION);
+            image.putLong(sourceChecksum);
+            image.putInt(payload.length);
+            image.putInt((int) crc.getValue());
+            image.put(payload);
+            return image.array();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Writer
+    {
+        final DataOutputStream out;
+
+        /** Index of the declarations that are runtime values, in order of writing. */
+        final IdentityHashMap<DeclarationNode, Integer> nodes = new IdentityHashMap<>();
+
+        /** Index of the code of the functions, the main code being 0. */
+        final IdentityHashMap<IrCode, Integer> codes = new IdentityHashMap<>();
+
+        final ArrayList<IrCode> codeList = new ArrayList<>();
+
+        Writer (DataOutputStream out) {
+            this.out = out;
+        }
+
+        void program (IrProgram program) throws IOException
+        {
+            codeList.add(program.main);
+            codeList.addAll(program.functions.values());
+            for (IrCode code: codeList)
+                codes.put(code, codes.size());
+
+            // collect the declarations beforehand, so that they can be loaded first
+            ArrayList<DeclarationNode> order = new ArrayList<>();
+            for (FunDeclarationNode decl: program.functions.keySet())
+                collect(decl, order);
+            for (FunDeclarationNode decl: program.overloads.values())
+                collect(decl, order);
+            for (IrCode code: codeList)
+                for (Object constant: code.constants)
+                    collectConstant(constant, order);
+
+            out.writeInt(program.globalCount);
+
+            out.writeInt(order.size());
+            for (DeclarationNode node: order)
+                declaration(node, program);
+
+            out.writeInt(codeList.size());
+            for (IrCode code: codeList)
+                code(code);
+
+            out.writeInt(program.overloads.size());
+            for (Map.Entry<String, FunDeclarationNode> entry: program.overloads.entrySet()) {
+                string(entry.getKey());
+                out.writeInt(nodes.get(entry.getValue()));
+            }
+        }
+
+        void collectConstant (Object constant, List<DeclarationNode> order) {
+            if (constant instanceof DeclarationNode)
+                collect((DeclarationNode) constant, order);
+            else if (constant instanceof Constructor)
+                collect(((Constructor) constant).declaration, order);
+            else if (constant instanceof ClassConstructor)
+                collect(((ClassConstructor) constant).declaration, order);
+        }
+
+        /** Adds the declaration to {@code order}, after the declarations it refers to. */
+        void collect (DeclarationNode node, List<DeclarationNode> order) {
+            if (nodes.containsKey(node)) return;
+            if (node instanceof StructDeclarationNode)
+                for (FieldDeclarationNode field: ((StructDeclarationNode) node).fields)
+                    collect(field, order);
+            else if (node instanceof ClassNode)
+                for (DeclarationNode member: members((ClassNode) node))
+                    collect(member, order);
+            nodes.put(node, nodes.size());
+            order.add(node);
+        }
+
+        void declaration (DeclarationNode node, IrProgram program) throws IOException
+        {
+            if (node instanceof FunDeclarationNode) {
+                FunDeclarationNode fun = (FunDeclarationNode) node;
+                out.writeByte(FUN);
+                string(fun.name);
+                parameters(fun.parameters);
+                type(fun.returnType);
+                IrCode code = program.functions.get(fun);
+                out.writeInt(code == null ? -1 : codes.get(code));
+            }
+            else if (node instanceof GenericFunDeclarationNode) {
+                GenericFunDeclarationNode fun = (GenericFunDeclarationNode) node;
+                out.writeByte(GENERIC_FUN);
+                string(fun.name);
+                type(fun.modifier);
+                parameters(fun.parameters);
+                type(fun.returnType);
+            }
+            else if (node instanceof TempDeclarationNode) {
+                out.writeByte(TEMPLATE);
+                string(node.name());
+            }
+            else if (node instanceof StructDeclarationNode) {
+                out.writeByte(STRUCT);
+                string(node.name());
+                references(((StructDeclarationNode) node).fields);
+            }
+            else if (node instanceof ClassNode) {
+                ClassNode klass = (ClassNode) node;
+                out.writeByte(CLASS);
+                string(klass.name);
+                type(klass.modifier);
+                List<String> superclasses = klass.superclasses;
+                out.writeInt(superclasses == null ? -1 : superclasses.size());
+                if (superclasses != null)
+                    for (String superclass: superclasses)
+                        string(superclass);
+                references(members(klass));
+            }
+            else if (node instanceof FieldDeclarationNode) {
+                out.writeByte(FIELD);
+                string(node.name());
+                type(((FieldDeclarationNode) node).type);
+            }
+            else if (node instanceof VarDeclarationNode) {
+                out.writeByte(VAR);
+                string(node.name());
+                type(((VarDeclarationNode) node).type);
+            }
+            else if (node instanceof SyntheticDeclarationNode) {
+                out.writeByte(SYNTHETIC);
+                string(node.name());
+                out.writeByte(((SyntheticDeclarationNode) node).kind().ordinal());
+            }
+            else {
+                throw new IllegalArgumentException("cannot save declaration to an image: " + node);
+            }
+        }
+
+        void parameters (List<ParameterNode> parameters) throws IOException {
+            out.writeInt(parameters.size());
+            for (ParameterNode parameter: parameters) {
+                string(parameter.name);
+                type(parameter.type);
+            }
+        }
+
+        void type (TypeNode type) throws IOException
+        {
+            if (type == null) {
+                out.writeByte(NO_TYPE);
+            } else if (type instanceof SimpleTypeNode) {
+                out.writeByte(SIMPLE_TYPE);
+                string(((SimpleTypeNode) type).name);
+            } else if (type instanceof ArrayTypeNode) {
+                out.writeByte(ARRAY_TYPE);
+                type(((ArrayTypeNode) type).componentType);
+            } else if (type instanceof SetTypeNode) {
+                out.writeByte(SET_TYPE);
+                type(((SetTypeNode) type).componentType);
+            } else if (type instanceof DictTypeNode) {
+                DictTypeNode dict = (DictTypeNode) type;
+                out.writeByte(DICT_TYPE);
+                type(dict.componentType);
+                nullableString(dict.key);
+                nullableString(dict.value);
+            } else if (type instanceof ModifierNode) {
+                out.writeByte(MODIFIER);
+                string(((ModifierNode) type).name);
+            } else {
+                throw new IllegalArgumentException("cannot save type to an image: " + type);
+            }
+        }
+
+        void references (List<? extends DeclarationNode> declarations) throws IOException {
+            out.writeInt(declarations.size());
+            for (DeclarationNode declaration: declarations)
+                out.writeInt(nodes.get(declaration));
+        }
+
+        void code (IrCode code) throws IOException
+        {
+            string(code.name);
+            out.writeInt(code.parameterCount);
+            out.writeInt(code.registerCount);
+            out.writeInt(code.code.length);
+            for (int word: code.code)
+                out.writeInt(word);
+            out.writeInt(code.constants.length);
+            for (Object constant: code.constants)
+                constant(constant);
+        }
+
+        void constant (Object constant) throws IOException
+        {
+            if (constant == null) {
+                out.writeByte(JAVA_NULL);
+            } else if (constant == Null.INSTANCE) {
+                out.writeByte(NULL);
+            } else if (constant instanceof Boolean) {
+                out.writeByte((Boolean) constant ? TRUE : FALSE);
+            } else if (constant instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) constant);
+            } else if (constant instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) constant);
+            } else if (constant instanceof String) {
+                out.writeByte(STRING);
+                string((String) constant);
+            } else if (constant instanceof IrCode) {
+                out.writeByte(CODE);
+                out.writeInt(codes.get(constant));
+            } else if (constant instanceof DeclarationNode) {
+                out.writeByte(NODE);
+                out.writeInt(nodes.get(constant));
+            } else if (constant instanceof Constructor) {
+                out.writeByte(CONSTRUCTOR);
+                out.writeInt(nodes.get(((Constructor) constant).declaration));
+            } else if (constant instanceof ClassConstructor) {
+                out.writeByte(CLASS_CONSTRUCTOR);
+                out.writeInt(nodes.get(((ClassConstructor) constant).declaration));
+            } else {
+                throw new IllegalArgumentException("cannot save constant to an image: " + constant);
+            }
+        }
+
+        void string (String string) throws IOException {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        void nullableString (String string) throws IOException {
+            out.writeBoolean(string != null);
+            if (string != null) string(string);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the members of the class that end up in its instances, see {@link Interpreter#buildClass}. */
+    private static List<DeclarationNode> members (ClassNode node) {
+        ArrayList<DeclarationNode> members = new ArrayList<>();
+        for (StatementNode statement: node.block.statements)
+            if (statement instanceof FieldDeclarationNode
+                    || statement instanceof VarDeclarationNode
+                    || statement instanceof FunDeclarationNode
+                    || statement instanceof GenericFunDeclarationNode)
+                members.add((DeclarationNode) statement);
+        return members;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Reading]
+    // =============================================================================================
+
+    /**
+     * Loads the image at the given path, throwing an {@link IOException} if the file is not a
+     * valid image (or was written with another version of the format).
+     */
+    public static IrImage read (Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Loads the image from {@code bytes}, see {@link #read(Path)}. */
+    public static IrImage fromBytes (byte[] bytes) throws IOException {
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static IrImage read (ByteBuffer in) throws IOException
+    {
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC)
+            throw new IOException("not a Sigh image");
+        int version = in.getInt();
+        if (version != VERSION)
+            throw new IOException("unsupported Sigh image version: " + version);
+        long sourceChecksum = in.getLong();
+        int size = in.getInt();
+        int checksum = in.getInt();
+        if (size != in.remaining())
+            throw new IOException("truncated Sigh image");
+
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate());
+        if ((int) crc.getValue() != checksum)
+            throw new IOException("corrupted Sigh image: checksum mismatch");
+
+        try {
+            return new IrImage(new Reader(in).program(), sourceChecksum);
+        } catch (RuntimeException e) {
+            throw new IOException("malformed Sigh image", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Reader
+    {
+        final ByteBuffer in;
+        DeclarationNode[] nodes;
+        IrCode[] codes;
+
+        /** Code index of the function declarations, resolved once all code is read. */
+        final IdentityHashMap<FunDeclarationNode, Integer> functionCodes = new IdentityHashMap<>();
+
+        Reader (ByteBuffer in) {
+            this.in = in;
+        }
+
+        IrProgram program ()
+        {
+            int globalCount = in.getInt();
+
+            nodes = new DeclarationNode[in.getInt()];
+            for (int i = 0; i < nodes.length; ++i)
+                nodes[i] = declaration();
+
+            // instantiate all the code first, as constants refer to it
+            int codeCount = in.getInt();
+            codes = new IrCode[codeCount];
+            int start = in.position();
+            for (int i = 0; i < codeCount; ++i) {
+                codes[i] = new IrCode(string());
+                skipCode();
+            }
+            in.position(start);
+            for (IrCode code: codes)
+                code(code);
+
+            IdentityHashMap<FunDeclarationNode, IrCode> functions = new IdentityHashMap<>();
+            functionCodes.forEach((decl, index) -> functions.put(decl, codes[index]));
+
+            HashMap<String, FunDeclarationNode> overloads = new HashMap<>();
+            int overloadCount = in.getInt();
+            for (int i = 0; i < overloadCount; ++i)
+                overloads.put(string(), (FunDeclarationNode) nodes[in.getInt()]);
+
+            return new IrProgram(codes[0], functions, overloads, globalCount);
+        }
+
+        DeclarationNode declaration ()
+        {
+            byte tag = in.get();
+            String name = string();
+            switch (tag) {
+                case FUN: {
+                    FunDeclarationNode node =
+                        new FunDeclarationNode(NO_SPAN, name, parameters(), type(), null);
+                    int code = in.getInt();
+                    if (code >= 0) functionCodes.put(node, code);
+                    return node;
+                }
+                case GENERIC_FUN: {
+                    TypeNode modifier = type();
+                    List<ParameterNode> parameters = parameters();
+                    return new GenericFunDeclarationNode(NO_SPAN, modifier, name, parameters, type(), null);
+                }
+                case TEMPLATE:
+                    return new TempDeclarationNode(NO_SPAN, Collections.emptyList(), name,
+                        Collections.emptyList(), null, null);
+                case STRUCT:
+                    return new StructDeclarationNode(NO_SPAN, name, references());
+                case CLASS: {
+                    TypeNode modifier = type();
+                    int superclassCount = in.getInt();
+                    ArrayList<String> superclasses = null;
+                    if (superclassCount >= 0) {
+                        superclasses = new ArrayList<>(superclassCount);
+                        for (int i = 0; i < superclassCount; ++i)
+                            superclasses.add(string());
+                    }
+                    return new ClassNode(NO_SPAN, modifier, name, superclasses,
+                        new BlockNode(NO_SPAN, references()));
+                }
+                case FIELD:
+                    return new FieldDeclarationNode(NO_SPAN, name, type());
+                case VAR:
+                    return new VarDeclarationNode(NO_SPAN, name, type(), null);
+                case SYNTHETIC:
+                    return new SyntheticDeclarationNode(name, DeclarationKind.values()[in.get()]);
+                default:
+                    throw new IllegalStateException("unknown declaration tag: " + tag);
+            }
+        }
+
+        List<ParameterNode> parameters () {
+            int count = in.getInt();
+            ArrayList<ParameterNode> parameters = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                String name = string();
+                parameters.add(new ParameterNode(NO_SPAN, name, type()));
+            }
+            return parameters;
+        }
+
+        TypeNode type ()
+        {
+            byte tag = in.get();
+            switch (tag) {
+                case NO_TYPE:       return null;
+                case SIMPLE_TYPE:   return new SimpleTypeNode(NO_SPAN, string());
+                case ARRAY_TYPE:    return new ArrayTypeNode(NO_SPAN, type());
+                case SET_TYPE:      return new SetTypeNode(NO_SPAN, type());
+                case DICT_TYPE: {
+                    TypeNode component = type();
+                    String key = nullableString();
+                    return new DictTypeNode(NO_SPAN, component, key, nullableString());
+                }
+                case MODIFIER:      return new ModifierNode(NO_SPAN, string());
+                default:
+                    throw new IllegalStateException("unknown type tag: " + tag);
+            }
+        }
+
+        List<DeclarationNode> references () {
+            int count = in.getInt();
+            ArrayList<DeclarationNode> references = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                references.add(nodes[in.getInt()]);
+            return references;
+        }
+
+        void skipCode () {
+            in.position(in.position() + 8); // parameter and register counts
+            in.position(in.position() + 4 * in.getInt());
+            int constantCount = in.getInt();
+            for (int i = 0; i < constantCount; ++i)
+                constant();
+        }
+
+        void code (IrCode code) {
+            string(); // name
+            code.parameterCount = in.getInt();
+            code.registerCount = in.getInt();
+            code.code = new int[in.getInt()];
+            in.asIntBuffer().get(code.code);
+            in.position(in.position() + 4 * code.code.length);
+            code.constants = new Object[in.getInt()];
+            for (int i = 0; i < code.constants.length; ++i)
+                code.constants[i] = constant();
+        }
+
+        Object constant ()
+        {
+            byte tag = in.get();
+            switch (tag) {
+                case JAVA_NULL:         return null;
+                case NULL:              return Null.INSTANCE;
+                case FALSE:             return Boolean.FALSE;
+                case TRUE:              return Boolean.TRUE;
+                case LONG:              return in.getLong();
+                case DOUBLE:            return in.getDouble();
+                case STRING:            return string();
+                case CODE:              return codes[in.getInt()];
+                case NODE:              return nodes[in.getInt()];
+                case CONSTRUCTOR:       return new Constructor((StructDeclarationNode) nodes[in.getInt()]);
+                case CLASS_CONSTRUCTOR: return new ClassConstructor((ClassNode) nodes[in.getInt()]);
+                default:
+                    throw new IllegalStateException("unknown constant tag: " + tag);
+            }
+        }
+
+        String string () {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        String nullableString () {
+            return in.get() != 0 ? string() : null;
+        }
+    }
+
+    // endregion
+    // =============================================================================================
+}
@@ -0,0 +1,402 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.Budget;
+import norswap.sigh.BudgetException;
+import norswap.sigh.OutputSink;
+import norswap.sigh.ast.BinaryOperator;
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.StructDeclarationNode;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.uranium.Reactor;
+import norswap.utils.Util;
+import norswap.utils.exceptions.Exceptions;
+import java.util.Arrays;
+import java.util.Map;
+
+import static norswap.sigh.interpreter.IrCode.*;
+
+/**
+ * An interpreter that runs the register-based IR produced by {@link IrLowering}.
+ *
+ * <p>Names, overloads (whenever the callee is known statically) and operand types are resolved
+ * during lowering, so that running the code amounts to a switch over packed integer
+ * instructions operating on an array of registers. Each Sigh call is a Java call to {@link
+ * #run}, excepted self tail calls, which restart the current activation.
+ *
+ * <p>The results (and errors) are the same as those of {@link Interpreter}.
+ */
+public final class IrInterpreter
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final BinaryOperator[] OPERATORS = BinaryOperator.values();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Reactor reactor;
+    private IrProgram program;
+    private Object[] globals;
+
+    /** Ticked at every backward jump and function entry, and charged for allocations, or null. */
+    private Budget budget;
+
+    /** Receives the output of the program, or null to use a new {@link OutputSink#stdout}. */
+    private OutputSink output;
+
+    /** The sink used by the current run. */
+    private OutputSink out;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an interpreter for the programs analyzed by {@code reactor}, which may be null if the
+     * interpreter is only used to {@link #run} images.
+     */
+    public IrInterpreter (Reactor reactor) {
+        this.reactor = reactor;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the budget that limits the number of loop iterations and function calls of the
+     * programs as well as the memory they allocate, and through which they can be cancelled, then
+     * returns this interpreter. Exceeding the budget throws a {@link BudgetException}.
+     */
+    public IrInterpreter budget (Budget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the sink that receives the output of the programs, and returns this interpreter. The
+     * sink is flushed at the end of every run. If not set, every run buffers its output to the
+     * standard output in a new sink.
+     */
+    public IrInterpreter output (OutputSink output) {
+        this.output = output;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Object interpret (RootNode root) {
+        return execute(new IrLowering(reactor).lower(root));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Runs a program saved as an image, without the need for parsing or semantic analysis. */
+    public Object run (IrImage image) {
+        return execute(image.program);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object execute (IrProgram program)
+    {
+        this.program = program;
+        globals = new Object[program.globalCount];
+        out = output != null ? output : OutputSink.stdout();
+        try {
+            return run(program.main, new Object[program.main.registerCount]);
+        } catch (PassthroughException e) {
+            throw Exceptions.runtime(e.getCause());
+        } finally {
+            out.flush();
+            this.program = null;
+            globals = null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Charges the budget, if any, for the allocation of {@code bytes} bytes.
+     */
+    private void allocate (long bytes) {
+        if (budget != null)
+            budget.allocate(bytes);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Calls the function with the arguments in {@code args[first .. first + n[}. */
+    private Object call (IrCode callee, Object[] args, int first, int n) {
+        if (budget != null)
+            budget.tick();
+        Object[] registers = new Object[callee.registerCount];
+        System.arraycopy(args, first, registers, 0, Math.min(n, callee.parameterCount));
+        return run(callee, registers);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object run (IrCode ir, Object[] r)
+    {
+        int[] code = ir.code;
+        Object[] k = ir.constants;
+        int pc = 0;
+
+        try {
+            while (true) {
+                switch (code[pc]) {
+                    case MOVE:
+                        r[code[pc + 1]] = r[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case CONST:
+                        r[code[pc + 1]] = k[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case GLOAD:
+                        r[code[pc + 1]] = globals[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case GSTORE:
+                        globals[code[pc + 1]] = r[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case TO_FLOAT: {
+                        Object value = r[code[pc + 2]];
+                        r[code[pc + 1]] = value instanceof Long ? ((Long) value).doubleValue() : value;
+                        pc += 3;
+                        break;
+                    }
+                    case NOT:
+                        r[code[pc + 1]] = !(boolean) r[code[pc + 2]];
+                        pc += 3;
+                        break;
+
+                    case ADD_I: r[code[pc + 1]] = i(r[code[pc + 2]]) +  i(r[code[pc + 3]]); pc += 4; break;
+                    case SUB_I: r[code[pc + 1]] = i(r[code[pc + 2]]) -  i(r[code[pc + 3]]); pc += 4; break;
+                    case MUL_I: r[code[pc + 1]] = i(r[code[pc + 2]]) *  i(r[code[pc + 3]]); pc += 4; break;
+                    case DIV_I: r[code[pc + 1]] = i(r[code[pc + 2]]) /  i(r[code[pc + 3]]); pc += 4; break;
+                    case REM_I: r[code[pc + 1]] = i(r[code[pc + 2]]) %  i(r[code[pc + 3]]); pc += 4; break;
+                    case LT_I:  r[code[pc + 1]] = i(r[code[pc + 2]]) <  i(r[code[pc + 3]]); pc += 4; break;
+                    case LE_I:  r[code[pc + 1]] = i(r[code[pc + 2]]) <= i(r[code[pc + 3]]); pc += 4; break;
+                    case GT_I:  r[code[pc + 1]] = i(r[code[pc + 2]]) >  i(r[code[pc + 3]]); pc += 4; break;
+                    case GE_I:  r[code[pc + 1]] = i(r[code[pc + 2]]) >= i(r[code[pc + 3]]); pc += 4; break;
+                    case EQ_I:  r[code[pc + 1]] = i(r[code[pc + 2]]) == i(r[code[pc + 3]]); pc += 4; break;
+                    case NE_I:  r[code[pc + 1]] = i(r[code[pc + 2]]) != i(r[code[pc + 3]]); pc += 4; break;
+
+                    case ADD_F: r[code[pc + 1]] = f(r[code[pc + 2]]) +  f(r[code[pc + 3]]); pc += 4; break;
+                    case SUB_F: r[code[pc + 1]] = f(r[code[pc + 2]]) -  f(r[code[pc + 3]]); pc += 4; break;
+                    case MUL_F: r[code[pc + 1]] = f(r[code[pc + 2]]) *  f(r[code[pc + 3]]); pc += 4; break;
+                    case DIV_F: r[code[pc + 1]] = f(r[code[pc + 2]]) /  f(r[code[pc + 3]]); pc += 4; break;
+                    case REM_F: r[code[pc + 1]] = f(r[code[pc + 2]]) %  f(r[code[pc + 3]]); pc += 4; break;
+                    case LT_F:  r[code[pc + 1]] = f(r[code[pc + 2]]) <  f(r[code[pc + 3]]); pc += 4; break;
+                    case LE_F:  r[code[pc + 1]] = f(r[code[pc + 2]]) <= f(r[code[pc + 3]]); pc += 4; break;
+                    case GT_F:  r[code[pc + 1]] = f(r[code[pc + 2]]) >  f(r[code[pc + 3]]); pc += 4; break;
+                    case GE_F:  r[code[pc + 1]] = f(r[code[pc + 2]]) >= f(r[code[pc + 3]]); pc += 4; break;
+                    case EQ_F:  r[code[pc + 1]] = f(r[code[pc + 2]]) == f(r[code[pc + 3]]); pc += 4; break;
+                    case NE_F:  r[code[pc + 1]] = f(r[code[pc + 2]]) != f(r[code[pc + 3]]); pc += 4; break;
+
+                    case ARRAY_OP: {
+                        int op = code[pc + 4];
+                        Object[] left = (Object[]) r[code[pc + 2]];
+                        Object right = r[code[pc + 3]];
+                        allocate(Budget.arrayBytes(Interpreter.arrayOpLength(left, right)));
+                        r[code[pc + 1]] = Interpreter.arrayOp(OPERATORS[op >> 1], (op & 1) == 1,
+                            left, right);
+                        pc += 5;
+                        break;
+                    }
+                    case CONCAT: {
+                        String left = Interpreter.convertToString(r[code[pc + 2]]);
+                        String right = Interpreter.convertToString(r[code[pc + 3]]);
+                        allocate(Budget.stringBytes((long) left.length() + right.length()));
+                        r[code[pc + 1]] = left + right;
+                        pc += 4;
+                        break;
+                    }
+                    case EQUALS: {
+                        Object left = r[code[pc + 2]];
+                        Object right = r[code[pc + 3]];
+                        int flags = code[pc + 4];
+                        boolean equal = (flags & 1) != 0 ? left.equals(right) : left == right;
+                        r[code[pc + 1]] = equal != ((flags & 2) != 0);
+                        pc += 5;
+                        break;
+                    }
+
+                    case JUMP:
+                        // backward jumps close loops
+                        if (budget != null && code[pc + 1] < pc)
+                            budget.tick();
+                        pc = code[pc + 1];
+                        break;
+                    case JUMP_IF_FALSE:
+                        pc = (boolean) r[code[pc + 1]] ? pc + 3 : code[pc + 2];
+                        break;
+                    case JUMP_IF_TRUE:
+                        pc = (boolean) r[code[pc + 1]] ? code[pc + 2] : pc + 3;
+                        break;
+
+                    case ARRAY: {
+                        int first = code[pc + 2];
+                        allocate(Budget.arrayBytes(code[pc + 3]));
+                        r[code[pc + 1]] = Arrays.copyOfRange(r, first, first + code[pc + 3]);
+                        pc += 4;
+                        break;
+                    }
+                    case SET: {
+                        int first = code[pc + 2];
+                        allocate(Budget.arrayBytes(code[pc + 3]));
+                        Object[] set = Arrays.copyOfRange(r, first, first + code[pc + 3]);
+                        Arrays.sort(set);
+                        r[code[pc + 1]] = Arrays.stream(set).distinct().toArray();
+                        pc += 4;
+                        break;
+                    }
+                    case CHECK_NULL:
+                        if (r[code[pc + 1]] == Null.INSTANCE)
+                            throw new PassthroughException(
+                                new NullPointerException((String) k[code[pc + 2]]));
+                        pc += 3;
+                        break;
+                    case CHECK_INDEX:
+                        Interpreter.checkIndex((long) r[code[pc + 1]]);
+                        pc += 2;
+                        break;
+                    case INDEX: {
+                        long index = (long) r[code[pc + 3]];
+                        Interpreter.checkIndex(index);
+                        try {
+                            r[code[pc + 1]] = ((Object[]) r[code[pc + 2]])[(int) index];
+                        } catch (ArrayIndexOutOfBoundsException e) {
+                            throw new PassthroughException(e);
+                        }
+                        pc += 4;
+                        break;
+                    }
+                    case INDEX_STORE:
+                        try {
+                            ((Object[]) r[code[pc + 1]])[(int) (long) r[code[pc + 2]]] = r[code[pc + 3]];
+                        } catch (ArrayIndexOutOfBoundsException e) {
+                            throw new PassthroughException(e);
+                        }
+                        pc += 4;
+                        break;
+                    case FIELD: {
+                        Object stem = r[code[pc + 2]];
+                        if (stem == Null.INSTANCE)
+                            throw new PassthroughException(
+                                new NullPointerException((String) k[code[pc + 4]]));
+                        r[code[pc + 1]] = stem instanceof Map
+                            ? Util.<Map<String, Object>>cast(stem).get((String) k[code[pc + 3]])
+                            : (long) ((Object[]) stem).length; // only field on arrays
+                        pc += 5;
+                        break;
+                    }
+                    case FIELD_STORE: {
+                        Map<String, Object> struct = Util.cast(r[code[pc + 1]]);
+                        struct.put((String) k[code[pc + 2]], r[code[pc + 3]]);
+                        pc += 4;
+                        break;
+                    }
+
+                    case CALL:
+                        r[code[pc + 1]] = call((IrCode) k[code[pc + 2]], r, code[pc + 3], code[pc + 4]);
+                        pc += 5;
+                        break;
+                    case CALL_DYNAMIC:
+                        r[code[pc + 1]] = callDynamic(r[code[pc + 2]], r, code[pc + 3], code[pc + 4],
+                            (String) k[code[pc + 5]]);
+                        pc += 6;
+                        break;
+                    case BUILTIN: {
+                        int first = code[pc + 3];
+                        r[code[pc + 1]] = builtin((SyntheticDeclarationNode) k[code[pc + 2]],
+                            Arrays.copyOfRange(r, first, first + code[pc + 4]));
+                        pc += 5;
+                        break;
+                    }
+                    case STRUCT: {
+                        int first = code[pc + 3];
+                        StructDeclarationNode struct = (StructDeclarationNode) k[code[pc + 2]];
+                        allocate(Budget.mapBytes(struct.fields.size()));
+                        r[code[pc + 1]] = Interpreter.buildStruct(struct,
+                            Arrays.copyOfRange(r, first, first + code[pc + 4]));
+                        pc += 5;
+                        break;
+                    }
+
+                    case RETURN:
+                        return r[code[pc + 1]];
+                    case RETURN_VOID:
+                        return null;
+                    case TAIL_CALL:
+                        if (budget != null)
+                            budget.tick();
+                        System.arraycopy(r, code[pc + 1], r, 0, Math.min(code[pc + 2], ir.parameterCount));
+                        pc = 0;
+                        break;
+                    case FAIL:
+                        throw new IllegalStateException((String) k[code[pc + 1]]);
+                    default:
+                        throw new Error("unknown opcode: " + code[pc]);
+                }
+            }
+        } catch (InterpreterException | PassthroughException | BudgetException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new InterpreterException("exception while executing " + ir.name, e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls a function value, see {@link IrCode#CALL_DYNAMIC}.
+     */
+    private Object callDynamic (Object function, Object[] r, int first, int n, String overloadKey)
+    {
+        Interpreter.checkCallable(function);
+
+        if (function instanceof FunDeclarationNode) {
+            FunDeclarationNode decl = (FunDeclarationNode) function;
+            decl = program.selectOverload(overloadKey, n, decl);
+            IrCode callee = program.functions.get(decl);
+            if (callee == null)
+                throw new IllegalStateException("no code for function: " + decl);
+            return call(callee, r, first, n);
+        }
+
+        Object[] args = Arrays.copyOfRange(r, first, first + n);
+        if (function instanceof SyntheticDeclarationNode)
+            return builtin((SyntheticDeclarationNode) function, args);
+        if (function instanceof Constructor)
+            allocate(Budget.mapBytes(((Constructor) function).declaration.fields.size()));
+        else if (function instanceof ClassConstructor)
+            allocate(Budget.mapBytes(
+                ((ClassConstructor) function).declaration.block.statements.size()));
+        return Interpreter.callNative(function, args, out);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs a builtin function, after charging the budget for what it allocates.
+     */
+    private Object builtin (SyntheticDeclarationNode decl, Object[] args) {
+        if (budget != null && decl.builtin() != null)
+            allocate(decl.builtin().bytes(args));
+        return Interpreter.builtin(decl, args, out);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long i (Object value) {
+        return ((Number) value).longValue();
+    }
+
+    private static double f (Object value) {
+        return ((Number) value).doubleValue();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,835 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.*;
+import norswap.sigh.scopes.DeclarationKind;
+import norswap.sigh.scopes.OverloadIndex;
+import norswap.sigh.scopes.RootScope;
+import norswap.sigh.scopes.Scope;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.StringType;
+import norswap.sigh.types.Type;
+import norswap.uranium.Reactor;
+import norswap.utils.data.wrappers.Pair;
+import norswap.utils.visitors.ValuedVisitor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static norswap.sigh.interpreter.IrCode.*;
+
+/**
+ * Lowers an analyzed Sigh program to {@link IrCode}, to be run by the {@link IrInterpreter}.
+ *
+ * <p>The semantics of the produced code mirror those of {@link Interpreter}, including for
+ * programs that the interpreter fails to run (these fail at the same point, see {@link
+ * IrCode#FAIL}). All name and overload resolution is performed here whenever possible.
+ *
+ * <p>Extern functions are not supported: lowering a program that declares one throws an {@link
+ * UnsupportedOperationException}.
+ *
+ * <p>Every expression is lowered into a destination register ({@link #into}). Local variables
+ * have a register for the extent of their block, and references to them are used in place
+ * ({@link #expr}), unless a later operand of the same expression could reassign them.
+ * Temporaries are allocated above the variables and released at the end of each statement.
+ */
+final class IrLowering
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final ValuedVisitor<SighNode, Object> visitor = new ValuedVisitor<>();
+    private final Reactor reactor;
+    private RootScope rootScope;
+    private OverloadIndex overloads;
+
+    /** Maps variables in the root scope to their global slot. */
+    private final HashMap<String, Integer> globals = new HashMap<>();
+
+    /** Code of all the functions encountered so far (nodes have structural equality). */
+    private final IdentityHashMap<FunDeclarationNode, IrCode> functions = new IdentityHashMap<>();
+
+    /** Functions whose code remains to be generated. */
+    private final ArrayDeque<FunDeclarationNode> pending = new ArrayDeque<>();
+
+    // Per-function state -------------------------------------------------------------------------
+
+    private int[] code;
+    private int size;
+    private ArrayList<Object> constants;
+
+    /** Maps variables in a scope to their register in the current function. */
+    private HashMap<Pair<Scope, String>, Integer> locals;
+
+    /** Next free register. */
+    private int next;
+
+    /** Number of registers used by the current function. */
+    private int registerCount;
+
+    /** Destination register of the expression being lowered, see {@link #into}. */
+    private int target;
+
+    // ---------------------------------------------------------------------------------------------
+
+    IrLowering (Reactor reactor)
+    {
+        this.reactor = reactor;
+
+        // expressions
+        visitor.register(IntLiteralNode.class,            this::literal);
+        visitor.register(FloatLiteralNode.class,          this::literal);
+        visitor.register(StringLiteralNode.class,         this::literal);
+        visitor.register(ReferenceNode.class,             this::reference);
+        visitor.register(ConstructorNode.class,           this::constructor);
+        visitor.register(ClassConstructorNode.class,      this::classConstructor);
+        visitor.register(ArrayLiteralNode.class,          this::arrayLiteral);
+        visitor.register(SetLiteralNode.class,            this::setLiteral);
+        visitor.register(ParenthesizedNode.class,         this::parenthesized);
+        visitor.register(FieldAccessNode.class,           this::fieldAccess);
+        visitor.register(ClassFieldAccessNode.class,      this::classFieldAccess);
+        visitor.register(ArrayAccessNode.class,           this::arrayAccess);
+        visitor.register(FunCallNode.class,               this::funCall);
+        visitor.register(InlinedCallNode.class,           this::inlinedCall);
+        visitor.register(UnaryExpressionNode.class,       this::unaryExpression);
+        visitor.register(BinaryExpressionNode.class,      this::binaryExpression);
+        visitor.register(AssignmentNode.class,            this::assignment);
+
+        // statement groups & declarations
+        visitor.register(BlockNode.class,                 this::block);
+        visitor.register(VarDeclarationNode.class,        this::varDecl);
+        visitor.register(FunDeclarationNode.class,        this::funDecl);
+        visitor.register(ExternFunDeclarationNode.class,  this::externFunDecl);
+        visitor.register(ClassNode.class,                 this::classDecl);
+
+        // statements
+        visitor.register(ExpressionStatementNode.class,   this::expressionStmt);
+        visitor.register(IfNode.class,                    this::ifStmt);
+        visitor.register(WhileNode.class,                 this::whileStmt);
+        visitor.register(ReturnNode.class,                this::returnStmt);
+
+        // Like in the interpreter, other expressions (dictionaries and template calls) evaluate
+        // to null, and other declarations have no runtime effect.
+        visitor.registerFallback(node -> {
+            if (node instanceof ExpressionNode)
+                emit(CONST, target, constant(null));
+            return null;
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    IrProgram lower (RootNode root)
+    {
+        rootScope = reactor.get(root, "scope");
+        overloads = reactor.get(root, "overloads");
+        IrCode main = new IrCode("<main>");
+        begin();
+        root.statements.forEach(this::statement);
+        emit(RETURN_VOID);
+        end(main);
+
+        // every overload can be selected at runtime by CALL_DYNAMIC
+        Map<String, FunDeclarationNode> signatures = overloads.toMap();
+        signatures.values().forEach(this::codeFor);
+
+        while (!pending.isEmpty())
+            function(pending.poll());
+
+        return new IrProgram(main, functions, signatures, globals.size());
+    }
+
+    // =============================================================================================
+    // region [Emission]
+    // =============================================================================================
+
+    private void begin () {
+        code = new int[64];
+        size = 0;
+        constants = new ArrayList<>();
+        locals = new HashMap<>();
+        next = 0;
+        registerCount = 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void end (IrCode target) {
+        target.code = Arrays.copyOf(code, size);
+        target.constants = constants.toArray();
+        target.registerCount = registerCount;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Emits an instruction and returns its index. */
+    private int emit (int opcode, int... operands) {
+        while (size + 1 + operands.length > code.length)
+            code = Arrays.copyOf(code, code.length * 2);
+        code[size] = opcode;
+        System.arraycopy(operands, 0, code, size + 1, operands.length);
+        size += 1 + operands.length;
+        return size - 1 - operands.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Sets the jump target operand at index {@code operand} to the next instruction. */
+    private void patch (int operand) {
+        code[operand] = size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int constant (Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Allocates {@code n} consecutive registers and returns the first. */
+    private int allocate (int n) {
+        int first = next;
+        next += n;
+        registerCount = Math.max(registerCount, next);
+        return first;
+    }
+
+    private int temp () {
+        return allocate(1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int global (String name) {
+        return globals.computeIfAbsent(name, k -> globals.size());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the register of the local variable or parameter the reference refers to, or null if
+     * it refers to something else.
+     */
+    private Integer localRegister (ReferenceNode node) {
+        DeclarationNode decl = reactor.get(node, "decl");
+        if (!(decl instanceof VarDeclarationNode || decl instanceof ParameterNode))
+            return null;
+        return locals.get(new Pair<Scope, String>(reactor.get(node, "scope"), node.name));
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Functions]
+    // =============================================================================================
+
+    /** Returns the code of the function, queuing it for generation if needed. */
+    private IrCode codeFor (FunDeclarationNode node) {
+        return functions.computeIfAbsent(node, k -> {
+            pending.add(node);
+            return new IrCode(node.name);
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void function (FunDeclarationNode node) {
+        IrCode target = functions.get(node);
+        begin();
+        for (ParameterNode param: node.parameters)
+            locals.put(new Pair<>(reactor.get(param, "scope"), param.name), allocate(1));
+        target.parameterCount = node.parameters.size();
+        node.block.statements.forEach(this::statement);
+        emit(RETURN_VOID);
+        end(target);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void funDecl (FunDeclarationNode node) {
+        codeFor(node);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void externFunDecl (ExternFunDeclarationNode node) {
+        // the Java method cannot be saved to an image, reject the program before it runs
+        throw new UnsupportedOperationException(
+            "extern functions are not supported by the IR interpreter: " + node.name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void classDecl (ClassNode node) {
+        // methods are called through the objects built by Interpreter#buildClass
+        for (StatementNode statement: node.block.statements)
+            if (statement instanceof FunDeclarationNode)
+                codeFor((FunDeclarationNode) statement);
+        return null;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Expressions]
+    // =============================================================================================
+
+    /**
+     * Lowers the expression so that its value ends up in register {@code dst}. The register may
+     * be written before the operands of the expression are read: it must not be the register of
+     * a variable the expression refers to.
+     */
+    private void into (ExpressionNode node, int dst) {
+        target = dst;
+        visitor.apply(node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lowers the expression and returns a register holding its value, which is the register of
+     * the variable for references to local variables, and a new temporary otherwise.
+     */
+    private int expr (ExpressionNode node)
+    {
+        if (node instanceof ParenthesizedNode)
+            return expr(((ParenthesizedNode) node).expression);
+
+        if (node instanceof ReferenceNode) {
+            Integer register = localRegister((ReferenceNode) node);
+            if (register != null)
+                return register;
+        }
+
+        int dst = temp();
+        into(node, dst);
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #expr}, but copies the value of a local variable in a temporary if one of the
+     * {@code later} expressions (evaluated before the value is used) could reassign it.
+     */
+    private int operand (ExpressionNode node, ExpressionNode... later)
+    {
+        int register = expr(node);
+        if (!isLocalReference(node) || !anyContainsAssignment(Arrays.asList(later)))
+            return register;
+        int copy = temp();
+        emit(MOVE, copy, register);
+        return copy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean isLocalReference (ExpressionNode node) {
+        while (node instanceof ParenthesizedNode)
+            node = ((ParenthesizedNode) node).expression;
+        return node instanceof ReferenceNode && localRegister((ReferenceNode) node) != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether evaluating the expression could assign a local variable. */
+    private static boolean containsAssignment (SighNode node)
+    {
+        if (node == null)
+            return false;
+        if (node instanceof AssignmentNode)
+            return true;
+        if (node instanceof ParenthesizedNode)
+            return containsAssignment(((ParenthesizedNode) node).expression);
+        if (node instanceof UnaryExpressionNode)
+            return containsAssignment(((UnaryExpressionNode) node).operand);
+        if (node instanceof BinaryExpressionNode)
+            return containsAssignment(((BinaryExpressionNode) node).left)
+                || containsAssignment(((BinaryExpressionNode) node).right);
+        if (node instanceof FieldAccessNode)
+            return containsAssignment(((FieldAccessNode) node).stem);
+        if (node instanceof ClassFieldAccessNode)
+            return containsAssignment(((ClassFieldAccessNode) node).stem);
+        if (node instanceof ArrayAccessNode)
+            return containsAssignment(((ArrayAccessNode) node).array)
+                || containsAssignment(((ArrayAccessNode) node).index);
+        if (node instanceof ArrayLiteralNode)
+            return anyContainsAssignment(((ArrayLiteralNode) node).components);
+        if (node instanceof SetLiteralNode)
+            return anyContainsAssignment(((SetLiteralNode) node).components);
+        if (node instanceof FunCallNode)
+            return containsAssignment(((FunCallNode) node).function)
+                || anyContainsAssignment(((FunCallNode) node).arguments);
+        if (node instanceof InlinedCallNode) {
+            InlinedCallNode call = (InlinedCallNode) node;
+            for (VarDeclarationNode binding: call.bindings)
+                if (containsAssignment(binding.initializer)) return true;
+            return containsAssignment(call.body);
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean anyContainsAssignment (List<? extends SighNode> nodes) {
+        for (SighNode node: nodes)
+            if (containsAssignment(node)) return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Lowers the expressions in consecutive new registers, and returns the first. */
+    private int consecutive (List<? extends ExpressionNode> nodes) {
+        int first = allocate(nodes.size());
+        for (int i = 0; i < nodes.size(); ++i)
+            into(nodes.get(i), first + i);
+        return first;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void literal (SighNode node) {
+        Object value = node instanceof IntLiteralNode
+            ? ((IntLiteralNode) node).value
+            : node instanceof FloatLiteralNode
+                ? ((FloatLiteralNode) node).value
+                : ((StringLiteralNode) node).value;
+        emit(CONST, target, constant(value));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void reference (ReferenceNode node)
+    {
+        int dst = target;
+        Scope scope = reactor.get(node, "scope");
+        DeclarationNode decl = reactor.get(node, "decl");
+
+        if (decl instanceof SyntheticDeclarationNode
+                && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.VARIABLE) {
+            Object value = decl == rootScope._true
+                ? Boolean.TRUE
+                : decl == rootScope._false ? Boolean.FALSE : Null.INSTANCE;
+            emit(CONST, dst, constant(value));
+        }
+        else if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode) {
+            Integer register = localRegister(node);
+            if (scope == rootScope)
+                emit(GLOAD, dst, global(node.name));
+            else if (register != null)
+                emit(MOVE, dst, register);
+            else
+                emit(FAIL, constant("could not lookup name: " + node.name));
+        }
+        else { // structure, class, function or field
+            emit(CONST, dst, constant(decl));
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void constructor (ConstructorNode node) {
+        emit(CONST, target, constant(new Constructor(reactor.get(node.ref, "decl"))));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void classConstructor (ClassConstructorNode node) {
+        emit(CONST, target, constant(new ClassConstructor(reactor.get(node.ref, "decl"))));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void arrayLiteral (ArrayLiteralNode node) {
+        int dst = target;
+        int first = consecutive(node.components);
+        emit(ARRAY, dst, first, node.components.size());
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void setLiteral (SetLiteralNode node) {
+        int dst = target;
+        int first = consecutive(node.components);
+        emit(SET, dst, first, node.components.size());
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void parenthesized (ParenthesizedNode node) {
+        into(node.expression, target);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void fieldAccess (FieldAccessNode node) {
+        int dst = target;
+        int stem = expr(node.stem);
+        emit(FIELD, dst, stem, constant(node.fieldName),
+            constant("accessing field of null object"));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void classFieldAccess (ClassFieldAccessNode node) {
+        int dst = target;
+        int stem = expr(node.stem);
+        emit(FIELD, dst, stem, constant(node.field),
+            constant("accessing class field of null object"));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void arrayAccess (ArrayAccessNode node) {
+        int dst = target;
+        int array = operand(node.array, node.index);
+        emit(CHECK_NULL, array, constant("indexing null array"));
+        int index = expr(node.index);
+        emit(INDEX, dst, array, index);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void funCall (FunCallNode node)
+    {
+        int dst = target;
+        int argc = node.arguments.size();
+
+        if (node.function instanceof ReferenceNode) {
+            DeclarationNode decl = reactor.get(node.function, "decl");
+
+            if (decl instanceof SyntheticDeclarationNode
+                    && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.FUNCTION) {
+                int first = consecutive(node.arguments);
+                emit(BUILTIN, dst, constant(decl), first, argc);
+                return null;
+            }
+
+            if (decl instanceof FunDeclarationNode) {
+                FunDeclarationNode callee = Interpreter.selectOverload(overloads, node, (FunDeclarationNode) decl);
+                int first = consecutive(node.arguments);
+                if (callee == null)
+                    emit(FAIL, constant("no overload of " + decl.name() + " for " + node.contents()));
+                else
+                    emit(CALL, dst, constant(codeFor(callee)), first, argc);
+                return null;
+            }
+        }
+
+        if (node.function instanceof ConstructorNode) {
+            StructDeclarationNode decl = reactor.get(((ConstructorNode) node.function).ref, "decl");
+            int first = consecutive(node.arguments);
+            emit(STRUCT, dst, constant(decl), first, argc);
+            return null;
+        }
+
+        int function = temp();
+        into(node.function, function);
+        int first = consecutive(node.arguments);
+        emit(CALL_DYNAMIC, dst, function, first, argc, constant(Interpreter.overloadKey(node)));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void inlinedCall (InlinedCallNode node) {
+        int dst = target;
+        node.bindings.forEach(this::varDecl);
+        into(node.body, dst);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void unaryExpression (UnaryExpressionNode node) {
+        // there is only NOT
+        assert node.operator == UnaryOperator.NOT;
+        int dst = target;
+        int operand = expr(node.operand);
+        emit(NOT, dst, operand);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void binaryExpression (BinaryExpressionNode node)
+    {
+        int dst = target;
+        Type leftType  = reactor.get(node.left, "type");
+        Type rightType = reactor.get(node.right, "type");
+
+        if (node.operator == BinaryOperator.AND || node.operator == BinaryOperator.OR) {
+            into(node.left, dst);
+            int jump = emit(node.operator == BinaryOperator.AND ? JUMP_IF_FALSE : JUMP_IF_TRUE, dst, -1);
+            into(node.right, dst);
+            patch(jump + 2);
+            return null;
+        }
+
+        int left = operand(node.left, node.right);
+        int right = expr(node.right);
+
+        if (node.operator == BinaryOperator.ADD
+                && (leftType instanceof StringType || rightType instanceof StringType)) {
+            emit(CONCAT, dst, left, right);
+            return null;
+        }
+
+        boolean floating = leftType instanceof FloatType || rightType instanceof FloatType;
+        boolean numeric = floating || leftType instanceof IntType;
+
+        if (leftType instanceof ArrayType && isArrayOperator(node.operator)) {
+            Type component = ((ArrayType) leftType).componentType;
+            boolean floatingArray = component instanceof FloatType
+                || rightType instanceof ArrayType
+                    && ((ArrayType) rightType).componentType instanceof FloatType;
+            boolean numericArray = floatingArray || component instanceof IntType;
+            if (numericArray) {
+                emit(ARRAY_OP, dst, left, right,
+                    node.operator.ordinal() << 1 | (floatingArray ? 1 : 0));
+                return null;
+            }
+        }
+
+        if (numeric) {
+            emit(numericOpcode(node.operator, floating), dst, left, right);
+            return null;
+        }
+
+        switch (node.operator) {
+            case EQUALITY:
+                emit(EQUALS, dst, left, right, leftType.isPrimitive() ? 1 : 0);
+                return null;
+            case NOT_EQUALS:
+                emit(EQUALS, dst, left, right, (leftType.isPrimitive() ? 1 : 0) | 2);
+                return null;
+        }
+
+        emit(FAIL, constant("should not reach here"));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isArrayOperator (BinaryOperator operator) {
+        return operator == BinaryOperator.ADD || operator == BinaryOperator.SUBTRACT
+            || operator == BinaryOperator.MULTIPLY || operator == BinaryOperator.DIVIDE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int numericOpcode (BinaryOperator operator, boolean floating) {
+        int opcode;
+        switch (operator) {
+            case ADD:           opcode = ADD_I; break;
+            case SUBTRACT:      opcode = SUB_I; break;
+            case MULTIPLY:      opcode = MUL_I; break;
+            case DIVIDE:        opcode = DIV_I; break;
+            case REMAINDER:     opcode = REM_I; break;
+            case LOWER:         opcode = LT_I;  break;
+            case LOWER_EQUAL:   opcode = LE_I;  break;
+            case GREATER:       opcode = GT_I;  break;
+            case GREATER_EQUAL: opcode = GE_I;  break;
+            case EQUALITY:      opcode = EQ_I;  break;
+            case NOT_EQUALS:    opcode = NE_I;  break;
+            default: throw new Error("should not reach here");
+        }
+        // floating-point opcodes are in the same order as integer opcodes
+        return floating ? opcode - ADD_I + ADD_F : opcode;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void assignment (AssignmentNode node)
+    {
+        int dst = target;
+
+        if (node.left instanceof ReferenceNode) {
+            ReferenceNode left = (ReferenceNode) node.left;
+            Scope scope = reactor.get(left, "scope");
+            boolean toFloat = reactor.get(node, "type") instanceof FloatType;
+            // the value of the assignment is the unconverted value
+            into(node.right, dst);
+
+            if (scope == rootScope) {
+                int value = dst;
+                if (toFloat) {
+                    value = temp();
+                    emit(TO_FLOAT, value, dst);
+                }
+                emit(GSTORE, global(left.name), value);
+            } else {
+                Integer register = localRegister(left);
+                if (register == null)
+                    emit(FAIL, constant("could not lookup name: " + left.name));
+                else
+                    emit(toFloat ? TO_FLOAT : MOVE, register, dst);
+            }
+            return null;
+        }
+
+        if (node.left instanceof ArrayAccessNode) {
+            ArrayAccessNode arrayAccess = (ArrayAccessNode) node.left;
+            int array = operand(arrayAccess.array, arrayAccess.index, node.right);
+            emit(CHECK_NULL, array, constant("indexing null array"));
+            int index = operand(arrayAccess.index, node.right);
+            emit(CHECK_INDEX, index);
+            into(node.right, dst);
+            emit(INDEX_STORE, array, index, dst);
+            return null;
+        }
+
+        if (node.left instanceof FieldAccessNode) {
+            FieldAccessNode fieldAccess = (FieldAccessNode) node.left;
+            int stem = operand(fieldAccess.stem, node.right);
+            emit(CHECK_NULL, stem, constant("accessing field of null object"));
+            into(node.right, dst);
+            emit(FIELD_STORE, stem, constant(fieldAccess.fieldName), dst);
+            return null;
+        }
+
+        if (node.left instanceof ClassFieldAccessNode) {
+            ClassFieldAccessNode fieldAccess = (ClassFieldAccessNode) node.left;
+            int stem = operand(fieldAccess.stem, node.right);
+            emit(CHECK_NULL, stem, constant("accessing class field of null object"));
+            into(node.right, dst);
+            emit(FIELD_STORE, stem, constant(fieldAccess.field), dst);
+            return null;
+        }
+
+        emit(FAIL, constant("should not reach here"));
+        return null;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Statements]
+    // =============================================================================================
+
+    /**
+     * Lowers a statement, then releases the temporaries it used. Variables declared by the
+     * statement remain allocated until the end of the enclosing block.
+     */
+    private void statement (SighNode node) {
+        int mark = next;
+        visitor.apply(node);
+        if (!(node instanceof VarDeclarationNode))
+            next = mark;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void block (BlockNode node) {
+        int mark = next;
+        node.statements.forEach(this::statement);
+        next = mark;
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void varDecl (VarDeclarationNode node)
+    {
+        Scope scope = reactor.get(node, "scope");
+        boolean toFloat = reactor.get(node, "type") instanceof FloatType;
+
+        if (scope == rootScope) {
+            int mark = next;
+            int value = temp();
+            into(node.initializer, value);
+            if (toFloat)
+                emit(TO_FLOAT, value, value);
+            emit(GSTORE, global(node.name), value);
+            next = mark;
+            return null;
+        }
+
+        // the variable cannot be referenced in its own initializer, so we can compute it in place
+        int register = allocate(1);
+        locals.put(new Pair<>(scope, node.name), register);
+        int mark = next;
+        into(node.initializer, register);
+        if (toFloat)
+            emit(TO_FLOAT, register, register);
+        next = mark;
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void expressionStmt (ExpressionStatementNode node) {
+        into(node.expression, temp());
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void ifStmt (IfNode node)
+    {
+        int condition = expr(node.condition);
+        int toElse = emit(JUMP_IF_FALSE, condition, -1);
+        statement(node.trueStatement);
+        if (node.falseStatement == null) {
+            patch(toElse + 2);
+        } else {
+            int toEnd = emit(JUMP, -1);
+            patch(toElse + 2);
+            statement(node.falseStatement);
+            patch(toEnd + 1);
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void whileStmt (WhileNode node)
+    {
+        int start = size;
+        int mark = next;
+        int condition = expr(node.condition);
+        int toEnd = emit(JUMP_IF_FALSE, condition, -1);
+        next = mark;
+        statement(node.body);
+        emit(JUMP, start);
+        patch(toEnd + 2);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void returnStmt (ReturnNode node)
+    {
+        if (reactor.get(node, "tailCall")) {
+            FunCallNode call = (FunCallNode) node.expression;
+            int first = consecutive(call.arguments);
+            emit(TAIL_CALL, first, call.arguments.size());
+        }
+        else if (node.expression == null) {
+            emit(RETURN_VOID);
+        }
+        else {
+            emit(RETURN, expr(node.expression));
+        }
+        return null;
+    }
+
+    // endregion
+    // =============================================================================================
+}
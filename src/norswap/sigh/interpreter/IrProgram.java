@@ -0,0 +1,52 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.FunDeclarationNode;
+import java.util.Map;
+
+/**
+ * The output of {@link IrLowering}: the {@link IrCode} of the top-level code and of all the
+ * functions of a program.
+ */
+final class IrProgram
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** The top-level code. */
+    final IrCode main;
+
+    /** The code of every function of the program, used to call function values. */
+    final Map<FunDeclarationNode, IrCode> functions;
+
+    /**
+     * The overloads of the program, keyed by signature (see {@link
+     * norswap.sigh.scopes.OverloadIndex}), so that the program can run without semantic analysis.
+     */
+    final Map<String, FunDeclarationNode> overloads;
+
+    /** Number of variables declared in the root scope. */
+    final int globalCount;
+
+    // ---------------------------------------------------------------------------------------------
+
+    IrProgram (IrCode main, Map<FunDeclarationNode, IrCode> functions,
+               Map<String, FunDeclarationNode> overloads, int globalCount) {
+        this.main = main;
+        this.functions = functions;
+        this.overloads = overloads;
+        this.globalCount = globalCount;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link Interpreter#selectOverload(norswap.sigh.scopes.OverloadIndex, String, int,
+     * FunDeclarationNode)}, but using {@link #overloads}.
+     */
+    FunDeclarationNode selectOverload (String key, int argc, FunDeclarationNode decl) {
+        return decl.parameters.size() != argc || overloads.containsKey(key)
+            ? overloads.get(key)
+            : decl;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,116 @@
+package norswap.sigh.interpreter;
+
+/**
+ * The linearized code of a function (or of the top-level code of a program), as executed by
+ * the {@link StackInterpreter}.
+ *
+ * <p>Each instruction is made of three consecutive ints in {@link #code}: an opcode (one of the
+ * constants defined in this class) and two operands, whose meaning depends on the opcode
+ * (unused operands are 0). Jump targets are indices in {@link #code}. Operands that are not
+ * integers are indices in {@link #constants}.
+ *
+ * <p>Instructions operate on an operand stack. Local variables (including parameters, which come
+ * first) are numbered from 0 in each activation, and root-scope variables are numbered from 0 in
+ * a separate array of globals.
+ */
+final class LinearCode
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Push {@code constants[a]}. */
+    static final int CONST = 0;
+    /** Push local variable {@code a}. */
+    static final int LOAD = 1;
+    /** Pop a value into local variable {@code a}. */
+    static final int STORE = 2;
+    /** Push global variable {@code a}. */
+    static final int GLOAD = 3;
+    /** Pop a value into global variable {@code a}. */
+    static final int GSTORE = 4;
+    /** Duplicate the top of the stack. */
+    static final int DUP = 5;
+    /** Discard the top of the stack. */
+    static final int POP = 6;
+    /** Convert the top of the stack to a {@link Double} if it is a {@link Long}. */
+    static final int TO_FLOAT = 7;
+    /** Negate the boolean at the top of the stack. */
+    static final int NOT = 8;
+    /** Numeric binary operation with operator of ordinal {@code a}, floating if {@code b == 1}. */
+    static final int NUM = 9;
+    /** Element-wise array operation, with the same operands as {@link #NUM}. */
+    static final int ARRAY_OP = 10;
+    /** String concatenation of the two values at the top of the stack. */
+    static final int CONCAT = 11;
+    /** Equality of non-numeric values, using {@code equals} if {@code a == 1}, negated if
+     * {@code b == 1}. */
+    static final int EQUALS = 12;
+    /** Jump to {@code a}. */
+    static final int JUMP = 13;
+    /** Pop a boolean and jump to {@code a} if it is false. */
+    static final int JUMP_IF_FALSE = 14;
+    /** Pop a boolean and jump to {@code a} if it is true. */
+    static final int JUMP_IF_TRUE = 15;
+    /** Pop {@code a} values into a new array. */
+    static final int ARRAY = 16;
+    /** Pop {@code a} values into a new set. */
+    static final int SET = 17;
+    /** Throw a null pointer exception with message {@code constants[a]} if the top of the stack is
+     * null (without popping it). */
+    static final int CHECK_NULL = 18;
+    /** Check that the index at the top of the stack is a valid array index. */
+    static final int CHECK_INDEX = 19;
+    /** Pop an array and an index, push the indexed element. */
+    static final int INDEX = 20;
+    /** Pop an array, an index and a value, store the value in the array and push it. */
+    static final int INDEX_STORE = 21;
+    /** Pop a struct (or array) and push its field named {@code constants[a]}. */
+    static final int FIELD = 22;
+    /** Pop a struct and a value, store the value in field {@code constants[a]} and push it. */
+    static final int FIELD_STORE = 23;
+    /** Call the function whose code is {@code constants[a]} with the {@code b} topmost values. */
+    static final int CALL = 24;
+    /** Pop {@code a} arguments and a function value, and call it. {@code constants[b]} is the
+     * call node, used for overload selection. */
+    static final int CALL_DYNAMIC = 25;
+    /** Call the builtin function declared by {@code constants[a]} with the {@code b} topmost values. */
+    static final int BUILTIN = 26;
+    /** Build the struct declared by {@code constants[a]} from the {@code b} topmost values. */
+    static final int STRUCT = 27;
+    /** Pop a value and return it from the current activation. */
+    static final int RETURN = 28;
+    /** Return from the current activation without a value. */
+    static final int RETURN_VOID = 29;
+    /** Pop {@code a} arguments into the parameters of the current activation and restart it. */
+    static final int TAIL_CALL = 30;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Name of the function, used in error messages. */
+    final String name;
+
+    /** Instructions, three ints per instruction. */
+    int[] code;
+
+    /** Operands that are not integers. */
+    Object[] constants;
+
+    /** Number of parameters of the function. */
+    int parameterCount;
+
+    /** Number of local variables in an activation of the function, including parameters. */
+    int localCount;
+
+    // ---------------------------------------------------------------------------------------------
+
+    LinearCode (String name) {
+        this.name = name;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        return "LinearCode(" + name + ")";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,32 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.FunDeclarationNode;
+import java.util.Map;
+
+/**
+ * The output of the {@link Linearizer}: the linearized code of the top-level code and of all the
+ * functions of a program.
+ */
+final class LinearProgram
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** The top-level code. */
+    final LinearCode main;
+
+    /** The code of every function of the program, used to call function values. */
+    final Map<FunDeclarationNode, LinearCode> functions;
+
+    /** Number of variables declared in the root scope. */
+    final int globalCount;
+
+    // ---------------------------------------------------------------------------------------------
+
+    LinearProgram (LinearCode main, Map<FunDeclarationNode, LinearCode> functions, int globalCount) {
+        this.main = main;
+        this.functions = functions;
+        this.globalCount = globalCount;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
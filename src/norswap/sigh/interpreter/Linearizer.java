@@ -0,0 +1,602 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.*;
+import norswap.sigh.scopes.DeclarationKind;
+import norswap.sigh.scopes.OverloadIndex;
+import norswap.sigh.scopes.RootScope;
+import norswap.sigh.scopes.Scope;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.StringType;
+import norswap.sigh.types.Type;
+import norswap.uranium.Reactor;
+import norswap.utils.data.wrappers.Pair;
+import norswap.utils.visitors.ValuedVisitor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static norswap.sigh.interpreter.LinearCode.*;
+
+/**
+ * Turns an analyzed Sigh program into {@link LinearCode}, to be run by the {@link
+ * StackInterpreter}.
+ *
+ * <p>The semantics of the produced code mirror those of {@link Interpreter}. All name and
+ * overload resolution is performed here: variables are assigned slot numbers and calls to named
+ * functions refer directly to the code of the callee.
+ *
+ * <p>Classes, templates and dictionaries are not supported, nor are references to variables of
+ * enclosing functions (like in {@link Interpreter}, only the root scope is visible from
+ * functions). Neither are extern functions. Trying to linearize them throws an {@link
+ * UnsupportedOperationException}.
+ */
+final class Linearizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final ValuedVisitor<SighNode, Object> visitor = new ValuedVisitor<>();
+    private final Reactor reactor;
+    private RootScope rootScope;
+    private OverloadIndex overloads;
+
+    /** Maps variables in the root scope to their global slot. */
+    private final HashMap<String, Integer> globals = new HashMap<>();
+
+    /** Code of all the functions encountered so far. */
+    private final HashMap<FunDeclarationNode, LinearCode> functions = new HashMap<>();
+
+    /** Functions whose code remains to be generated. */
+    private final ArrayDeque<FunDeclarationNode> pending = new ArrayDeque<>();
+
+    // Per-function state -------------------------------------------------------------------------
+
+    private int[] code;
+    private int size;
+    private ArrayList<Object> constants;
+
+    /** Maps variables in a scope to a local slot in the current function. */
+    private HashMap<Pair<Scope, String>, Integer> locals;
+
+    // ---------------------------------------------------------------------------------------------
+
+    Linearizer (Reactor reactor)
+    {
+        this.reactor = reactor;
+
+        // expressions
+        visitor.register(IntLiteralNode.class,           this::literal);
+        visitor.register(FloatLiteralNode.class,         this::literal);
+        visitor.register(StringLiteralNode.class,        this::literal);
+        visitor.register(ReferenceNode.class,            this::reference);
+        visitor.register(ConstructorNode.class,          this::constructor);
+        visitor.register(ArrayLiteralNode.class,         this::arrayLiteral);
+        visitor.register(SetLiteralNode.class,           this::setLiteral);
+        visitor.register(ParenthesizedNode.class,        this::parenthesized);
+        visitor.register(FieldAccessNode.class,          this::fieldAccess);
+        visitor.register(ArrayAccessNode.class,          this::arrayAccess);
+        visitor.register(FunCallNode.class,              this::funCall);
+        visitor.register(InlinedCallNode.class,          this::inlinedCall);
+        visitor.register(UnaryExpressionNode.class,      this::unaryExpression);
+        visitor.register(BinaryExpressionNode.class,     this::binaryExpression);
+        visitor.register(AssignmentNode.class,           this::assignment);
+
+        // statement groups & declarations
+        visitor.register(BlockNode.class,                this::block);
+        visitor.register(VarDeclarationNode.class,       this::varDecl);
+        visitor.register(FunDeclarationNode.class,       this::funDecl);
+        visitor.register(ExternFunDeclarationNode.class, this::externFunDecl);
+        visitor.register(StructDeclarationNode.class,    node -> null);
+        visitor.register(ClassNode.class,                node -> null);
+        visitor.register(TempDeclarationNode.class,      node -> null);
+        visitor.register(GenericFunDeclarationNode.class, node -> null);
+
+        // statements
+        visitor.register(ExpressionStatementNode.class,  this::expressionStmt);
+        visitor.register(IfNode.class,                   this::ifStmt);
+        visitor.register(WhileNode.class,                this::whileStmt);
+        visitor.register(ReturnNode.class,               this::returnStmt);
+
+        visitor.registerFallback(node -> {
+            throw new UnsupportedOperationException(
+                "not supported by the explicit-stack interpreter: " + node.getClass().getSimpleName());
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    LinearProgram linearize (RootNode root)
+    {
+        rootScope = reactor.get(root, "scope");
+        overloads = reactor.get(root, "overloads");
+        LinearCode main = new LinearCode("<main>");
+        begin();
+        root.statements.forEach(this::run);
+        emit(RETURN_VOID);
+        end(main);
+
+        while (!pending.isEmpty())
+            function(pending.poll());
+
+        return new LinearProgram(main, functions, globals.size());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void run (SighNode node) {
+        visitor.apply(node);
+    }
+
+    // =============================================================================================
+    // region [Emission]
+    // =============================================================================================
+
+    private void begin () {
+        code = new int[64];
+        size = 0;
+        constants = new ArrayList<>();
+        locals = new HashMap<>();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void end (LinearCode target) {
+        target.code = Arrays.copyOf(code, size);
+        target.constants = constants.toArray();
+        target.localCount = locals.size();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Emits an instruction and returns its index. */
+    private int emit (int opcode, int a, int b) {
+        if (size + 3 > code.length)
+            code = Arrays.copyOf(code, code.length * 2);
+        code[size] = opcode;
+        code[size + 1] = a;
+        code[size + 2] = b;
+        size += 3;
+        return size - 3;
+    }
+
+    private int emit (int opcode, int a) {
+        return emit(opcode, a, 0);
+    }
+
+    private int emit (int opcode) {
+        return emit(opcode, 0, 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Sets the target of the jump instruction at {@code jump} to the next instruction. */
+    private void patch (int jump) {
+        code[jump + 1] = size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int constant (Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int local (DeclarationNode node) {
+        Pair<Scope, String> key = new Pair<>(reactor.get(node, "scope"), node.name());
+        Integer slot = locals.get(key);
+        if (slot == null) {
+            slot = locals.size();
+            locals.put(key, slot);
+        }
+        return slot;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int global (String name) {
+        return globals.computeIfAbsent(name, k -> globals.size());
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Functions]
+    // =============================================================================================
+
+    /** Returns the code of the function, queuing it for generation if needed. */
+    private LinearCode codeFor (FunDeclarationNode node) {
+        return functions.computeIfAbsent(node, k -> {
+            pending.add(node);
+            return new LinearCode(node.name);
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void function (FunDeclarationNode node) {
+        LinearCode target = functions.get(node);
+        begin();
+        node.parameters.forEach(this::local);
+        target.parameterCount = node.parameters.size();
+        node.block.statements.forEach(this::run);
+        emit(RETURN_VOID);
+        end(target);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void funDecl (FunDeclarationNode node) {
+        codeFor(node);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void externFunDecl (ExternFunDeclarationNode node) {
+        // rejected when declared rather than when called, so that the program does not run at all
+        throw new UnsupportedOperationException(
+            "extern functions are not supported by the explicit-stack interpreter: " + node.name);
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Expressions]
+    // =============================================================================================
+
+    private Void literal (SighNode node) {
+        Object value = node instanceof IntLiteralNode
+            ? ((IntLiteralNode) node).value
+            : node instanceof FloatLiteralNode
+                ? ((FloatLiteralNode) node).value
+                : ((StringLiteralNode) node).value;
+        emit(CONST, constant(value));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void reference (ReferenceNode node)
+    {
+        Scope scope = reactor.get(node, "scope");
+        DeclarationNode decl = reactor.get(node, "decl");
+
+        if (decl instanceof SyntheticDeclarationNode
+                && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.VARIABLE) {
+            emit(CONST, constant(syntheticValue(decl)));
+        }
+        else if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode) {
+            if (scope == rootScope)
+                emit(GLOAD, global(node.name));
+            else
+                emit(LOAD, existingLocal(scope, node.name));
+        }
+        else { // structure or function
+            emit(CONST, constant(decl));
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object syntheticValue (DeclarationNode decl) {
+        if (decl == rootScope._true)  return true;
+        if (decl == rootScope._false) return false;
+        return Null.INSTANCE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int existingLocal (Scope scope, String name) {
+        Integer slot = locals.get(new Pair<>(scope, name));
+        if (slot == null)
+            throw new UnsupportedOperationException(
+                "not supported by the explicit-stack interpreter: " +
+                "reference to variable of enclosing function: " + name);
+        return slot;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void constructor (ConstructorNode node) {
+        emit(CONST, constant(new Constructor(reactor.get(node.ref, "decl"))));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void arrayLiteral (ArrayLiteralNode node) {
+        node.components.forEach(this::run);
+        emit(ARRAY, node.components.size());
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void setLiteral (SetLiteralNode node) {
+        node.components.forEach(this::run);
+        emit(SET, node.components.size());
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void parenthesized (ParenthesizedNode node) {
+        run(node.expression);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void fieldAccess (FieldAccessNode node) {
+        run(node.stem);
+        emit(FIELD, constant(node.fieldName));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void arrayAccess (ArrayAccessNode node) {
+        run(node.array);
+        emit(CHECK_NULL, constant("indexing null array"));
+        run(node.index);
+        emit(CHECK_INDEX);
+        emit(INDEX);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void funCall (FunCallNode node)
+    {
+        int argc = node.arguments.size();
+
+        if (node.function instanceof ReferenceNode) {
+            DeclarationNode decl = reactor.get(node.function, "decl");
+
+            if (decl instanceof SyntheticDeclarationNode
+                    && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.FUNCTION) {
+                node.arguments.forEach(this::run);
+                emit(BUILTIN, constant(decl), argc);
+                return null;
+            }
+
+            if (decl instanceof FunDeclarationNode) {
+                FunDeclarationNode callee = Interpreter.selectOverload(overloads, node, (FunDeclarationNode) decl);
+                node.arguments.forEach(this::run);
+                emit(CALL, constant(codeFor(callee)), argc);
+                return null;
+            }
+        }
+
+        if (node.function instanceof ConstructorNode) {
+            StructDeclarationNode decl = reactor.get(((ConstructorNode) node.function).ref, "decl");
+            node.arguments.forEach(this::run);
+            emit(STRUCT, constant(decl), argc);
+            return null;
+        }
+
+        run(node.function);
+        node.arguments.forEach(this::run);
+        emit(CALL_DYNAMIC, argc, constant(node));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void inlinedCall (InlinedCallNode node) {
+        node.bindings.forEach(this::run);
+        run(node.body);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void unaryExpression (UnaryExpressionNode node) {
+        // there is only NOT
+        assert node.operator == UnaryOperator.NOT;
+        run(node.operand);
+        emit(NOT);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void binaryExpression (BinaryExpressionNode node)
+    {
+        Type leftType  = reactor.get(node.left, "type");
+        Type rightType = reactor.get(node.right, "type");
+
+        if (node.operator == BinaryOperator.AND || node.operator == BinaryOperator.OR) {
+            run(node.left);
+            emit(DUP);
+            int jump = emit(node.operator == BinaryOperator.AND ? JUMP_IF_FALSE : JUMP_IF_TRUE);
+            emit(POP);
+            run(node.right);
+            patch(jump);
+            return null;
+        }
+
+        run(node.left);
+        run(node.right);
+
+        if (node.operator == BinaryOperator.ADD
+                && (leftType instanceof StringType || rightType instanceof StringType)) {
+            emit(CONCAT);
+            return null;
+        }
+
+        boolean floating = leftType instanceof FloatType || rightType instanceof FloatType;
+        boolean numeric = floating || leftType instanceof IntType;
+        int operator = node.operator.ordinal();
+
+        if (leftType instanceof ArrayType && isArrayOperator(node.operator)) {
+            Type component = ((ArrayType) leftType).componentType;
+            boolean floatingArray = component instanceof FloatType
+                || rightType instanceof ArrayType
+                    && ((ArrayType) rightType).componentType instanceof FloatType;
+            boolean numericArray = floatingArray || component instanceof IntType;
+            if (numericArray) {
+                emit(ARRAY_OP, operator, floatingArray ? 1 : 0);
+                return null;
+            }
+        }
+
+        if (numeric) {
+            emit(NUM, operator, floating ? 1 : 0);
+            return null;
+        }
+
+        switch (node.operator) {
+            case EQUALITY:
+                emit(EQUALS, leftType.isPrimitive() ? 1 : 0, 0);
+                return null;
+            case NOT_EQUALS:
+                emit(EQUALS, leftType.isPrimitive() ? 1 : 0, 1);
+                return null;
+        }
+
+        throw new UnsupportedOperationException(
+            "not supported by the explicit-stack interpreter: operator " + node.operator
+                + " on " + leftType + " and " + rightType);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isArrayOperator (BinaryOperator operator) {
+        return operator == BinaryOperator.ADD || operator == BinaryOperator.SUBTRACT
+            || operator == BinaryOperator.MULTIPLY || operator == BinaryOperator.DIVIDE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void assignment (AssignmentNode node)
+    {
+        if (node.left instanceof ReferenceNode) {
+            ReferenceNode left = (ReferenceNode) node.left;
+            Scope scope = reactor.get(left, "scope");
+            run(node.right);
+            emit(DUP); // the value of the assignment is the unconverted value
+            if (reactor.get(node, "type") instanceof FloatType)
+                emit(TO_FLOAT);
+            if (scope == rootScope)
+                emit(GSTORE, global(left.name));
+            else
+                emit(STORE, existingLocal(scope, left.name));
+            return null;
+        }
+
+        if (node.left instanceof ArrayAccessNode) {
+            ArrayAccessNode arrayAccess = (ArrayAccessNode) node.left;
+            run(arrayAccess.array);
+            emit(CHECK_NULL, constant("indexing null array"));
+            run(arrayAccess.index);
+            emit(CHECK_INDEX);
+            run(node.right);
+            emit(INDEX_STORE);
+            return null;
+        }
+
+        if (node.left instanceof FieldAccessNode) {
+            FieldAccessNode fieldAccess = (FieldAccessNode) node.left;
+            run(fieldAccess.stem);
+            emit(CHECK_NULL, constant("accessing field of null object"));
+            run(node.right);
+            emit(FIELD_STORE, constant(fieldAccess.fieldName));
+            return null;
+        }
+
+        throw new UnsupportedOperationException(
+            "not supported by the explicit-stack interpreter: assignment to "
+                + node.left.getClass().getSimpleName());
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Statements]
+    // =============================================================================================
+
+    private Void block (BlockNode node) {
+        node.statements.forEach(this::run);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void varDecl (VarDeclarationNode node)
+    {
+        Scope scope = reactor.get(node, "scope");
+        run(node.initializer);
+        if (reactor.get(node, "type") instanceof FloatType)
+            emit(TO_FLOAT);
+        if (scope == rootScope)
+            emit(GSTORE, global(node.name));
+        else
+            emit(STORE, local(node));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void expressionStmt (ExpressionStatementNode node) {
+        run(node.expression);
+        emit(POP);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void ifStmt (IfNode node)
+    {
+        run(node.condition);
+        int toElse = emit(JUMP_IF_FALSE);
+        run(node.trueStatement);
+        if (node.falseStatement == null) {
+            patch(toElse);
+        } else {
+            int toEnd = emit(JUMP);
+            patch(toElse);
+            run(node.falseStatement);
+            patch(toEnd);
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void whileStmt (WhileNode node)
+    {
+        int start = size;
+        run(node.condition);
+        int toEnd = emit(JUMP_IF_FALSE);
+        run(node.body);
+        emit(JUMP, start);
+        patch(toEnd);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void returnStmt (ReturnNode node)
+    {
+        if (reactor.get(node, "tailCall")) {
+            FunCallNode call = (FunCallNode) node.expression;
+            call.arguments.forEach(this::run);
+            emit(TAIL_CALL, call.arguments.size());
+        }
+        else if (node.expression == null) {
+            emit(RETURN_VOID);
+        }
+        else {
+            run(node.expression);
+            emit(RETURN);
+        }
+        return null;
+    }
+
+    // endregion
+    // =============================================================================================
+}
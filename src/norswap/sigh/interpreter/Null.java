@@ -6,4 +6,8 @@ package norswap.sigh.interpreter;
 public final class Null {
     public static final Null INSTANCE = new Null();
     private Null() {}
+
+    @Override public String toString() {
+        return "null";
+    }
 }
@@ -0,0 +1,267 @@
+package norswap.sigh.interpreter;
+
+import norswap.autumn.positions.LineMap;
+import norswap.autumn.positions.LineMapString;
+import norswap.sigh.ast.SighNode;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sampling profiler for programs run by the {@link Interpreter} (see {@link
+ * Interpreter#profiler}).
+ *
+ * <p>The interpreter maintains a shadow Sigh call stack: the functions being executed, each with
+ * the statement it is currently executing. Between {@link #start} and {@link #stop}, a sampler
+ * thread reads that stack at a fixed interval. The shadow stack is read without synchronization,
+ * so a sample may occasionally be slightly inconsistent, which is acceptable for profiling and
+ * keeps the overhead on the interpreter to a few field writes per statement.
+ *
+ * <p>The results are available as collapsed stacks (see {@link #writeCollapsed}), the input
+ * format of flame graph tools, and as a table of self and total time per function (see {@link
+ * #functionTable}).
+ */
+public final class Profiler
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Name of the frame for top-level code. */
+    public static final String MAIN = "<main>";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Frame {
+        String function;
+        SighNode node;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final LineMap lineMap;
+    private final long intervalNanos;
+
+    /** Shadow call stack, whose frames are reused. Only written to by the interpreter thread. */
+    private volatile Frame[] stack = newFrames(64, 0, new Frame[0]);
+    private volatile int depth = 0;
+
+    /** Maps collapsed stacks to their number of samples. Only accessed by the sampler thread. */
+    private final HashMap<String, Integer> samples = new HashMap<>();
+
+    private Thread sampler;
+    private volatile boolean running;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a profiler that samples the call stack every {@code intervalMicros} microseconds.
+     *
+     * <p>{@code source} is the text of the profiled program, used to report lines. If null, the
+     * source offsets of the statements are reported instead.
+     */
+    public Profiler (String source, long intervalMicros) {
+        this.lineMap = source == null ? null : new LineMapString(source);
+        this.intervalNanos = intervalMicros * 1000;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a profiler that samples the call stack every millisecond, see {@link
+     * #Profiler(String, long)}.
+     */
+    public Profiler (String source) {
+        this(source, 1000);
+    }
+
+    // =============================================================================================
+    // region [Shadow Stack]
+    // =============================================================================================
+
+    private static Frame[] newFrames (int size, int from, Frame[] old) {
+        Frame[] frames = new Frame[size];
+        System.arraycopy(old, 0, frames, 0, from);
+        for (int i = from; i < size; ++i)
+            frames[i] = new Frame();
+        return frames;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Called by the interpreter when it starts running the given function. */
+    void enter (String function) {
+        Frame[] frames = stack;
+        if (depth == frames.length)
+            stack = frames = newFrames(depth * 2, depth, frames);
+        Frame frame = frames[depth];
+        frame.function = function;
+        frame.node = null;
+        depth = depth + 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Called by the interpreter when it is done running the innermost function. */
+    void exit () {
+        depth = depth - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Called by the interpreter when it starts running a statement of the innermost function. */
+    void at (SighNode node) {
+        stack[depth - 1].node = node;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Sampling]
+    // =============================================================================================
+
+    /**
+     * Starts sampling on a new daemon thread.
+     */
+    public synchronized void start ()
+    {
+        if (running) return;
+        running = true;
+        sampler = new Thread(() -> {
+            while (running) {
+                sample();
+                long deadline = System.nanoTime() + intervalNanos;
+                long remaining;
+                while (running && (remaining = deadline - System.nanoTime()) > 0)
+                    try {
+                        Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+            }
+        }, "sigh-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stops sampling, waiting for the sampler thread to be done.
+     */
+    public synchronized void stop ()
+    {
+        if (!running) return;
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sampler = null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void sample ()
+    {
+        Frame[] frames = stack;
+        int depth = Math.min(this.depth, frames.length);
+        if (depth == 0) return;
+
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < depth; ++i) {
+            Frame frame = frames[i];
+            String function = frame.function;
+            SighNode node = frame.node;
+            if (function == null) return; // frame being initialized
+            if (i > 0) b.append(';');
+            b.append(function);
+            if (node != null)
+                b.append(':').append(lineMap == null
+                    ? "@" + node.span.start
+                    : String.valueOf(lineMap.lineFromOffset(node.span.start)));
+        }
+        samples.merge(b.toString(), 1, Integer::sum);
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Reports]
+    // =============================================================================================
+
+    /**
+     * Returns the number of samples taken. Must not be called while sampling.
+     */
+    public int sampleCount () {
+        int count = 0;
+        for (int n: samples.values()) count += n;
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the samples in collapsed stack format: one line per distinct stack, with the frames
+     * from the outermost to the innermost separated by semicolons, followed by a space and the
+     * number of samples. Each frame is of the form {@code function:line}. Must not be called
+     * while sampling.
+     */
+    public void writeCollapsed (Appendable out) throws IOException {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(samples.entrySet());
+        entries.sort(Map.Entry.comparingByKey());
+        for (Map.Entry<String, Integer> entry: entries)
+            out.append(entry.getKey()).append(' ').append(entry.getValue().toString()).append('\n');
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a table with the self time (samples where the function is the innermost frame) and
+     * total time (samples where the function appears on the stack) of every function, sorted by
+     * decreasing self time. Must not be called while sampling.
+     */
+    public String functionTable ()
+    {
+        HashMap<String, int[]> times = new HashMap<>(); // function -> [self, total]
+        int total = 0;
+        for (Map.Entry<String, Integer> entry: samples.entrySet()) {
+            int count = entry.getValue();
+            total += count;
+            String[] frames = entry.getKey().split(";");
+            HashSet<String> seen = new HashSet<>(); // count recursive functions once
+            for (int i = 0; i < frames.length; ++i) {
+                String function = function(frames[i]);
+                int[] time = times.computeIfAbsent(function, k -> new int[2]);
+                if (i == frames.length - 1) time[0] += count;
+                if (seen.add(function))     time[1] += count;
+            }
+        }
+
+        List<Map.Entry<String, int[]>> rows = new ArrayList<>(times.entrySet());
+        rows.sort((a, b) -> a.getValue()[0] != b.getValue()[0]
+            ? Integer.compare(b.getValue()[0], a.getValue()[0])
+            : Integer.compare(b.getValue()[1], a.getValue()[1]));
+
+        double msPerSample = intervalNanos / 1e6;
+        StringBuilder b = new StringBuilder(String.format(
+            "%-24s %10s %7s %10s %7s%n", "function", "self (ms)", "self %", "total (ms)", "total %"));
+        for (Map.Entry<String, int[]> row: rows) {
+            int[] time = row.getValue();
+            b.append(String.format("%-24s %10.1f %6.1f%% %10.1f %6.1f%%%n", row.getKey(),
+                time[0] * msPerSample, 100.0 * time[0] / total,
+                time[1] * msPerSample, 100.0 * time[1] / total));
+        }
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String function (String frame) {
+        int colon = frame.lastIndexOf(':');
+        return colon < 0 ? frame : frame.substring(0, colon);
+    }
+
+    // endregion
+    // ---------------------------------------------------------------------------------------------
+}
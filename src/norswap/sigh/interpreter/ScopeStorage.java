@@ -2,7 +2,7 @@ package norswap.sigh.interpreter;
 
 import norswap.sigh.scopes.RootScope;
 import norswap.sigh.scopes.Scope;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * The concrete instantiation of a {@link Scope} at runtime.
@@ -10,53 +10,87 @@ import java.util.HashMap;
  * <p>The scope itself cannot be used directly, as many "copies" of the scope will be needed
  * at runtime (for instance, one for each function invocation), sometimes at the same type,
  * in the presence of recursion.
+ *
+ * <p>Only scopes that are their own {@link Scope#frame} are instantiated: the frame also holds
+ * the values of the nested blocks, each declaration having its own {@link Scope#slot}.
  */
 public final class ScopeStorage
 {
     // ---------------------------------------------------------------------------------------------
 
-    public final Scope scope;
-    public final ScopeStorage parent;
+    /**
+     * The scope of the frame, which is its own {@link Scope#frame}. Along with {@link #parent},
+     * only changes when the frame of a function activation is reused, see {@link #reset}.
+     */
+    public Scope scope;
+    public ScopeStorage parent;
 
     // ---------------------------------------------------------------------------------------------
 
-    private final HashMap<String, Object> values = new HashMap<>();
+    private Object[] values;
 
     // ---------------------------------------------------------------------------------------------
 
     ScopeStorage (Scope scope, ScopeStorage parent) {
-        this.scope = scope;
+        this.scope = scope.frame;
         this.parent = parent;
+        this.values = new Object[this.scope.frameSize()];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Turns this (cleared) frame into a new frame for the given scope, growing its slots if
+     * needed.
+     */
+    void reset (Scope scope, ScopeStorage parent) {
+        this.scope = scope.frame;
+        this.parent = parent;
+        if (values.length < this.scope.frameSize())
+            values = new Object[this.scope.frameSize()];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Clears the values of the frame, so that a pooled frame does not retain them.
+     */
+    void clear () {
+        Arrays.fill(values, 0, scope.frameSize(), null);
+        parent = null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
      * Returns the value with the given name, defined in the given scope (determined by semantic
-     * analysis), which should be this scope or one of its ancestors.
+     * analysis), whose frame should be this frame or one of its ancestors.
      */
-    Object get (Scope scope, String name)
-    {
-        if (scope == this.scope)
-            return values.get(name);
-        else if (parent != null)
-            return parent.get(scope, name);
-        else
-            throw new Error("[implementation bug] could not lookup name: " + name);
+    Object get (Scope scope, String name) {
+        int slot = scope.slot(name);
+        return frame(scope, slot, name).values[slot];
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
      * Sets the value with the given name, defined in the given scope (determined by semantic
-     * analysis), which should be this scope or one of its ancestors.
+     * analysis), whose frame should be this frame or one of its ancestors.
      */
-    void set (Scope scope, String name, Object value)
+    void set (Scope scope, String name, Object value) {
+        int slot = scope.slot(name);
+        frame(scope, slot, name).values[slot] = value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ScopeStorage frame (Scope scope, int slot, String name)
     {
-        if (scope == this.scope)
-            values.put(name, value);
-        else
-            parent.set(scope, name, value);
+        if (slot >= 0)
+            for (ScopeStorage storage = this; storage != null; storage = storage.parent)
+                if (storage.scope == scope.frame)
+                    return storage;
+        throw new Error("[implementation bug] could not lookup name: " + name);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -77,7 +111,7 @@ public final class ScopeStorage
     // ---------------------------------------------------------------------------------------------
 
     @Override public String toString() {
-        return "ScopeStorage " + values;
+        return "ScopeStorage " + Arrays.toString(values);
     }
 
     // ---------------------------------------------------------------------------------------------
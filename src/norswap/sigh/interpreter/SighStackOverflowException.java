@@ -0,0 +1,14 @@
+package norswap.sigh.interpreter;
+
+/**
+ * Thrown (to the user of the interpreter) when a Sigh program exceeds the maximum call depth of
+ * the {@link StackInterpreter}.
+ */
+public final class SighStackOverflowException extends RuntimeException {
+    public final int maxDepth;
+
+    public SighStackOverflowException (int maxDepth) {
+        super("stack overflow: exceeded the maximum call depth of " + maxDepth);
+        this.maxDepth = maxDepth;
+    }
+}
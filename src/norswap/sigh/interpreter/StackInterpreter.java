@@ -0,0 +1,410 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.Budget;
+import norswap.sigh.BudgetException;
+import norswap.sigh.OutputSink;
+import norswap.sigh.ast.BinaryOperator;
+import norswap.sigh.ast.FunCallNode;
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.StructDeclarationNode;
+import norswap.sigh.scopes.OverloadIndex;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.uranium.Reactor;
+import norswap.utils.Util;
+import norswap.utils.exceptions.Exceptions;
+import java.util.Arrays;
+import java.util.Map;
+
+import static norswap.sigh.interpreter.LinearCode.*;
+
+/**
+ * An interpreter mode that does not use the Java stack to run Sigh code, and can therefore run
+ * deeply recursive programs.
+ *
+ * <p>The program is first linearized (see {@link Linearizer}), then executed with a
+ * heap-allocated operand stack and call stack. The depth of the call stack is limited by
+ * {@link #maxDepth}: exceeding it throws a {@link SighStackOverflowException}.
+ *
+ * <p>The results (and errors) are the same as those of {@link Interpreter}, for the subset of
+ * the language supported by the {@link Linearizer}.
+ */
+public final class StackInterpreter
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Default value of {@link #maxDepth}. */
+    public static final int DEFAULT_MAX_DEPTH = 1_000_000;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final BinaryOperator[] OPERATORS = BinaryOperator.values();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Reactor reactor;
+
+    /** Maximum number of function activations that can be live at the same time. */
+    public final int maxDepth;
+
+    /** Ticked at every backward jump and function entry, and charged for allocations, or null. */
+    private Budget budget;
+
+    /** Receives the output of the program, or null to use a new {@link OutputSink#stdout}. */
+    private OutputSink output;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * An activation of a function (or of the top-level code).
+     */
+    private static final class Frame {
+        final LinearCode code;
+        final Object[] locals;
+        int pc;
+
+        Frame (LinearCode code, Object[] locals) {
+            this.code = code;
+            this.locals = locals;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public StackInterpreter (Reactor reactor) {
+        this(reactor, DEFAULT_MAX_DEPTH);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public StackInterpreter (Reactor reactor, int maxDepth) {
+        this.reactor = reactor;
+        this.maxDepth = maxDepth;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the budget that limits the number of loop iterations and function calls of the
+     * programs as well as the memory they allocate, and through which they can be cancelled, then
+     * returns this interpreter. Exceeding the budget throws a {@link BudgetException}.
+     */
+    public StackInterpreter budget (Budget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the sink that receives the output of the programs, and returns this interpreter. The
+     * sink is flushed at the end of every run. If not set, every run buffers its output to the
+     * standard output in a new sink.
+     */
+    public StackInterpreter output (OutputSink output) {
+        this.output = output;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Object interpret (RootNode root) {
+        LinearProgram program = new Linearizer(reactor).linearize(root);
+        OutputSink out = output != null ? output : OutputSink.stdout();
+        try {
+            return execute(program, reactor.get(root, "overloads"), out);
+        } catch (PassthroughException e) {
+            throw Exceptions.runtime(e.getCause());
+        } finally {
+            out.flush();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Charges the budget, if any, for the allocation of {@code bytes} bytes.
+     */
+    private void allocate (long bytes) {
+        if (budget != null)
+            budget.allocate(bytes);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs a builtin function, after charging the budget for what it allocates.
+     */
+    private Object builtin (SyntheticDeclarationNode decl, Object[] args, OutputSink out) {
+        if (budget != null && decl.builtin() != null)
+            allocate(decl.builtin().bytes(args));
+        return Interpreter.builtin(decl, args, out);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object execute (LinearProgram program, OverloadIndex overloads, OutputSink out)
+    {
+        Object[] globals = new Object[program.globalCount];
+        Object[] stack = new Object[64];
+        int sp = 0;
+        Frame[] frames = new Frame[16];
+        int depth = 0;
+
+        Frame frame = new Frame(program.main, new Object[program.main.localCount]);
+        int[] code = frame.code.code;
+        Object[] constants = frame.code.constants;
+        Object[] locals = frame.locals;
+        int pc = 0;
+
+        try {
+            while (true) {
+                int opcode = code[pc];
+                int a = code[pc + 1];
+                int b = code[pc + 2];
+                pc += 3;
+
+                // no instruction pushes more than one value
+                if (sp == stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+
+                LinearCode callee = null;
+                int argc = 0;
+
+                switch (opcode) {
+                    case CONST:
+                        stack[sp++] = constants[a];
+                        break;
+                    case LOAD:
+                        stack[sp++] = locals[a];
+                        break;
+                    case STORE:
+                        locals[a] = stack[--sp];
+                        break;
+                    case GLOAD:
+                        stack[sp++] = globals[a];
+                        break;
+                    case GSTORE:
+                        globals[a] = stack[--sp];
+                        break;
+                    case DUP:
+                        stack[sp] = stack[sp - 1];
+                        ++sp;
+                        break;
+                    case POP:
+                        stack[--sp] = null;
+                        break;
+                    case TO_FLOAT:
+                        if (stack[sp - 1] instanceof Long)
+                            stack[sp - 1] = ((Long) stack[sp - 1]).doubleValue();
+                        break;
+                    case NOT:
+                        stack[sp - 1] = !(boolean) stack[sp - 1];
+                        break;
+                    case NUM:
+                        --sp;
+                        stack[sp - 1] = Interpreter.numericOp(OPERATORS[a], b == 1,
+                            (Number) stack[sp - 1], (Number) stack[sp]);
+                        break;
+                    case ARRAY_OP: {
+                        --sp;
+                        Object[] left = (Object[]) stack[sp - 1];
+                        allocate(Budget.arrayBytes(Interpreter.arrayOpLength(left, stack[sp])));
+                        stack[sp - 1] = Interpreter.arrayOp(OPERATORS[a], b == 1, left, stack[sp]);
+                        break;
+                    }
+                    case CONCAT: {
+                        --sp;
+                        String left = Interpreter.convertToString(stack[sp - 1]);
+                        String right = Interpreter.convertToString(stack[sp]);
+                        allocate(Budget.stringBytes((long) left.length() + right.length()));
+                        stack[sp - 1] = left + right;
+                        break;
+                    }
+                    case EQUALS: {
+                        Object right = stack[--sp];
+                        Object left = stack[sp - 1];
+                        boolean equal = a == 1 ? left.equals(right) : left == right;
+                        stack[sp - 1] = equal != (b == 1);
+                        break;
+                    }
+                    case JUMP:
+                        // backward jumps close loops
+                        if (budget != null && a < pc)
+                            budget.tick();
+                        pc = a;
+                        break;
+                    case JUMP_IF_FALSE:
+                        if (!(boolean) stack[--sp]) pc = a;
+                        break;
+                    case JUMP_IF_TRUE:
+                        if ((boolean) stack[--sp]) pc = a;
+                        break;
+                    case ARRAY:
+                        allocate(Budget.arrayBytes(a));
+                        sp -= a;
+                        stack[sp] = Arrays.copyOfRange(stack, sp, sp + a);
+                        ++sp;
+                        break;
+                    case SET: {
+                        allocate(Budget.arrayBytes(a));
+                        sp -= a;
+                        Object[] set = Arrays.copyOfRange(stack, sp, sp + a);
+                        Arrays.sort(set);
+                        stack[sp++] = Arrays.stream(set).distinct().toArray();
+                        break;
+                    }
+                    case CHECK_NULL:
+                        if (stack[sp - 1] == Null.INSTANCE)
+                            throw new PassthroughException(
+                                new NullPointerException((String) constants[a]));
+                        break;
+                    case CHECK_INDEX:
+                        Interpreter.checkIndex((long) stack[sp - 1]);
+                        break;
+                    case INDEX: {
+                        int index = (int) (long) stack[--sp];
+                        Object[] array = (Object[]) stack[sp - 1];
+                        try {
+                            stack[sp - 1] = array[index];
+                        } catch (ArrayIndexOutOfBoundsException e) {
+                            throw new PassthroughException(e);
+                        }
+                        break;
+                    }
+                    case INDEX_STORE: {
+                        Object value = stack[--sp];
+                        int index = (int) (long) stack[--sp];
+                        Object[] array = (Object[]) stack[sp - 1];
+                        try {
+                            array[index] = value;
+                        } catch (ArrayIndexOutOfBoundsException e) {
+                            throw new PassthroughException(e);
+                        }
+                        stack[sp - 1] = value;
+                        break;
+                    }
+                    case FIELD: {
+                        Object stem = stack[sp - 1];
+                        if (stem == Null.INSTANCE)
+                            throw new PassthroughException(
+                                new NullPointerException("accessing field of null object"));
+                        stack[sp - 1] = stem instanceof Map
+                            ? Util.<Map<String, Object>>cast(stem).get((String) constants[a])
+                            : (long) ((Object[]) stem).length; // only field on arrays
+                        break;
+                    }
+                    case FIELD_STORE: {
+                        Object value = stack[--sp];
+                        Map<String, Object> struct = Util.cast(stack[sp - 1]);
+                        struct.put((String) constants[a], value);
+                        stack[sp - 1] = value;
+                        break;
+                    }
+                    case BUILTIN: {
+                        sp -= b;
+                        Object[] args = Arrays.copyOfRange(stack, sp, sp + b);
+                        stack[sp++] = builtin((SyntheticDeclarationNode) constants[a], args, out);
+                        break;
+                    }
+                    case STRUCT: {
+                        sp -= b;
+                        Object[] args = Arrays.copyOfRange(stack, sp, sp + b);
+                        StructDeclarationNode struct = (StructDeclarationNode) constants[a];
+                        allocate(Budget.mapBytes(struct.fields.size()));
+                        stack[sp++] = Interpreter.buildStruct(struct, args);
+                        break;
+                    }
+                    case CALL:
+                        callee = (LinearCode) constants[a];
+                        argc = b;
+                        break;
+                    case CALL_DYNAMIC: {
+                        Object function = stack[sp - a - 1];
+                        Interpreter.checkCallable(function);
+                        if (function instanceof FunDeclarationNode) {
+                            FunDeclarationNode decl = Interpreter.selectOverload(
+                                overloads, (FunCallNode) constants[b], (FunDeclarationNode) function);
+                            callee = program.functions.get(decl);
+                            if (callee == null)
+                                throw new UnsupportedOperationException(
+                                    "not supported by the explicit-stack interpreter: calling " + decl.name);
+                            argc = a;
+                            // remove the function value from below the arguments
+                            System.arraycopy(stack, sp - a, stack, sp - a - 1, a);
+                            stack[--sp] = null;
+                            break;
+                        }
+                        Object[] args = Arrays.copyOfRange(stack, sp - a, sp);
+                        sp -= a + 1;
+                        if (function instanceof SyntheticDeclarationNode) {
+                            stack[sp++] = builtin((SyntheticDeclarationNode) function, args, out);
+                            break;
+                        }
+                        if (function instanceof Constructor)
+                            allocate(Budget.mapBytes(((Constructor) function).declaration.fields.size()));
+                        else if (function instanceof ClassConstructor)
+                            allocate(Budget.mapBytes(
+                                ((ClassConstructor) function).declaration.block.statements.size()));
+                        stack[sp++] = Interpreter.callNative(function, args, out);
+                        break;
+                    }
+                    case TAIL_CALL:
+                        if (budget != null)
+                            budget.tick();
+                        sp -= a;
+                        System.arraycopy(stack, sp, locals, 0, a);
+                        Arrays.fill(stack, sp, sp + a, null);
+                        pc = 0;
+                        break;
+                    case RETURN:
+                    case RETURN_VOID: {
+                        Object value = opcode == RETURN ? stack[--sp] : null;
+                        if (depth == 0)
+                            return value;
+                        stack[sp] = null;
+                        frame = frames[--depth];
+                        frames[depth] = null;
+                        code = frame.code.code;
+                        constants = frame.code.constants;
+                        locals = frame.locals;
+                        pc = frame.pc;
+                        stack[sp++] = value;
+                        break;
+                    }
+                    default:
+                        throw new Error("unknown opcode: " + opcode);
+                }
+
+                if (callee != null) {
+                    if (budget != null)
+                        budget.tick();
+                    if (depth == maxDepth)
+                        throw new PassthroughException(new SighStackOverflowException(maxDepth));
+                    if (depth == frames.length)
+                        frames = Arrays.copyOf(frames, frames.length * 2);
+
+                    frame.pc = pc;
+                    frames[depth++] = frame;
+
+                    // arguments are the topmost values, and become the first locals
+                    frame = new Frame(callee, new Object[callee.localCount]);
+                    sp -= argc;
+                    System.arraycopy(stack, sp, frame.locals, 0, Math.min(callee.parameterCount, argc));
+                    Arrays.fill(stack, sp, sp + argc, null);
+
+                    code = callee.code;
+                    constants = callee.constants;
+                    locals = frame.locals;
+                    pc = 0;
+                }
+            }
+        } catch (PassthroughException | BudgetException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new InterpreterException("exception while executing " + frame.code.name, e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,55 @@
+package norswap.sigh.metrics;
+
+/**
+ * Counts of the operations performed during an interpreter run, see {@link Metrics#execution}.
+ */
+public final class ExecutionCounts
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of nodes evaluated. */
+    public long nodes;
+
+    /** Number of function calls, including constructor and builtin calls. */
+    public long calls;
+
+    /** Number of frames (storage for the variables of a scope) allocated. */
+    public long frames;
+
+    /** Number of structure instances allocated. */
+    public long structs;
+
+    /** Number of class instances allocated. */
+    public long classes;
+
+    /** Number of arrays allocated. */
+    public long arrays;
+
+    /** Number of sets allocated. */
+    public long sets;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the counts of {@code other} to these counts.
+     */
+    public void add (ExecutionCounts other) {
+        nodes   += other.nodes;
+        calls   += other.calls;
+        frames  += other.frames;
+        structs += other.structs;
+        classes += other.classes;
+        arrays  += other.arrays;
+        sets    += other.sets;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        return String.format(
+            "nodes: %d, calls: %d, frames: %d, structs: %d, classes: %d, arrays: %d, sets: %d",
+            nodes, calls, frames, structs, classes, arrays, sets);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,87 @@
+package norswap.sigh.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A {@link Metrics} implementation that emits custom Java Flight Recorder events: a {@code
+ * sigh.Stage} event (with a duration) for every pipeline stage, and a {@code sigh.Execution}
+ * event with the counts of every interpreter run.
+ *
+ * <p>Events are only recorded if enabled in the active recording (e.g. with {@code
+ * -XX:StartFlightRecording}), and have no cost otherwise beyond the allocation of the stage event.
+ *
+ * <p>Requires a JVM that ships JFR (Java 11+, or OpenJDK 8u262+). This class is the only one that
+ * refers to the {@code jdk.jfr} API, and so is only loaded when explicitly used.
+ */
+public final class JfrMetrics implements Metrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Name("sigh.Stage")
+    @Label("Sigh Stage")
+    @Category("Sigh")
+    @Description("A stage of the Sigh pipeline")
+    @StackTrace(false)
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Name("sigh.Execution")
+    @Label("Sigh Execution")
+    @Category("Sigh")
+    @Description("Counts for a run of the Sigh interpreter")
+    @StackTrace(false)
+    static final class ExecutionEvent extends Event {
+        @Label("Evaluated Nodes") long nodes;
+        @Label("Calls") long calls;
+        @Label("Frames") long frames;
+        @Label("Structs") long structs;
+        @Label("Class Instances") long classes;
+        @Label("Arrays") long arrays;
+        @Label("Sets") long sets;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Object stageStart (Stage stage) {
+        StageEvent event = new StageEvent();
+        event.begin();
+        return event;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void stageEnd (Stage stage, Object token) {
+        StageEvent event = (StageEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.stage = stage.name();
+            event.commit();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void execution (ExecutionCounts counts) {
+        ExecutionEvent event = new ExecutionEvent();
+        if (!event.isEnabled()) return;
+        event.nodes   = counts.nodes;
+        event.calls   = counts.calls;
+        event.frames  = counts.frames;
+        event.structs = counts.structs;
+        event.classes = counts.classes;
+        event.arrays  = counts.arrays;
+        event.sets    = counts.sets;
+        event.commit();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,48 @@
+package norswap.sigh.metrics;
+
+/**
+ * Receives measurements from the stages of the Sigh pipeline (see {@link
+ * norswap.sigh.SighRunner#metrics}) and from the interpreter (see {@link
+ * norswap.sigh.interpreter.Interpreter#metrics}).
+ *
+ * <p>Stages are reported with a pair of calls to {@link #stageStart} and {@link #stageEnd}. The
+ * counts of an interpreter run are reported once, at the end of the run, so that the interpreter
+ * only needs to increment fields while running.
+ *
+ * <p>Implementations: {@link SimpleMetrics} (counters and histograms in memory) and {@link
+ * JfrMetrics} (custom Java Flight Recorder events).
+ */
+public interface Metrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** The stages of the pipeline. */
+    enum Stage {
+        PARSE, ANALYSIS, INTERPRETATION, COMPILATION, CLASS_LOADING
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called when a stage starts. The returned object (which may be null) is passed back to
+     * {@link #stageEnd}.
+     */
+    Object stageStart (Stage stage);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called when a stage ends (successfully or not), with the object returned by the matching
+     * call to {@link #stageStart}.
+     */
+    void stageEnd (Stage stage, Object token);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called at the end of an interpreter run with the counts for that run.
+     */
+    void execution (ExecutionCounts counts);
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,141 @@
+package norswap.sigh.metrics;
+
+import java.util.EnumMap;
+
+/**
+ * A {@link Metrics} implementation that keeps a histogram of durations per stage, and the
+ * cumulated execution counts, in memory. Thread-safe.
+ */
+public final class SimpleMetrics implements Metrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A histogram of durations, with buckets whose upper bounds are powers of two of
+     * microseconds.
+     */
+    public static final class Histogram
+    {
+        private static final int BUCKETS = 40;
+
+        private final long[] buckets = new long[BUCKETS];
+        private long count, total, max;
+        private long min = Long.MAX_VALUE;
+
+        synchronized void record (long nanos) {
+            ++count;
+            total += nanos;
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            ++buckets[Math.min(bucket, BUCKETS - 1)];
+        }
+
+        /** Number of recorded durations. */
+        public synchronized long count () { return count; }
+
+        /** Sum of the recorded durations, in nanoseconds. */
+        public synchronized long totalNanos () { return total; }
+
+        /** Smallest recorded duration, in nanoseconds (0 if there are none). */
+        public synchronized long minNanos () { return count == 0 ? 0 : min; }
+
+        /** Largest recorded duration, in nanoseconds. */
+        public synchronized long maxNanos () { return max; }
+
+        /**
+         * Returns an upper bound of the given percentile (between 0 and 100) of the recorded
+         * durations, in nanoseconds, or 0 if there are none.
+         */
+        public synchronized long percentileNanos (double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0)
+                    return Math.min(max, (1L << i) * 1000);
+            }
+            return max;
+        }
+
+        @Override public synchronized String toString () {
+            return String.format("count: %d, total: %.3f ms, min: %.3f ms, p50: <= %.3f ms, "
+                    + "p99: <= %.3f ms, max: %.3f ms", count, total / 1e6, minNanos() / 1e6,
+                percentileNanos(50) / 1e6, percentileNanos(99) / 1e6, max / 1e6);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final EnumMap<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+    private final ExecutionCounts counts = new ExecutionCounts();
+    private long runs;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public SimpleMetrics () {
+        for (Stage stage: Stage.values())
+            stages.put(stage, new Histogram());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Object stageStart (Stage stage) {
+        return System.nanoTime();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void stageEnd (Stage stage, Object token) {
+        stages.get(stage).record(System.nanoTime() - (Long) token);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public synchronized void execution (ExecutionCounts counts) {
+        this.counts.add(counts);
+        ++runs;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the histogram of the durations of the given stage.
+     */
+    public Histogram stage (Stage stage) {
+        return stages.get(stage);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the execution counts cumulated over all interpreter runs.
+     */
+    public synchronized ExecutionCounts counts () {
+        ExecutionCounts copy = new ExecutionCounts();
+        copy.add(counts);
+        return copy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of interpreter runs.
+     */
+    public synchronized long runs () {
+        return runs;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        StringBuilder b = new StringBuilder();
+        for (Stage stage: Stage.values())
+            b.append(String.format("%-15s %s%n", stage.name().toLowerCase(), stages.get(stage)));
+        return b.append(String.format("%-15s runs: %d, %s%n", "execution", runs(), counts()))
+            .toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,134 @@
+package norswap.sigh.scopes;
+
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.ast.ParameterNode;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Indexes the function declarations of a program by name, then by the tuple of their parameter
+ * types, in order to select overloads.
+ *
+ * <p>Overloads are designated by their signature, of the form {@code name [Int, String]} (see
+ * {@link #signature}). Declaring a function with the same signature as a previous one replaces
+ * it.
+ */
+public final class OverloadIndex
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maps function names to the overloads with that name, keyed by parameter types. */
+    private final HashMap<String, LinkedHashMap<String, FunDeclarationNode>> index = new HashMap<>();
+
+    private int size = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the signature of the function, e.g. {@code name [Int, String]}.
+     */
+    public static String signature (FunDeclarationNode node)
+    {
+        StringBuilder signature = new StringBuilder(node.name).append(" [");
+        for (ParameterNode param: node.parameters)
+            signature.append(param.type.contents()).append(", ");
+        if (!node.parameters.isEmpty())
+            signature.setLength(signature.length() - 2);
+        return signature.append("]").toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the function to the index, replacing any function with the same signature.
+     */
+    public void add (FunDeclarationNode node) {
+        String signature = signature(node);
+        if (index.computeIfAbsent(node.name, k -> new LinkedHashMap<>())
+                .put(types(signature), node) == null)
+            ++size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the function with the given signature, or null if there is none.
+     */
+    public FunDeclarationNode get (String signature) {
+        Map<String, FunDeclarationNode> overloads = index.get(name(signature));
+        return overloads == null ? null : overloads.get(types(signature));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether there is a function with the given signature.
+     */
+    public boolean contains (String signature) {
+        return get(signature) != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the functions with the given name, in order of declaration.
+     */
+    public Collection<FunDeclarationNode> overloads (String name) {
+        Map<String, FunDeclarationNode> overloads = index.get(name);
+        return overloads == null
+            ? Collections.emptyList()
+            : Collections.unmodifiableCollection(overloads.values());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether a function with the same name as {@code function} but with different
+     * parameter types was declared, or whether {@code function} was shadowed in the index by a
+     * function with the same name and parameter types.
+     */
+    public boolean isOverloaded (FunDeclarationNode function) {
+        Collection<FunDeclarationNode> overloads = overloads(function.name);
+        return overloads.size() != 1 || overloads.iterator().next() != function;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of functions in the index.
+     */
+    public int size () {
+        return size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a map from the signature of every function in the index to the function.
+     */
+    public Map<String, FunDeclarationNode> toMap () {
+        HashMap<String, FunDeclarationNode> map = new HashMap<>();
+        index.forEach((name, overloads) ->
+            overloads.forEach((types, node) -> map.put(name + " " + types, node)));
+        return map;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String name (String signature) {
+        int space = signature.indexOf(' ');
+        return space < 0 ? signature : signature.substring(0, space);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String types (String signature) {
+        int space = signature.indexOf(' ');
+        return space < 0 ? "" : signature.substring(space + 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,5 +1,6 @@
 package norswap.sigh.scopes;
 
+import norswap.sigh.ast.BlockNode;
 import norswap.sigh.ast.DeclarationNode;
 import norswap.sigh.ast.SighNode;
 import java.util.HashMap;
@@ -21,24 +22,61 @@ public class Scope
      */
     public final Scope parent;
 
+    /**
+     * The scope whose runtime frame holds the values declared in this scope: the scope itself,
+     * except for blocks, whose declarations are flattened into the frame of their parent (and so
+     * ultimately of the enclosing function or file). Entering a block then requires no frame.
+     */
+    public final Scope frame;
+
     // ---------------------------------------------------------------------------------------------
 
     private final HashMap<String, DeclarationNode> declarations = new HashMap<>();
 
+    /** Index of each declaration of this scope in the slots of {@link #frame}. */
+    private final HashMap<String, Integer> slots = new HashMap<>();
+
+    /** Number of slots of the frame, if this scope is a frame. */
+    private int frameSize;
+
     // ---------------------------------------------------------------------------------------------
 
     public Scope (SighNode node, Scope parent) {
         this.node = node;
         this.parent = parent;
+        this.frame = node instanceof BlockNode && parent != null ? parent.frame : this;
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Adds a new declaration to this scope.
+     * Adds a new declaration to this scope, and reserves it a slot in {@link #frame}. Since each
+     * declaration gets its own slot, names shadowed by a nested block do not clash.
      */
     public void declare (String identifier, DeclarationNode node) {
         declarations.put(identifier, node);
+        slots.put(identifier, frame.frameSize++);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the slot of {@link #frame} that holds the value of the given name
+     * declared in this scope, or -1 if there is no such declaration.
+     */
+    public int slot (String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of slots required by the runtime frame of this scope, which must be
+     * its own {@link #frame}.
+     */
+    public int frameSize () {
+        return frameSize;
     }
 
     // ---------------------------------------------------------------------------------------------
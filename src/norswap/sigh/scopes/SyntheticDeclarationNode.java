@@ -1,6 +1,8 @@
 package norswap.sigh.scopes;
 
 import norswap.sigh.ast.DeclarationNode;
+import norswap.sigh.interpreter.Builtin;
+import norswap.sigh.interpreter.Builtins;
 import java.util.Locale;
 
 /**
@@ -9,16 +11,21 @@ import java.util.Locale;
  * introduced by the user.
  *
  * <p>At present, all such declarations are unconditionally introduced in the {@link RootScope}.
+ *
+ * <p>Builtin functions are bound to their implementation in the interpreters when the node is
+ * created, see {@link Builtins}.
  */
 public final class SyntheticDeclarationNode extends DeclarationNode
 {
     private final String name;
     private final DeclarationKind kind;
+    private final Builtin builtin;
 
     public SyntheticDeclarationNode(String name, DeclarationKind kind) {
         super(null);
         this.name = name;
         this.kind = kind;
+        this.builtin = kind == DeclarationKind.FUNCTION ? Builtins.get(name) : null;
     }
 
     @Override public String name () {
@@ -29,6 +36,13 @@ public final class SyntheticDeclarationNode extends DeclarationNode
         return kind;
     }
 
+    /**
+     * The implementation of the function in the interpreters, or null if this is not a function.
+     */
+    public Builtin builtin() {
+        return builtin;
+    }
+
     @Override public String contents () {
         return name;
     }
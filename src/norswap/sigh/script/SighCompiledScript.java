@@ -0,0 +1,333 @@
+package norswap.sigh.script;
+
+import norswap.sigh.Budget;
+import norswap.sigh.OutputSink;
+import norswap.sigh.Rope;
+import norswap.sigh.ast.FieldDeclarationNode;
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.StatementNode;
+import norswap.sigh.ast.VarDeclarationNode;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.bytecode.Execution;
+import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.BoolType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.StringType;
+import norswap.sigh.types.StructType;
+import norswap.sigh.types.Type;
+import norswap.uranium.Reactor;
+import norswap.utils.exceptions.NoStackException;
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A script parsed and analyzed by {@link SighScriptEngine#compile}, which can be evaluated
+ * repeatedly without parsing it again.
+ *
+ * <p>The script is backed by the classes generated by the {@link
+ * norswap.sigh.bytecode.BytecodeCompiler}, whose top-level variables are static fields of the
+ * main class, or by an {@link Interpreter} if the compiler does not support the script. In both
+ * cases, evaluating the script again re-initializes its top-level variables.
+ */
+public final class SighCompiledScript extends CompiledScript
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final SighScriptEngine engine;
+    private final Reactor reactor;
+    private final RootNode root;
+
+    /** Main class of the compiled script, or null if the script is interpreted. */
+    private final Class<?> mainClass;
+
+    /** Interpreter of the script if it is not compiled, or null. */
+    private final Interpreter interpreter;
+
+    /** The top-level variables of the script, see {@link SighScriptEngine}. */
+    private final List<VarDeclarationNode> globals = new ArrayList<>();
+
+    /** The static fields of {@link #mainClass} holding the {@link #globals}, by name. */
+    private final HashMap<String, Field> fields = new HashMap<>();
+
+    /** The top-level functions of the script, by name. */
+    private final HashMap<String, FunDeclarationNode> functions = new HashMap<>();
+
+    /** Buffers the output of the script until it is written to the writer of the context. */
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final OutputSink output = new OutputSink(bytes);
+
+    // ---------------------------------------------------------------------------------------------
+
+    SighCompiledScript (SighScriptEngine engine, Reactor reactor, RootNode root, Class<?> mainClass)
+    {
+        this.engine = engine;
+        this.reactor = reactor;
+        this.root = root;
+        this.mainClass = mainClass;
+        this.interpreter = mainClass != null ? null : new Interpreter(reactor).output(output);
+
+        for (StatementNode statement: root.statements) {
+            if (statement instanceof VarDeclarationNode)
+                globals.add((VarDeclarationNode) statement);
+            else if (statement instanceof FunDeclarationNode)
+                functions.put(((FunDeclarationNode) statement).name,
+                    (FunDeclarationNode) statement);
+        }
+
+        if (mainClass != null)
+            for (VarDeclarationNode global: globals)
+                try {
+                    fields.put(global.name, mainClass.getField(global.name));
+                } catch (NoSuchFieldException e) {
+                    throw new NoStackException(e);
+                }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the script was compiled to bytecode, instead of being interpreted.
+     */
+    public boolean isCompiled () {
+        return mainClass != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public SighScriptEngine getEngine () {
+        return engine;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the top-level code of the script, then copies its top-level variables to the engine
+     * bindings of the context, and returns the value returned by the script, if any.
+     */
+    @Override public Object eval (ScriptContext context) throws ScriptException
+    {
+        Object result;
+        try {
+            result = mainClass != null
+                ? CompilationResult.callRun(mainClass, null, output)
+                : interpreter.interpret(root);
+        } catch (RuntimeException e) {
+            throw scriptException(e);
+        } finally {
+            writeOutput(context);
+        }
+        exportGlobals(context);
+        engine.evaluated(this);
+        return toJava(result);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements {@link SighScriptEngine#invokeFunction}, see {@link SighScriptEngine}.
+     */
+    Object invoke (String name, Object[] args, ScriptContext context)
+            throws ScriptException, NoSuchMethodException
+    {
+        FunDeclarationNode function = functions.get(name);
+        if (function == null)
+            throw new NoSuchMethodException(name);
+        if (args.length != function.parameters.size())
+            throw new ScriptException(String.format("%s expects %d arguments, got %d",
+                name, function.parameters.size(), args.length));
+
+        Object[] values = new Object[args.length];
+        for (int i = 0; i < args.length; ++i)
+            values[i] = toSigh(reactor.get(function.parameters.get(i), "type"), args[i]);
+
+        MethodHandle handle = null;
+        if (mainClass != null)
+            try {
+                handle = CompilationResult.function(mainClass, name);
+            } catch (IllegalArgumentException e) {
+                // overloaded functions cannot be selected by name
+                NoSuchMethodException error = new NoSuchMethodException(name);
+                error.initCause(e);
+                throw error;
+            }
+
+        importGlobals(context);
+        // the compiled functions print to the sink of the current execution
+        Execution previous = Execution.enter(new Execution(Budget.unlimited(), output));
+        Object result;
+        try {
+            result = handle != null
+                ? handle.invokeWithArguments(values)
+                : interpreter.function(name).call(values);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw scriptException(e);
+        } finally {
+            Execution.exit(previous); // flushes the output
+            writeOutput(context);
+        }
+        exportGlobals(context);
+        return toJava(result);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void exportGlobals (ScriptContext context) throws ScriptException
+    {
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        try {
+            for (VarDeclarationNode global: globals)
+                bindings.put(global.name, toJava(mainClass != null
+                    ? fields.get(global.name).get(null)
+                    : interpreter.global(global.name)));
+        } catch (IllegalAccessException e) {
+            throw new ScriptException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void importGlobals (ScriptContext context) throws ScriptException
+    {
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        for (VarDeclarationNode global: globals) {
+            if (!bindings.containsKey(global.name)) continue;
+            Type type = reactor.get(global, "type");
+            Object value = toSigh(type, bindings.get(global.name));
+            try {
+                if (mainClass == null) {
+                    // values of other types can only be passed back as they were exported
+                    if (!hasType(type, value) && value != interpreter.global(global.name))
+                        throw new ScriptException(String.format("cannot assign %s: %s is not %s",
+                            global.name, value, type.name()));
+                    interpreter.global(global.name, value);
+                    continue;
+                }
+                // the compiled code is checked by reflection
+                Field field = fields.get(global.name);
+                field.set(null, field.getType() == Rope.class ? Rope.of((String) value) : value);
+            } catch (IllegalAccessException | IllegalArgumentException | ClassCastException e) {
+                throw new ScriptException("cannot assign " + global.name + ": " + e);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Converts a value passed by the host to the representation of the script, given its type.
+     */
+    private Object toSigh (Type type, Object value)
+    {
+        if (value == null)
+            return mainClass != null ? null : norswap.sigh.interpreter.Null.INSTANCE;
+        if (type instanceof IntType && (value instanceof Integer || value instanceof Short
+                || value instanceof Byte))
+            return ((Number) value).longValue();
+        if (type instanceof FloatType && value instanceof Number)
+            return ((Number) value).doubleValue();
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the value, in the representation of the interpreter, has the given type. Only
+     * checks the types whose values can be created by the host: primitives, strings, arrays and
+     * structures.
+     */
+    private boolean hasType (Type type, Object value)
+    {
+        if (value == norswap.sigh.interpreter.Null.INSTANCE)
+            return type.isReference();
+        if (type instanceof IntType)    return value instanceof Long;
+        if (type instanceof FloatType)  return value instanceof Double;
+        if (type instanceof BoolType)   return value instanceof Boolean;
+        if (type instanceof StringType) return value instanceof String;
+        if (type instanceof ArrayType) {
+            if (!(value instanceof Object[])) return false;
+            for (Object element: (Object[]) value)
+                if (!hasType(((ArrayType) type).componentType, element)) return false;
+            return true;
+        }
+        if (type instanceof StructType) {
+            if (!(value instanceof Map)) return false;
+            Map<?, ?> struct = (Map<?, ?>) value;
+            for (FieldDeclarationNode field: ((StructType) type).node.fields)
+                if (!struct.containsKey(field.name)
+                        || !hasType(reactor.get(field, "type"), struct.get(field.name)))
+                    return false;
+            return true;
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Converts a value of the script to the representation seen by the host.
+     */
+    private static Object toJava (Object value)
+    {
+        if (value == norswap.sigh.interpreter.Null.INSTANCE
+                || value == norswap.sigh.bytecode.Null.INSTANCE)
+            return null;
+        if (value instanceof Rope)
+            return value.toString();
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void writeOutput (ScriptContext context) throws ScriptException
+    {
+        if (bytes.size() == 0) return;
+        try {
+            Writer writer = context.getWriter();
+            writer.write(bytes.toString("UTF-8"));
+            writer.flush();
+        } catch (UnsupportedEncodingException e) {
+            throw new Error(e); // UTF-8 is always supported
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        } finally {
+            bytes.reset();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Wraps an exception thrown by the script, unwrapping the reflection wrappers of the compiled
+     * code.
+     */
+    private static ScriptException scriptException (Throwable e)
+    {
+        Throwable cause = e;
+        while ((cause instanceof NoStackException || cause instanceof InvocationTargetException)
+                && cause.getCause() != null)
+            cause = cause.getCause();
+        ScriptException result = new ScriptException(String.valueOf(cause));
+        result.initCause(cause);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
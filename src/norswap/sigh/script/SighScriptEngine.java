@@ -0,0 +1,257 @@
+package norswap.sigh.script;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.positions.LineMapString;
+import norswap.sigh.ExternLinker;
+import norswap.sigh.Inliner;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.uranium.Reactor;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * A JSR-223 ({@code javax.script}) engine for Sigh, created by {@link SighScriptEngineFactory}.
+ *
+ * <p>Scripts are parsed and analyzed once by {@link #compile}, then compiled to JVM bytecode with
+ * the {@link BytecodeCompiler}. Programs that use features the compiler does not support (it
+ * throws {@link UnsupportedOperationException}) are run by the interpreter instead (see {@link
+ * SighCompiledScript#isCompiled}). Other compiler failures, including generated code that doesn't
+ * verify, are bugs and are not masked by this fallback. {@link #eval} compiles the
+ * script and evaluates it once: evaluating the same script repeatedly should go through {@link
+ * #compile}.
+ *
+ * <p>The top-level variables of a script are mirrored in the {@link ScriptContext#ENGINE_SCOPE}
+ * bindings: they are copied to the bindings after every evaluation and every call. The functions
+ * of the last evaluated script can be called with {@link #invokeFunction}, which first copies the
+ * values of the bindings back to the variables with the same names. Values follow the
+ * representation of the compiled code (e.g. {@link Long} for {@code Int}), except that {@code
+ * null} is represented by {@code null}, and that other integers are accepted for {@code Int} and
+ * other numbers for {@code Float}.
+ *
+ * <p>The output of the script is written to the writer of the context once the evaluation or the
+ * call ends. Engines must not be used concurrently.
+ */
+public final class SighScriptEngine extends AbstractScriptEngine implements Compilable, Invocable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Binary name of the main class of compiled scripts (each has its own class loader). */
+    private static final String MAIN_CLASS = "SighScript";
+
+    /** File name used in error messages and stack traces if {@link #FILENAME} is not set. */
+    private static final String DEFAULT_FILE_NAME = "<script>";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final SighScriptEngineFactory factory;
+    private final SighGrammar grammar = new SighGrammar();
+
+    private final ParseOptions parseOptions = ParseOptions.builder()
+        .wellFormednessCheck(false)
+        .get();
+
+    /** The last script evaluated by this engine, whose functions {@link #invokeFunction} calls. */
+    private SighCompiledScript last;
+
+    /** Links the extern functions of the scripts, see {@link #externs}. */
+    private ExternLinker externs = ExternLinker.NONE;
+
+    // ---------------------------------------------------------------------------------------------
+
+    SighScriptEngine (SighScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public SighScriptEngineFactory getFactory () {
+        return factory;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the linker that determines the Java methods that the extern functions of the scripts
+     * compiled from now on may call, and returns this engine. By default, extern functions are
+     * rejected.
+     */
+    public SighScriptEngine externs (ExternLinker externs) {
+        this.externs = externs;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Bindings createBindings () {
+        return new SimpleBindings();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Object eval (String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Object eval (Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses and analyzes the script, then compiles it to bytecode if the compiler supports it.
+     */
+    @Override public SighCompiledScript compile (String script) throws ScriptException
+    {
+        Object name = context.getAttribute(ScriptEngine.FILENAME);
+        String fileName = name != null ? name.toString() : DEFAULT_FILE_NAME;
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(script, fileName, reactor);
+        new Inliner(reactor).inline(root);
+
+        Class<?> mainClass;
+        try {
+            mainClass = new BytecodeCompiler(reactor)
+                .source(fileName, script)
+                .compile(MAIN_CLASS, root)
+                .load();
+            // initialize the class, which verifies the generated code
+            Class.forName(mainClass.getName(), true, mainClass.getClassLoader());
+        } catch (UnsupportedOperationException e) {
+            mainClass = null; // unsupported by the compiler, fall back to the interpreter
+        } catch (ClassNotFoundException e) {
+            throw new Error(e); // the class was just loaded
+        }
+        return new SighCompiledScript(this, reactor, root, mainClass);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public SighCompiledScript compile (Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private RootNode analyze (String script, String fileName, Reactor reactor)
+            throws ScriptException
+    {
+        ParseResult result = Autumn.parse(grammar.root, script, parseOptions);
+        if (!result.fullMatch)
+            throw new ScriptException(result.toString());
+
+        RootNode root = result.topValue();
+        SemanticAnalysis.createWalker(reactor, externs).walk(root);
+        reactor.run();
+        if (!reactor.errors().isEmpty()) {
+            LineMapString map = new LineMapString(fileName, script);
+            throw new ScriptException(reactor.reportErrors(it ->
+                it.toString() + " (" + ((SighNode) it).span.startString(map) + ")"));
+        }
+        return root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String read (Reader reader) throws ScriptException
+    {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            for (int n; (n = reader.read(buffer)) > 0; )
+                builder.append(buffer, 0, n);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return builder.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Called by {@link SighCompiledScript#eval} once the script has been evaluated. */
+    void evaluated (SighCompiledScript script) {
+        last = script;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the top-level function with the given name of the last evaluated script, with the
+     * current context of the engine.
+     *
+     * @throws NoSuchMethodException if no script has been evaluated, or if the last one has no
+     * such function.
+     */
+    @Override public Object invokeFunction (String name, Object... args)
+            throws ScriptException, NoSuchMethodException {
+        if (last == null)
+            throw new NoSuchMethodException(name + " (no script has been evaluated)");
+        return last.invoke(name, args, context);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Unsupported: Sigh values have no methods.
+     */
+    @Override public Object invokeMethod (Object thiz, String name, Object... args) {
+        throw new IllegalArgumentException("Sigh values have no methods");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an implementation of the interface whose methods call the functions with the same
+     * names (see {@link #invokeFunction}), or null if no script has been evaluated.
+     */
+    @Override public <T> T getInterface (Class<T> type)
+    {
+        if (last == null) return null;
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+            (self, method, args) -> {
+                if (method.getDeclaringClass() == Object.class)
+                    return objectMethod(self, method, args);
+                return invokeFunction(method.getName(), args == null ? new Object[0] : args);
+            });
+        return type.cast(proxy);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object objectMethod (Object self, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":   return self == args[0];
+            case "hashCode": return System.identityHashCode(self);
+            default:         return "SighProxy@" + Integer.toHexString(System.identityHashCode(self));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Unsupported: Sigh values have no methods.
+     */
+    @Override public <T> T getInterface (Object thiz, Class<T> type) {
+        throw new IllegalArgumentException("Sigh values have no methods");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
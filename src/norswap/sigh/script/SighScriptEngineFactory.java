@@ -0,0 +1,109 @@
+package norswap.sigh.script;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The JSR-223 ({@code javax.script}) factory for {@link SighScriptEngine}, registered as a
+ * service so that the engine can be found by {@link javax.script.ScriptEngineManager} under the
+ * name {@code sigh}, the extension {@code si} or the MIME type {@code text/x-sigh}.
+ */
+public final class SighScriptEngineFactory implements ScriptEngineFactory
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String NAME = "Sigh";
+    private static final String VERSION = "1.0";
+
+    private static final List<String> NAMES =
+        Collections.unmodifiableList(Arrays.asList("sigh", "Sigh"));
+    private static final List<String> EXTENSIONS = Collections.singletonList("si");
+    private static final List<String> MIME_TYPES = Collections.singletonList("text/x-sigh");
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String getEngineName () {
+        return NAME;
+    }
+
+    @Override public String getEngineVersion () {
+        return VERSION;
+    }
+
+    @Override public List<String> getExtensions () {
+        return EXTENSIONS;
+    }
+
+    @Override public List<String> getMimeTypes () {
+        return MIME_TYPES;
+    }
+
+    @Override public List<String> getNames () {
+        return NAMES;
+    }
+
+    @Override public String getLanguageName () {
+        return NAME;
+    }
+
+    @Override public String getLanguageVersion () {
+        return VERSION;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value of the standard parameters. {@code THREADING} is null: engines must not be
+     * used concurrently.
+     */
+    @Override public Object getParameter (String key)
+    {
+        switch (key) {
+            case ScriptEngine.ENGINE:           return getEngineName();
+            case ScriptEngine.ENGINE_VERSION:   return getEngineVersion();
+            case ScriptEngine.NAME:             return NAMES.get(0);
+            case ScriptEngine.LANGUAGE:         return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            default:                            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sigh values have no methods: returns a call to the function {@code m} with the given
+     * arguments, ignoring {@code obj}.
+     */
+    @Override public String getMethodCallSyntax (String obj, String m, String... args) {
+        return m + "(" + String.join(", ", args) + ")";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a statement that prints the string, which must not contain double quotes or
+     * backslashes (Sigh string literals cannot escape them).
+     */
+    @Override public String getOutputStatement (String toDisplay) {
+        if (toDisplay.indexOf('"') >= 0 || toDisplay.indexOf('\\') >= 0)
+            throw new IllegalArgumentException("cannot be written as a literal: " + toDisplay);
+        return "print(\"" + toDisplay + "\")";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String getProgram (String... statements) {
+        return String.join("\n", statements);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public SighScriptEngine getScriptEngine () {
+        return new SighScriptEngine(this);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
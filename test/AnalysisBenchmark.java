@@ -0,0 +1,111 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.uranium.Reactor;
+
+/**
+ * Measures how the time of semantic analysis scales with the number of declarations, on
+ * synthetic programs with many functions and many variable declarations whose initializers
+ * are overloaded method calls (which are resolved through the overload index).
+ *
+ * <p>Exits with a non-zero status if the time grows much faster than the number of
+ * declarations.
+ */
+public final class AnalysisBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int[] SIZES = { 1_000, 10_000, 100_000 };
+
+    /** Maximum acceptable ratio between the growth of time and the growth of size. */
+    private static final double MAX_GROWTH = 3.0;
+
+    private static final SighGrammar grammar = new SighGrammar();
+    private static final ParseOptions options = ParseOptions.builder()
+        .wellFormednessCheck(false)
+        .get();
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args)
+    {
+        analyze(program(SIZES[0])); // warmup
+
+        long previous = 0;
+        boolean linear = true;
+        for (int i = 0; i < SIZES.length; ++i) {
+            RootNode root = parse(program(SIZES[i]));
+            long start = System.nanoTime();
+            analyze(root);
+            long time = System.nanoTime() - start;
+
+            String growth = "";
+            if (i > 0) {
+                double ratio = (double) time / previous / ((double) SIZES[i] / SIZES[i - 1]);
+                growth = String.format("   time growth / size growth: %.2f", ratio);
+                linear &= ratio <= MAX_GROWTH;
+            }
+            System.out.printf("%7d declarations: %9.1f ms%s%n", SIZES[i], time / 1e6, growth);
+            previous = time;
+        }
+
+        if (!linear) {
+            System.out.println("analysis time grows superlinearly");
+            System.exit(1);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A program with {@code size} declarations: half of them functions, the other half variables
+     * initialized by calls to an overloaded method, whose return type differs across overloads.
+     */
+    private static String program (int size)
+    {
+        StringBuilder b = new StringBuilder()
+            .append("pub class C {\n")
+            .append("   fun g(a: Int): Int { return a }\n")
+            .append("   fun g(a: String): String { return a }\n")
+            .append("}\n")
+            .append("var c: C = create C()\n");
+
+        for (int i = 0; i < size / 2; ++i)
+            b.append("fun f").append(i).append(" (x: Int): Int { return x + ").append(i).append(" }\n");
+        for (int i = 0; i < size / 2; ++i)
+            b.append(i % 2 == 0
+                ? "var v" + i + ": Int = c$g(" + i + ")\n"
+                : "var v" + i + ": String = c$g(\"" + i + "\")\n");
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static RootNode parse (String source) {
+        ParseResult result = Autumn.parse(grammar.root, source, options);
+        if (!result.fullMatch)
+            throw new AssertionError(result.toString());
+        return result.topValue();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void analyze (String source) {
+        analyze(parse(source));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void analyze (RootNode root) {
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor).walk(root);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,122 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.sigh.Budget;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.interpreter.Interpreter;
+import norswap.uranium.Reactor;
+
+/**
+ * Compares the running time of loops and calls with and without a {@link Budget}, in the
+ * interpreter (where an unbudgeted run skips the ticks entirely) and in compiled code (where an
+ * unbudgeted program is compiled without {@link BytecodeCompiler#budgetChecks}).
+ */
+public final class BudgetBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    private static final String LOOP =
+        "var i: Int = 0\n" +
+        "var s: Int = 0\n" +
+        "while (i < %d) { s = s + i %% 7; i = i + 1 }\n" +
+        "return s\n";
+
+    private static final String CALLS =
+        "fun fib (n: Int): Int {\n" +
+        "    if (n < 2) return n\n" +
+        "    return fib(n - 1) + fib(n - 2)\n" +
+        "}\n" +
+        "return fib(%d)\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args)
+    {
+        System.out.printf("average of %d runs%n", RUNS);
+        interpreted("interpreted loop", String.format(LOOP, 1_000_000));
+        interpreted("interpreted fib", String.format(CALLS, 22));
+        compiled("compiled loop", String.format(LOOP, 200_000_000));
+        compiled("compiled fib", String.format(CALLS, 32));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void interpreted (String name, String source)
+    {
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(source, reactor);
+        Interpreter plain = new Interpreter(reactor);
+        Interpreter budgeted = new Interpreter(reactor);
+
+        long without = 0, with = 0;
+        for (int i = 0; i < WARMUP + RUNS; ++i) {
+            long start = System.nanoTime();
+            plain.interpret(root);
+            long middle = System.nanoTime();
+            budgeted.budget(Budget.unlimited()).interpret(root);
+            long end = System.nanoTime();
+            if (i >= WARMUP) {
+                without += middle - start;
+                with += end - middle;
+            }
+        }
+        report(name, without, with);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void compiled (String name, String source)
+    {
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(source, reactor);
+        Class<?> plain = new BytecodeCompiler(reactor).budgetChecks(false).compile(root).load();
+        Class<?> budgeted = new BytecodeCompiler(reactor).compile(root).load();
+
+        long without = 0, with = 0;
+        for (int i = 0; i < WARMUP + RUNS; ++i) {
+            long start = System.nanoTime();
+            CompilationResult.callRun(plain);
+            long middle = System.nanoTime();
+            CompilationResult.callRun(budgeted, Budget.unlimited());
+            long end = System.nanoTime();
+            if (i >= WARMUP) {
+                without += middle - start;
+                with += end - middle;
+            }
+        }
+        report(name, without, with);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void report (String name, long without, long with) {
+        System.out.printf("%-18s unbudgeted: %8.2f ms   budgeted: %8.2f ms   overhead: %+.1f%%%n",
+            name, without / 1e6 / RUNS, with / 1e6 / RUNS, 100.0 * (with - without) / without);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static RootNode analyze (String source, Reactor reactor)
+    {
+        ParseOptions options = ParseOptions.builder().wellFormednessCheck(false).get();
+        ParseResult result = Autumn.parse(new SighGrammar().root, source, options);
+        if (!result.fullMatch)
+            throw new AssertionError(result.toString());
+
+        RootNode root = result.topValue();
+        SemanticAnalysis.createWalker(reactor).walk(root);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+        return root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
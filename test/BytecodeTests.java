@@ -1,19 +1,49 @@
 import norswap.autumn.Autumn;
 import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseResult;
+import norswap.sigh.Budget;
+import norswap.sigh.BudgetException;
+import norswap.sigh.BudgetException.Reason;
+import norswap.sigh.ExternLinker;
+import norswap.sigh.OutputSink;
+import norswap.sigh.Inliner;
 import norswap.sigh.SemanticAnalysis;
 import norswap.sigh.SighGrammar;
+import norswap.sigh.SighRunner;
 import norswap.sigh.ast.SighNode;
 import norswap.sigh.bytecode.ByteArrayClassLoader;
 import norswap.sigh.bytecode.BytecodeCompiler;
 import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.bytecode.CompiledClassCache;
+import norswap.sigh.bytecode.Execution;
 import norswap.uranium.Reactor;
 import norswap.utils.IO;
+import norswap.utils.data.wrappers.Pair;
 import norswap.utils.visitors.Walker;
 import org.testng.annotations.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 import static norswap.utils.Util.cast;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
 
 @SuppressWarnings("FieldCanBeLocal")
 public class BytecodeTests
@@ -22,28 +52,23 @@ public class BytecodeTests
 
     // ---------------------------------------------------------------------------------------------
 
+    /** Budget passed to the {@link Inliner} by {@link #check}, 0 to disable inlining. */
+    private int inlineBudget = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Checks that the input program can be compiled, run and prints the {@code expected} string if
      * non-null (to which a newline is appended if not empty).
      */
     public void check (String input, String expected)
     {
-        SighGrammar grammar = new SighGrammar();
-        ParseOptions options = ParseOptions.builder().recordCallStack(true).get();
-        ParseResult parseResult = Autumn.parse(grammar.root, input, options);
-        if (!parseResult.fullMatch) throw new AssertionError(parseResult.toString());
-
-        SighNode tree = cast(parseResult.topValue());
-        Reactor reactor = new Reactor();
-        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
-        walker.walk(tree);
-        reactor.run();
-
-        if (!reactor.errors().isEmpty())
-            throw new AssertionError(reactor.reportErrors(Object::toString));
+        Pair<SighNode, Reactor> analyzed = analyze(input);
+        SighNode tree = analyzed.a;
+        Reactor reactor = analyzed.b;
 
         String className = "BytecodeTestsRun";
-        BytecodeCompiler compiler = new BytecodeCompiler(reactor);
+        BytecodeCompiler compiler = new BytecodeCompiler(reactor).source(className + ".si", input);
         CompilationResult result = compiler.compile(className, tree);
 
         // using a new loader each time allows to overwrite the class every time.
@@ -68,6 +93,38 @@ public class BytecodeTests
 
     // ---------------------------------------------------------------------------------------------
 
+    /** The methods that extern functions may call in the tests. */
+    private static final ExternLinker EXTERNS =
+        new ExternLinker(Arrays.asList("java.lang.Math", "java.util.Arrays"));
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses and analyzes the input program, then inlines functions if {@link #inlineBudget} is
+     * not 0.
+     */
+    private Pair<SighNode, Reactor> analyze (String input)
+    {
+        SighGrammar grammar = new SighGrammar();
+        ParseOptions options = ParseOptions.builder().recordCallStack(true).get();
+        ParseResult parseResult = Autumn.parse(grammar.root, input, options);
+        if (!parseResult.fullMatch) throw new AssertionError(parseResult.toString());
+
+        SighNode tree = cast(parseResult.topValue());
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor, EXTERNS);
+        walker.walk(tree);
+        reactor.run();
+
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+
+        new Inliner(reactor, inlineBudget).inline(tree);
+        return new Pair<>(tree, reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Checks that the input <b>expression</b> can be converted to a string and printed, and that the printed
      * string corresponds to the {@code expected} string.
@@ -267,4 +324,472 @@ public class BytecodeTests
         check(makePair + "x.x = 3; print(\"\" + x.x)", "3");
         check(makePair + "x.y = 3; print(\"\" + x.y)", "3.0");
     }
+
+    @Test public void testInlining() {
+        inlineBudget = Inliner.DEFAULT_BUDGET;
+        try {
+            check("fun add (a: Int, b: Int): Int { return a + b } print(\"\" + add(4, 7))", "11");
+            check("fun sq (a: Float): Float { return a * a } print(\"\" + sq(1 + 2))", "9.0");
+            check("fun id (x: String): String { return x } id(\"a\") print(id(\"b\"))", "b");
+        } finally {
+            inlineBudget = 0;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testTailCalls() {
+        check("fun sum (n: Int, acc: Int): Int { if (n == 0) return acc; return sum(n - 1, acc + n) } " +
+            "print(\"\" + sum(1000000, 0))", "500000500000");
+        check("fun gcd (a: Int, b: Int): Int { if (b == 0) return a else return gcd(b, a % b) } " +
+            "print(\"\" + gcd(1071, 462))", "21");
+        check("fun count (n: Int, x: Float): Float { if (n == 0) return x; return count(n - 1, x + 1) } " +
+            "print(\"\" + count(100000, 0))", "100000.0");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testFrames() {
+        // join points whose incoming paths declare different locals
+        check("fun f (x: Int): Int { if (x > 0) return 1 else return 2 } print(\"\" + f(3))", "1");
+        check("fun g () { print(\"a\") ; return } g()", "a");
+        check("var i: Int = 0 ; while (i < 3) { var j: Int = i * 2 ; if (j > 2) print(\"\" + j) ; i = i + 1 }", "4");
+        // locals initialized to null then assigned in a loop
+        check(makePair + "var p: Pair = null ; var i: Int = 0 ; " +
+            "while (i < 2) { p = $Pair(i, 1.0) ; i = i + 1 } print(\"\" + p.x)", "1");
+        // branches with uninitialized objects and long values on the stack
+        check("struct B { var b: Bool ; var n: Int } var x: B = $B(1 < 2 && !false, 3) ; " +
+            "print(\"\" + x.b + \":\" + x.n)", "true:3");
+        check("print(\"\" + (2.0 > 1 || 1 == 2) + (\"a\" == \"a\"))", "truetrue");
+        // a local declared in only one of the branches of an if
+        check("fun f (c: Bool): Int { if (c) { var t: Int = 1 } else { c = !c } return 0 } " +
+            "print(\"\" + f(true) + f(false))", "00");
+        check("fun f (c: Bool): Int { if (c) { c = false } else { var t: Float = 1.0 ; " +
+            "var s: String = \"s\" } var u: Int = 2 ; return u } print(\"\" + f(false))", "2");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testLineNumbers() {
+        String source = "fun f (a: Int[]): Int {\n" +
+            "    return a[3]\n" +
+            "}\n" +
+            "var a: Int[] = [1]\n" +
+            "print(\"\" + f(a))\n";
+        Pair<SighNode, Reactor> analyzed = analyze(source);
+        Class<?> mainClass = new BytecodeCompiler(analyzed.b)
+            .source("lines.si", source)
+            .compile("LineNumbersRun", analyzed.a)
+            .load();
+
+        Throwable error = expectThrows(Throwable.class, () -> CompilationResult.callRun(mainClass));
+        while (!(error instanceof ArrayIndexOutOfBoundsException))
+            error = error.getCause();
+
+        StackTraceElement[] trace = error.getStackTrace();
+        assertEquals(trace[0].getMethodName(), "f");
+        assertEquals(trace[0].getFileName(), "lines.si");
+        assertEquals(trace[0].getLineNumber(), 2);
+        assertEquals(trace[1].getMethodName(), "run");
+        assertEquals(trace[1].getFileName(), "lines.si");
+        assertEquals(trace[1].getLineNumber(), 5);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testJarAndCache() throws IOException {
+        Path dir = Files.createTempDirectory("sigh-aot");
+        try {
+            checkJarAndCache(dir);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private void checkJarAndCache (Path dir) throws IOException {
+        String source = makePair + "print(\"\" + x.x + \":\" + x.y)";
+
+        // ahead-of-time compilation to a JAR, then loading back the classes
+        Path jar = dir.resolve("pair.jar");
+        CompilationResult compiled = new SighRunner().compile(source, "aot.PairMain");
+        compiled.writeJar(jar);
+        CompilationResult read = CompilationResult.readJar(jar);
+        assertEquals(read.mainClass.binaryName(), "aot.PairMain");
+        assertEquals(read.structures.size(), 1);
+        assertEquals(read.mainClass.bytes(), compiled.mainClass.bytes());
+        Class<?> mainClass = read.load(new ByteArrayClassLoader());
+        assertEquals(IO.captureStdout(() -> CompilationResult.callRun(mainClass)).a, "1:2.0\n");
+
+        // the first run populates the cache, the second one reuses the entry
+        CompiledClassCache cache = new CompiledClassCache(dir.resolve("cache"));
+        SighRunner runner = new SighRunner();
+        String settings = runner.compilationSettings();
+        assertNull(cache.get(source, "SighMain", settings));
+        String first = IO.captureStdout(() -> runRethrow(runner, source, cache)).a;
+        assertNotNull(cache.get(source, "SighMain", settings));
+        String second = IO.captureStdout(() -> runRethrow(runner, source, cache)).a;
+        assertEquals(first, "1:2.0\n");
+        assertEquals(second, first);
+
+        // runners whose settings change the generated code get their own entries
+        SighRunner noInlining = new SighRunner(0);
+        SighRunner noChecks = new SighRunner().budgetChecks(false);
+        assertNotEquals(noInlining.compilationSettings(), settings);
+        assertNotEquals(noChecks.compilationSettings(), settings);
+        assertNull(cache.get(source, "SighMain", noInlining.compilationSettings()));
+        assertNull(cache.get(source, "SighMain", noChecks.compilationSettings()));
+        IO.captureStdout(() -> runRethrow(noChecks, source, cache));
+        assertNotNull(cache.get(source, "SighMain", noChecks.compilationSettings()));
+
+        // corrupted entries are ignored, and a different source gets a different key
+        Files.write(cache.path(source, "SighMain", settings), new byte[] { 1, 2, 3 });
+        assertNull(cache.get(source, "SighMain", settings));
+        assertNotEquals(
+            CompiledClassCache.key(source, "SighMain", settings),
+            CompiledClassCache.key(source + " ", "SighMain", settings));
+    }
+
+    private static void deleteRecursively (Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path: paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new))
+                Files.delete(path);
+        }
+    }
+
+    private static Object runRethrow (SighRunner runner, String source, CompiledClassCache cache) {
+        try {
+            return runner.runCompiled(source, cache);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testBudget () throws InterruptedException {
+        Pair<SighNode, Reactor> loop = analyze("var i: Int = 0; while (true) { i = i + 1 }");
+        Class<?> loopClass = new BytecodeCompiler(loop.b).compile(loop.a).load();
+
+        Budget budget = new Budget(10_000);
+        BudgetException e = expectThrows(BudgetException.class,
+            () -> CompilationResult.callRun(loopClass, budget));
+        assertEquals(e.reason, Reason.FUEL);
+        assertEquals(budget.used(), 10_000L);
+
+        // cancellation from another thread
+        Budget unlimited = Budget.unlimited();
+        Thread canceller = new Thread(() -> {
+            try { Thread.sleep(50); } catch (InterruptedException ignored) {}
+            unlimited.cancel();
+        });
+        canceller.start();
+        e = expectThrows(BudgetException.class,
+            () -> CompilationResult.callRun(loopClass, unlimited));
+        assertEquals(e.reason, Reason.CANCELLED);
+        canceller.join();
+
+        // function entries (including self tail calls) consume fuel
+        Pair<SighNode, Reactor> rec = analyze("fun f (n: Int): Int { return f(n + 1) } return f(0)");
+        Class<?> recClass = new BytecodeCompiler(rec.b).compile(rec.a).load();
+        expectThrows(BudgetException.class,
+            () -> CompilationResult.callRun(recClass, new Budget(100)));
+
+        Pair<SighNode, Reactor> ok = analyze(
+            "var i: Int = 0; while (i < 10) { i = i + 1 } return i");
+        Class<?> okClass = new BytecodeCompiler(ok.b).compile(ok.a).load();
+        assertEquals(CompilationResult.callRun(okClass, new Budget(10)), 10L);
+        assertEquals(CompilationResult.callRun(okClass), 10L);
+
+        // a run without a budget is unlimited, even after a limited run
+        Pair<SighNode, Reactor> count = analyze(
+            "var i: Int = 0; while (i < 1000) { i = i + 1 } return i");
+        Class<?> countClass = new BytecodeCompiler(count.b).compile(count.a).load();
+        expectThrows(BudgetException.class,
+            () -> CompilationResult.callRun(countClass, new Budget(100)));
+        assertEquals(CompilationResult.callRun(countClass), 1000L);
+
+        // concurrent runs of the same class tick their own budget
+        Budget other = Budget.unlimited();
+        AtomicReference<Throwable> otherError = new AtomicReference<>();
+        Thread otherRun = new Thread(() -> {
+            try {
+                CompilationResult.callRun(loopClass, other);
+            } catch (Throwable t) {
+                otherError.set(t);
+            }
+        });
+        otherRun.start();
+        Thread.sleep(50);
+        Budget limited = new Budget(10_000);
+        e = expectThrows(BudgetException.class,
+            () -> CompilationResult.callRun(loopClass, limited));
+        assertEquals(e.reason, Reason.FUEL);
+        assertEquals(limited.used(), 10_000L);
+        other.cancel();
+        otherRun.join();
+        assertTrue(otherError.get() instanceof BudgetException);
+        assertEquals(((BudgetException) otherError.get()).reason, Reason.CANCELLED);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testMemoryBudget () {
+        Pair<SighNode, Reactor> arrays = analyze(
+            "var i: Int = 0; while (true) { var a: Int[] = [i, i, i]; i = i + 1 }");
+        Class<?> arraysClass = new BytecodeCompiler(arrays.b).compile(arrays.a).load();
+        Budget budget = new Budget(Long.MAX_VALUE, 1_000_000);
+        BudgetException e = expectThrows(BudgetException.class,
+            () -> CompilationResult.callRun(arraysClass, budget));
+        assertEquals(e.reason, Reason.MEMORY);
+        assertTrue(budget.allocated() > 1_000_000);
+
+        Pair<SighNode, Reactor> strings = analyze(
+            "var s: String = \"\"; while (true) { s = s + \"0123456789\" }");
+        Class<?> stringsClass = new BytecodeCompiler(strings.b).compile(strings.a).load();
+        e = expectThrows(BudgetException.class,
+            () -> CompilationResult.callRun(stringsClass, new Budget(Long.MAX_VALUE, 1_000_000)));
+        assertEquals(e.reason, Reason.MEMORY);
+
+        // appending to a string variable charges the appended piece once
+        Pair<SighNode, Reactor> appends = analyze("var s: String = \"\"; var i: Int = 0; " +
+            "while (i < 10) { s = s + \"0123456789\"; i = i + 1 } return i");
+        Class<?> appendsClass = new BytecodeCompiler(appends.b).compile(appends.a).load();
+        Budget appended = new Budget(Long.MAX_VALUE, 1_000_000);
+        assertEquals(CompilationResult.callRun(appendsClass, appended), 10L);
+        assertEquals(appended.allocated(), 10 * Budget.stringBytes(10));
+
+        Pair<SighNode, Reactor> ok = analyze(makePair + "return x.x");
+        Class<?> okClass = new BytecodeCompiler(ok.b).compile(ok.a).load();
+        Budget small = new Budget(Long.MAX_VALUE, 1_000);
+        assertEquals(CompilationResult.callRun(okClass, small), 1L);
+        assertEquals(small.allocated(), Budget.objectBytes(2));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testOutputSink () throws Throwable {
+        Pair<SighNode, Reactor> analyzed = analyze(
+            "var i: Int = 0; while (i < 100) { print(\"é€\" + i); i = i + 1 } return i");
+        Class<?> mainClass = new BytecodeCompiler(analyzed.b).compile(analyzed.a).load();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink output = new OutputSink(bytes, 7);
+        assertEquals(CompilationResult.callRun(mainClass, null, output), 100L);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; ++i)
+            expected.append("é€").append(i).append(System.lineSeparator());
+        assertEquals(bytes.toString("UTF-8"), expected.toString());
+
+        // the output is flushed even if the program fails
+        bytes.reset();
+        Pair<SighNode, Reactor> failing = analyze(
+            "print(\"before\"); var a: Int[] = [1]; return a[1]");
+        Class<?> failingClass = new BytecodeCompiler(failing.b).compile(failing.a).load();
+        expectThrows(RuntimeException.class,
+            () -> CompilationResult.callRun(failingClass, null, output));
+        assertEquals(bytes.toString("UTF-8"), "before" + System.lineSeparator());
+
+        // concurrent runs of the same class print to their own sink
+        ByteArrayOutputStream bytes1 = new ByteArrayOutputStream();
+        ByteArrayOutputStream bytes2 = new ByteArrayOutputStream();
+        Thread run1 = new Thread(() -> CompilationResult.callRun(mainClass, null,
+            new OutputSink(bytes1, 7)));
+        Thread run2 = new Thread(() -> CompilationResult.callRun(mainClass, null,
+            new OutputSink(bytes2, 7)));
+        run1.start();
+        run2.start();
+        run1.join();
+        run2.join();
+        assertEquals(bytes1.toString("UTF-8"), expected.toString());
+        assertEquals(bytes2.toString("UTF-8"), expected.toString());
+
+        // print used as a value prints to the sink of the current execution
+        Pair<SighNode, Reactor> value = analyze("return print");
+        Class<?> valueClass = new BytecodeCompiler(value.b).compile(value.a).load();
+        MethodHandle print = (MethodHandle) CompilationResult.callRun(valueClass);
+        bytes.reset();
+        Execution previous = Execution.enter(new Execution(Budget.unlimited(), output));
+        try {
+            assertEquals((String) print.invokeExact("é€"), "é€");
+        } finally {
+            Execution.exit(previous);
+        }
+        assertEquals(bytes.toString("UTF-8"), "é€" + System.lineSeparator());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testStreamedPrint () throws IOException {
+        // a large array is written to a small buffer piece by piece
+        StringBuilder literal = new StringBuilder("[0");
+        for (int i = 1; i < 1000; ++i)
+            literal.append(", ").append(i);
+        literal.append("]");
+        Pair<SighNode, Reactor> analyzed =
+            analyze("var a: Int[] = " + literal + "; print(\"a = \" + a)");
+        Class<?> mainClass = new BytecodeCompiler(analyzed.b).compile(analyzed.a).load();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompilationResult.callRun(mainClass, null, new OutputSink(bytes, 16));
+        assertEquals(bytes.toString("UTF-8"), "a = " + literal + System.lineSeparator());
+
+        // nested values, formatted like in the interpreter
+        check("print(\"\" + [[1, 2], [3]])", "[[1, 2], [3]]");
+        check("print(\"\" + [1.0, 2.5])", "[1.0, 2.5]");
+        check("print(\"\" + [true])", "[true]");
+        check("struct P { var y: Float; var x: Int } print(\"p: \" + $P(2.0, 1))",
+            "p: {x=1, y=2.0}");
+        check("struct P { var y: Float; var x: Int } var p: P = $P(2.0, 1); " +
+            "var s: String = print(\"\" + p); print(s)", "{x=1, y=2.0}\n{x=1, y=2.0}");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testConcatenation () {
+        checkExpr("1 + 2 + \"a\" + 1 + 2", "3a12");
+        checkExpr("\"a\" + (1 + 2) + (\"b\" + (true + \"c\")) + 1.5", "a3btruec1.5");
+        checkExpr("\"\" + (0 - 9223372036854775807 - 1) + \"|\" + -10 + \"|\" + 0 + false",
+            "-9223372036854775808|-10|0false");
+        checkExpr("\"\" + [1, 2] + null + \"é\"", "[1, 2]nullé");
+        check("var s: String = \"x\"; var i: Int = 0;" +
+            "while (i < 3) { s = s + i + s; i = i + 1 } print(s)", "x0x1x0x2x0x1x0x");
+        check("fun f (x: Int): String { return \"<\" + x + \">\" } print(f(1) + \"-\" + f(2))",
+            "<1>-<2>");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testRopes () {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; ++i)
+            expected.append(i).append(',');
+        check("var s: String = \"\"; var i: Int = 0;" +
+            "while (i < 10000) { s = s + i + \",\"; i = i + 1 } print(s)", expected.toString());
+
+        check("var s: String = \"a\"; s = s + \"b\"; var t: String = s; s = s + \"c\";" +
+            "print(t + \" \" + s)", "ab abc");
+        check("var s: String = null; s = s + 1; print(s)", "null1");
+        check("var s: String = \"a\"; s = s + \"b\"; print(print(s = s + \"c\") + s)",
+            "abc\nabcabc");
+        check("fun f (n: Int): String { var s: String = \"\"; var i: Int = 0;" +
+            "while (i < n) { s = s + i; i = i + 1 } return s } print(f(5))", "01234");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testGlobals () throws ReflectiveOperationException
+    {
+        check("var count: Int = 0; fun bump (n: Int): Int { count = count + n; return count }" +
+            "bump(2); print(\"\" + bump(3) + \" \" + count)", "5 5");
+        check("var total: Float = 1; var on: Bool = true;" +
+            "fun add (x: Int) { if (on) total = total + x } add(2); on = false; add(3);" +
+            "print(\"\" + total)", "3.0");
+        check("var s: String = \"\"; fun put (x: Int) { s = s + x + \";\" }" +
+            "var i: Int = 0; while (i < 3) { put(i); i = i + 1 } print(s)", "0;1;2;");
+        check("var xs: Int[] = [1, 2]; fun first (): Int { return xs[0] }" +
+            "xs[0] = 7; print(\"\" + first())", "7");
+
+        String source = "var n: Int = 0; fun inc () { n = n + 1 } inc(); inc(); return n";
+        Pair<SighNode, Reactor> analyzed = analyze(source);
+        Class<?> cls = new BytecodeCompiler(analyzed.b)
+            .compile("BytecodeTestsGlobals", analyzed.a)
+            .load(new ByteArrayClassLoader());
+        assertEquals(cls.getField("n").getType(), long.class);
+        // top-level code re-initializes the globals on every run
+        assertEquals(CompilationResult.callRun(cls), 2L);
+        assertEquals(CompilationResult.callRun(cls), 2L);
+        assertEquals(cls.getField("n").get(null), 2L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testFunctionHandles () throws Throwable
+    {
+        String source =
+            "var calls: Int = 0\n" +
+            "var offset: Int = 0\n" +
+            "fun add (x: Int, y: Int): Int { calls = calls + 1; return x + y + offset }\n" +
+            "fun greet (name: String): String { return \"hi \" + name }\n" +
+            "offset = 100\n";
+        Pair<SighNode, Reactor> analyzed = analyze(source);
+        Class<?> cls = new BytecodeCompiler(analyzed.b)
+            .compile("BytecodeTestsHandles", analyzed.a)
+            .load();
+        CompilationResult.callRun(cls);
+
+        // the top-level code is not run again by calls
+        MethodHandle add = CompilationResult.function(cls, "add");
+        assertEquals(add.type(), MethodType.methodType(long.class, long.class, long.class));
+        assertSame(CompilationResult.function(cls, "add"), add);
+        long sum = 0;
+        for (long i = 0; i < 1000; ++i)
+            sum += (long) add.invokeExact(i, 1L);
+        assertEquals(sum, 600500L);
+        assertEquals(cls.getField("calls").get(null), 1000L);
+
+        MethodHandle greet = CompilationResult.function(cls, "greet",
+            MethodType.methodType(String.class, String.class));
+        assertEquals((String) greet.invokeExact("bob"), "hi bob");
+
+        expectThrows(IllegalArgumentException.class, () -> CompilationResult.function(cls, "nope"));
+        expectThrows(IllegalArgumentException.class, () -> CompilationResult.function(cls, "add",
+            MethodType.methodType(double.class, double.class, double.class)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testExternFunctions () throws Throwable
+    {
+        String externs =
+            "extern fun sqrt (x: Float): Float = \"java.lang.Math.sqrt\"\n" +
+            "extern fun sort (a: Int[]) = \"java.util.Arrays.sort\"\n";
+        check(externs + "print(\"\" + sqrt(2.25))", "1.5");
+
+        // arrays are passed as is, so the method sees and mutates the array of the caller
+        check(externs + "var xs: Int[] = [3, 1, 2]; sort(xs); print(\"\" + xs[0] + xs[1] + xs[2])",
+            "123");
+
+        // used as a value, an extern function is a handle to the method
+        Pair<SighNode, Reactor> value = analyze(externs + "return sqrt");
+        Class<?> valueClass = new BytecodeCompiler(value.b).compile(value.a).load();
+        MethodHandle sqrt = (MethodHandle) CompilationResult.callRun(valueClass);
+        assertEquals((double) sqrt.invokeExact(2.25), 1.5);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testUnloading () throws InterruptedException {
+        String source = "struct Point { var x: Int ; var y: Int } " +
+            "var p: Point = $Point(1, 2) ; return p.x + p.y";
+        Pair<SighNode, Reactor> analyzed = analyze(source);
+
+        // programs declaring the same struct get distinct classes
+        CompilationResult first = new BytecodeCompiler(analyzed.b).compile(analyzed.a);
+        CompilationResult second = new BytecodeCompiler(analyzed.b).compile(analyzed.a);
+        assertNotEquals(first.structures.get(0).binaryName(), second.structures.get(0).binaryName());
+        assertEquals(CompilationResult.callRun(first.load()), 3L);
+        assertEquals(CompilationResult.callRun(second.load()), 3L);
+
+        // once a program is no longer referenced, its class loader and classes can be collected
+        // (UnloadingBenchmark measures the metaspace over many programs)
+        List<WeakReference<Class<?>>> classes = new ArrayList<>();
+        for (int i = 0; i < 5; ++i)
+            classes.add(runUnreferenced(analyzed));
+        for (int i = 0; i < 10 && classes.stream().anyMatch(it -> it.get() != null); ++i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(classes.stream().allMatch(it -> it.get() == null),
+            "compiled programs were not unloaded");
+    }
+
+    /**
+     * Compiles and runs the program, and returns a weak reference to its main class. In a
+     * separate method, so that no local of the caller keeps the class reachable.
+     */
+    private static WeakReference<Class<?>> runUnreferenced (Pair<SighNode, Reactor> analyzed) {
+        Class<?> mainClass = new BytecodeCompiler(analyzed.b).compile(analyzed.a).load();
+        assertEquals(CompilationResult.callRun(mainClass), 3L);
+        return new WeakReference<>(mainClass);
+    }
 }
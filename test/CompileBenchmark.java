@@ -0,0 +1,110 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.uranium.Reactor;
+
+/**
+ * Compares the throughput of the bytecode compiler when it emits stack map frames itself with
+ * its throughput when ASM computes them ({@code ClassWriter.COMPUTE_FRAMES}), on a synthetic
+ * program with many functions containing branches.
+ *
+ * <p>Only code generation is measured: the program is parsed and analyzed once.
+ */
+public final class CompileBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int FUNCTIONS = 2_000;
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args)
+    {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : FUNCTIONS;
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(program(functions), reactor);
+
+        for (int i = 0; i < WARMUP; ++i) {
+            compile(reactor, root, true);
+            compile(reactor, root, false);
+        }
+
+        long computed = 0, explicit = 0;
+        for (int i = 0; i < RUNS; ++i) {
+            computed += compile(reactor, root, true);
+            explicit += compile(reactor, root, false);
+        }
+
+        System.out.printf("%d functions, average of %d runs%n", functions, RUNS);
+        report("COMPUTE_FRAMES", computed, functions);
+        report("explicit frames", explicit, functions);
+        System.out.printf("speedup: %.2fx%n", (double) computed / explicit);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void report (String mode, long totalTime, int functions) {
+        double ms = totalTime / 1e6 / RUNS;
+        System.out.printf("%-16s %9.1f ms   %10.0f functions/s%n", mode, ms, functions / ms * 1000);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the time taken to compile the program, in nanoseconds.
+     */
+    private static long compile (Reactor reactor, RootNode root, boolean computeFrames) {
+        long start = System.nanoTime();
+        new BytecodeCompiler(reactor, computeFrames).compile("CompileBenchmarkRun", root);
+        return System.nanoTime() - start;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A program with {@code size} functions, each containing a loop, a conditional, comparisons
+     * and short-circuiting operators, all of which introduce branch targets.
+     */
+    private static String program (int size)
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < size; ++i)
+            b.append("fun f").append(i).append(" (x: Int, s: String): Int {\n")
+             .append("   var i: Int = 0\n")
+             .append("   var t: String = s\n")
+             .append("   while (i < x && !(i == ").append(i).append(")) {\n")
+             .append("       if (i % 2 == 0 || i > 100) i = i + 1 else i = i + 2\n")
+             .append("       var b: Bool = t == \"\" + i\n")
+             .append("       if (b) t = t + \"!\"\n")
+             .append("   }\n")
+             .append("   if (x >= 0) return i\n")
+             .append("   return f").append(i).append("(x + 1, t)\n")
+             .append("}\n");
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static RootNode analyze (String source, Reactor reactor)
+    {
+        ParseOptions options = ParseOptions.builder().wellFormednessCheck(false).get();
+        ParseResult result = Autumn.parse(new SighGrammar().root, source, options);
+        if (!result.fullMatch)
+            throw new AssertionError(result.toString());
+
+        RootNode root = result.topValue();
+        SemanticAnalysis.createWalker(reactor).walk(root);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+        return root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,91 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.sigh.OutputSink;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.metrics.ExecutionCounts;
+import norswap.sigh.metrics.SimpleMetrics;
+import norswap.uranium.Reactor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Reports the frames and bytes allocated by the interpreter when running {@code
+ * examples/fizzbuzz.si} scaled to 10M iterations (printing to a discarding sink).
+ *
+ * <p>Since blocks have no frame of their own (see {@link norswap.sigh.scopes.Scope#frame}), the
+ * body of the loop allocates no frame: the whole run allocates two, for the file and for the
+ * call to {@code main}. Before that, every iteration allocated a frame and its hash map.
+ *
+ * <p>Run from the root of the repository. Allocated bytes are measured with {@link
+ * com.sun.management.ThreadMXBean}, and so require a HotSpot-based JVM.
+ */
+public final class FrameBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int ITERATIONS = 10_000_000;
+    private static final int RUNS = 3;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args) throws IOException
+    {
+        String source = new String(
+            Files.readAllBytes(Paths.get("examples/fizzbuzz.si")), StandardCharsets.UTF_8)
+            .replace("var num: Int = 42", "var num: Int = " + ITERATIONS);
+
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(source, reactor);
+        OutputSink discard = new OutputSink(new OutputStream() {
+            @Override public void write (int b) {}
+            @Override public void write (byte[] b, int off, int len) {}
+        });
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < RUNS; ++i) {
+            SimpleMetrics metrics = new SimpleMetrics();
+            Interpreter interpreter = new Interpreter(reactor).metrics(metrics).output(discard);
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            interpreter.interpret(root);
+            long time = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            ExecutionCounts counts = metrics.counts();
+            System.out.printf("run %d: %8.1f ms   frames: %d (%.3f per iteration)   "
+                    + "allocated: %,d bytes (%.1f per iteration)%n",
+                i + 1, time / 1e6, counts.frames, (double) counts.frames / ITERATIONS,
+                bytes, (double) bytes / ITERATIONS);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static RootNode analyze (String source, Reactor reactor)
+    {
+        ParseOptions options = ParseOptions.builder().wellFormednessCheck(false).get();
+        ParseResult result = Autumn.parse(new SighGrammar().root, source, options);
+        if (!result.fullMatch)
+            throw new AssertionError(result.toString());
+
+        RootNode root = result.topValue();
+        SemanticAnalysis.createWalker(reactor).walk(root);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+        return root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
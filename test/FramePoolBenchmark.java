@@ -0,0 +1,95 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.metrics.SimpleMetrics;
+import norswap.uranium.Reactor;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares the garbage collections, allocated bytes, frames and running time of a recursive
+ * {@code fib(30)} in the interpreter, with and without {@link Interpreter#framePooling}.
+ *
+ * <p>Allocated bytes are measured with {@link com.sun.management.ThreadMXBean}, and so require a
+ * HotSpot-based JVM.
+ */
+public final class FramePoolBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int RUNS = 3;
+
+    private static final String FIB =
+        "fun fib (n: Int): Int {\n" +
+        "    if (n < 2) return n\n" +
+        "    return fib(n - 1) + fib(n - 2)\n" +
+        "}\n" +
+        "return fib(30)\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args)
+    {
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(FIB, reactor);
+        for (int i = 0; i < RUNS; ++i) {
+            run("without pooling", reactor, root, false);
+            run("with pooling", reactor, root, true);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void run (String name, Reactor reactor, RootNode root, boolean pooling)
+    {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        SimpleMetrics metrics = new SimpleMetrics();
+        Interpreter interpreter = new Interpreter(reactor).metrics(metrics).framePooling(pooling);
+
+        System.gc();
+        long collections = collections();
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        interpreter.interpret(root);
+        long time = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+        collections = collections() - collections;
+
+        System.out.printf("%-16s %8.1f ms   GCs: %4d   allocated: %,15d bytes   frames: %,d%n",
+            name, time / 1e6, collections, bytes, metrics.counts().frames);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long collections () {
+        long count = 0;
+        for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static RootNode analyze (String source, Reactor reactor)
+    {
+        ParseOptions options = ParseOptions.builder().wellFormednessCheck(false).get();
+        ParseResult result = Autumn.parse(new SighGrammar().root, source, options);
+        if (!result.fullMatch)
+            throw new AssertionError(result.toString());
+
+        RootNode root = result.topValue();
+        SemanticAnalysis.createWalker(reactor).walk(root);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+        return root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
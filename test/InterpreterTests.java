@@ -3,14 +3,34 @@ import norswap.autumn.Grammar;
 import norswap.autumn.Grammar.rule;
 import norswap.autumn.ParseResult;
 import norswap.autumn.positions.LineMapString;
+import norswap.sigh.Budget;
+import norswap.sigh.BudgetException;
+import norswap.sigh.BudgetException.Reason;
+import norswap.sigh.ExternLinker;
+import norswap.sigh.OutputSink;
+import norswap.sigh.Inliner;
 import norswap.sigh.SemanticAnalysis;
 import norswap.sigh.SighGrammar;
+import norswap.sigh.SighRunner;
 import norswap.sigh.ast.FieldDeclarationNode;
+import norswap.sigh.ast.RootNode;
 import norswap.sigh.ast.SighNode;
 import norswap.sigh.ast.SimpleTypeNode;
+import norswap.sigh.interpreter.Builtins;
+import norswap.sigh.interpreter.CallTarget;
 import norswap.sigh.interpreter.Interpreter;
 import norswap.sigh.interpreter.InterpreterException;
+import norswap.sigh.interpreter.IrImage;
+import norswap.sigh.interpreter.IrInterpreter;
 import norswap.sigh.interpreter.Null;
+import norswap.sigh.interpreter.Profiler;
+import norswap.sigh.interpreter.SighStackOverflowException;
+import norswap.sigh.interpreter.StackInterpreter;
+import norswap.sigh.metrics.ExecutionCounts;
+import norswap.sigh.metrics.Metrics.Stage;
+import norswap.sigh.metrics.SimpleMetrics;
+import norswap.sigh.scopes.DeclarationKind;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
 import norswap.uranium.Reactor;
 import norswap.uranium.SemanticError;
 import norswap.utils.IO;
@@ -18,11 +38,20 @@ import norswap.utils.TestFixture;
 import norswap.utils.data.wrappers.Pair;
 import norswap.utils.visitors.Walker;
 import org.testng.annotations.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Set;
 
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
 
 public final class InterpreterTests extends TestFixture {
 
@@ -42,6 +71,18 @@ public final class InterpreterTests extends TestFixture {
 
     private Grammar.rule rule;
 
+    /** Budget passed to the {@link Inliner} by {@link #check}, 0 to disable inlining. */
+    private int inlineBudget = 0;
+
+    /** Number of calls inlined during the last {@link #check}. */
+    private int inlinedCalls;
+
+    /** Whether {@link #check} uses the {@link StackInterpreter} instead of the {@link Interpreter}. */
+    private boolean explicitStack = false;
+
+    /** Maximum call depth of the {@link StackInterpreter}. */
+    private int maxDepth = StackInterpreter.DEFAULT_MAX_DEPTH;
+
     // ---------------------------------------------------------------------------------------------
 
     private void check(String input, Object expectedReturn) {
@@ -84,10 +125,38 @@ public final class InterpreterTests extends TestFixture {
             throw new AssertionError(report);
         }
 
-        Pair<String, Object> result = IO.captureStdout(() -> interpreter.interpret(root));
+        inlinedCalls = new Inliner(reactor, inlineBudget).inline(root);
+        Pair<String, Object> result = IO.captureStdout(() -> explicitStack
+            ? new StackInterpreter(reactor, maxDepth).interpret((RootNode) root)
+            : interpreter.interpret(root));
         assertEquals(result.b, expectedReturn);
         if (expectedOutput != null)
             assertEquals(result.a, expectedOutput);
+
+        // the IR interpreter must agree with the reference interpreter
+        if (root instanceof RootNode && !explicitStack) {
+            Pair<String, Object> irResult = IO.captureStdout(() ->
+                new IrInterpreter(reactor).interpret((RootNode) root));
+            assertEquals(irResult.b, expectedReturn);
+            assertEquals(irResult.a, result.a);
+
+            // and so must a program saved to and loaded from an image
+            IrImage image = roundTrip(IrImage.compile(reactor, (RootNode) root, input));
+            Pair<String, Object> imageResult = IO.captureStdout(() ->
+                new IrInterpreter(null).run(image));
+            assertEquals(imageResult.b, expectedReturn);
+            assertEquals(imageResult.a, result.a);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static IrImage roundTrip (IrImage image) {
+        try {
+            return IrImage.fromBytes(image.toBytes());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -112,6 +181,32 @@ public final class InterpreterTests extends TestFixture {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Parses and analyzes the program, for the tests that drive the interpreters themselves, and
+     * fails if the program has semantic errors.
+     */
+    private Pair<RootNode, Reactor> analyze(String input) {
+        return analyze(input, ExternLinker.NONE);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #analyze(String)}, but links the extern functions of the program with {@code
+     * externs}.
+     */
+    private Pair<RootNode, Reactor> analyze(String input, ExternLinker externs) {
+        autumnFixture.rule = grammar.root;
+        RootNode root = (RootNode) autumnFixture.success(input).topValue();
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor, externs).walk(root);
+        reactor.run();
+        assertTrue(reactor.errors().isEmpty(), reactor.errors().toString());
+        return new Pair<>(root, reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test
     public void testLiteralsAndUnary() {
         checkExpr("42", 42L);
@@ -173,6 +268,11 @@ public final class InterpreterTests extends TestFixture {
         checkExpr("[1.5, 2] + [3, 4]", new Object[] { 4.5d, 6.0d });
         checkExpr("[1, 2] - [3, 4]", new Object[] { -2L, -2L });
 
+        // each operand is evaluated once
+        check("var n: Int = 0 fun next (): Int[] { n = n + 1; return [n, n] } " +
+            "var a: Int[] = next() + next(); return n", 2L);
+        check("var n: Int = 0; var a: Int[] = [1, 2] * (n = n + 1); return n", 1L);
+
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -384,6 +484,190 @@ public final class InterpreterTests extends TestFixture {
 
     }
 
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testInlining() {
+        rule = grammar.root;
+        inlineBudget = Inliner.DEFAULT_BUDGET;
+        try {
+            check("fun add (a: Int, b: Int): Int { return a + b } return add(4, 7)", 11L);
+            assertEquals(inlinedCalls, 1);
+
+            // arguments are evaluated exactly once, in order
+            check("fun twice (a: Int): Int { return a + a } return twice(1 + 2)", 6L);
+            check("fun second (a: String, b: String): String { return b } " +
+                "return second(print(\"a\"), print(\"b\"))", "b", "a\nb\n");
+
+            // a variable modified by a later argument is read before the modification
+            check("fun sub (a: Int, b: Int): Int { return a - b } " +
+                "var x: Int = 1 return sub(x, x = 5)", -4L);
+            check("var x: Int = 1 fun setX (): Int { x = 10; return 0 } " +
+                "fun sub (a: Int, b: Int): Int { return a - b } return sub(x, setX())", 1L);
+
+            // implicit conversion of the argument
+            check("fun half (a: Float): Float { return a / 2 } return half(3)", 1.5d);
+
+            // hygiene: the local x of the caller does not capture the global x of the callee
+            check("var x: Int = 1 " +
+                "fun getX (a: Int): Int { return x + a } " +
+                "fun f (): Int { var x: Int = 10; return getX(x) } " +
+                "return f()", 11L);
+            assertEquals(inlinedCalls, 1);
+
+            // recursive functions and functions over budget are not inlined
+            check("fun fact (n: Int): Int { if (n <= 1) return 1 else return n * fact(n - 1) } " +
+                "return fact(5)", 120L);
+            assertEquals(inlinedCalls, 0);
+            check("fun big (a: Int): Int { return a + a + a + a + a + a + a + a + a + a } " +
+                "return big(1)", 10L);
+            assertEquals(inlinedCalls, 0);
+        } finally {
+            inlineBudget = 0;
+        }
+    }
+
+    @Test
+    public void testTailCalls() {
+        rule = grammar.root;
+
+        // would overflow the Java stack without tail calls
+        check("fun sum (n: Int, acc: Int): Int { if (n == 0) return acc; return sum(n - 1, acc + n) } " +
+            "return sum(100000, 0)", 5000050000L);
+
+        // arguments are all evaluated before the parameters are rebound
+        check("fun gcd (a: Int, b: Int): Int { if (b == 0) return a else return gcd(b, a % b) } " +
+            "return gcd(1071, 462)", 21L);
+
+        // tail call nested in a loop, implicit conversion of the argument
+        check("fun count (n: Int, x: Float): Float { " +
+            "while (n > 0) { var y: Int = n; return count(y - 1, x + 1) } return x } " +
+            "return count(50000, 0)", 50000d);
+
+        // calls in non-tail position are still regular calls
+        check("fun fact (n: Int): Int { if (n <= 1) return 1 else return n * fact(n - 1) } " +
+            "return fact(5)", 120L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testExplicitStack() {
+        rule = grammar.root;
+        explicitStack = true;
+        try {
+            check("return 1 + 2 * 3", 7L);
+            check("var x: Float = 1; x = x + 2; return x", 3.0d);
+            check("return print(\"a\" + 1)", "a1", "a1\n");
+            check("return [1, 2] + [3, 4]", new Object[] { 4L, 6L });
+            check("var i: Int = 0; var s: Int = 0; while (i < 10) { i = i + 1; s = s + i } return s", 55L);
+            check("return true && (false || 1 < 2)", true);
+            check("struct P { var x: Int; var y: Int } " +
+                "var p: P = $P(1, 2); p.y = 5; return p.x + p.y", 6L);
+            check("fun add (a: Int, b: Int): Int { return a + b } return add(4, 7)", 11L);
+            check("fun sum (n: Int, acc: Int): Int { if (n == 0) return acc; return sum(n - 1, acc + n) } " +
+                "return sum(100000, 0)", 5000050000L);
+
+            // deep non-tail recursion, which overflows the Java stack in the regular interpreter
+            check("fun depth (n: Int): Int { if (n == 0) return 0 else return 1 + depth(n - 1) } " +
+                "return depth(200000)", 200000L);
+
+            checkThrows("var array: Int[] = null; return array[0]", NullPointerException.class);
+            checkThrows("var x: Int[] = []; x[0] = 3; return x[0]",
+                ArrayIndexOutOfBoundsException.class);
+
+            maxDepth = 1000;
+            check("fun depth (n: Int): Int { if (n == 0) return 0 else return 1 + depth(n - 1) } " +
+                "return depth(999)", 999L);
+            checkThrows("fun depth (n: Int): Int { if (n == 0) return 0 else return 1 + depth(n - 1) } " +
+                "return depth(1000)", SighStackOverflowException.class);
+        } finally {
+            explicitStack = false;
+            maxDepth = StackInterpreter.DEFAULT_MAX_DEPTH;
+        }
+
+        // the output goes to the sink, even when the budget is exhausted
+        Pair<RootNode, Reactor> analyzed =
+            analyze("print(\"a\") var i: Int = 0; while (true) { i = i + 1 }");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Budget budget = new Budget(1000);
+        BudgetException e = expectThrows(BudgetException.class, () ->
+            new StackInterpreter(analyzed.b).output(new OutputSink(bytes)).budget(budget)
+                .interpret(analyzed.a));
+        assertEquals(e.reason, Reason.FUEL);
+        assertEquals(bytes.toString(), "a" + System.lineSeparator());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testIrInterpreter() {
+        // every check also runs the IR interpreter, these exercise the register allocation
+        rule = grammar.root;
+        check("var x: Int = 1; return x + (x = 5)", 6L);
+        check("var a: Int[] = [1, 2]; var i: Int = 0; a[i] = (i = 1); return a",
+            new Object[] { 1L, 2L });
+        check("var s: Int = 0; var i: Int = 0; " +
+            "while (i < 3) { var j: Int = i * 2; { var k: Int = j + 1; s = s + k } i = i + 1 } " +
+            "return s", 9L);
+        check("fun f (x: Int): Int { var y: Int = x; x = 10; return x + y } " +
+            "var x: Int = 3; return f(x) + x", 16L);
+        check("fun g (a: Float, b: Int): Float { var c: Float = b; return a + c } return g(1.5, 2)", 3.5d);
+        check("var s: Int[] = null; var t: Int[] = s; return s == t && !(s != t)", true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testIrImage() throws IOException {
+        // every check also round-trips the program through an image, this checks the file format
+        String input = "struct P { var x: Int } fun f (p: P): Int { return p.x * 2 } return f($P(21))";
+        Pair<RootNode, Reactor> analyzed = analyze(input);
+        RootNode root = analyzed.a;
+        Reactor reactor = analyzed.b;
+
+        IrImage image = IrImage.compile(reactor, root, input);
+        Path path = Files.createTempFile("sigh", ".img");
+        try {
+            image.write(path);
+            IrImage loaded = IrImage.read(path);
+            assertEquals(loaded.sourceChecksum, IrImage.checksum(input));
+            assertEquals(new IrInterpreter(null).run(loaded), 42L);
+        } finally {
+            Files.delete(path);
+        }
+
+        byte[] bytes = image.toBytes();
+        byte[] corrupted = bytes.clone();
+        corrupted[corrupted.length - 1] ^= 1;
+        assertThrows(IOException.class, () -> IrImage.fromBytes(corrupted));
+
+        byte[] otherVersion = bytes.clone();
+        otherVersion[7] += 1; // last byte of the version
+        assertThrows(IOException.class, () -> IrImage.fromBytes(otherVersion));
+
+        assertThrows(IOException.class, () ->
+            IrImage.fromBytes(Arrays.copyOf(bytes, bytes.length - 1)));
+
+        // the runner prints to its sink and enforces the budget, whether the image is loaded or not
+        Path runnerPath = Files.createTempFile("sigh", ".img");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SighRunner runner = new SighRunner(0).output(new OutputSink(out));
+            assertEquals(runner.run("print(\"a\") return 1", runnerPath), 1L);
+            assertEquals(runner.run("print(\"a\") return 1", runnerPath), 1L);
+            assertEquals(out.toString(), "a" + System.lineSeparator() + "a" + System.lineSeparator());
+
+            String loop = "var i: Int = 0; while (true) { i = i + 1 }";
+            expectThrows(BudgetException.class, () -> runner.run(loop, runnerPath, new Budget(100)));
+            expectThrows(BudgetException.class, () -> runner.run(loop, runnerPath, new Budget(100)));
+        } finally {
+            Files.delete(runnerPath);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     // NOTE(norswap): Not incredibly complete, but should cover the basics.
 
     ///
@@ -638,4 +922,358 @@ public final class InterpreterTests extends TestFixture {
     }
 
 
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testProfiler() throws IOException {
+        String source =
+            "fun fib (n: Int): Int {\n" +
+            "    if (n < 2) return n\n" +
+            "    return fib(n - 1) + fib(n - 2)\n" +
+            "}\n" +
+            "return fib(22)\n";
+
+        Profiler profiler = new Profiler(source, 100);
+        assertEquals(new SighRunner(0).run(source, profiler), 17711L);
+        assertTrue(profiler.sampleCount() > 0);
+
+        StringBuilder collapsed = new StringBuilder();
+        profiler.writeCollapsed(collapsed);
+        for (String line: collapsed.toString().split("\n"))
+            assertTrue(line.matches("<main>(:[15])?(;fib(:[123])?)* \\d+"), line);
+        assertTrue(collapsed.toString().contains("<main>:5;fib:"), collapsed.toString());
+
+        String table = profiler.functionTable();
+        assertTrue(table.contains("fib"), table);
+        assertTrue(table.contains("<main>"), table);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testMetrics() {
+        String source =
+            "struct P { var x: Int }\n" +
+            "fun f (n: Int): Int { return n + 1 }\n" +
+            "var a: Int[] = [1, 2]\n" +
+            "var p: P = $P(f(a[0]))\n" +
+            "return p.x\n";
+
+        SimpleMetrics metrics = new SimpleMetrics();
+        assertEquals(new SighRunner(0).metrics(metrics).run(source), 2L);
+
+        ExecutionCounts counts = metrics.counts();
+        assertEquals(metrics.runs(), 1L);
+        assertEquals(counts.calls, 2L);
+        assertEquals(counts.structs, 1L);
+        assertEquals(counts.arrays, 1L);
+        assertEquals(counts.sets, 0L);
+        assertTrue(counts.frames > 0);
+        assertTrue(counts.nodes > 0);
+
+        assertEquals(metrics.stage(Stage.PARSE).count(), 1L);
+        assertEquals(metrics.stage(Stage.ANALYSIS).count(), 1L);
+        assertEquals(metrics.stage(Stage.INTERPRETATION).count(), 1L);
+        assertEquals(metrics.stage(Stage.COMPILATION).count(), 0L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBudget() throws InterruptedException {
+        String loop = "var i: Int = 0; while (true) { i = i + 1 }";
+
+        Budget budget = new Budget(10_000);
+        BudgetException e = expectThrows(BudgetException.class,
+            () -> new SighRunner(0).run(loop, budget));
+        assertEquals(e.reason, Reason.FUEL);
+        assertEquals(budget.used(), 10_000L);
+
+        // cancellation from another thread
+        Budget unlimited = Budget.unlimited();
+        Thread canceller = new Thread(() -> {
+            try { Thread.sleep(50); } catch (InterruptedException ignored) {}
+            unlimited.cancel();
+        });
+        canceller.start();
+        e = expectThrows(BudgetException.class, () -> new SighRunner(0).run(loop, unlimited));
+        assertEquals(e.reason, Reason.CANCELLED);
+        canceller.join();
+
+        // function entries (including self tail calls) consume fuel
+        expectThrows(BudgetException.class, () -> new SighRunner(0).run(
+            "fun f (n: Int): Int { return f(n + 1) } return f(0)", new Budget(100)));
+
+        assertEquals(new SighRunner(0).run(
+            "var i: Int = 0; while (i < 10) { i = i + 1 } return i", new Budget(10)), 10L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testMemoryBudget() throws InterruptedException {
+        String arrays = "var i: Int = 0; while (true) { var a: Int[] = [i, i, i]; i = i + 1 }";
+        Budget budget = new Budget(Long.MAX_VALUE, 1_000_000);
+        BudgetException e = expectThrows(BudgetException.class,
+            () -> new SighRunner(0).run(arrays, budget));
+        assertEquals(e.reason, Reason.MEMORY);
+        assertTrue(budget.allocated() > 1_000_000);
+
+        e = expectThrows(BudgetException.class, () -> new SighRunner(0).run(
+            "var s: String = \"\"; while (true) { s = s + \"0123456789\" }",
+            new Budget(Long.MAX_VALUE, 1_000_000)));
+        assertEquals(e.reason, Reason.MEMORY);
+
+        // appending to a string variable charges the appended piece once
+        Budget appends = new Budget(Long.MAX_VALUE, 1_000_000);
+        assertEquals(new SighRunner(0).run("var s: String = \"\"; var i: Int = 0; " +
+            "while (i < 10) { s = s + \"0123456789\"; i = i + 1 } return i", appends), 10L);
+        assertEquals(appends.allocated(), 10 * Budget.stringBytes(10));
+
+        e = expectThrows(BudgetException.class, () -> new SighRunner(0).run(
+            "var s: Int{} = {0}; var i: Int = 1; while (true) { s = addSetInt(s, i); i = i + 1 }",
+            new Budget(Long.MAX_VALUE, 1_000_000)));
+        assertEquals(e.reason, Reason.MEMORY);
+
+        // a script exceeding its budget does not affect another one running concurrently
+        Budget other = new Budget(Long.MAX_VALUE, 1_000_000);
+        Object[] result = new Object[1];
+        Thread thread = new Thread(() -> result[0] = new SighRunner(0).run(
+            "var i: Int = 0; while (i < 1000) { var a: Int[] = [i]; i = i + 1 } return i", other));
+        thread.start();
+        expectThrows(BudgetException.class,
+            () -> new SighRunner(0).run(arrays, new Budget(Long.MAX_VALUE, 1_000)));
+        thread.join();
+        assertEquals(result[0], 1000L);
+        assertEquals(other.allocated(), 1000 * Budget.arrayBytes(1));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testOutputSink() throws IOException {
+        // small capacity: the buffer is drained many times, with characters straddling the end
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink output = new OutputSink(bytes, 5);
+        String source =
+            "var i: Int = 0\n" +
+            "while (i < 100) { print(\"é€\" + i + \"\uD83D\uDE00\"); i = i + 1 }\n" +
+            "return i";
+        assertEquals(new SighRunner(0).output(output).run(source), 100L);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; ++i)
+            expected.append("é€").append(i).append("\uD83D\uDE00").append(System.lineSeparator());
+        assertEquals(bytes.toString("UTF-8"), expected.toString());
+
+        // unpaired surrogates
+        bytes.reset();
+        new SighRunner(0).output(output).run("print(\"a\uD83Db\")");
+        assertEquals(bytes.toString("UTF-8"), "a?b" + System.lineSeparator());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testStreamedPrint() throws IOException {
+        // a large array is written to a small buffer piece by piece
+        StringBuilder literal = new StringBuilder("[0");
+        for (int i = 1; i < 1000; ++i)
+            literal.append(", ").append(i);
+        literal.append("]");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink output = new OutputSink(bytes, 16);
+        new SighRunner(0).output(output)
+            .run("var a: Int[] = " + literal + "; print(\"a = \" + a)");
+        assertEquals(bytes.toString("UTF-8"), "a = " + literal + System.lineSeparator());
+
+        // nested values, formatted like in compiled code
+        check("print(\"\" + [[1, 2], [3]])", null, "[[1, 2], [3]]\n");
+        check("print(\"\" + [\"a\", null])", null, "[a, null]\n");
+        check("struct P { var y: Float; var x: Int } print(\"p: \" + $P(2.0, 1))",
+            null, "p: {x=1, y=2.0}\n");
+        check("struct P { var x: Int } print(\"\" + P + \" \" + $P)", null, "P $P\n");
+        check("return print(\"\" + [1, 2])", "[1, 2]", "[1, 2]\n");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testConcatenation() {
+        checkExpr("1 + 2 + \"a\" + 1 + 2", "3a12");
+        checkExpr("\"a\" + (1 + 2) + (\"b\" + (true + \"c\")) + 1.5", "a3btruec1.5");
+        checkExpr("\"\" + (0 - 9223372036854775807 - 1) + \"|\" + -10 + \"|\" + 0 + false",
+            "-9223372036854775808|-10|0false");
+        checkExpr("\"\" + [1, 2] + null + \"é\"", "[1, 2]nullé");
+        check("var s: String = \"x\"; var i: Int = 0;" +
+            "while (i < 3) { s = s + i + s; i = i + 1 } return s", "x0x1x0x2x0x1x0x");
+        check("fun f (x: Int): String { return \"<\" + x + \">\" } return f(1) + \"-\" + f(2)",
+            "<1>-<2>");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testRopes() {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; ++i)
+            expected.append(i).append(',');
+        check("var s: String = \"\"; var i: Int = 0;" +
+            "while (i < 10000) { s = s + i + \",\"; i = i + 1 } return s", expected.toString());
+
+        // reading the variable yields a string that later appends do not affect
+        check("var s: String = \"a\"; s = s + \"b\"; var t: String = s; s = s + \"c\";" +
+            "return t + \" \" + s", "ab abc");
+
+        // the appended value is read before the operands are evaluated
+        check("var s: String = \"a\"; s = s + \"b\";" +
+            "fun f (): String { s = s + \"x\"; return \"y\" }" +
+            "s = s + f(); return s", "aby");
+
+        check("var s: String = null; s = s + 1; return s", "null1");
+        check("var s: String = \"a\"; s = s + \"b\"; return print(s = s + \"c\") + s",
+            "abcabc", "abc\n");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testFrameElision() {
+        String source =
+            "fun f (n: Int): Int {\n" +
+            "    var s: Int = 0\n" +
+            "    var i: Int = 0\n" +
+            "    while (i < n) {\n" +
+            "        var x: Int = i * 2\n" +
+            "        if (x > 4) { var y: Int = x; s = s + y }\n" +
+            "        i = i + 1\n" +
+            "    }\n" +
+            "    return s\n" +
+            "}\n" +
+            "var x: Int = 100\n" +
+            "{ var x: Int = f(5); x = x + 1 }\n" +
+            "return x + f(5)\n";
+
+        SimpleMetrics metrics = new SimpleMetrics();
+        assertEquals(new SighRunner(0).metrics(metrics).run(source), 114L);
+        // the file and the calls (whose frame is reused by the second call, see
+        // Interpreter#framePooling): blocks (including loop bodies) have no frame
+        assertEquals(metrics.counts().frames, 2L);
+
+        // shadowed names have distinct slots in the same frame
+        check("var x: Int = 1; { var x: Int = 2; { var x: Int = 3; print(\"\" + x) }" +
+            "print(\"\" + x) } return x", 1L, "3\n2\n");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testFramePooling() {
+        String source =
+            "fun sum (n: Int): Int {\n" +
+            "    if (n == 0) return 0\n" +
+            "    var x: Int = n\n" +
+            "    var r: Int = sum(n - 1)\n" +
+            "    return x + r\n" +
+            "}\n" +
+            "return sum(100) + sum(100)\n";
+
+        // one frame per level of recursion (n = 100 to 0) and one for the file
+        SimpleMetrics metrics = new SimpleMetrics();
+        assertEquals(new SighRunner(0).metrics(metrics).run(source), 10100L);
+        assertEquals(metrics.counts().frames, 102L);
+        assertEquals(metrics.counts().calls, 202L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testCallTargets() {
+        String input =
+            "var calls: Int = 0\n" +
+            "var offset: Int = 0\n" +
+            "fun add (x: Int, y: Int): Int { calls = calls + 1; return x + y + offset }\n" +
+            "fun greet (name: String): String { return \"hi \" + name }\n" +
+            "print(\"init\")\n" +
+            "offset = 100\n";
+        Pair<RootNode, Reactor> analyzed = analyze(input);
+        RootNode root = analyzed.a;
+        Reactor reactor = analyzed.b;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Interpreter interpreter = new Interpreter(reactor).output(new OutputSink(bytes));
+        assertThrows(IllegalStateException.class, () -> interpreter.function("add"));
+        interpreter.interpret(root);
+
+        // the top-level code is not run again by calls
+        CallTarget add = interpreter.function("add");
+        long sum = 0;
+        for (long i = 0; i < 1000; ++i)
+            sum += (Long) add.call(i, 1L);
+        assertEquals(sum, 600500L);
+        assertEquals(interpreter.function("greet").call("bob"), "hi bob");
+        assertEquals(bytes.toString(), "init" + System.lineSeparator());
+
+        // running the program again re-initializes the top-level variables seen by calls
+        assertEquals(interpreter.interpret(root), null);
+        assertEquals(interpreter.function("add").call(0L, 0L), 100L);
+
+        assertThrows(IllegalArgumentException.class, () -> add.call(1L));
+        assertThrows(IllegalArgumentException.class, () -> interpreter.function("calls"));
+        assertThrows(IllegalArgumentException.class, () -> interpreter.function("nope"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testExternFunctions() {
+        String input =
+            "extern fun sqrt (x: Float): Float = \"java.lang.Math.sqrt\"\n" +
+            "extern fun max (a: Int, b: Int): Int = \"java.lang.Math.max\"\n" +
+            "extern fun fill (a: Int[], v: Int) = \"java.util.Arrays.fill\"\n" +
+            "extern fun parse (s: String): Int = \"java.lang.Long.parseLong\"\n" +
+            "var xs: Int[] = [1, 2, 3]\n" +
+            "fill(xs, max(4, 7))\n" +
+            "print(\"\" + xs[0] + xs[2] + parse(\"12\"))\n" +
+            "return sqrt(16.0)\n";
+        ExternLinker externs = new ExternLinker(Arrays.asList(
+            "java.lang.Math", "java.util.Arrays.fill", "java.lang.Long.parseLong"));
+        Pair<RootNode, Reactor> analyzed = analyze(input, externs);
+        RootNode root = analyzed.a;
+        Reactor reactor = analyzed.b;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Interpreter interpreter = new Interpreter(reactor).output(new OutputSink(bytes));
+        assertEquals(interpreter.interpret(root), 4.0);
+        assertEquals(bytes.toString(), "7712" + System.lineSeparator());
+
+        // exceptions thrown by the Java method reach the caller
+        assertThrows(NumberFormatException.class, () -> interpreter.function("parse").call("x"));
+
+        // the explicit-stack and IR interpreters reject extern functions before running
+        assertThrows(UnsupportedOperationException.class, () ->
+            new StackInterpreter(reactor).output(new OutputSink(bytes)).interpret(root));
+        assertThrows(UnsupportedOperationException.class, () ->
+            new IrInterpreter(reactor).output(new OutputSink(bytes)).interpret(root));
+        assertThrows(UnsupportedOperationException.class, () -> IrImage.compile(reactor, root, input));
+        assertEquals(bytes.toString(), "7712" + System.lineSeparator());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBuiltinRegistry() {
+        // builtin functions are bound to their implementation when declared
+        SyntheticDeclarationNode print = new SyntheticDeclarationNode("print", DeclarationKind.FUNCTION);
+        assertSame(print.builtin(), Builtins.get("print"));
+        assertNull(new SyntheticDeclarationNode("Int", DeclarationKind.TYPE).builtin());
+        assertThrows(IllegalArgumentException.class, () ->
+            new SyntheticDeclarationNode("nope", DeclarationKind.FUNCTION));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink out = new OutputSink(bytes);
+        assertEquals(print.builtin().call(new Object[] { 42L }, out), "42");
+        out.flush();
+        assertEquals(bytes.toString(), "42" + System.lineSeparator());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+import norswap.sigh.script.SighCompiledScript;
+import norswap.sigh.script.SighScriptEngine;
+import norswap.sigh.script.SighScriptEngineFactory;
+import org.testng.annotations.Test;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.StringWriter;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public final class ScriptEngineTests
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String COUNTER =
+        "var n: Int = 0\n" +
+        "var log: String = \"\"\n" +
+        "fun inc (k: Int): Int { n = n + k; log = log + k + \";\"; return n }\n" +
+        "print(\"ready\")\n" +
+        "return 42\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    public interface Counter {
+        long inc (long k);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testDiscovery () {
+        ScriptEngine engine = new ScriptEngineManager().getEngineByExtension("si");
+        assertTrue(engine instanceof SighScriptEngine);
+        assertEquals(engine.getFactory().getParameter(ScriptEngine.NAME), "sigh");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testCompiled () throws Exception
+    {
+        SighScriptEngine engine = new SighScriptEngineFactory().getScriptEngine();
+        StringWriter writer = new StringWriter();
+        engine.getContext().setWriter(writer);
+
+        SighCompiledScript script = engine.compile(COUNTER);
+        assertTrue(script.isCompiled());
+        checkCounter(engine, script, writer);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testInterpreted () throws Exception
+    {
+        SighScriptEngine engine = new SighScriptEngineFactory().getScriptEngine();
+        StringWriter writer = new StringWriter();
+        engine.getContext().setWriter(writer);
+
+        // the compiler cannot convert functions to strings
+        SighCompiledScript script = engine.compile(
+            COUNTER.replace("return 42", "var f: String = \"\" + inc\nreturn 42"));
+        assertFalse(script.isCompiled());
+        checkCounter(engine, script, writer);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void checkCounter (SighScriptEngine engine, SighCompiledScript script,
+            StringWriter writer) throws Exception
+    {
+        assertEquals(script.eval(), 42L);
+        assertEquals(writer.toString().trim(), "ready");
+        assertEquals(engine.get("n"), 0L);
+
+        // Integer arguments are accepted for Int
+        assertEquals(engine.invokeFunction("inc", 2), 2L);
+        assertEquals(engine.invokeFunction("inc", 3L), 5L);
+        assertEquals(engine.get("n"), 5L);
+        assertEquals(engine.get("log"), "2;3;");
+
+        // bindings are copied to the top-level variables before calls
+        engine.put("n", 100);
+        assertEquals(engine.getInterface(Counter.class).inc(1), 101L);
+
+        // evaluating again re-initializes the top-level variables
+        assertEquals(script.eval(), 42L);
+        assertEquals(engine.get("n"), 0L);
+        assertEquals(engine.get("log"), "");
+
+        expectThrows(NoSuchMethodException.class, () -> engine.invokeFunction("nope"));
+        expectThrows(ScriptException.class, () -> engine.invokeFunction("inc"));
+
+        // bindings whose value doesn't match the type of the variable are rejected
+        engine.put("n", "a");
+        expectThrows(ScriptException.class, () -> engine.invokeFunction("inc", 1));
+        engine.put("n", null);
+        expectThrows(ScriptException.class, () -> engine.invokeFunction("inc", 1));
+        engine.put("n", 0L);
+        engine.put("log", 1L);
+        expectThrows(ScriptException.class, () -> engine.invokeFunction("inc", 1));
+        engine.put("log", "");
+        assertEquals(engine.invokeFunction("inc", 1), 1L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testErrors () throws Exception
+    {
+        SighScriptEngine engine = new SighScriptEngineFactory().getScriptEngine();
+        expectThrows(ScriptException.class, () -> engine.eval("var x: Int ="));
+        expectThrows(ScriptException.class, () -> engine.eval("var x: Int = \"a\""));
+        expectThrows(NoSuchMethodException.class, () -> engine.invokeFunction("f"));
+        assertNull(engine.getInterface(Counter.class));
+
+        ScriptException error = expectThrows(ScriptException.class, () ->
+            engine.eval("var a: Int[] = [1]; return a[3]"));
+        assertTrue(error.getCause() instanceof ArrayIndexOutOfBoundsException, error.toString());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,5 +1,6 @@
 import norswap.autumn.AutumnTestFixture;
 import norswap.autumn.positions.LineMapString;
+import norswap.sigh.ExternLinker;
 import norswap.sigh.SemanticAnalysis;
 import norswap.sigh.SighGrammar;
 import norswap.sigh.ast.SighNode;
@@ -7,6 +8,7 @@ import norswap.uranium.Reactor;
 import norswap.uranium.UraniumTestFixture;
 import norswap.utils.visitors.Walker;
 import org.testng.annotations.Test;
+import java.util.Arrays;
 
 /**
  * NOTE(norswap): These tests were derived from the {@link InterpreterTests} and
@@ -28,6 +30,10 @@ public final class SemanticAnalysisTests extends UraniumTestFixture {
 
         private String input;
 
+        /** The methods that extern functions may call, see {@link ExternLinker}. */
+        private ExternLinker externs = new ExternLinker(Arrays.asList(
+            "java.lang.Math", "java.util.Arrays.fill", "java.lang.String.concat", "java.lang.Nope"));
+
         @Override
         protected Object parse(String input) {
                 this.input = input;
@@ -44,7 +50,7 @@ public final class SemanticAnalysisTests extends UraniumTestFixture {
 
         @Override
         protected void configureSemanticAnalysis(Reactor reactor, Object ast) {
-                Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+                Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor, externs);
                 walker.walk(((SighNode) ast));
         }
 
@@ -770,5 +776,53 @@ public final class SemanticAnalysisTests extends UraniumTestFixture {
 
         }
 
+        // ---------------------------------------------------------------------------------------------
+
+        @Test public void testExternFunctions() {
+                successInput(
+                    "extern fun sqrt (x: Float): Float = \"java.lang.Math.sqrt\"\n" +
+                    "return sqrt(2.0)");
+                successInput(
+                    "extern fun fill (a: Int[], v: Int) = \"java.util.Arrays.fill\"\n" +
+                    "var xs: Int[] = [1, 2]\n" +
+                    "fill(xs, 0)");
+
+                // unknown class or method, non-static method, mismatched signature
+                failureInputWith(
+                    "extern fun f (x: Float): Float = \"java.lang.Nope.sqrt\"",
+                    "extern class not found: java.lang.Nope");
+                failureInput("extern fun f (x: Float): Float = \"java.lang.Math.nope\"");
+                failureInputWith(
+                    "extern fun f (s: String): String = \"java.lang.String.concat\"",
+                    "extern method is not static: java.lang.String.concat");
+                failureInputWith(
+                    "extern fun f (x: Int): Int = \"java.lang.Math.sqrt\"",
+                    "no public method matching (Int) -> Int in java.lang.Math.sqrt");
+                failureInput("extern fun f (x: Float): Int = \"java.lang.Math.sqrt\"");
+                failureInput("extern fun f (x: Float): Float = \"sqrt\"");
+                failureInput(
+                    "extern fun sqrt (x: Float): Float = \"java.lang.Math.sqrt\"\n" +
+                    "return sqrt(\"a\")");
+
+                // methods not allowed by the linker
+                failureInputWith(
+                    "extern fun exit (status: Int) = \"java.lang.System.exit\"",
+                    "extern target not allowed: java.lang.System.exit");
+                failureInputWith(
+                    "extern fun sort (a: Int[]) = \"java.util.Arrays.sort\"",
+                    "extern target not allowed: java.util.Arrays.sort");
+
+                // extern functions are rejected by default
+                ExternLinker allowed = externs;
+                externs = ExternLinker.NONE;
+                try {
+                        failureInputWith(
+                            "extern fun sqrt (x: Float): Float = \"java.lang.Math.sqrt\"",
+                            "extern target not allowed: java.lang.Math.sqrt");
+                } finally {
+                        externs = allowed;
+                }
+        }
+
 
 }
@@ -0,0 +1,108 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.interpreter.IrImage;
+import norswap.sigh.interpreter.IrInterpreter;
+import norswap.uranium.Reactor;
+import norswap.utils.IO;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Compares the time to get a program ready to run from its source (parsing, semantic analysis
+ * and lowering) with the time to load it from an {@link IrImage}.
+ *
+ * <p>Usage: {@code StartupBenchmark [file.si ...]}. Without arguments, synthetic programs of
+ * increasing size are used.
+ */
+public final class StartupBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int WARMUP = 10;
+    private static final int RUNS = 20;
+
+    private static final SighGrammar grammar = new SighGrammar();
+    private static final ParseOptions options = ParseOptions.builder()
+        .wellFormednessCheck(false)
+        .get();
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args) throws IOException
+    {
+        if (args.length == 0)
+            for (int size: new int[] { 10, 100, 1000 })
+                benchmark(size + " functions", synthetic(size));
+        else
+            for (String file: args)
+                benchmark(file, IO.slurp(file));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** A program declaring {@code size} functions, each calling the previous one. */
+    private static String synthetic (int size) {
+        StringBuilder b = new StringBuilder("fun f0 (x: Int): Int { return x }\n");
+        for (int i = 1; i < size; ++i)
+            b.append("fun f").append(i).append(" (x: Int): Int { var y: Int = x + ").append(i)
+             .append("; if (y > 0) return f").append(i - 1).append("(y) else return 0 }\n");
+        return b.append("return f").append(size - 1).append("(1)\n").toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static IrImage compile (String source) {
+        RootNode root = Autumn.parse(grammar.root, source, options).topValue();
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor).walk(root);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+        return IrImage.compile(reactor, root, source);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void benchmark (String name, String source) throws IOException
+    {
+        Path path = Files.createTempFile("sigh", ".img");
+        try {
+            compile(source).write(path);
+
+            long[] cold = new long[RUNS];
+            long[] warm = new long[RUNS];
+            for (int i = -WARMUP; i < RUNS; ++i) {
+                long start = System.nanoTime();
+                compile(source);
+                long middle = System.nanoTime();
+                IrImage.read(path);
+                long end = System.nanoTime();
+                if (i >= 0) {
+                    cold[i] = middle - start;
+                    warm[i] = end - middle;
+                }
+            }
+
+            Object result = new IrInterpreter(null).run(IrImage.read(path));
+            System.out.printf("%-20s image: %7d bytes   cold: %8.3f ms   warm: %8.3f ms   (result: %s)%n",
+                name, Files.size(path), median(cold) / 1e6, median(warm) / 1e6, result);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long median (long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,85 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.uranium.Reactor;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+
+/**
+ * Compiles, loads and runs many programs, each in its own class loader, and reports how much the
+ * metaspace grew and how many classes were unloaded. Every program declares a struct, so it
+ * loads two classes.
+ *
+ * <p>When compiled programs are collected, the growth stays bounded and the number of unloaded
+ * classes tracks the number of programs.
+ */
+public final class UnloadingBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int PROGRAMS = 100_000;
+
+    private static final String SOURCE =
+        "struct Point { var x: Int ; var y: Int }\n" +
+        "var p: Point = $Point(1, 2)\n" +
+        "return p.x + p.y\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args)
+    {
+        Reactor reactor = new Reactor();
+        RootNode root = analyze(SOURCE, reactor);
+
+        MemoryPoolMXBean metaspace = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(it -> it.getName().equals("Metaspace"))
+            .findFirst().orElseThrow(() -> new AssertionError("no metaspace pool"));
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+
+        System.gc();
+        long usedBefore = metaspace.getUsage().getUsed();
+        long unloadedBefore = classLoading.getUnloadedClassCount();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < PROGRAMS; ++i) {
+            CompilationResult result = new BytecodeCompiler(reactor).compile(root);
+            if (!Long.valueOf(3L).equals(CompilationResult.callRun(result.load())))
+                throw new AssertionError("wrong result");
+            if (i % 10_000 == 0) System.gc();
+        }
+
+        long time = System.nanoTime() - start;
+        System.gc();
+        long growth = metaspace.getUsage().getUsed() - usedBefore;
+        long unloaded = classLoading.getUnloadedClassCount() - unloadedBefore;
+
+        System.out.printf("%d programs in %.2f s%n", PROGRAMS, time / 1e9);
+        System.out.printf("metaspace growth: %.2f MiB%n", growth / (1024.0 * 1024));
+        System.out.printf("unloaded classes: %d%n", unloaded);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static RootNode analyze (String source, Reactor reactor)
+    {
+        ParseOptions options = ParseOptions.builder().wellFormednessCheck(false).get();
+        ParseResult result = Autumn.parse(new SighGrammar().root, source, options);
+        if (!result.fullMatch)
+            throw new AssertionError(result.toString());
+
+        RootNode root = result.topValue();
+        SemanticAnalysis.createWalker(reactor).walk(root);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+        return root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}